@@ -11,14 +11,16 @@ import domainapp.basics.model.meta.DAttr;
 import domainapp.basics.model.meta.DAttr.Type;
 import domainapp.basics.model.meta.DClass;
 import domainapp.basics.model.meta.DOpt;
-import domainapp.basics.util.Tuple;
-import domainapp.basics.util.cache.StateHistory;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.text.ParseException;
 import model.Customer;
+import model.Preserver;
 import model.Seafood;
+import model.index.DIndex;
 import model.reports.ExportSeafoodByDateReport;
+import model.util.Dates;
+import model.util.Fixed;
+import model.util.IdAllocator;
+import model.util.IdCounter;
 
 /**
  * Represents an Export Seafood
@@ -31,9 +33,11 @@ public class ExportSeafood implements Comparable {
 	
 	public static final String A_Id = "id";
 	public static final String A_Customer = "customer";
+	public static final String A_Preserver = "preserver";
 	public static final String A_Quantity = "quantity";
 	public static final String A_Price = "price";
 	public static final String A_Date = "date";
+	public static final String A_DateDay = "dateDay";
 	public static final String A_Total = "total";
 	public static final String A_rptExportSeafoodByDate = "rptExportSeafoodByDate";
 	//public static final String A_rptExportSeafoodByPrice = "rptExportSeafoodByPrice";
@@ -41,33 +45,50 @@ public class ExportSeafood implements Comparable {
   // attributes
   @DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
   private int id;
-  private static int idCounter = 0;
+  private static final IdCounter idCounter = IdAllocator.counterFor(ExportSeafood.class);
 
   @DAttr(name = "seafood", type = Type.Domain, length = 5, optional = false)
+  @DIndex
   @DAssoc(ascName = "seafood-has-export", role = "export", 
     ascType = AssocType.One2Many, endType = AssocEndType.Many, 
     associate = @Associate(type = Seafood.class, cardMin = 1, cardMax = 1), dependsOn = true)
   private Seafood seafood;
 
   @DAttr(name = "customer", type = Type.Domain, length = 5, optional = false)
+  @DIndex
   @DAssoc(ascName = "customer-has-export", role = "export", 
     ascType = AssocType.One2Many, endType = AssocEndType.Many, 
     associate = @Associate(type = Customer.class, cardMin = 1, cardMax = 1), dependsOn = true)
   private Customer customer;
 
+  // the preserver the seafood is taken from (null for the exports stored before it was recorded)
+  @DAttr(name = A_Preserver, type = Type.Domain, length = 20, optional = false)
+  @DIndex
+  @DAssoc(ascName = "exSeafood-has-preser", role = "exSeafood", 
+    ascType = AssocType.One2Many, endType = AssocEndType.Many, 
+    associate = @Associate(type = Preserver.class, cardMin = 1, cardMax = 1), dependsOn = true)
+  private Preserver preserver;
+
+  // the numbers are kept in thousandths (see Fixed), Fixed.NONE if not set
   @DAttr(name = A_Quantity, type = Type.Double, length = 4, optional = false, min = 0.0)
-  private Double quantity;
+  private long quantity;
   
   @DAttr(name = A_Price, type = Type.Double, length = 4, optional = false, min = 0.0)
-  private Double price;
+  private long price;
 
-  @DAttr(name = A_Date,type = Type.String,length = 20, optional = false )
+  // the date string is shown to the user, its epoch day is stored in the data source 
+  @DAttr(name = A_Date,type = Type.String,length = 20, optional = false, serialisable = false)
   private String date;
+  
+  @DAttr(name = A_DateDay, type = Type.Integer, auto = true, mutable = false, optional = false, 
+      derivedFrom = {A_Date})
+  @DIndex(with = {A_Id})
+  private Integer dateDay;
   // v2.6.4.b derived from two attributes
   @DAttr(name = A_Total,type=Type.Double,auto=true,mutable = false,optional = true,
       serialisable=false,
       derivedFrom={A_Quantity, A_Price})
-  private Double total;
+  private long total;
   
   @DAttr(name = A_rptExportSeafoodByDate, type = Type.Domain, serialisable = false,
 			// IMPORTANT: set virtual=true to exclude this attribute from the object state
@@ -76,41 +97,49 @@ public class ExportSeafood implements Comparable {
   private ExportSeafoodByDateReport rptExportSeafoodByDate;
 
 
-  // v2.6.4.b
-  private StateHistory<String, Object> stateHist;
+  // v2.6.4.b: the total before the last update of total (cached), Fixed.NONE if none
+  private long cachedTotal;
 
   // constructor method
   @DOpt(type=DOpt.Type.ObjectFormConstructor)
   @DOpt(type=DOpt.Type.RequiredConstructor)
   public ExportSeafood(@AttrRef("seafood") Seafood s, 
-      @AttrRef("customer") Customer m) throws ConstraintViolationException, ParseException {
-    this(null, s, m, 0.0, 0.0,null);
+      @AttrRef("customer") Customer m, @AttrRef("preserver") Preserver p) throws ConstraintViolationException, ParseException {
+    this(null, s, m, p, 0.0, 0.0,(String) null);
   }
 
   @DOpt(type=DOpt.Type.ObjectFormConstructor)
   public ExportSeafood(@AttrRef("seafood") Seafood s, 
       @AttrRef("customer") Customer m, 
+      @AttrRef("preserver") Preserver p,
       @AttrRef("quantity") Double quantity, 
       @AttrRef("price") Double price,
       @AttrRef("date") String date)
       throws ConstraintViolationException, ParseException {
-    this(null, s, m, quantity, price,date);
+    this(null, s, m, p, quantity, price,date);
   }
 
   // @version 2.0
-  @DOpt(type=DOpt.Type.DataSourceConstructor)
-  public ExportSeafood(Integer id, Seafood s, Customer m, Double quantity,
+  public ExportSeafood(Integer id, Seafood s, Customer m, Preserver p, Double quantity,
       Double price, String date) throws ConstraintViolationException, ParseException {
+    this(id, s, m, p, quantity, price, Dates.toEpochDay(date));
+  }
+  
+  @DOpt(type=DOpt.Type.DataSourceConstructor)
+  public ExportSeafood(Integer id, Seafood s, Customer m, Preserver p, Double quantity,
+      Double price, Integer dateDay) throws ConstraintViolationException {
     this.id = nextID(id);
     this.seafood = s;
     this.customer = m;
-    this.quantity = (quantity != null) ? quantity.doubleValue()
-        : null;
-    this.price = (price != null) ? price.doubleValue() : null;
-    this.date = checkDate(date);
+    this.preserver = p;
+    this.quantity = Fixed.of(quantity);
+    this.price = Fixed.of(price);
+    this.total = Fixed.NONE;
+    this.dateDay = dateDay;
+    this.date = (dateDay != null) ? Dates.format(dateDay) : null;
 
     // v2.6.4.b
-    stateHist = new StateHistory<>();
+    cachedTotal = Fixed.NONE;
     updateTotal(); 
   }
   
@@ -123,14 +152,6 @@ public class ExportSeafood implements Comparable {
   //}
 
 
-  private String checkDate(String date) throws ParseException  {
-	  DateFormat format = new SimpleDateFormat("dd/MM/yyyy");
-	  format.setLenient(false);
-	  format.parse(date);
-	  
-	  return date;
-  }
-
 // setter methods
   public void setSeafood(Seafood s) {
     this.seafood = s;
@@ -140,16 +161,28 @@ public class ExportSeafood implements Comparable {
     this.customer = m;
   }
 
+  public void setPreserver(Preserver p) {
+    this.preserver = p;
+  }
+
   public void setQuantity(Double quan) {
-    this.quantity = quan;
+    this.quantity = Fixed.of(quan);
       updateTotal(); 
   }
 
   public void setPrice(Double price) {
-    this.price = price;
+    this.price = Fixed.of(price);
       updateTotal(); 
   }
-  public void setDate(String date) {
+  public void setDate(String date) throws ConstraintViolationException {
+	  int day;
+	  try {
+		  day = Dates.toEpochDay(date);
+	  } catch (ParseException e) {
+		  throw new ConstraintViolationException(
+				  ConstraintViolationException.Code.INVALID_VALUE, e, new Object[] { date });
+	  }
+	  this.dateDay = day;
 	  this.date = date;
   }
 
@@ -157,13 +190,11 @@ public class ExportSeafood implements Comparable {
   @AttrRef(value=A_Total)
   public void updateTotal() {
 
-    if (quantity != null && price != null) {
-      double totalPrice =  quantity * price;
+    if (quantity != Fixed.NONE && price != Fixed.NONE) {
+      long totalPrice = Fixed.times(quantity, price);
       
       // v2.6.4b: cache final mark
-      stateHist.put(A_Total, total);
-
-      // round the mark to the closest integer value
+      cachedTotal = total;
       total = totalPrice;
     }
   }
@@ -181,17 +212,39 @@ public class ExportSeafood implements Comparable {
     return customer;
   }
 
+  public Preserver getPreserver() {
+    return preserver;
+  }
+
   public Double getQuantity() {
-    return quantity;
+    return Fixed.toDoubleOrNull(quantity);
   }
 
   public Double getPrice() {
-    return price;
+    return Fixed.toDoubleOrNull(price);
+  }
+  
+  /**
+   * @effects return the quantity in thousandths (see {@link Fixed}), or {@link Fixed#NONE}
+   */
+  public long getQuantityFixed() {
+    return quantity;
+  }
+  
+  /**
+   * @effects return the total in thousandths (see {@link Fixed}), 0 if it is not set
+   */
+  public long getTotalFixed() {
+    return (total != Fixed.NONE) ? total : 0;
   }
   public String getDate() {
 	  return date;
   }
   
+  public Integer getDateDay() {
+	  return dateDay;
+  }
+  
   // v2.6.4.b
   public Double getTotal() {
     return getTotal(false);// finalMark;
@@ -200,16 +253,12 @@ public class ExportSeafood implements Comparable {
   
   public Double getTotal(boolean cached) throws IllegalStateException {
     if (cached) {
-      Object val = stateHist.get(A_Total);
-      if (val == null)
+      if (cachedTotal == Fixed.NONE)
         throw new IllegalStateException(
             "Enrolment.getFinalMark: cached value is null");
-      return (Double) val;
+      return Fixed.toDouble(cachedTotal);
     } else {
-      if (total != null)
-        return total;
-      else
-        return 0.0;
+      return Fixed.toDouble(getTotalFixed());
     }
 
   }
@@ -222,7 +271,7 @@ public class ExportSeafood implements Comparable {
 
   public String toString(boolean full) {
     if (full)
-      return "Enrolment(" + seafood + "," + customer + ")";
+      return "Enrolment(" + seafood + "," + customer + "," + preserver + ")";
     else
       return "Enrolment(" + getId() + "," + seafood.getId() + ","
           + customer.getId() + ")";
@@ -252,8 +301,7 @@ public class ExportSeafood implements Comparable {
 
   private static int nextID(Integer currID) {
     if (currID == null) { // generate one
-      idCounter++;
-      return idCounter;
+      return idCounter.next();
     } else { // update
       int num;
       num = currID.intValue();
@@ -264,34 +312,11 @@ public class ExportSeafood implements Comparable {
       // "Invalid attribute value ID: {0}", num + "<=" + idCounter);
       // }
 
-      if (num > idCounter) {
-        idCounter = num;
-      }
+      idCounter.update(num);
       return currID;
     }
   }
 
-  /**
-   * @requires minVal != null /\ maxVal != null
-   * @effects update the auto-generated value of attribute <tt>attrib</tt>,
-   *          specified for <tt>derivingValue</tt>, using
-   *          <tt>minVal, maxVal</tt>
-   */
-  @DOpt(type = DOpt.Type.AutoAttributeValueSynchroniser)
-  public static void updateAutoGeneratedValue(DAttr attrib,
-      Tuple derivingValue, Object minVal, Object maxVal)
-      throws ConstraintViolationException {
-    if (minVal != null && maxVal != null) {
-      // check the right attribute
-      if (attrib.name().equals("id")) {
-        int maxIdVal = (Integer) maxVal;
-        if (maxIdVal > idCounter)
-          idCounter = maxIdVal;
-      }
-      // TODO add support for other attributes here
-    }
-  }
-
   // private static int nextID(Integer currID) {
   // if (currID == null) { // generate one
   // idCounter++;
@@ -10,17 +10,18 @@ import domainapp.basics.model.meta.DAttr;
 import domainapp.basics.model.meta.DAttr.Type;
 import domainapp.basics.model.meta.DClass;
 import domainapp.basics.model.meta.DOpt;
-import domainapp.basics.util.Tuple;
-import domainapp.basics.util.cache.StateHistory;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.text.ParseException;
 
 import model.Country;
 import model.Customer;
 import model.Preserver;
 import model.Seafood;
+import model.index.DIndex;
 import model.reports.ImportSeafoodByDateReport;
+import model.util.Dates;
+import model.util.Fixed;
+import model.util.IdAllocator;
+import model.util.IdCounter;
 
 /**
  * Represents an Import Seafood
@@ -37,6 +38,7 @@ public class ImportSeafood implements Comparable {
   public static final String A_Quantity = "quantity";
   public static final String A_Price = "price";
   public static final String A_Date = "date";
+  public static final String A_DateDay = "dateDay";
   public static final String A_Total = "total";
   public static final String A_rptImportSeafoodByDate = "rptImportSeafoodByDate";
   //public static final String A_rptImportSeafoodByPrice = "rptImportSeafoodByPrice";
@@ -44,39 +46,49 @@ public class ImportSeafood implements Comparable {
   // attributes
   @DAttr(name = A_Id, id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
   private int id;
-  private static int idCounter = 0;
+  private static final IdCounter idCounter = IdAllocator.counterFor(ImportSeafood.class);
 
   @DAttr(name = "seafood", type = Type.Domain, length = 5, optional = false)
+  @DIndex
   @DAssoc(ascName = "seafood-has-import", role = "import", 
     ascType = AssocType.One2Many, endType = AssocEndType.Many, 
     associate = @Associate(type = Seafood.class, cardMin = 1, cardMax = 1), dependsOn = true)
   private Seafood seafood;
   
   @DAttr(name = A_Preserver, type = Type.Domain, length = 20, optional = false)
+  @DIndex
   @DAssoc(ascName = "imSeafood-has-preser", role = "imSeafood", 
   ascType = AssocType.One2Many, endType = AssocEndType.Many, 
   associate = @Associate(type = Country.class, cardMin = 1, cardMax = 1),dependsOn = true)
   private Preserver preserver;
   
   @DAttr(name = A_Customer, type = Type.Domain, length = 5, optional = false)
+  @DIndex
   @DAssoc(ascName = "customer-has-import", role = "import", 
     ascType = AssocType.One2Many, endType = AssocEndType.Many, 
     associate = @Associate(type = Customer.class, cardMin = 1, cardMax = 1), dependsOn = true)
   private Customer customer;
 
+  // the numbers are kept in thousandths (see Fixed), Fixed.NONE if not set
   @DAttr(name = A_Quantity, type = Type.Double, length = 4, optional = false, min = 0.0)
-  private Double quantity;
+  private long quantity;
   
   @DAttr(name = A_Price, type = Type.Double, length = 4, optional = false, min = 0.0)
-  private Double price;
+  private long price;
 
-  @DAttr(name = A_Date,type = Type.String,length = 20, optional = false )
+  // the date string is shown to the user, its epoch day is stored in the data source 
+  @DAttr(name = A_Date,type = Type.String,length = 20, optional = false, serialisable = false)
   private String date;
+  
+  @DAttr(name = A_DateDay, type = Type.Integer, auto = true, mutable = false, optional = false, 
+      derivedFrom = {A_Date})
+  @DIndex(with = {A_Id})
+  private Integer dateDay;
   // v2.6.4.b derived from two attributes
   @DAttr(name = A_Total,type=Type.Double,auto=true,mutable = false,optional = true,
       serialisable=false,
       derivedFrom={A_Quantity, A_Price})
-  private Double total;
+  private long total;
   
   @DAttr(name = A_rptImportSeafoodByDate, type = Type.Domain, serialisable = false,
 			// IMPORTANT: set virtual=true to exclude this attribute from the object state
@@ -84,15 +96,15 @@ public class ImportSeafood implements Comparable {
 			virtual = true)
   private ImportSeafoodByDateReport rptImportSeafoodByDate;
 
-  // v2.6.4.b
-  private StateHistory<String, Object> stateHist;
+  // v2.6.4.b: the total before the last update of total (cached), Fixed.NONE if none
+  private long cachedTotal;
 
   // constructor method
   @DOpt(type=DOpt.Type.ObjectFormConstructor)
   @DOpt(type=DOpt.Type.RequiredConstructor)
   public ImportSeafood(@AttrRef("seafood") Seafood s, 
       @AttrRef("customer") Customer m, @AttrRef("preserver") Preserver p) throws ConstraintViolationException, ParseException {
-    this(null, s, m,p, 0.0, 0.0,null);
+    this(null, s, m,p, 0.0, 0.0,(String) null);
   }
 
   @DOpt(type=DOpt.Type.ObjectFormConstructor)
@@ -107,19 +119,25 @@ public class ImportSeafood implements Comparable {
   }
 
   // @version 2.0
-  @DOpt(type=DOpt.Type.DataSourceConstructor)
   public ImportSeafood(Integer id, Seafood s, Customer m,Preserver p, Double quantity,
       Double price, String date) throws ConstraintViolationException, ParseException {
+    this(id, s, m, p, quantity, price, Dates.toEpochDay(date));
+  }
+  
+  @DOpt(type=DOpt.Type.DataSourceConstructor)
+  public ImportSeafood(Integer id, Seafood s, Customer m,Preserver p, Double quantity,
+      Double price, Integer dateDay) throws ConstraintViolationException {
     this.id = nextID(id);
     this.seafood = s;
     this.customer = m;
     this.preserver = p;
-    this.quantity = (quantity != null) ? quantity.doubleValue()
-        : null;
-    this.price = (price != null) ? price.doubleValue() : null;
-    this.date = checkDate(date);
+    this.quantity = Fixed.of(quantity);
+    this.price = Fixed.of(price);
+    this.total = Fixed.NONE;
+    this.dateDay = dateDay;
+    this.date = (dateDay != null) ? Dates.format(dateDay) : null;
     // v2.6.4.b
-    stateHist = new StateHistory<>();
+    cachedTotal = Fixed.NONE;
     updateTotal(); 
   }
   public ImportSeafoodByDateReport getRptImportSeafoodByDate() {
@@ -130,14 +148,6 @@ public class ImportSeafood implements Comparable {
 	//  return rptImportSeafoodByPrice;
   //}
 
-  private String checkDate(String date) throws ParseException  {
-	  DateFormat format = new SimpleDateFormat("dd/MM/yyyy");
-	  format.setLenient(false);
-	  format.parse(date);
-	  
-	 return date;
-}
-
 // setter methods
   public void setSeafood(Seafood s) {
     this.seafood = s;
@@ -151,15 +161,23 @@ public class ImportSeafood implements Comparable {
 	  this.preserver = p;
   }
   public void setQuantity(Double quan) {
-    this.quantity = quan;
+    this.quantity = Fixed.of(quan);
       updateTotal(); 
   }
 
   public void setPrice(Double price) {
-    this.price = price;
+    this.price = Fixed.of(price);
       updateTotal(); 
   }
-  public void setDate(String date) {
+  public void setDate(String date) throws ConstraintViolationException {
+	  int day;
+	  try {
+		  day = Dates.toEpochDay(date);
+	  } catch (ParseException e) {
+		  throw new ConstraintViolationException(
+				  ConstraintViolationException.Code.INVALID_VALUE, e, new Object[] { date });
+	  }
+	  this.dateDay = day;
 	  this.date = date;
   }
 
@@ -167,13 +185,11 @@ public class ImportSeafood implements Comparable {
   @AttrRef(value=A_Total)
   public void updateTotal() {
 
-    if (quantity != null && price != null) {
-      double totalPrice =  quantity * price;
+    if (quantity != Fixed.NONE && price != Fixed.NONE) {
+      long totalPrice = Fixed.times(quantity, price);
       
       // v2.6.4b: cache final mark
-      stateHist.put(A_Total, total);
-
-      // round the mark to the closest integer value
+      cachedTotal = total;
       total = totalPrice;
     }
   }
@@ -195,16 +211,34 @@ public class ImportSeafood implements Comparable {
   }
 
   public Double getQuantity() {
-    return quantity;
+    return Fixed.toDoubleOrNull(quantity);
   }
 
   public Double getPrice() {
-    return price;
+    return Fixed.toDoubleOrNull(price);
+  }
+  
+  /**
+   * @effects return the quantity in thousandths (see {@link Fixed}), or {@link Fixed#NONE}
+   */
+  public long getQuantityFixed() {
+    return quantity;
+  }
+  
+  /**
+   * @effects return the total in thousandths (see {@link Fixed}), 0 if it is not set
+   */
+  public long getTotalFixed() {
+    return (total != Fixed.NONE) ? total : 0;
   }
   public String getDate() {
 	  return date;
   }
   
+  public Integer getDateDay() {
+	  return dateDay;
+  }
+  
   
 //  public ImportSeafoodByPriceReport getRptImportSeafoodByPrice() {
 //	  return rptImportSeafoodByPrice;
@@ -218,16 +252,12 @@ public class ImportSeafood implements Comparable {
   
   public Double getTotal(boolean cached) throws IllegalStateException {
     if (cached) {
-      Object val = stateHist.get(A_Total);
-      if (val == null)
+      if (cachedTotal == Fixed.NONE)
         throw new IllegalStateException(
             "Enrolment.getFinalMark: cached value is null");
-      return (Double) val;
+      return Fixed.toDouble(cachedTotal);
     } else {
-      if (total != null)
-        return total;
-      else
-        return 0.0;
+      return Fixed.toDouble(getTotalFixed());
     }
 
   }
@@ -270,8 +300,7 @@ public class ImportSeafood implements Comparable {
 
   private static int nextID(Integer currID) {
     if (currID == null) { // generate one
-      idCounter++;
-      return idCounter;
+      return idCounter.next();
     } else { // update
       int num;
       num = currID.intValue();
@@ -282,34 +311,11 @@ public class ImportSeafood implements Comparable {
       // "Lỗi giá trị thuộc tính ID: {0}", num + "<=" + idCounter);
       // }
 
-      if (num > idCounter) {
-        idCounter = num;
-      }
+      idCounter.update(num);
       return currID;
     }
   }
 
-  /**
-   * @requires minVal != null /\ maxVal != null
-   * @effects update the auto-generated value of attribute <tt>attrib</tt>,
-   *          specified for <tt>derivingValue</tt>, using
-   *          <tt>minVal, maxVal</tt>
-   */
-  @DOpt(type = DOpt.Type.AutoAttributeValueSynchroniser)
-  public static void updateAutoGeneratedValue(DAttr attrib,
-      Tuple derivingValue, Object minVal, Object maxVal)
-      throws ConstraintViolationException {
-    if (minVal != null && maxVal != null) {
-      // check the right attribute
-      if (attrib.name().equals("id")) {
-        int maxIdVal = (Integer) maxVal;
-        if (maxIdVal > idCounter)
-          idCounter = maxIdVal;
-      }
-      // TODO add support for other attributes here
-    }
-  }
-
 
   // implements Comparable interface
   public int compareTo(Object o) {
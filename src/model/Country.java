@@ -1,9 +1,7 @@
 package model;
 
-import java.util.ArrayList;
 import java.util.Collection;
 
-import domainapp.basics.exceptions.ConstraintViolationException;
 import domainapp.basics.model.meta.AttrRef;
 import domainapp.basics.model.meta.DAssoc;
 import domainapp.basics.model.meta.DAttr;
@@ -14,9 +12,11 @@ import domainapp.basics.model.meta.DAssoc.AssocType;
 import domainapp.basics.model.meta.DAssoc.Associate;
 import domainapp.basics.model.meta.DAttr.Type;
 import domainapp.basics.model.meta.DClass;
-import domainapp.basics.util.Tuple;
 
 import model.Customer;
+import model.util.IdAllocator;
+import model.util.IdCounter;
+import model.util.LazyCollection;
 
 /**
  * @overview represent a country (a ForeignSeafood's origin)
@@ -29,7 +29,7 @@ public class Country {
 	// attributes
 	@DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 3, mutable = false, optional = false)
 	private int id;
-	private static int idCounter = 0;
+	private static final IdCounter idCounter = IdAllocator.counterFor(Country.class);
 
 	@DAttr(name = "name", type = Type.String, length = 35, optional = false)
 	private String name;
@@ -38,13 +38,19 @@ public class Country {
 	@DAssoc(ascName="foreignseafood-has-country",role="country",
 	ascType=AssocType.One2Many, endType=AssocEndType.One,
 	associate=@Associate(type=ForeignSeafood.class,cardMin=1,cardMax=MetaConstants.CARD_MORE))
-	private Collection<ForeignSeafood> fseafoods;
+	private LazyCollection<ForeignSeafood> fseafoods;
 	
 	@DAttr(name="customer",type=Type.Domain,serialisable=false)
 	@DAssoc(ascName="customer-has-country",role="country",
 	ascType=AssocType.One2Many, endType=AssocEndType.One,
 	associate=@Associate(type=Customer.class,cardMin=1,cardMax=MetaConstants.CARD_MORE))
-	private Collection<Customer> customers;
+	private LazyCollection<Customer> customers;
+	
+	// the associations are loaded when they are first accessed (see LazyCollection)
+	private static final LazyCollection.Association<ForeignSeafood> FSEAFOODS = 
+			new LazyCollection.Association<>(ForeignSeafood.class, ForeignSeafood.A_country, "id", Seafood.A_id);
+	private static final LazyCollection.Association<Customer> CUSTOMERS = 
+			new LazyCollection.Association<>(Customer.class, Customer.A_address, "id", Customer.A_id);
 
 	@DOpt(type = DOpt.Type.DataSourceConstructor)
 	public Country(@AttrRef("id") Integer id, @AttrRef("name") String name) {
@@ -67,39 +73,27 @@ public class Country {
 	private Country(Integer id, String cityName, Collection<ForeignSeafood> fseafood, Collection<Customer> customer) {
 		this.id = nextId(id);
 		this.name = cityName;
-		fseafoods = new ArrayList<>();
-		customers = new ArrayList<>();
+		if (id == null) {
+			// a new country: nothing is stored
+			fseafoods = FSEAFOODS.of(this.id, fseafood);
+			customers = CUSTOMERS.of(this.id, customer);
+		} else {
+			fseafoods = FSEAFOODS.of(this.id);
+			customers = CUSTOMERS.of(this.id);
+		}
 	}
 
 	private static int nextId(Integer currID) {
 		if (currID == null) {
-			idCounter++;
-			return idCounter;
+			return idCounter.next();
 		} else {
 			int num = currID.intValue();
-			if (num > idCounter)
-				idCounter = num;
+			idCounter.update(num);
 
 			return currID;
 		}
 	}
 
-	/**
-	 * @requires minVal != null /\ maxVal != null
-	 * @effects update the auto-generated value of attribute <tt>attrib</tt>,
-	 *          specified for <tt>derivingValue</tt>, using <tt>minVal, maxVal</tt>
-	 */
-	@DOpt(type = DOpt.Type.AutoAttributeValueSynchroniser)
-	public static void updateAutoGeneratedValue(DAttr attrib, Tuple derivingValue, Object minVal, Object maxVal)
-			throws ConstraintViolationException {
-
-		if (minVal != null && maxVal != null) {
-			int maxIdVal = (Integer) maxVal;
-			if (maxIdVal > idCounter)
-				idCounter = maxIdVal;
-		}
-	}
-
 	public void setName(String name) {
 		this.name = name;
 	}
@@ -120,24 +114,38 @@ public class Country {
 		return customers;
 	}
 	
+	/**
+	 * @effects return the number of foreign seafoods (they are not loaded if they are not yet)
+	 */
+	public int getFSeafoodCount() {
+		return fseafoods.count();
+	}
+	
+	/**
+	 * @effects return the number of customers (they are not loaded if they are not yet)
+	 */
+	public int getCustomerCount() {
+		return customers.count();
+	}
+	
 	@DOpt(type = DOpt.Type.LinkAdderNew)
 	public void setNewFSeafoods(Collection<ForeignSeafood> fseafoods) {
-		this.fseafoods = fseafoods;
+		this.fseafoods = FSEAFOODS.of(id, fseafoods);
 		// do other updates here (if needed)
 	}
 
 	public void setFSeafoods(Collection<ForeignSeafood> fseafoods) {
-		this.fseafoods = fseafoods;
+		this.fseafoods = FSEAFOODS.of(id, fseafoods);
 	}
 	
 	@DOpt(type = DOpt.Type.LinkAdderNew)
 	public void setNewCustomer(Collection<Customer> customer) {
-		this.customers = customer;
+		this.customers = CUSTOMERS.of(id, customer);
 		// do other updates here (if needed)
 	}
 
 	public void setCustomer(Collection<Customer> customer) {
-		this.customers = customer;
+		this.customers = CUSTOMERS.of(id, customer);
 	}
 	
 
@@ -1,6 +1,5 @@
 package model;
 
-import java.util.ArrayList;
 import java.util.Collection;
 
 import domainapp.basics.exceptions.ConstraintViolationException;
@@ -14,9 +13,13 @@ import domainapp.basics.model.meta.DAttr.Type;
 import domainapp.basics.model.meta.DClass;
 import domainapp.basics.model.meta.DOpt;
 import domainapp.basics.model.meta.MetaConstants;
-import domainapp.basics.util.Tuple;
 import model.Country;
 import model.reports.CustomerByNameReport;
+import model.index.DIndex;
+import model.stats.CustomerStats;
+import model.util.IdAllocator;
+import model.util.IdCounter;
+import model.util.LazyCollection;
 
 /**
  * Represents a customer. The customer ID is auto-incremented
@@ -36,15 +39,18 @@ public abstract class Customer {
 	@DAttr(name = A_id, id = true, type = Type.String, auto = true, length = 6, mutable = false, optional = false)
 	private String id;
 	// static variable to keep track of customer id
-	private static int idCounter = 0;
+	private static final IdCounter idCounter = IdAllocator.counterFor(Customer.class, "C");
 
 	@DAttr(name = A_name, type = Type.String, length = 30, optional = false)
+	@DIndex
 	private String name;
 
 	@DAttr(name = A_phone, type = Type.String, length = 15, optional = false)
+	@DIndex
 	private String phone;
 
 	@DAttr(name = A_address, type = Type.Domain, length = 20, optional = true)
+	@DIndex
 	@DAssoc(ascName = "customer-has-country", role = "customer", 
 	ascType = AssocType.One2One, endType = AssocEndType.One, 
 	associate = @Associate(type = Country.class, cardMin = 1, cardMax = 1))
@@ -53,8 +59,12 @@ public abstract class Customer {
 	@DAttr(name="bill",type=Type.Domain,serialisable=false)
 	@DAssoc(ascName="bill-has-customer",role="customer",
 	ascType=AssocType.One2Many, endType=AssocEndType.One,
-	associate=@Associate(type=Seafood.class,cardMin=1,cardMax=MetaConstants.CARD_MORE))
-	private Collection<SeafoodBill> bills;
+	associate=@Associate(type=SeafoodBill.class,cardMin=1,cardMax=MetaConstants.CARD_MORE))
+	private LazyCollection<SeafoodBill> bills;
+	
+	// the bills are loaded when they are first accessed (see LazyCollection)
+	private static final LazyCollection.Association<SeafoodBill> BILLS = 
+			new LazyCollection.Association<>(SeafoodBill.class, SeafoodBill.A_customer, A_id, SeafoodBill.A_billNo);
 	
 	@DAttr(name = A_email, type = Type.String, length = 30, optional = false)
 	private String email;
@@ -96,7 +106,8 @@ public abstract class Customer {
 			this.phone = phone;
 			this.address = address;
 			this.email = email;
-			bills = new ArrayList<>();
+			// a new customer has nothing stored
+			bills = (id == null || bill != null) ? BILLS.of(this.id, bill) : BILLS.of(this.id);
 			
 	}
 
@@ -123,11 +134,38 @@ public abstract class Customer {
 
 	@DOpt(type = DOpt.Type.LinkAdderNew)
 	public void setNewSeafoodBill(Collection<SeafoodBill> bill) {
-		this.bills = bill;
+		this.bills = BILLS.of(id, bill);
 		// do other updates here (if needed)
 	}
 	public void setSeafoodBill(Collection<SeafoodBill> bill) {
-		this.bills = bill;
+		this.bills = BILLS.of(id, bill);
+	}
+
+	@DOpt(type = DOpt.Type.LinkAdder)
+	public boolean addSeafoodBill(SeafoodBill b) {
+		// the bills are a set: this does not load them
+		bills.add(b);
+		return false;
+	}
+
+	@DOpt(type = DOpt.Type.LinkAdderNew)
+	public boolean addNewSeafoodBill(SeafoodBill b) {
+		bills.add(b);
+		return false;
+	}
+
+	/**
+	 * @effects 
+	 *  remove <tt>b</tt> from the bills of this; 
+	 *  if <tt>b</tt> is deleted (i.e. it still refers to this) 
+	 *    remove it from the purchase totals of this
+	 */
+	@DOpt(type = DOpt.Type.LinkRemover)
+	public boolean removeSeafoodBill(SeafoodBill b) {
+		bills.remove(b);
+		if (b.getCustomer() == this)
+			CustomerStats.getInstance().billChanged(b, -1);
+		return false;
 	}
 
 	// getter methods
@@ -153,6 +191,13 @@ public abstract class Customer {
 	public Collection<SeafoodBill> getSeafoodBill() {
 		return bills;
 	}
+	
+	/**
+	 * @effects return the number of bills (they are not loaded if they are not yet)
+	 */
+	public int getSeafoodBillCount() {
+		return bills.count();
+	}
 
 
 	// override toString
@@ -203,52 +248,10 @@ public abstract class Customer {
 	private String nextID(String id) throws ConstraintViolationException {
 		if (id == null) {
 			// generate a new id
-			idCounter++;
-			if (idCounter >= 10) {
-				return "C" + idCounter;
-			} else {
-				return "C0" + idCounter;
-			}
+			return idCounter.nextCode("C");
 		} else {
 			// update id
-			int num;
-			try {
-				num = Integer.parseInt(id.substring(1));
-			} catch (RuntimeException e) {
-				throw new ConstraintViolationException(ConstraintViolationException.Code.INVALID_VALUE, e,
-						new Object[] { id });
-			}
-
-			if (num > idCounter) {
-				idCounter = num;
-			}
-
-			return id;
-		}
-	}
-
-	/**
-	 * @requires minVal != null /\ maxVal != null
-	 * @effects update the auto-generated value of attribute <tt>attrib</tt>,
-	 *          specified for <tt>derivingValue</tt>, using <tt>minVal, maxVal</tt>
-	 */
-	@DOpt(type = DOpt.Type.AutoAttributeValueSynchroniser)
-	public static void updateAutoGeneratedValue(DAttr attrib, Tuple derivingValue, Object minVal, Object maxVal)
-			throws ConstraintViolationException {
-
-		if (minVal != null && maxVal != null) {
-			String maxId = (String) maxVal;
-
-			try {
-				int maxIdNum = Integer.parseInt(maxId.substring(1));
-
-				if (maxIdNum > idCounter) // extra check
-					idCounter = maxIdNum;
-
-			} catch (RuntimeException e) {
-				throw new ConstraintViolationException(ConstraintViolationException.Code.INVALID_VALUE, e,
-						new Object[] { maxId });
-			}
+			return idCounter.updateCode("C", id);
 		}
 	}
 }
@@ -9,6 +9,7 @@ import domainapp.basics.model.meta.DAssoc.AssocType;
 import domainapp.basics.model.meta.DAssoc.Associate;
 import domainapp.basics.model.meta.DAttr.Type;
 import domainapp.basics.model.meta.DClass;
+import model.index.DIndex;
 
 /**
  * @overview represent a foreign seafood object (a subclass of Seafood)
@@ -17,9 +18,11 @@ import domainapp.basics.model.meta.DClass;
  */
 @DClass(schema="seafoodman")
 public class ForeignSeafood extends Seafood{
+	public static final String A_country = "country";
 	
-	@DAttr(name="country",type=Type.Domain,length=6,optional=false)
-	@DAssoc(ascName="foreign-seafood-has-country",role="country",
+	@DAttr(name=A_country,type=Type.Domain,length=6,optional=false)
+	@DIndex
+	@DAssoc(ascName="foreignseafood-has-country",role="country",
 	ascType=AssocType.One2One, endType=AssocEndType.One,
 	associate=@Associate(type=Country.class,cardMin=1,cardMax=1))
 	private Country country;
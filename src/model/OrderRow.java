@@ -10,10 +10,12 @@ import domainapp.basics.model.meta.DAssoc.AssocEndType;
 import domainapp.basics.model.meta.DAssoc.AssocType;
 import domainapp.basics.model.meta.DAssoc.Associate;
 import domainapp.basics.model.meta.DAttr.Type;
-import domainapp.basics.util.Tuple;
-import domainapp.basics.util.cache.StateHistory;
 import model.Seafood;
 import model.OrderTable;
+import model.stats.CustomerStats;
+import model.util.Fixed;
+import model.util.IdAllocator;
+import model.util.IdCounter;
 
 /**
  * @overview an order Rows give each row in orderList in SeafoodBill
@@ -34,7 +36,7 @@ public class OrderRow implements Comparable{
 	//attributes
 	@DAttr(name=A_id,id=true,auto=true,type=Type.Integer,length=3,mutable=false,optional=false)
 	private int id;
-	private static int idCounter = 0;
+	private static final IdCounter idCounter = IdAllocator.counterFor(OrderRow.class);
 	
 	@DAttr(name=A_seafood,type=Type.Domain,optional=false,length = 6)
 	@DAssoc(ascName="order-has-seafood",role="order",
@@ -42,17 +44,16 @@ public class OrderRow implements Comparable{
 	associate=@Associate(type=Seafood.class,cardMin=1,cardMax=1))
 	private Seafood seafood;
 	
+	// the numbers are kept in thousandths (see Fixed), Fixed.NONE if not set
 	@DAttr(name=A_number,type=Type.Double,length=4,optional=false)
-	private Double numberInKilo;
+	private long numberInKilo;
 	
 	@DAttr(name=A_pricePerKilo,type=Type.Double,length=6,optional=false)
-	private Double pricePerKilo;
+	private long pricePerKilo;
 	
 	@DAttr(name=A_price,auto=true, type=Type.Double,length=6,optional=true, mutable=false,
 			serialisable=false,derivedFrom= {A_pricePerKilo,A_number})
-	private Double price;	
-	
-	private StateHistory<String, Object> stateHist;
+	private long price;	
 	
 	@DAttr(name="table",type=Type.Domain,optional=true)
 	@DAssoc(ascName="rows-has-tab",role="rows",
@@ -67,10 +68,15 @@ public class OrderRow implements Comparable{
 		this.id = nextId(id);
 		this.seafood = seafood;
 		this.table = table;
-		this.pricePerKilo = (pricePerKilo != null)? pricePerKilo.doubleValue():null;
-		this.numberInKilo = (numberInKilo != null)? numberInKilo.doubleValue():null;
-		stateHist = new StateHistory<>();
-		updateFinalPrice();
+		this.pricePerKilo = Fixed.of(pricePerKilo);
+		this.numberInKilo = Fixed.of(numberInKilo);
+		this.price = Fixed.NONE;
+		computeFinalPrice();
+		
+		if (id == null) {
+			// a new row
+			CustomerStats.getInstance().rowChanged(this, 1);
+		}
 	}
 	
 	@DOpt(type=DOpt.Type.DataSourceConstructor)
@@ -99,11 +105,13 @@ public class OrderRow implements Comparable{
 	}
 	
 	public void setTable(OrderTable table) {
+		CustomerStats.getInstance().rowChanged(this, -1);
 		this.table = table;
+		CustomerStats.getInstance().rowChanged(this, 1);
 	}
 	
 	public void setPricePerKilo(Double price,boolean updateFinalPrice) {
-		this.pricePerKilo = price;
+		this.pricePerKilo = Fixed.of(price);
 		if(updateFinalPrice)
 			updateFinalPrice();
 	}
@@ -113,18 +121,33 @@ public class OrderRow implements Comparable{
 	}
 	
 	public void setNumberInKilo(Double number,boolean updateFinalPrice) {
-		this.numberInKilo = number;
+		this.numberInKilo = Fixed.of(number);
 		if(updateFinalPrice)
 			updateFinalPrice();
 	}
 	
+	/**
+	 * @effects 
+	 *  recompute the price and report the change to {@link CustomerStats}, which removes 
+	 *  the old price and adds the new one
+	 */
 	@DOpt(type=DOpt.Type.DerivedAttributeUpdater)
 	@AttrRef(value=A_price)
 	private void updateFinalPrice() {
-		if(!numberInKilo.equals(null) && !pricePerKilo.equals(null)) {
-			price = numberInKilo * pricePerKilo;
+		CustomerStats.getInstance().rowChanged(this, -1);
+		computeFinalPrice();
+		CustomerStats.getInstance().rowChanged(this, 1);
+	}
+	
+	private void computeFinalPrice() {
+		if(numberInKilo != Fixed.NONE && pricePerKilo != Fixed.NONE) {
+			long oldPrice = getPriceFixed();
+			
+			// the price is also the cached value (see getPrice(boolean))
+			price = Fixed.times(numberInKilo, pricePerKilo);
 			
-			stateHist.put(A_price, price);
+			if (table != null)
+				table.updateRowPrice(this, oldPrice, price);
 		}
 	}
 	//getter
@@ -133,11 +156,18 @@ public class OrderRow implements Comparable{
 	}
 	
 	public double getPricePerKilo() {
-		return pricePerKilo;
+		return (pricePerKilo != Fixed.NONE) ? Fixed.toDouble(pricePerKilo) : 0.0;
 	}
 	
 	public double getNumberInKilo() {
-		return numberInKilo;
+		return (numberInKilo != Fixed.NONE) ? Fixed.toDouble(numberInKilo) : 0.0;
+	}
+	
+	/**
+	 * @effects return the price in thousandths (see {@link Fixed}), 0 if it is not set
+	 */
+	public long getPriceFixed() {
+		return (price != Fixed.NONE) ? price : 0;
 	}
 	
 	public double getPrice() {
@@ -146,19 +176,14 @@ public class OrderRow implements Comparable{
 	
 	public double getPrice(boolean cached) throws IllegalStateException {
 		if(cached) {
-			Object val = stateHist.get(A_price);
-			
-			if(val == null)
+			if(price == Fixed.NONE)
 				throw new IllegalStateException(
 						"OrderRow.getPrice: cached value is null");
 			
-			return (Double) val;
+			return Fixed.toDouble(price);
 			
 		}else {
-			if(price != null)
-				return price;
-			else
-				return 0.0;
+			return Fixed.toDouble(getPriceFixed());
 		}
 	}
 	
@@ -172,37 +197,15 @@ public class OrderRow implements Comparable{
 	
 	private Integer nextId(Integer currID) throws ConstraintViolationException{
 	    if (currID == null) {
-	      idCounter++;
-	      return idCounter;
+	      return idCounter.next();
 	    } else {
 	      int num = currID.intValue();
-	      if (num > idCounter)
-	        idCounter = num;
+	      idCounter.update(num);
 	      
 	      return currID;
 	    }
 	  }
 
-	  /**
-	   * @requires 
-	   *  minVal != null /\ maxVal != null
-	   * @effects 
-	   *  update the auto-generated value of attribute <tt>attrib</tt>, specified for <tt>derivingValue</tt>, using <tt>minVal, maxVal</tt>
-	   */
-	  @DOpt(type=DOpt.Type.AutoAttributeValueSynchroniser)
-	  public static void updateAutoGeneratedValue(
-	      DAttr attrib,
-	      Tuple derivingValue, 
-	      Object minVal, 
-	      Object maxVal) throws ConstraintViolationException {
-	    
-	    if (minVal != null && maxVal != null) {
-	      int maxIdVal = (Integer) maxVal;
-	      if (maxIdVal > idCounter)  
-	        idCounter = maxIdVal;
-	    }
-	  }
-	  
 	  /**
 		* @effects returns <code>this.id</code>
 		*/
@@ -213,11 +216,33 @@ public class OrderRow implements Comparable{
 
 		public String toString(boolean full) {
 			if (full)
-				return "Order(" + id + ", "+ seafood.toString(false) +", "+ numberInKilo +", "+price+")";
+				return "Order(" + id + ", "+ seafood.toString(false) +", "+ getNumberInKilo() +", "+ getPrice() +")";
 		    else
 		    	return "Order(" + id + ")";
 		}
 
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + id;
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			OrderRow other = (OrderRow) obj;
+			if (id != other.id)
+				return false;
+			return true;
+		}
+
 		@Override
 		public int compareTo(Object o) {
 			if (o == null || (!(o instanceof OrderRow)))
@@ -1,7 +1,7 @@
 package model;
 
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashSet;
 
 import controller.ImportSeafood;
 import domainapp.basics.exceptions.ConstraintViolationException;
@@ -15,7 +15,10 @@ import domainapp.basics.model.meta.DAssoc.AssocEndType;
 import domainapp.basics.model.meta.DAssoc.AssocType;
 import domainapp.basics.model.meta.DAssoc.Associate;
 import domainapp.basics.model.meta.DAttr.Type;
-import domainapp.basics.util.Tuple;
+import model.stats.CustomerStats;
+import model.util.Fixed;
+import model.util.IdAllocator;
+import model.util.IdCounter;
 
 /**
  * @overview an order table contains various of order rows
@@ -27,7 +30,7 @@ import domainapp.basics.util.Tuple;
 public class OrderTable {
 	  @DAttr(name = "id", id = true, type = Type.String, auto = true, length = 6, mutable = false, optional = false)
 	  private String id;
-	  private static int idCounter = 0;
+	  private static final IdCounter idCounter = IdAllocator.counterFor(OrderTable.class, "Ta");
 	  
 	  @DAttr(name="name",length=20,type=Type.String,optional=false)
 	  private String name;
@@ -50,9 +53,18 @@ public class OrderTable {
 		      ascType=AssocType.One2Many,endType=AssocEndType.One,
 		      associate=@Associate(type=OrderRow.class,cardMin=0,cardMax=30))
 	  private Collection<OrderRow> RowLists;
+	  
+	  // the rows are kept in (insertion-ordered) hash sets, so that linking, unlinking and 
+	  // looking up a row (by its id, see OrderRow.equals) take constant time
+	  
 	  // derived attributes
 	  private int OrderRowCount;
 	  
+	  /** the sum of the prices of {@link #RowLists}, in thousandths (see {@link Fixed}) */
+	  @DAttr(name="total",type=Type.Double,auto=true,mutable=false,optional=true,
+			  derivedFrom={"RowLists"})
+	  private long total;
+	  
 	  @DOpt(type=DOpt.Type.ObjectFormConstructor)
 	  @DOpt(type=DOpt.Type.RequiredConstructor)
 	  public OrderTable(@AttrRef("name") String name) {
@@ -65,21 +77,23 @@ public class OrderTable {
 	    this(null, name, bill,rows);
 	  }
 
-	  // from data source
+	  // from data source: the total is stored (and kept by the data source, see BillTotalsMigration)
 	  @DOpt(type=DOpt.Type.DataSourceConstructor)
-	  public OrderTable(@AttrRef("id") String id, @AttrRef("bill") SeafoodBill bill) {
-	    this(id, null, bill,null);
+	  public OrderTable(@AttrRef("id") String id, @AttrRef("name") String name, @AttrRef("total") Double total) {
+	    this(id, name, null, null);
+	    if (total != null)
+	    	this.total = Fixed.of(total);
 	  }
 	  
-	  // constructor to create objects from data source
-	  @DOpt(type=DOpt.Type.DataSourceConstructor)
-	  public OrderTable(@AttrRef("id") String id,@AttrRef("name") String name, SeafoodBill bill, Collection<OrderRow> row) {
+	  // based constructor (used by others)
+	  private OrderTable(String id, String name, SeafoodBill bill, Collection<OrderRow> row) {
 	    this.id = nextID(id);
 	    this.name = name;
 	    this.bill = bill;
-	    rows = new ArrayList<>();
-	    RowLists = new ArrayList<>();
+	    rows = new LinkedHashSet<>();
+	    RowLists = new LinkedHashSet<>();
 	    OrderRowCount = 0;
+	    total = 0;
 	    
 	  }
 	  ///valionasxxz
@@ -102,56 +116,118 @@ public class OrderTable {
 	  //@MemberRef(name="enrolments")
 	  public boolean removeEnrolment(OrderRow e) {
 	    boolean removed = RowLists.remove(e);
+	    boolean updated = false;
 	    if (removed) {
 	    	OrderRowCount--;     
+	    	updated = addToTotal(-e.getPriceFixed());
 	    }
-	    return false; 
+	    if (e.getTable() == this) {
+	    	// e is deleted: remove its price from the totals of the customer
+	    	CustomerStats.getInstance().rowChanged(e, -1);
+	    }
+	    return updated; 
 	  }
 	  public void setEnrolments(Collection<OrderRow> en) {
-		    this.RowLists = en;
-		    OrderRowCount = en.size();
+		    this.RowLists = toSet(en);
+		    OrderRowCount = RowLists.size();
+		    long sum = 0;
+		    for (OrderRow e : RowLists) {
+		    	sum += e.getPriceFixed();
+		    }
+		    addToTotal(sum - total);
 	  }
 	  @DOpt(type = DOpt.Type.LinkAdderNew)
 	  public void setNewOrderRow(Collection<OrderRow> row) {
-	    this.rows = row;
+	    this.rows = toSet(row);
 	  }
 	  public void setOrderRow(Collection<OrderRow> row) {
-			this.rows = row;
+			this.rows = toSet(row);
 		}
 	    
 	  @DOpt(type=DOpt.Type.LinkAdder)
 	  //only need to do this for reflexive association: @MemberRef(name="enrolments")
 	  public boolean addEnrolment(OrderRow e) {
-	    if (!RowLists.contains(e))
-	    	RowLists.add(e);
+	    RowLists.add(e);
 	    return false; 
 	  }
 	  
 	  @DOpt(type=DOpt.Type.LinkAdderNew)
 	  public boolean addNewEnrolment(OrderRow e) {
-		  RowLists.add(e);
+		  if (!RowLists.add(e))
+			  return false;
 	    
 		  OrderRowCount++;
-	    // no other attributes changed (average mark is not serialisable!!!)
-	    return false; 
+	    // the total is changed (unless the row has no price)
+	    return addToTotal(e.getPriceFixed()); 
 	  }
 	  @DOpt(type=DOpt.Type.LinkAdder)
 	  //@MemberRef(name="enrolments")
 	  public boolean addEnrolment(Collection<OrderRow> enrols) {
-	    boolean added = false;
-	    for (OrderRow e : enrols) {
-	      if (!RowLists.contains(e)) {
-	        if (!added) added = true;
-	        RowLists.add(e);
-	      }
-	    }
+	    RowLists.addAll(enrols);
 	    return false; 
 	  }
 	  @DOpt(type=DOpt.Type.LinkAdderNew)
 	  public boolean addNewEnrolment(Collection<OrderRow> enrols) {
-		  RowLists.addAll(enrols);
-		  OrderRowCount+=enrols.size();
-	    return false; 
+		  long sum = 0;
+		  for (OrderRow e : enrols) {
+			  if (RowLists.add(e)) {
+				  OrderRowCount++;
+				  sum += e.getPriceFixed();
+			  }
+		  }
+	    return addToTotal(sum); 
+	  }
+	  
+	  /**
+	   * @modifies this
+	   * @effects 
+	   *  if <tt>e</tt> is a row of this
+	   *    replace its price <tt>oldPrice</tt> by <tt>newPrice</tt> (in thousandths) in the total 
+	   *  return true if the total is changed, else false
+	   */
+	  boolean updateRowPrice(OrderRow e, long oldPrice, long newPrice) {
+		  if (oldPrice == newPrice || !RowLists.contains(e))
+			  return false;
+		  
+		  return addToTotal(newPrice - oldPrice);
+	  }
+	  
+	  /**
+	   * @modifies this, bill
+	   * @effects 
+	   *  add <tt>delta</tt> (in thousandths) to the total of this and of its bill;
+	   *  return true if the total is changed, else false
+	   */
+	  private boolean addToTotal(long delta) {
+		  if (delta == 0)
+			  return false;
+		  
+		  total += delta;
+		  if (bill != null && bill.getTable() == this)
+			  bill.updateTotal();
+		  
+		  return true;
+	  }
+	  
+	  /**
+	   * @effects return the distinct elements of <tt>c</tt> (if any) in an insertion-ordered hash set
+	   */
+	  private static Collection<OrderRow> toSet(Collection<OrderRow> c) {
+		  return (c != null) ? new LinkedHashSet<>(c) : new LinkedHashSet<OrderRow>();
+	  }
+	  
+	  /**
+	   * @effects return the total of the prices of the rows
+	   */
+	  public Double getTotal() {
+		  return Fixed.toDouble(total);
+	  }
+	  
+	  /**
+	   * @effects return the total of the prices of the rows in thousandths (see {@link Fixed})
+	   */
+	  public long getTotalFixed() {
+		  return total;
 	  }
 	  /**
 	   * @effects 
@@ -237,56 +313,11 @@ public class OrderTable {
 		private String nextID(String id) throws ConstraintViolationException {
 			if (id == null) {
 				// generate a new id
-				idCounter++;
-				if (idCounter >= 10) {
-					return "Ta" + idCounter;
-				} else {
-					return "Ta0" + idCounter;
-				}
+				return idCounter.nextCode("Ta");
 			} else {
 				// update id
-				int num;
-				try {
-					num = Integer.parseInt(id.substring(1));
-				} catch (RuntimeException e) {
-					throw new ConstraintViolationException(ConstraintViolationException.Code.INVALID_VALUE, e,
-							new Object[] { id });
-				}
-
-				if (num > idCounter) {
-					idCounter = num;
-				}
-
-				return id;
+				return idCounter.updateCode("Ta", id);
 			}
 		}
 
-
-		/**
-		   * @requires 
-		   *  minVal != null /\ maxVal != null
-		   * @effects 
-		   *  update the auto-generated value of attribute <tt>attrib</tt>, specified for <tt>derivingValue</tt>, using <tt>minVal, maxVal</tt>
-		   */
-		  @DOpt(type=DOpt.Type.AutoAttributeValueSynchroniser)
-		  public static void updateAutoGeneratedValue(
-		      DAttr attrib,
-		      Tuple derivingValue, 
-		      Object minVal, 
-		      Object maxVal) throws ConstraintViolationException {
-		    
-			  if (minVal != null && maxVal != null) {
-				  String maxId = (String) maxVal;
-				  try {
-					  int maxIdNum = Integer.parseInt(maxId.substring(1));
-		        
-					  if (maxIdNum > idCounter) // extra check
-						  idCounter = maxIdNum;
-		        
-				  } catch (RuntimeException e) {
-					  throw new ConstraintViolationException(
-						ConstraintViolationException.Code.INVALID_VALUE, e, new Object[] {maxId});
-				  }
-		    }
-		  }
 }
@@ -1,11 +1,10 @@
 package model;
 
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashSet;
 
 
 import controller.ImportSeafood;
-import domainapp.basics.exceptions.ConstraintViolationException;
 import domainapp.basics.model.meta.AttrRef;
 import domainapp.basics.model.meta.DAssoc;
 import domainapp.basics.model.meta.DAssoc.AssocEndType;
@@ -17,7 +16,9 @@ import domainapp.basics.model.meta.DClass;
 import domainapp.basics.model.meta.DOpt;
 import domainapp.basics.model.meta.MetaConstants;
 import domainapp.basics.model.meta.Select;
-import domainapp.basics.util.Tuple;
+import model.util.IdAllocator;
+import model.util.IdCounter;
+import model.util.LazyCollection;
 
 
 /**
@@ -30,7 +31,7 @@ public class Preserver {
   
   @DAttr(name="id",id=true,auto=true,length=3,mutable=false,optional=false,type=Type.Integer)
   private int id;
-  private static int idCounter;
+  private static final IdCounter idCounter = IdAllocator.counterFor(Preserver.class);
   
   @DAttr(name="name",type=Type.String,length=20,optional=false)
   private String name;
@@ -39,7 +40,11 @@ public class Preserver {
   @DAssoc(ascName="imSeafood-has-preserver",role="preserver",
   ascType=AssocType.One2Many, endType=AssocEndType.One,
   associate=@Associate(type=ImportSeafood.class,cardMin=1,cardMax=MetaConstants.CARD_MORE))
-  private Collection<ImportSeafood> imSeafoods;
+  private LazyCollection<ImportSeafood> imSeafoods;
+  
+  // the imports are loaded when they are first accessed (see LazyCollection)
+  private static final LazyCollection.Association<ImportSeafood> IMPORTS = 
+      new LazyCollection.Association<>(ImportSeafood.class, ImportSeafood.A_Preserver, "id", ImportSeafood.A_Id);
 
   
   @DAttr(name="SeafoodLists",type=Type.Collection,optional = false,
@@ -50,6 +55,10 @@ public class Preserver {
   private Collection<ImportSeafood> SeafoodLists;
   private int importCount;
   
+  // the imports are kept in (insertion-ordered) hash sets, so that linking, unlinking and 
+  // looking up an import (by its id, see ImportSeafood.equals) take constant time; the 
+  // stored imports are loaded when they are first accessed (see LazyCollection)
+  
   // from object form: Student is not included 
   @DOpt(type = DOpt.Type.ObjectFormConstructor)
   @DOpt(type=DOpt.Type.RequiredConstructor)
@@ -74,46 +83,24 @@ public class Preserver {
   private Preserver(Integer id, String name, Collection<ImportSeafood> imSeafood ) {
     this.id = nextId(id);
     this.name = name;
-    imSeafoods = new ArrayList<>();
-    SeafoodLists = new ArrayList<>();
+    // a new preserver has nothing stored
+    imSeafoods = (id == null) ? IMPORTS.of(this.id, imSeafood) : IMPORTS.of(this.id);
+    SeafoodLists = new LinkedHashSet<>();
     importCount = 0;
    
   }
   
   private static int nextId(Integer currID) {
     if (currID == null) {
-      idCounter++;
-      return idCounter;
+      return idCounter.next();
     } else {
       int num = currID.intValue();
-      if (num > idCounter)
-        idCounter = num;
+      idCounter.update(num);
       
       return currID;
     }
   }
 
-  /**
-   * @requires 
-   *  minVal != null /\ maxVal != null
-   * @effects 
-   *  update the auto-generated value of attribute <tt>attrib</tt>, specified for <tt>derivingValue</tt>, using <tt>minVal, maxVal</tt>
-   */
-  @DOpt(type=DOpt.Type.AutoAttributeValueSynchroniser)
-  public static void updateAutoGeneratedValue(
-      DAttr attrib,
-      Tuple derivingValue, 
-      Object minVal, 
-      Object maxVal) throws ConstraintViolationException {
-    
-    if (minVal != null && maxVal != null) {
-      //TODO: update this for the correct attribute if there are more than one auto attributes of this class 
-      int maxIdVal = (Integer) maxVal;
-      if (maxIdVal > idCounter)  
-        idCounter = maxIdVal;
-    }
-  }
-  
   public int getId() {
     return id;
   }
@@ -129,27 +116,32 @@ public class Preserver {
   public Collection<ImportSeafood> getImportSeafood(){
 	  return imSeafoods;
   }
+  
+  /**
+   * @effects return the number of imports (they are not loaded if they are not yet)
+   */
+  public int getImportSeafoodCount() {
+    return imSeafoods.count();
+  }
   @DOpt(type = DOpt.Type.LinkAdderNew)
 	public void setNewImSeafood(Collection<ImportSeafood> imSeafood) {
-		this.imSeafoods = imSeafood;
+		this.imSeafoods = IMPORTS.of(id, imSeafood);
 		// do other updates here (if needed)
 	}
   public void setImSeafood(Collection<ImportSeafood> imSeafood) {
-		this.imSeafoods = imSeafood;
+		this.imSeafoods = IMPORTS.of(id, imSeafood);
 	}
   
   @DOpt(type=DOpt.Type.LinkAdder)
   //only need to do this for reflexive association: @MemberRef(name="enrolments")
   public boolean addEnrolment(ImportSeafood e) {
-    if (!SeafoodLists.contains(e))
-    	SeafoodLists.add(e);
+    SeafoodLists.add(e);
     return false; 
   }
   @DOpt(type=DOpt.Type.LinkAdderNew)
   public boolean addNewEnrolment(ImportSeafood e) {
-	  SeafoodLists.add(e);
-    
-    importCount++;
+    if (SeafoodLists.add(e))
+      importCount++;
     
     
     // no other attributes changed (average mark is not serialisable!!!)
@@ -158,19 +150,15 @@ public class Preserver {
   @DOpt(type=DOpt.Type.LinkAdder)
   //@MemberRef(name="enrolments")
   public boolean addEnrolment(Collection<ImportSeafood> enrols) {
-    boolean added = false;
-    for (ImportSeafood e : enrols) {
-      if (!SeafoodLists.contains(e)) {
-        if (!added) added = true;
-        SeafoodLists.add(e);
-      }
-    }
+    SeafoodLists.addAll(enrols);
     return false; 
   }
   @DOpt(type=DOpt.Type.LinkAdderNew)
   public boolean addNewEnrolment(Collection<ImportSeafood> enrols) {
-	  SeafoodLists.addAll(enrols);
-    importCount+=enrols.size();
+    for (ImportSeafood e : enrols) {
+      if (SeafoodLists.add(e))
+        importCount++;
+    }
     return false; 
   }
   @DOpt(type=DOpt.Type.LinkRemover)
@@ -183,8 +171,15 @@ public class Preserver {
     return false; 
   }
   public void setEnrolments(Collection<ImportSeafood> en) {
-	    this.SeafoodLists = en;
-	    importCount = en.size();
+	    this.SeafoodLists = toSet(en);
+	    importCount = SeafoodLists.size();
+  }
+  
+  /**
+   * @effects return the distinct elements of <tt>c</tt> (if any) in an insertion-ordered hash set
+   */
+  private static Collection<ImportSeafood> toSet(Collection<ImportSeafood> c) {
+    return (c != null) ? new LinkedHashSet<>(c) : new LinkedHashSet<ImportSeafood>();
   }
   public Collection<ImportSeafood> getEnrolments() {
 	    return SeafoodLists;
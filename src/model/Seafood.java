@@ -10,9 +10,11 @@ import domainapp.basics.model.meta.DAttr;
 import domainapp.basics.model.meta.DOpt;
 import domainapp.basics.model.meta.DAttr.Type;
 import domainapp.basics.model.meta.DClass;
-import domainapp.basics.util.Tuple;
+import model.index.DIndex;
 import model.reports.SeafoodByNameReport;
 import model.OrderRow;
+import model.util.IdAllocator;
+import model.util.IdCounter;
 
 /**
  * @overview represent a Seafood object
@@ -30,12 +32,14 @@ public abstract class Seafood {
 	//attribute
 	@DAttr(name=A_id,id=true,auto=true,type=Type.String,length=3,mutable=false,optional=false)
 	private String id;
-	private static int idCounter=0;
+	private static final IdCounter idCounter = IdAllocator.counterFor(Seafood.class, "S");
 	
 	@DAttr(name=A_name,type=Type.String,length=20,optional=false)
+	@DIndex
 	private String name;
 	
 	@DAttr(name=A_type,type=Type.Domain, length = 15, optional =true)
+	@DIndex
 	@DAssoc(ascName="seafood-has-type",role="seafood",
 	ascType=AssocType.One2One, endType = AssocEndType.One,
 	associate = @Associate(type=TypeOfSeafood.class,cardMin=1, cardMax=1))
@@ -161,55 +165,10 @@ public abstract class Seafood {
 	private String nextID(String id) throws ConstraintViolationException {
 	    if (id == null) {
 	    	// generate a new id
-	        idCounter++;
-	        if(idCounter >=10) {
-	        	return "S" + idCounter;
-	        }else {
-	        	return "S0" + idCounter;
-	        }
+	    	return idCounter.nextCode("S");
 		}else {
 	    	// update id
-	    	int num;
-	    	try {
-	        num = Integer.parseInt(id.substring(1));
-	    	} catch (RuntimeException e) {
-	    		throw new ConstraintViolationException(
-	    				ConstraintViolationException.Code.INVALID_VALUE, e, new Object[] { id });
-	    	}
-	      
-	    	if (num > idCounter) {
-	        idCounter = num;
-	    	}
-	      
-	    	return id;
+	    	return idCounter.updateCode("S", id);
 	    }
 	}
-	
-	/**
-	   * @requires 
-	   *  minVal != null /\ maxVal != null
-	   * @effects 
-	   *  update the auto-generated value of attribute <tt>attrib</tt>, specified for <tt>derivingValue</tt>, using <tt>minVal, maxVal</tt>
-	   */
-	  @DOpt(type=DOpt.Type.AutoAttributeValueSynchroniser)
-	  public static void updateAutoGeneratedValue(
-	      DAttr attrib,
-	      Tuple derivingValue, 
-	      Object minVal, 
-	      Object maxVal) throws ConstraintViolationException {
-	    
-		  if (minVal != null && maxVal != null) {
-			  String maxId = (String) maxVal;
-			  try {
-				  int maxIdNum = Integer.parseInt(maxId.substring(1));
-	        
-				  if (maxIdNum > idCounter) // extra check
-					  idCounter = maxIdNum;
-	        
-			  } catch (RuntimeException e) {
-				  throw new ConstraintViolationException(
-					ConstraintViolationException.Code.INVALID_VALUE, e, new Object[] {maxId});
-			  }
-	    }
-	  }
 }
\ No newline at end of file
@@ -10,6 +10,11 @@ import domainapp.basics.model.meta.DAssoc.AssocEndType;
 import domainapp.basics.model.meta.DAssoc.AssocType;
 import domainapp.basics.model.meta.DAssoc.Associate;
 import domainapp.basics.model.meta.DAttr.Type;
+import model.index.DIndex;
+import model.stats.CustomerStats;
+import model.util.Fixed;
+import model.util.IdAllocator;
+import model.util.IdCounter;
 
 /**
  * @overview
@@ -24,16 +29,18 @@ public class SeafoodBill {
 	public static final String A_name = "name";
 	public static final String A_table = "table";
 	public static final String A_customer = "customer";
+	public static final String A_total = "total";
 
 	// attributes
 	@DAttr(name = A_billNo, id = true, auto = true, type = Type.String, length = 4, mutable = false, optional = false)
 	private String billNo;
-	private static int idCounter = 0;
+	private static final IdCounter idCounter = IdAllocator.counterFor(SeafoodBill.class, "B");
 
 	@DAttr(name = A_name, type = Type.String, length = 20, optional = false)
 	private String name;
 
 	@DAttr(name = "customer", type = Type.Domain, optional = false)
+	@DIndex
 	@DAssoc(ascName = "bill-has-customer", role = "bill", 
 	ascType = AssocType.One2One, endType = AssocEndType.One, 
 	associate = @Associate(type = Customer.class, cardMin = 1, cardMax = 1))
@@ -45,6 +52,11 @@ public class SeafoodBill {
 	associate = @Associate(type = OrderTable.class, cardMin = 1, cardMax = 1))
 	private OrderTable table;
 	
+	/** the total of {@link #table}, in thousandths (see {@link Fixed}) */
+	@DAttr(name = A_total, type = Type.Double, auto = true, mutable = false, optional = true,
+			derivedFrom = {A_table})
+	private long total;
+	
 //	@DAttr(name="note",type  = Type.String,optional = true)
 //	private String note;
 
@@ -52,7 +64,7 @@ public class SeafoodBill {
 		@DOpt(type=DOpt.Type.RequiredConstructor)
 		@DOpt(type=DOpt.Type.ObjectFormConstructor)
 		public SeafoodBill(@AttrRef(A_name) String name, @AttrRef("customer") Customer customer) {
-			this(null,name,customer,null);
+			this(null,name,customer,(OrderTable) null);
 		}
 		
 		@DOpt(type=DOpt.Type.ObjectFormConstructor)
@@ -61,9 +73,13 @@ public class SeafoodBill {
 			this(null,name,customer,table);
 		}
 		
+		// from data source: the total is stored (and kept by the data source, see BillTotalsMigration)
 		@DOpt(type = DOpt.Type.DataSourceConstructor)
-		public SeafoodBill(@AttrRef("id") String id, @AttrRef(A_name) String name, @AttrRef("customer") Customer customer) {
-			this(id,name,customer,null);
+		public SeafoodBill(@AttrRef("id") String id, @AttrRef(A_name) String name, 
+				@AttrRef("customer") Customer customer, @AttrRef(A_total) Double total) {
+			this(id,name,customer,(OrderTable) null);
+			if (total != null)
+				this.total = Fixed.of(total);
 		}
 		
 		public SeafoodBill(@AttrRef(A_billNo) String id, @AttrRef(A_name) String name, 
@@ -73,6 +89,12 @@ public class SeafoodBill {
 			this.name = name;
 			this.customer = customer;
 			this.table = table;
+			updateTotal();
+			
+			if (id == null) {
+				// a new bill
+				CustomerStats.getInstance().billChanged(this, 1);
+			}
 		}
 
 	// getter
@@ -91,6 +113,17 @@ public class SeafoodBill {
 	public OrderTable getTable() {
 		return table;
 	}
+	
+	public Double getTotal() {
+		return Fixed.toDouble(total);
+	}
+	
+	/**
+	 * @effects return the total in thousandths (see {@link Fixed})
+	 */
+	public long getTotalFixed() {
+		return total;
+	}
 //	public String getNote() {
 //		return note;
 //	}
@@ -101,11 +134,37 @@ public class SeafoodBill {
 	}
 
 	public void setCustomer(Customer customer) {
+		CustomerStats.getInstance().billChanged(this, -1);
 		this.customer = customer;
+		CustomerStats.getInstance().billChanged(this, 1);
 	}
 
 	public void setTable(OrderTable table) {
+		CustomerStats.getInstance().billChanged(this, -1);
 		this.table = table;
+		updateTotal();
+		CustomerStats.getInstance().billChanged(this, 1);
+	}
+	
+	/**
+	 * @modifies this
+	 * @effects 
+	 *  if the table is set
+	 *    set total to the total of the table
+	 *  return true if total is changed, else false
+	 */
+	@DOpt(type=DOpt.Type.DerivedAttributeUpdater)
+	@AttrRef(value=A_total)
+	boolean updateTotal() {
+		if (table == null)
+			return false;
+		
+		long t = table.getTotalFixed();
+		if (t == total)
+			return false;
+		
+		total = t;
+		return true;
 	}
 //	public void setNote(String note) {
 //		this.note = note;
@@ -153,27 +212,10 @@ public class SeafoodBill {
 	private String nextID(String billNo) throws ConstraintViolationException {
 		if (billNo == null) {
 			// generate a new billNo
-			idCounter++;
-			if (idCounter >= 10) {
-				return "B" + idCounter;
-			} else {
-				return "B0" + idCounter;
-			}
+			return idCounter.nextCode("B");
 		} else {
 			// update billNo
-			int num;
-			try {
-				num = Integer.parseInt(billNo.substring(1));
-			} catch (RuntimeException e) {
-				throw new ConstraintViolationException(ConstraintViolationException.Code.INVALID_VALUE, e,
-						new Object[] { billNo });
-			}
-
-			if (num > idCounter) {
-				idCounter = num;
-			}
-
-			return billNo;
+			return idCounter.updateCode("B", billNo);
 		}
 	}
 }
\ No newline at end of file
@@ -1,8 +1,6 @@
 package model;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import domainapp.basics.exceptions.ConstraintViolationException;
 import domainapp.basics.model.meta.AttrRef;
 import domainapp.basics.model.meta.DAssoc;
 import domainapp.basics.model.meta.DAttr;
@@ -13,7 +11,9 @@ import domainapp.basics.model.meta.DAssoc.AssocType;
 import domainapp.basics.model.meta.DAssoc.Associate;
 import domainapp.basics.model.meta.DAttr.Type;
 import domainapp.basics.model.meta.DClass;
-import domainapp.basics.util.Tuple;
+import model.util.IdAllocator;
+import model.util.IdCounter;
+import model.util.LazyCollection;
 
 
 /**
@@ -27,7 +27,7 @@ public class TypeOfSeafood {
 	// attributes
 	@DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 3, mutable = false, optional = false)
 	private int id;
-	private static int idCounter = 0;
+	private static final IdCounter idCounter = IdAllocator.counterFor(TypeOfSeafood.class);
 
 	@DAttr(name = "name", type = Type.String, length = 20, optional = false)
 	private String name;
@@ -36,7 +36,11 @@ public class TypeOfSeafood {
 	@DAssoc(ascName="seafood-has-type",role="type",
 	ascType=AssocType.One2Many, endType=AssocEndType.One,
 	associate=@Associate(type=Seafood.class,cardMin=1,cardMax=MetaConstants.CARD_MORE))
-	private Collection<Seafood> seafoods;
+	private LazyCollection<Seafood> seafoods;
+	
+	// the seafoods are loaded when they are first accessed (see LazyCollection)
+	private static final LazyCollection.Association<Seafood> SEAFOODS = 
+			new LazyCollection.Association<>(Seafood.class, Seafood.A_type, "id", Seafood.A_id);
 
 	@DOpt(type = DOpt.Type.DataSourceConstructor)
 	public TypeOfSeafood(@AttrRef("id") Integer id, @AttrRef("name") String name) {
@@ -58,38 +62,21 @@ public class TypeOfSeafood {
 	private TypeOfSeafood(Integer id, String type, Collection<Seafood> seafood) {
 		this.id = nextId(id);
 		this.name = type;
-		seafoods = new ArrayList<>();
+		// a new type has nothing stored
+		seafoods = (id == null) ? SEAFOODS.of(this.id, seafood) : SEAFOODS.of(this.id);
 	}
 
 	private static int nextId(Integer currID) {
 		if (currID == null) {
-			idCounter++;
-			return idCounter;
+			return idCounter.next();
 		} else {
 			int num = currID.intValue();
-			if (num > idCounter)
-				idCounter = num;
+			idCounter.update(num);
 
 			return currID;
 		}
 	}
 
-	/**
-	 * @requires minVal != null /\ maxVal != null
-	 * @effects update the auto-generated value of attribute <tt>attrib</tt>,
-	 *          specified for <tt>derivingValue</tt>, using <tt>minVal, maxVal</tt>
-	 */
-	@DOpt(type = DOpt.Type.AutoAttributeValueSynchroniser)
-	public static void updateAutoGeneratedValue(DAttr attrib, Tuple derivingValue, Object minVal, Object maxVal)
-			throws ConstraintViolationException {
-
-		if (minVal != null && maxVal != null) {
-			int maxIdVal = (Integer) maxVal;
-			if (maxIdVal > idCounter)
-				idCounter = maxIdVal;
-		}
-	}
-
 	public void setName(String name) {
 		this.name = name;
 	}
@@ -106,14 +93,21 @@ public class TypeOfSeafood {
 		return seafoods;
 	}
 	
+	/**
+	 * @effects return the number of seafoods (they are not loaded if they are not yet)
+	 */
+	public int getSeafoodCount() {
+		return seafoods.count();
+	}
+	
 	@DOpt(type = DOpt.Type.LinkAdderNew)
 	public void setNewSeafood(Collection<Seafood> seafood) {
-		this.seafoods = seafood;
+		this.seafoods = SEAFOODS.of(id, seafood);
 		// do other updates here (if needed)
 	}
 
 	public void setSeafood(Collection<Seafood> seafood) {
-		this.seafoods = seafood;
+		this.seafoods = SEAFOODS.of(id, seafood);
 	}
 	
 
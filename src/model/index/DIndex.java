@@ -0,0 +1,29 @@
+package model.index;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * @overview
+ *  Declares a secondary index of the data source on the column of a domain attribute
+ *  (annotated with <tt>@DAttr</tt>). The column of an associated object (type
+ *  <tt>Domain</tt>) is the column that stores its id.
+ *
+ *  <p>The index is named <tt>IX_&lt;class&gt;_&lt;attribute&gt;</tt>; it is created (and
+ *  dropped when it is no longer declared) by {@link software.db.IndexManager}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface DIndex {
+
+  /**
+   * the names of the domain attributes whose columns follow the column of the annotated
+   * attribute in the index (e.g. the id, to order the objects that have the same value)
+   */
+  String[] with() default {};
+
+  /** whether the indexed values are unique */
+  boolean unique() default false;
+}
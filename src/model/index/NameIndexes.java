@@ -0,0 +1,191 @@
+package model.index;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import model.Customer;
+import model.Seafood;
+import software.db.Change;
+import software.db.ChangeJournal;
+import software.db.SeafoodDb;
+
+/**
+ * @overview
+ *  The name indexes ({@link TrigramIndex}) of {@link Seafood} and {@link Customer}.
+ *
+ *  <p>The indexes are built from the data source by {@link #rebuild()} (in the background,
+ *  when they are first requested) and are then kept up to date by the committed changes of the objects (see {@link ChangeJournal}): the name of
+ *  a changed object is read again by its id, and an object that is no longer stored (however
+ *  it was deleted) is removed. Until they are built, or if a change cannot be read, the
+ *  indexes are not available and the name searches use the data source.
+ */
+public final class NameIndexes implements ChangeJournal.Listener {
+
+  private static final NameIndexes instance = new NameIndexes();
+
+  // null until built
+  private volatile TrigramIndex seafoods;
+  private volatile TrigramIndex customers;
+
+  private final AtomicBoolean building = new AtomicBoolean();
+
+  private NameIndexes() {
+    // singleton
+  }
+
+  /**
+   * @effects return the shared name indexes
+   */
+  public static NameIndexes getInstance() {
+    return instance;
+  }
+
+  /**
+   * @modifies this
+   * @effects
+   *  (re)build the name indexes from the data source and keep them up to date with the
+   *  changes committed after (see
+   *  {@link ChangeJournal#attach(ChangeJournal.Listener, ChangeJournal.Snapshot)})
+   *
+   *  <p>throws SQLException if fails to read from the data source
+   */
+  public void rebuild() throws SQLException {
+    ChangeJournal.getInstance().attach(this, new ChangeJournal.Snapshot() {
+      private TrigramIndex newSeafoods, newCustomers;
+
+      @Override
+      public void read(Connection con) throws SQLException {
+        newSeafoods = load(con, Seafood.class, Seafood.A_id, Seafood.A_name);
+        newCustomers = load(con, Customer.class, Customer.A_id, Customer.A_name);
+      }
+
+      @Override
+      public void caughtUp() {
+        synchronized (NameIndexes.this) {
+          seafoods = newSeafoods;
+          customers = newCustomers;
+        }
+      }
+    });
+  }
+
+  /**
+   * @effects
+   *  return the name index of {@link Seafood} (with the changes committed so far) or null if
+   *  it is not built (then start building it)
+   */
+  public TrigramIndex getSeafoodIndex() {
+    ChangeJournal.getInstance().tryCatchUp();
+    TrigramIndex index = seafoods;
+    if (index == null)
+      buildInBackground();
+    return index;
+  }
+
+  /**
+   * @effects
+   *  return the name index of {@link Customer} (with the changes committed so far) or null
+   *  if it is not built (then start building it)
+   */
+  public TrigramIndex getCustomerIndex() {
+    ChangeJournal.getInstance().tryCatchUp();
+    TrigramIndex index = customers;
+    if (index == null)
+      buildInBackground();
+    return index;
+  }
+
+  /**
+   * @effects
+   *  if there is a data source and the indexes are not being built, start building them (see
+   *  {@link #rebuild()}) on a daemon thread; if that fails, they are built at the next request
+   */
+  private void buildInBackground() {
+    if (!SeafoodDb.isConfigured() || !building.compareAndSet(false, true))
+      return;
+
+    Thread t = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          rebuild();
+        } catch (SQLException e) {
+          // built at the next request
+        } finally {
+          building.set(false);
+        }
+      }
+    }, "name-indexes");
+    t.setDaemon(true);
+    t.start();
+  }
+
+  /**
+   * @effects
+   *  if <tt>c</tt> is a change of a seafood or a customer
+   *    index the stored name of the object (or remove it if it is not stored); if it cannot
+   *    be read, drop the index, which is built again when it is next requested
+   */
+  @Override
+  public void changed(Change c) {
+    boolean seafood = c.is(Seafood.class);
+    if (!seafood && !c.is(Customer.class))
+      return;
+
+    TrigramIndex index = seafood ? seafoods : customers;
+    if (index == null)
+      return;
+
+    if (c.getSign() < 0) {
+      index.remove(c.getObjectId());
+      return;
+    }
+
+    String select = seafood ?
+        "select " + Seafood.A_name + " from " + SeafoodDb.tableOf(Seafood.class) + " where " +
+            Seafood.A_id + " = ?" :
+        "select " + Customer.A_name + " from " + SeafoodDb.tableOf(Customer.class) + " where " +
+            Customer.A_id + " = ?";
+    try (Connection con = SeafoodDb.open();
+        PreparedStatement stmt = con.prepareStatement(select)) {
+      stmt.setString(1, c.getObjectId());
+      try (ResultSet rs = stmt.executeQuery()) {
+        index.put(c.getObjectId(), rs.next() ? rs.getString(1) : null);
+      }
+    } catch (SQLException e) {
+      synchronized (this) {
+        if (seafood)
+          seafoods = null;
+        else
+          customers = null;
+      }
+    }
+  }
+
+  /**
+   * @effects
+   *  return a new index of the names <tt>nameAttrib</tt> of the objects of <tt>c</tt>
+   *  in the data source, keyed by <tt>idAttrib</tt> (empty if the table of <tt>c</tt> is not
+   *  yet created)
+   */
+  private static TrigramIndex load(Connection con, Class<?> c, String idAttrib,
+      String nameAttrib) throws SQLException {
+    TrigramIndex index = new TrigramIndex();
+    try (Statement stmt = con.createStatement();
+        ResultSet rs = stmt.executeQuery("select " + idAttrib + ", " + nameAttrib
+            + " from " + SeafoodDb.tableOf(c))) {
+      while (rs.next()) {
+        index.put(rs.getString(1), rs.getString(2));
+      }
+    } catch (SQLException e) {
+      if (!SeafoodDb.isMissingTable(e))
+        throw e;
+    }
+
+    return index;
+  }
+}
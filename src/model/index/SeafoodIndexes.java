@@ -0,0 +1,212 @@
+package model.index;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import model.Country;
+import model.ForeignSeafood;
+import model.Seafood;
+import model.TypeOfSeafood;
+import software.db.Change;
+import software.db.ChangeJournal;
+import software.db.SeafoodDb;
+
+/**
+ * @overview
+ *  The attribute indexes ({@link ValueIndex}) of {@link Seafood}: by {@link TypeOfSeafood}
+ *  and, for {@link ForeignSeafood}, by {@link Country}. Both are keyed by the seafood id and
+ *  map the id of the associated object to the seafoods that refer to it.
+ *
+ *  <p>As with {@link NameIndexes}, the indexes are built from the data source by
+ *  {@link #rebuild()} and are then kept up to date by the committed changes of the seafoods,
+ *  whose type and country are read again by their ids (so a seafood without a type, or that
+ *  is not foreign, is removed as well).
+ */
+public final class SeafoodIndexes implements ChangeJournal.Listener {
+
+  private static final SeafoodIndexes instance = new SeafoodIndexes();
+
+  // null until built
+  private volatile ValueIndex types;
+  private volatile ValueIndex countries;
+
+  private final AtomicBoolean building = new AtomicBoolean();
+
+  private SeafoodIndexes() {
+    // singleton
+  }
+
+  /**
+   * @effects return the shared seafood indexes
+   */
+  public static SeafoodIndexes getInstance() {
+    return instance;
+  }
+
+  /**
+   * @modifies this
+   * @effects
+   *  (re)build the indexes from the data source
+   *
+   *  <p>throws SQLException if fails to read from the data source
+   */
+  public void rebuild() throws SQLException {
+    ChangeJournal.getInstance().attach(this, new ChangeJournal.Snapshot() {
+      private ValueIndex newTypes, newCountries;
+
+      @Override
+      public void read(Connection con) throws SQLException {
+        newTypes = load(con, Seafood.class, typeColumn());
+        newCountries = load(con, ForeignSeafood.class, countryColumn());
+      }
+
+      @Override
+      public void caughtUp() {
+        synchronized (SeafoodIndexes.this) {
+          types = newTypes;
+          countries = newCountries;
+        }
+      }
+    });
+  }
+
+  /**
+   * @effects
+   *  return the index of {@link Seafood} by the id of its {@link TypeOfSeafood} (with the
+   *  changes committed so far) or null if it is not built (then start building it)
+   */
+  public ValueIndex getTypeIndex() {
+    ChangeJournal.getInstance().tryCatchUp();
+    ValueIndex index = types;
+    if (index == null)
+      buildInBackground();
+    return index;
+  }
+
+  /**
+   * @effects
+   *  return the index of {@link ForeignSeafood} by the id of its {@link Country} (with the
+   *  changes committed so far) or null if it is not built (then start building it)
+   */
+  public ValueIndex getCountryIndex() {
+    ChangeJournal.getInstance().tryCatchUp();
+    ValueIndex index = countries;
+    if (index == null)
+      buildInBackground();
+    return index;
+  }
+
+  /**
+   * @effects
+   *  if there is a data source and the indexes are not being built, start building them (see
+   *  {@link #rebuild()}) on a daemon thread; if that fails, they are built at the next request
+   */
+  private void buildInBackground() {
+    if (!SeafoodDb.isConfigured() || !building.compareAndSet(false, true))
+      return;
+
+    Thread t = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          rebuild();
+        } catch (SQLException e) {
+          // built at the next request
+        } finally {
+          building.set(false);
+        }
+      }
+    }, "seafood-indexes");
+    t.setDaemon(true);
+    t.start();
+  }
+
+  /**
+   * @effects
+   *  if <tt>c</tt> is a change of a seafood
+   *    index its stored type and country (removing it from an index if it has no value or is
+   *    not stored); if they cannot be read, drop the indexes, which are built again when
+   *    they are next requested
+   */
+  @Override
+  public void changed(Change c) {
+    if (!c.is(Seafood.class))
+      return;
+
+    ValueIndex typeIndex = types, countryIndex = countries;
+    if (typeIndex == null || countryIndex == null)
+      return;
+
+    String id = c.getObjectId();
+    if (c.getSign() < 0) {
+      typeIndex.remove(id);
+      countryIndex.remove(id);
+      return;
+    }
+
+    try (Connection con = SeafoodDb.open()) {
+      typeIndex.put(id, read(con, Seafood.class, typeColumn(), id));
+      countryIndex.put(id, read(con, ForeignSeafood.class, countryColumn(), id));
+    } catch (SQLException e) {
+      synchronized (this) {
+        types = null;
+        countries = null;
+      }
+    }
+  }
+
+  private static String typeColumn() {
+    return SeafoodDb.fkColumn(Seafood.A_type, "id");
+  }
+
+  private static String countryColumn() {
+    return SeafoodDb.fkColumn(ForeignSeafood.A_country, "id");
+  }
+
+  /**
+   * @effects
+   *  return the value of the column <tt>column</tt> of the object <tt>id</tt> of <tt>c</tt>
+   *  in the data source, null if it is not stored (or its table is not yet created)
+   */
+  private static Object read(Connection con, Class<?> c, String column, String id)
+      throws SQLException {
+    try (PreparedStatement stmt = con.prepareStatement("select " + column + " from " +
+        SeafoodDb.tableOf(c) + " where " + Seafood.A_id + " = ?")) {
+      stmt.setString(1, id);
+      try (ResultSet rs = stmt.executeQuery()) {
+        return rs.next() ? rs.getObject(1) : null;
+      }
+    } catch (SQLException e) {
+      if (!SeafoodDb.isMissingTable(e))
+        throw e;
+      return null;
+    }
+  }
+
+  /**
+   * @effects
+   *  return a new index of the values of the column <tt>column</tt> of the objects of
+   *  <tt>c</tt> in the data source, keyed by their ids (empty if the table of <tt>c</tt> is
+   *  not yet created)
+   */
+  private static ValueIndex load(Connection con, Class<?> c, String column)
+      throws SQLException {
+    ValueIndex index = new ValueIndex();
+    try (Statement stmt = con.createStatement();
+        ResultSet rs = stmt.executeQuery("select " + Seafood.A_id + ", " + column
+            + " from " + SeafoodDb.tableOf(c))) {
+      while (rs.next()) {
+        index.put(rs.getString(1), rs.getObject(2));
+      }
+    } catch (SQLException e) {
+      if (!SeafoodDb.isMissingTable(e))
+        throw e;
+    }
+
+    return index;
+  }
+}
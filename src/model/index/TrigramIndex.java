@@ -0,0 +1,296 @@
+package model.index;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * @overview
+ *  An in-memory substring index over the names of a set of keyed objects.
+ *
+ *  <p>Each name is split into its trigrams (the substrings of 3 characters) and each trigram
+ *  maps to the list of the (ordinals of the) keys whose names contain it. A search for a string
+ *  of at least 3 characters only examines the keys of its rarest trigram and checks each of
+ *  them with {@link String#contains(CharSequence)}; shorter strings are checked against all
+ *  the names. As with SQL <tt>LIKE</tt>, the search is case-sensitive.
+ *
+ *  <p>Changing or removing a name leaves stale entries in the trigram lists. They are not
+ *  counted (each list keeps the number of its live entries, by which the rarest trigram is
+ *  chosen) and never found (a removed key has no name); the lists are rebuilt when the stale
+ *  entries outnumber the others.
+ */
+public final class TrigramIndex {
+
+  // the key and name of each ordinal (the name is null if the key is removed)
+  private final List<String> keys;
+  private final List<String> names;
+  /** the ordinals of the keys in this (not of the removed keys) */
+  private final Map<String, Integer> ordinals;
+
+  /** the ordinals of the keys whose names contain each trigram (see {@link #trigram(String, int)}) */
+  private final Map<Long, Postings> postings;
+
+  // number of entries in postings, and how many of them are stale
+  private long entries;
+  private long stale;
+
+  private final ReadWriteLock lock;
+
+  public TrigramIndex() {
+    keys = new ArrayList<>();
+    names = new ArrayList<>();
+    ordinals = new HashMap<>();
+    postings = new HashMap<>();
+    lock = new ReentrantReadWriteLock();
+  }
+
+  /**
+   * @modifies this
+   * @effects
+   *  if name != null
+   *    set the name of <tt>key</tt> to <tt>name</tt>
+   *  else
+   *    remove <tt>key</tt>
+   */
+  public void put(String key, String name) {
+    if (name == null) {
+      remove(key);
+      return;
+    }
+
+    lock.writeLock().lock();
+    try {
+      Integer ord = ordinals.get(key);
+      if (ord == null) {
+        ord = keys.size();
+        keys.add(key);
+        names.add(name);
+        ordinals.put(key, ord);
+      } else {
+        String old = names.get(ord);
+        if (name.equals(old))
+          return;
+
+        Set<Long> added = trigrams(name);
+        for (Long t : trigrams(old)) {
+          // the entries of the trigrams that the new name also contains stay live
+          if (!added.remove(t))
+            unlink(t);
+        }
+        names.set(ord, name);
+        addPostings(ord, added);
+        compactIfStale();
+        return;
+      }
+
+      addPostings(ord, trigrams(name));
+      compactIfStale();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @modifies this
+   * @effects remove <tt>key</tt> (if it is in this)
+   */
+  public void remove(String key) {
+    lock.writeLock().lock();
+    try {
+      Integer ord = ordinals.remove(key);
+      if (ord == null)
+        return;
+
+      for (Long t : trigrams(names.get(ord))) {
+        unlink(t);
+      }
+      names.set(ord, null);
+
+      compactIfStale();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @effects
+   *  return the keys, in ascending order, whose names contain <tt>s</tt>
+   */
+  public List<String> search(String s) {
+    List<String> found = new ArrayList<>();
+
+    lock.readLock().lock();
+    try {
+      if (s.length() < 3) {
+        // no trigram to look up: check all names
+        for (int ord = 0; ord < names.size(); ord++) {
+          String name = names.get(ord);
+          if (name != null && name.contains(s))
+            found.add(keys.get(ord));
+        }
+      } else {
+        Postings rarest = null;
+        for (Long t : trigrams(s)) {
+          Postings p = postings.get(t);
+          if (p == null || p.live == 0)
+            return found; // no name contains this trigram
+          if (rarest == null || p.live < rarest.live)
+            rarest = p;
+        }
+
+        BitSet seen = new BitSet(names.size());
+        for (int i = 0; i < rarest.size; i++) {
+          int ord = rarest.ords[i];
+          if (seen.get(ord))
+            continue;
+          seen.set(ord);
+
+          String name = names.get(ord);
+          if (name != null && name.contains(s))
+            found.add(keys.get(ord));
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    Collections.sort(found);
+    return found;
+  }
+
+  /**
+   * @effects return all the keys, in ascending order
+   */
+  public List<String> keys() {
+    List<String> found = new ArrayList<>();
+
+    lock.readLock().lock();
+    try {
+      for (int ord = 0; ord < names.size(); ord++) {
+        if (names.get(ord) != null)
+          found.add(keys.get(ord));
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    Collections.sort(found);
+    return found;
+  }
+
+  /**
+   * @effects return the number of keys in this
+   */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return ordinals.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @requires the write lock is held
+   * @modifies this
+   * @effects add <tt>ord</tt> to the postings of <tt>trigrams</tt>
+   */
+  private void addPostings(int ord, Set<Long> trigrams) {
+    for (Long t : trigrams) {
+      Postings p = postings.get(t);
+      if (p == null) {
+        p = new Postings();
+        postings.put(t, p);
+      }
+      p.add(ord);
+      entries++;
+    }
+  }
+
+  /**
+   * @requires the write lock is held /\ a live entry of the postings of <tt>t</tt> is removed
+   * @modifies this
+   * @effects count one entry of the postings of <tt>t</tt> as stale
+   */
+  private void unlink(Long t) {
+    postings.get(t).live--;
+    stale++;
+  }
+
+  /**
+   * @requires the write lock is held
+   * @modifies this
+   * @effects
+   *  if the stale entries outnumber the live ones
+   *    rebuild {@link #postings} from the current names and drop the removed keys
+   */
+  private void compactIfStale() {
+    if (stale <= entries - stale)
+      return;
+
+    List<String> oldKeys = new ArrayList<>(keys);
+    List<String> oldNames = new ArrayList<>(names);
+    keys.clear();
+    names.clear();
+    ordinals.clear();
+    postings.clear();
+    entries = 0;
+    stale = 0;
+
+    for (int ord = 0; ord < oldKeys.size(); ord++) {
+      String name = oldNames.get(ord);
+      if (name != null) {
+        int newOrd = keys.size();
+        keys.add(oldKeys.get(ord));
+        names.add(name);
+        ordinals.put(oldKeys.get(ord), newOrd);
+        addPostings(newOrd, trigrams(name));
+      }
+    }
+  }
+
+  /**
+   * @effects return the distinct trigrams of <tt>s</tt>
+   */
+  private static Set<Long> trigrams(String s) {
+    Set<Long> ts = new HashSet<>();
+    for (int i = 0; i + 3 <= s.length(); i++) {
+      ts.add(trigram(s, i));
+    }
+    return ts;
+  }
+
+  /**
+   * @requires 0 &lt;= i &lt;= s.length - 3
+   * @effects return the trigram of <tt>s</tt> at <tt>i</tt>, packed in a long
+   */
+  private static long trigram(String s, int i) {
+    return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+  }
+
+  /**
+   * @overview a growable list of ordinals, of which <tt>live</tt> are not stale
+   */
+  private static final class Postings {
+    private int[] ords = new int[4];
+    private int size;
+    private int live;
+
+    void add(int ord) {
+      if (size == ords.length) {
+        int[] grown = new int[size * 2];
+        System.arraycopy(ords, 0, grown, 0, size);
+        ords = grown;
+      }
+      ords[size++] = ord;
+      live++;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package model.index;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * @overview
+ *  An in-memory index of a set of keyed objects by the value of one of their attributes
+ *  (e.g. the id of an associated object): each value maps to the ordered set of the keys of
+ *  the objects that have it.
+ */
+public final class ValueIndex {
+
+  /** the keys of the objects that have each value */
+  private final Map<Object, TreeSet<String>> keys;
+
+  /** the value of each key */
+  private final Map<String, Object> values;
+
+  private final ReadWriteLock lock;
+
+  public ValueIndex() {
+    keys = new HashMap<>();
+    values = new HashMap<>();
+    lock = new ReentrantReadWriteLock();
+  }
+
+  /**
+   * @modifies this
+   * @effects
+   *  if value != null
+   *    set the value of <tt>key</tt> to <tt>value</tt>
+   *  else
+   *    remove <tt>key</tt>
+   */
+  public void put(String key, Object value) {
+    lock.writeLock().lock();
+    try {
+      Object old = (value != null) ? values.put(key, value) : values.remove(key);
+      if (old != null && !old.equals(value)) {
+        TreeSet<String> ks = keys.get(old);
+        ks.remove(key);
+        if (ks.isEmpty())
+          keys.remove(old);
+      }
+
+      if (value != null && !value.equals(old)) {
+        TreeSet<String> ks = keys.get(value);
+        if (ks == null) {
+          ks = new TreeSet<>();
+          keys.put(value, ks);
+        }
+        ks.add(key);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @modifies this
+   * @effects remove <tt>key</tt> (if it is in this)
+   */
+  public void remove(String key) {
+    put(key, null);
+  }
+
+  /**
+   * @effects
+   *  return the keys, in ascending order, whose value is <tt>value</tt>
+   */
+  public List<String> search(Object value) {
+    lock.readLock().lock();
+    try {
+      TreeSet<String> ks = keys.get(value);
+      return (ks != null) ? new ArrayList<>(ks) : new ArrayList<String>();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @effects return the number of keys in this
+   */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return values.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+}
@@ -0,0 +1,286 @@
+package model.reports;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingUtilities;
+
+import domainapp.basics.exceptions.DataSourceException;
+
+/**
+ * @overview
+ *  Runs the queries of a report off the caller's thread.
+ *
+ *  <p>Submitting a query supersedes the one submitted before it: that query is cancelled if it
+ *  has not started and, if it is running, the statement it runs on the data source (registered
+ *  with {@link #running(Statement)}) is cancelled and its result is discarded. A query whose
+ *  statement cannot be cancelled (the driver does not support it) runs no statement after it.
+ *  Only the result of the latest query is published to the report, while holding the lock of
+ *  the report, so that the output attributes of the report are all changed at once; the
+ *  output listeners of the report ({@link OutputListener}) are then told on the event
+ *  dispatch thread. A query for the same input as the latest one (that has not failed) is
+ *  not submitted again.
+ *
+ *  <p>The queries of all the reports run on a shared pool of daemon threads.
+ */
+final class AsyncQuery<R> {
+
+  /** the threads that run the report queries */
+  private static final ExecutorService executor = Executors.newCachedThreadPool(
+      new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "report-query-" + count.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        }
+      });
+
+  /** the report (whose lock guards the fields below) */
+  private final Object report;
+
+  /** the query that runs on the current thread (if it is a query thread) */
+  private static final ThreadLocal<Run> current = new ThreadLocal<>();
+
+  /** the number of the latest query submitted */
+  private long latest;
+
+  /** the input of the latest query and whether it has failed */
+  private Object latestInput;
+  private boolean latestFailed;
+
+  /** the latest query (if any) and its cancellation */
+  private Future<?> running;
+  private Run runningQuery;
+
+  /** told when a result (or a failure) is published */
+  private final List<OutputListener> listeners = new CopyOnWriteArrayList<>();
+
+  /**
+   * @effects initialise this to run the queries of <tt>report</tt>
+   */
+  AsyncQuery(Object report) {
+    this.report = report;
+  }
+
+  /**
+   * @modifies this
+   * @effects
+   *  add <tt>l</tt> to the listeners that are told when a result is published
+   */
+  void addListener(OutputListener l) {
+    listeners.add(l);
+  }
+
+  /**
+   * @modifies this
+   * @effects remove <tt>l</tt> from the listeners of this
+   */
+  void removeListener(OutputListener l) {
+    listeners.remove(l);
+  }
+
+  /**
+   * @modifies this
+   * @effects
+   *  if a query has been submitted for <tt>input</tt> (see {@link Object#equals(Object)}) last
+   *  and has not failed
+   *    do nothing (its result is, or will be, published)
+   *  else
+   *    cancel the query running (if any) and run <tt>task</tt> on a query thread
+   */
+  void submit(Object input, final Task<R> task) {
+    synchronized (report) {
+      if (latest > 0 && !latestFailed &&
+          (input == null ? latestInput == null : input.equals(latestInput)))
+        return;
+
+      latestInput = input;
+      latestFailed = false;
+      final long seq = ++latest;
+      if (running != null) {
+        running.cancel(false);
+        runningQuery.cancel();
+      }
+
+      final Run run = new Run();
+      runningQuery = run;
+      running = executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          synchronized (report) {
+            if (seq != latest)
+              return; // superseded before it started
+          }
+
+          R result = null;
+          Exception failure = null;
+          current.set(run);
+          try {
+            result = task.run();
+          } catch (DataSourceException | RuntimeException e) {
+            failure = e;
+          } finally {
+            current.remove();
+          }
+
+          synchronized (report) {
+            if (seq != latest)
+              return; // superseded while it ran
+
+            if (failure == null) {
+              task.publish(result);
+            } else {
+              latestFailed = true;
+              task.failed(failure);
+            }
+          }
+
+          published();
+        }
+      });
+    }
+  }
+
+  /**
+   * @effects
+   *  tell the listeners of this (on the event dispatch thread) that the output of the
+   *  report has changed
+   */
+  private void published() {
+    if (listeners.isEmpty())
+      return;
+
+    SwingUtilities.invokeLater(new Runnable() {
+      @Override
+      public void run() {
+        for (OutputListener l : listeners) {
+          l.outputChanged(report);
+        }
+      }
+    });
+  }
+
+  /**
+   * @effects
+   *  if the current thread runs a query that is cancelled
+   *    throw CancellationException
+   */
+  static void checkCancelled() throws CancellationException {
+    Run run = current.get();
+    if (run != null && run.isCancelled())
+      throw new CancellationException("AsyncQuery: superseded");
+  }
+
+  /**
+   * @effects
+   *  if the current thread runs a query
+   *    register <tt>stmt</tt> as the statement that it is about to execute, so that
+   *    <tt>stmt</tt> is cancelled when the query is
+   *  if the query is cancelled
+   *    throw CancellationException
+   */
+  static void running(Statement stmt) throws CancellationException {
+    Run run = current.get();
+    if (run != null)
+      run.running(stmt);
+  }
+
+  /**
+   * @effects
+   *  if the current thread runs a query, unregister <tt>stmt</tt> (which has been executed)
+   */
+  static void done(Statement stmt) {
+    Run run = current.get();
+    if (run != null)
+      run.done(stmt);
+  }
+
+  /**
+   * @overview the cancellation of a query and the statement it is executing (if any)
+   */
+  private static final class Run {
+    private boolean cancelled;
+    private Statement statement;
+
+    synchronized boolean isCancelled() {
+      return cancelled;
+    }
+
+    synchronized void cancel() {
+      cancelled = true;
+      if (statement != null) {
+        try {
+          statement.cancel();
+        } catch (SQLException e) {
+          // not supported by the driver: no statement is run after it (see running())
+        }
+      }
+    }
+
+    synchronized void running(Statement stmt) throws CancellationException {
+      if (cancelled)
+        throw new CancellationException("AsyncQuery: superseded");
+      statement = stmt;
+    }
+
+    synchronized void done(Statement stmt) {
+      if (statement == stmt)
+        statement = null;
+    }
+  }
+
+  /**
+   * @effects
+   *  return the message that tells the user that the search for <tt>input</tt> failed
+   *  with <tt>e</tt>
+   */
+  static String failure(String input, Exception e) {
+    // the root cause tells why (e.g. the error of the data source)
+    Throwable cause = e;
+    while (cause.getCause() != null) {
+      cause = cause.getCause();
+    }
+    String reason = (cause.getMessage() != null) ? cause.getMessage() :
+        cause.getClass().getSimpleName();
+    return "The search for " + input + " failed: " + reason;
+  }
+
+  /**
+   * @overview a report query and the publication of its result
+   */
+  abstract static class Task<R> {
+    /**
+     * @effects
+     *  run the query and return its result (on a query thread)
+     *
+     *  <p>throws NotPossibleException if failed to generate data source query;
+     *  DataSourceException if fails to read from the data source.
+     */
+    abstract R run() throws DataSourceException;
+
+    /**
+     * @requires the lock of the report is held
+     * @modifies the report
+     * @effects set the output attributes of the report from <tt>result</tt>
+     */
+    abstract void publish(R result);
+
+    /**
+     * @requires the lock of the report is held
+     * @modifies the report
+     * @effects handle the failure <tt>e</tt> of {@link #run()}
+     */
+    abstract void failed(Exception e);
+  }
+}
@@ -1,240 +1,462 @@
-package model.reports;
-
-import java.util.Collection;
-import java.util.Map;
-
-import domainapp.basics.core.dodm.dsm.DSMBasic;
-import domainapp.basics.core.dodm.qrm.QRM;
-import domainapp.basics.exceptions.DataSourceException;
-import domainapp.basics.exceptions.NotPossibleException;
-import domainapp.basics.model.Oid;
-import domainapp.basics.model.meta.AttrRef;
-import domainapp.basics.model.meta.DAssoc;
-import domainapp.basics.model.meta.DAssoc.AssocEndType;
-import domainapp.basics.model.meta.DAssoc.AssocType;
-import domainapp.basics.model.meta.DAssoc.Associate;
-import domainapp.basics.model.meta.DAttr;
-import domainapp.basics.model.meta.DAttr.Type;
-import domainapp.basics.model.meta.DClass;
-import domainapp.basics.model.meta.DOpt;
-import domainapp.basics.model.meta.MetaConstants;
-import domainapp.basics.model.meta.Select;
-import domainapp.basics.model.query.Expression.Op;
-import domainapp.basics.model.query.Query;
-import domainapp.basics.model.query.QueryToolKit;
-import domainapp.basics.modules.report.model.meta.Output;
-import model.Customer;
-import model.Purchaser;
-import model.Seller;
-
-/**
- * @overview 
- * 	Represent the reports about Customers by name.
- * 
- * @author 
- *
- * @version 5.0
- */
-@DClass(schema="seafoodman",serialisable=false)
-public class CustomerByNameReport {
-  @DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
-  private int id;
-  private static int idCounter = 0;
-
-  /**input: Customer name */
-  @DAttr(name = "name", type = Type.String, length = 30, optional = false)
-  private String name;
-  
-  /**output: Customers whose names match {@link #name} */
-  @DAttr(name="customers",type=Type.Collection,optional=false, mutable=false,
-      serialisable=false,filter=@Select(clazz=Customer.class, 
-      attributes={Customer.A_id, Customer.A_name, Customer.A_phone, Customer.A_address, 
-    		  Customer.A_email, Customer.A_rptCustomerByName}),derivedFrom={"name"})
-  @DAssoc(ascName="Customers-by-name-report-has-Customers",role="report",
-      ascType=AssocType.One2Many,endType=AssocEndType.One,
-    associate=@Associate(type=Customer.class,cardMin=0,cardMax=MetaConstants.CARD_MORE))
-  @Output
-  private Collection<Customer> customers;
-
-  /**output: number of Customers found (if any), derived from {@link #Customers} */
-  @DAttr(name = "numCustomers", type = Type.Integer, length = 20, auto=true, mutable=false)
-  @Output
-  private int numCustomers;
-  
-  /**
-   * @effects 
-   *  initialise this with <tt>name</tt> and use {@link QRM} to retrieve from data source 
-   *  all {@link Customer} whose names match <tt>name</tt>.
-   *  initialise {@link #Customers} with the result if any.
-   *  
-   *  <p>throws NotPossibleException if failed to generate data source query; 
-   *  DataSourceException if fails to read from the data source
-   * 
-   */
-  @DOpt(type=DOpt.Type.ObjectFormConstructor)
-  @DOpt(type=DOpt.Type.RequiredConstructor)
-  public CustomerByNameReport(@AttrRef("name") String name) throws NotPossibleException, DataSourceException {
-    this.id=++idCounter;
-    this.name = name;
-    doReportQuery();
-  }
-  
-  /**
-   * @effects return name
-   */
-  public String getName() {
-    return name;
-  }
-
-  /**
-   * @effects <pre>
-   *  set this.name = name
-   *  if name is changed
-   *    invoke {@link #doReportQuery()} to update the output attribute value
-   *    throws NotPossibleException if failed to generate data source query; 
-   *    DataSourceException if fails to read from the data source.
-   *  </pre>
-   */
-  public void setName(String name) throws NotPossibleException, DataSourceException {
-//    boolean doReportQuery = (name != null && !name.equals(this.name));
-    
-    this.name = name;
-    
-    // DONOT invoke this here if there are > 1 input attributes!
-    doReportQuery();
-  }
-
-  /**
-   * This method is invoked when the report input has be set by the user. 
-   * 
-   * @effects <pre>
-   *   formulate the object query
-   *   execute the query to retrieve from the data source the domain objects that satisfy it 
-   *   update the output attributes accordingly.
-   *  
-   *  <p>throws NotPossibleException if failed to generate data source query; 
-   *  DataSourceException if fails to read from the data source. </pre>
-   */
-  @DOpt(type=DOpt.Type.DerivedAttributeUpdater)
-  @AttrRef(value="customers")
-  public void doReportQuery() throws NotPossibleException, DataSourceException {
-    // the query manager instance
-    
-    QRM qrm = QRM.getInstance();
-    
-    // create a query to look up Customer from the data source
-    // and then populate the output attribute (Customers) with the result
-    DSMBasic dsm = qrm.getDsm();
-    
-    //TODO: to conserve memory cache the query and only change the query parameter value(s)
-    Query q = QueryToolKit.createSearchQuery(dsm, Customer.class, 
-        new String[] {Customer.A_name}, 
-        new Op[] {Op.MATCH}, 
-        new Object[] {"%"+name+"%"});
-    
-    Map<Oid, Customer> result = qrm.getDom().retrieveObjects(Customer.class, q);
-    
-    if (result != null) {
-      // update the main output data 
-      customers = result.values();
-      
-      // update other output (if any)
-      numCustomers = customers.size();
-    } else {
-      // no data found: reset output
-      resetOutput();
-    }
-  }
-
-  /**
-   * @effects 
-   *  reset all output attributes to their initial values
-   */
-  private void resetOutput() {
-    customers = null;
-    numCustomers = 0;
-  }
-
-  /**
-   * A link-adder method for {@link #Customers}, required for the object form to function.
-   * However, this method is empty because Customers have already be recorded in the attribute {@link #Customers}.
-   */
-  @DOpt(type=DOpt.Type.LinkAdder)
-  public boolean addCustomer(Collection<Customer> customers) {
-    // do nothing
-    return false;
-  }
-  
-  /**
-   * @effects return Customers
-   */
-  public Collection<Customer> getCustomers() {
-    return customers;
-  }
-  
-  /**
-   * @effects return numCustomers
-   */
-  public int getNumCustomers() {
-    return numCustomers;
-  }
-
-  /**
-   * @effects return id
-   */
-  public int getId() {
-    return id;
-  }
-
-  /* (non-Javadoc)
-   * @see java.lang.Object#hashCode()
-   */
-  /**
-   * @effects 
-   * 
-   * @version 
-   */
-  @Override
-  public int hashCode() {
-    final int prime = 31;
-    int result = 1;
-    result = prime * result + id;
-    return result;
-  }
-
-  /* (non-Javadoc)
-   * @see java.lang.Object#equals(java.lang.Object)
-   */
-  /**
-   * @effects 
-   * 
-   * @version 
-   */
-  @Override
-  public boolean equals(Object obj) {
-    if (this == obj)
-      return true;
-    if (obj == null)
-      return false;
-    if (getClass() != obj.getClass())
-      return false;
-    CustomerByNameReport other = (CustomerByNameReport) obj;
-    if (id != other.id)
-      return false;
-    return true;
-  }
-
-  /* (non-Javadoc)
-   * @see java.lang.Object#toString()
-   */
-  /**
-   * @effects 
-   * 
-   * @version 
-   */
-  @Override
-  public String toString() {
-    return "CustomersByNameReport (" + id + ", " + name + ")";
-  }
-
-}
+package model.reports;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.ConstraintViolationException;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.model.meta.AttrRef;
+import domainapp.basics.model.meta.DAssoc;
+import domainapp.basics.model.meta.DAssoc.AssocEndType;
+import domainapp.basics.model.meta.DAssoc.AssocType;
+import domainapp.basics.model.meta.DAssoc.Associate;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import domainapp.basics.model.meta.DOpt;
+import domainapp.basics.model.meta.MetaConstants;
+import domainapp.basics.model.meta.Select;
+import domainapp.basics.model.query.Expression.Op;
+import domainapp.basics.modules.report.model.meta.Output;
+import model.Customer;
+import model.index.NameIndexes;
+import model.index.TrigramIndex;
+import model.Purchaser;
+import model.Seller;
+import model.util.IdAllocator;
+import model.util.IdCounter;
+import software.db.SeafoodDb;
+
+/**
+ * @overview 
+ * 	Represent the reports about Customers by name.
+ * 
+ * @author 
+ *
+ * @version 5.0
+ */
+@DClass(schema="seafoodman",serialisable=false)
+public class CustomerByNameReport {
+  @DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static final IdCounter idCounter = IdAllocator.counterFor(CustomerByNameReport.class);
+  /** the (paged) query of {@link #doReportQuery()} */
+  private static final PagedQuery<Customer> query = new PagedQuery<>(Customer.class, 
+      new String[] {Customer.A_name}, 
+      new Op[] {Op.MATCH}, 
+      Customer.A_id);
+
+  /** the columns of {@link #export(String)} */
+  private static final ReportExporter.Columns<Customer> COLUMNS = new ReportExporter.Columns<Customer>(
+      new String[] {Customer.A_id, Customer.A_name, Customer.A_phone, Customer.A_address, Customer.A_email},
+      new String[] {Customer.A_id, Customer.A_name, Customer.A_phone,
+          SeafoodDb.fkColumn(Customer.A_address, "id"), Customer.A_email}) {
+    @Override
+    void write(Customer o, ReportExporter out) throws IOException {
+      out.value(o.getId());
+      out.value(o.getName());
+      out.value(o.getPhone());
+      out.value((o.getAddress() != null) ? o.getAddress().getId() : null);
+      out.value(o.getEmail());
+    }
+  };
+
+  /**input: Customer name */
+  @DAttr(name = "name", type = Type.String, length = 30, optional = false)
+  private String name;
+  
+  /**output: Customers whose names match {@link #name} */
+  @DAttr(name="customers",type=Type.Collection,optional=false, mutable=false,
+      serialisable=false,filter=@Select(clazz=Customer.class, 
+      attributes={Customer.A_id, Customer.A_name, Customer.A_phone, Customer.A_address, 
+    		  Customer.A_email, Customer.A_rptCustomerByName}),derivedFrom={"name"})
+  @DAssoc(ascName="Customers-by-name-report-has-Customers",role="report",
+      ascType=AssocType.One2Many,endType=AssocEndType.One,
+    associate=@Associate(type=Customer.class,cardMin=0,cardMax=MetaConstants.CARD_MORE))
+  @Output
+  private Collection<Customer> customers;
+
+  /**output: number of Customers found (if any), derived from {@link #Customers} */
+  @DAttr(name = "numCustomers", type = Type.Integer, length = 20, auto=true, mutable=false)
+  @Output
+  private int numCustomers;
+
+  /**input: the page of the output to show (from 1) */
+  @DAttr(name = "page", type = Type.Integer, length = 5, optional = true)
+  private int page;
+
+  /**output: number of pages of the output */
+  @DAttr(name = "numPages", type = Type.Integer, length = 5, auto=true, mutable=false)
+  @Output
+  private int numPages;
+
+  /**output: why the last search failed (if it did) */
+  @DAttr(name = "status", type = Type.String, length = 200, auto=true, mutable=false, optional=true)
+  @Output
+  private String status;
+
+  /** the (paged) result of the last query */
+  private PagedResult<Customer> pages;
+
+  /** whether the page {@link #page} is loaded into {@link #customers} */
+  private boolean pageLoaded;
+
+  /** runs the queries of this off the caller's thread (see {@link #setName(String)}) */
+  private final AsyncQuery<PagedResult<Customer>> runner = new AsyncQuery<>(this);
+  
+  /**
+   * @effects 
+   *  initialise this with <tt>name</tt> and use {@link QRM} to retrieve from data source 
+   *  all {@link Customer} whose names match <tt>name</tt>.
+   *  initialise {@link #Customers} with the result if any.
+   *  (the query runs off the caller's thread, see {@link #doReportQuery()})
+   *  
+   *  <p>throws NotPossibleException if failed to generate data source query; 
+   *  DataSourceException if fails to read from the data source
+   * 
+   */
+  @DOpt(type=DOpt.Type.ObjectFormConstructor)
+  @DOpt(type=DOpt.Type.RequiredConstructor)
+  public CustomerByNameReport(@AttrRef("name") String name) throws NotPossibleException, DataSourceException {
+    this.id=idCounter.next();
+    this.name = name;
+    doReportQuery();
+  }
+  
+  /**
+   * @effects return name
+   */
+  public synchronized String getName() {
+    return name;
+  }
+
+  /**
+   * @effects <pre>
+   *  set this.name = name
+   *  run the query of {@link #doReportQuery()} for <tt>name</tt>
+   *  </pre>
+   */
+  public synchronized void setName(String name) {
+    this.name = name;
+    search(name);
+  }
+
+  /**
+   * This method is invoked when the report input has be set by the user. 
+   * 
+   * @effects <pre>
+   *   unless the output is of (or is being searched for) this.name
+   *     run the query for this.name off the caller's thread (cancelling the one running for 
+   *     the previous name, if any), then update the output attributes and tell the output 
+   *     listeners (see {@link #addOutputListener(OutputListener)})
+   *   if the query fails, the output is reset and the failure is told by {@link #getStatus()}
+   *  </pre>
+   */
+  @DOpt(type=DOpt.Type.DerivedAttributeUpdater)
+  @AttrRef(value="customers")
+  public synchronized void doReportQuery() throws NotPossibleException, DataSourceException {
+    search(name);
+  }
+
+  /**
+   * @requires the lock of this is held
+   * @effects submit the query for <tt>input</tt> (see {@link #doReportQuery()})
+   */
+  private void search(final String input) {
+    runner.submit(input, new AsyncQuery.Task<PagedResult<Customer>>() {
+      @Override
+      PagedResult<Customer> run() throws DataSourceException {
+        return find(input);
+      }
+
+      @Override
+      void publish(PagedResult<Customer> found) {
+        setOutput(found);
+      }
+
+      @Override
+      void failed(Exception e) {
+        resetOutput();
+        status = AsyncQuery.failure(input, e);
+      }
+    });
+  }
+
+  /**
+   * @modifies this
+   * @effects
+   *  add <tt>l</tt> to the listeners that are told (on the event dispatch thread) when the 
+   *  output of a query that runs off the caller's thread is set
+   */
+  public void addOutputListener(OutputListener l) {
+    runner.addListener(l);
+  }
+
+  /**
+   * @modifies this
+   * @effects remove <tt>l</tt> from the output listeners of this
+   */
+  public void removeOutputListener(OutputListener l) {
+    runner.removeListener(l);
+  }
+
+  /**
+   * @effects 
+   *  return the (paged) result of the search for the customers whose names match <tt>name</tt>
+   *  
+   *  <p>throws NotPossibleException if failed to generate data source query; 
+   *  DataSourceException if fails to read from the data source.
+   */
+  private static PagedResult<Customer> find(String name) throws NotPossibleException, DataSourceException {
+    // the query manager instance
+    
+    QRM qrm = QRM.getInstance();
+    
+    // look up the cached result first: it is discarded by any write to Customer
+    ResultCache cache = ResultCache.getInstance();
+    PagedResult<Customer> cached = cache.get(CustomerByNameReport.class, Customer.class, name);
+    if (cached != null)
+      return cached;
+    
+    // look up Customer in the name index (if it is built) or else run the prepared query 
+    // on the data source
+    // and then populate the output attribute (Customers) with the result
+    long gen = cache.generation(Customer.class);
+    String s = ResultCache.normalise(name);
+    TrigramIndex index = NameIndexes.getInstance().getCustomerIndex();
+    PagedResult<Customer> found;
+    if (index != null && !PagedQuery.hasWildcards(s)) {
+      found = query.open(index.search(s), "%"+s+"%");
+    } else {
+      found = query.open(qrm, "%"+s+"%");
+    }
+    cache.put(CustomerByNameReport.class, Customer.class, name, gen, found);
+    return found;
+  }
+
+  /**
+   * @effects 
+   *  if <tt>found</tt> is not empty
+   *    set the output attributes from <tt>found</tt> and show its first page
+   *  else
+   *    reset the output attributes
+   */
+  private synchronized void setOutput(PagedResult<Customer> found) {
+    status = null;
+    if (found != null && found.getCount() > 0) {
+      pages = found;
+      
+      // update other output (exact: counted without creating any object)
+      numCustomers = found.getCount();
+      numPages = 0;
+      
+      // the main output data is loaded when it is viewed
+      showPage(1);
+    } else {
+      // no data found: reset output
+      resetOutput();
+    }
+  }
+
+  /**
+   * @requires pages != null
+   * @effects 
+   *  set this.page = page and clear {@link #customers}, which is loaded (by 
+   *  {@link #getCustomers()}) when it is viewed
+   */
+  private void showPage(int page) {
+    this.page = page;
+    customers = null;
+    pageLoaded = false;
+  }
+
+  /**
+   * @requires pages != null
+   * @effects 
+   *  load the page {@link #page} of {@link #pages} into {@link #customers}
+   *  
+   *  <p>throws IllegalStateException if fails to read from the data source
+   */
+  private void loadPage() throws IllegalStateException {
+    Collection<Customer> objects;
+    try {
+      objects = pages.getPage(QRM.getInstance(), page);
+    } catch (DataSourceException e) {
+      throw new IllegalStateException("CustomerByNameReport.loadPage: failed to load page " + page, e);
+    }
+    
+    pageLoaded = true;
+    if (objects != null && !objects.isEmpty()) {
+      customers = objects;
+    } else {
+      // the page has been emptied by a change since the query
+      customers = null;
+    }
+  }
+
+  /**
+   * @effects 
+   *  reset all output attributes to their initial values
+   */
+  private void resetOutput() {
+    customers = null;
+    numCustomers = 0;
+    numPages = 0;
+    page = 0;
+    pages = null;
+  }
+
+  /**
+   * A link-adder method for {@link #Customers}, required for the object form to function.
+   * However, this method is empty because Customers have already be recorded in the attribute {@link #Customers}.
+   */
+  @DOpt(type=DOpt.Type.LinkAdder)
+  public boolean addCustomer(Collection<Customer> customers) {
+    // do nothing
+    return false;
+  }
+  
+  /**
+   * @effects return Customers (the page {@link #page} is loaded when this is invoked)
+   */
+  public synchronized Collection<Customer> getCustomers() throws IllegalStateException {
+    if (pages != null && !pageLoaded)
+      loadPage();
+    
+    return customers;
+  }
+  
+  /**
+   * @effects return numCustomers
+   */
+  public synchronized int getNumCustomers() {
+    return numCustomers;
+  }
+
+  /**
+   * @effects return page
+   */
+  public synchronized int getPage() {
+    return page;
+  }
+
+  /**
+   * @effects <pre>
+   *  if there is an output
+   *    load the page <tt>page</tt> of the output
+   *    throws ConstraintViolationException if the page does not exist.
+   *  </pre>
+   */
+  public synchronized void setPage(int page) throws ConstraintViolationException {
+    if (pages != null) {
+      if (page < 1 || page > getNumPages())
+        throw new ConstraintViolationException(
+            ConstraintViolationException.Code.INVALID_VALUE, new Object[] { page });
+      
+      showPage(page);
+    }
+  }
+
+  /**
+   * @effects 
+   *  return numPages (the pages are first counted when this is invoked)
+   *  
+   *  <p>throws IllegalStateException if fails to read from the data source
+   */
+  public synchronized int getNumPages() throws IllegalStateException {
+    if (pages != null && numPages == 0) {
+      try {
+        numPages = pages.getNumPages();
+      } catch (DataSourceException e) {
+        throw new IllegalStateException("CustomerByNameReport.getNumPages: failed to count pages", e);
+      }
+    }
+    return numPages;
+  }
+
+  /**
+   * @effects return status (null if the last search did not fail)
+   */
+  public synchronized String getStatus() {
+    return status;
+  }
+
+  /**
+   * @effects 
+   *  write the whole output of this (all its pages) to <tt>file</tt>, as TSV if the name of 
+   *  <tt>file</tt> ends with <tt>.tsv</tt> or else as CSV, and return the number of rows written; 
+   *  the rows are streamed from the data source, the output is not loaded
+   *  
+   *  <p>throws IOException if fails to write the file; DataSourceException if fails to read 
+   *  from the data source
+   */
+  public int export(String file) throws IOException, DataSourceException {
+    PagedResult<Customer> result;
+    synchronized (this) {
+      result = pages;
+    }
+    
+    return ReportExporter.export(file, result, COLUMNS);
+  }
+
+  /**
+   * @effects return id
+   */
+  public int getId() {
+    return id;
+  }
+
+  /* (non-Javadoc)
+   * @see java.lang.Object#hashCode()
+   */
+  /**
+   * @effects 
+   * 
+   * @version 
+   */
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + id;
+    return result;
+  }
+
+  /* (non-Javadoc)
+   * @see java.lang.Object#equals(java.lang.Object)
+   */
+  /**
+   * @effects 
+   * 
+   * @version 
+   */
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    CustomerByNameReport other = (CustomerByNameReport) obj;
+    if (id != other.id)
+      return false;
+    return true;
+  }
+
+  /* (non-Javadoc)
+   * @see java.lang.Object#toString()
+   */
+  /**
+   * @effects 
+   * 
+   * @version 
+   */
+  @Override
+  public String toString() {
+    return "CustomersByNameReport (" + id + ", " + name + ")";
+  }
+
+}
@@ -0,0 +1,99 @@
+package model.reports;
+
+import java.io.IOException;
+
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import model.stats.CustomerTotals;
+import model.util.Dates;
+import model.util.IdAllocator;
+import model.util.IdCounter;
+
+/**
+ * @overview
+ *  Represent a row of a customer value report: the rank of a customer and the totals of
+ *  its purchases.
+ */
+@DClass(schema="seafoodman",serialisable=false)
+public class CustomerValue {
+
+  public static final String A_id = "id";
+  public static final String A_rank = "rank";
+  public static final String A_customerId = "customerId";
+  public static final String A_orders = "orders";
+  public static final String A_spend = "spend";
+  public static final String A_lastPurchase = "lastPurchase";
+
+  @DAttr(name = A_id, id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static final IdCounter idCounter = IdAllocator.counterFor(CustomerValue.class);
+
+  @DAttr(name = A_rank, type = Type.Integer, length = 6, optional = false, mutable = false)
+  private int rank;
+
+  @DAttr(name = A_customerId, type = Type.String, length = 6, optional = false, mutable = false)
+  private String customerId;
+
+  @DAttr(name = A_orders, type = Type.Integer, length = 10, optional = false, mutable = false)
+  private int orders;
+
+  @DAttr(name = A_spend, type = Type.Double, length = 15, optional = false, mutable = false)
+  private double spend;
+
+  /** the date ({@value Dates#PATTERN}) of the last transaction, or null if there is none */
+  @DAttr(name = A_lastPurchase, type = Type.String, length = 20, optional = true, mutable = false)
+  private String lastPurchase;
+
+  /** the columns of the export of the customers (see {@link CustomerValueReport#export(String)}) */
+  static final ReportExporter.Columns<CustomerValue> COLUMNS = new ReportExporter.Columns<CustomerValue>(
+      new String[] {A_rank, A_customerId, A_orders, A_spend, A_lastPurchase}) {
+    @Override
+    void write(CustomerValue o, ReportExporter out) throws IOException {
+      out.value(o.rank);
+      out.value(o.customerId);
+      out.value(o.orders);
+      out.value(o.spend);
+      out.value(o.lastPurchase);
+    }
+  };
+
+  public CustomerValue(int rank, String customerId, CustomerTotals totals) {
+    this.id = idCounter.next();
+    this.rank = rank;
+    this.customerId = customerId;
+    this.orders = totals.getOrders();
+    this.spend = totals.getSpend();
+    int lastDay = totals.getLastDay();
+    this.lastPurchase = (lastDay != CustomerTotals.NO_DAY) ? Dates.format(lastDay) : null;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public int getRank() {
+    return rank;
+  }
+
+  public String getCustomerId() {
+    return customerId;
+  }
+
+  public int getOrders() {
+    return orders;
+  }
+
+  public double getSpend() {
+    return spend;
+  }
+
+  public String getLastPurchase() {
+    return lastPurchase;
+  }
+
+  @Override
+  public String toString() {
+    return "CustomerValue(" + rank + ", " + customerId + ", " + orders + ", " + spend + ", " + lastPurchase + ")";
+  }
+}
@@ -0,0 +1,301 @@
+package model.reports;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import domainapp.basics.exceptions.ConstraintViolationException;
+import domainapp.basics.model.meta.AttrRef;
+import domainapp.basics.model.meta.DAssoc;
+import domainapp.basics.model.meta.DAssoc.AssocEndType;
+import domainapp.basics.model.meta.DAssoc.AssocType;
+import domainapp.basics.model.meta.DAssoc.Associate;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import domainapp.basics.model.meta.DOpt;
+import domainapp.basics.model.meta.MetaConstants;
+import domainapp.basics.model.meta.Select;
+import domainapp.basics.modules.report.model.meta.Output;
+import model.stats.CustomerStats;
+import model.stats.CustomerTotals;
+import model.util.IdAllocator;
+import model.util.IdCounter;
+import software.db.ChangeJournal;
+
+/**
+ * @overview
+ * 	Represent the reports that rank the customers by the amount they spent, by their
+ *  number of orders (bills) or by the date of their last purchase, and show the best
+ *  <tt>top</tt> of them.
+ *
+ *  <p>The totals are read from {@link CustomerStats}, no bill is loaded; the best customers
+ *  are selected with a heap of at most <tt>top</tt> entries.
+ */
+@DClass(schema="seafoodman",serialisable=false)
+public class CustomerValueReport {
+  /** the default number of customers ranked */
+  public static final int DEFAULT_TOP = 20;
+
+  /** the values of {@link #rankBy} */
+  public static final String RANK_BY_SPEND = "spend";
+  public static final String RANK_BY_ORDERS = "orders";
+  public static final String RANK_BY_RECENCY = "recency";
+
+  @DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static final IdCounter idCounter = IdAllocator.counterFor(CustomerValueReport.class);
+
+  /**input: number of customers to rank (default {@value #DEFAULT_TOP}) */
+  @DAttr(name = "top", type = Type.Integer, length = 6, optional = true, min = 1)
+  private Integer top;
+
+  /**input: the ranking: {@value #RANK_BY_SPEND} (default), {@value #RANK_BY_ORDERS} or {@value #RANK_BY_RECENCY} */
+  @DAttr(name = "rankBy", type = Type.String, length = 10, optional = true)
+  private String rankBy;
+
+  /**output: the best {@link #top} customers, in rank order */
+  @DAttr(name="customers",type=Type.Collection,optional=false, mutable=false,
+      serialisable=false,filter=@Select(clazz=CustomerValue.class,
+      attributes={CustomerValue.A_rank, CustomerValue.A_customerId, CustomerValue.A_orders,
+          CustomerValue.A_spend, CustomerValue.A_lastPurchase}),
+      derivedFrom={"top", "rankBy"})
+  @DAssoc(ascName="customer-value-report-has-customers",role="report",
+      ascType=AssocType.One2Many,endType=AssocEndType.One,
+    associate=@Associate(type=CustomerValue.class,cardMin=0,cardMax=MetaConstants.CARD_MORE))
+  @Output
+  private Collection<CustomerValue> customers;
+
+  /**output: number of customers that have purchased */
+  @DAttr(name = "numCustomers", type = Type.Integer, length = 20, auto=true, mutable=false)
+  @Output
+  private int numCustomers;
+
+  /** orders totals by spend, then by orders, then by last day */
+  private static final Comparator<Map.Entry<String, CustomerTotals>> BY_SPEND =
+      new Comparator<Map.Entry<String, CustomerTotals>>() {
+    @Override
+    public int compare(Map.Entry<String, CustomerTotals> o1, Map.Entry<String, CustomerTotals> o2) {
+      CustomerTotals t1 = o1.getValue(), t2 = o2.getValue();
+      int c = Double.compare(t1.getSpend(), t2.getSpend());
+      if (c == 0)
+        c = Integer.compare(t1.getOrders(), t2.getOrders());
+      if (c == 0)
+        c = Integer.compare(t1.getLastDay(), t2.getLastDay());
+      // ties: the smaller id ranks higher
+      return (c != 0) ? c : o2.getKey().compareTo(o1.getKey());
+    }
+  };
+
+  /** orders totals by orders, then by spend */
+  private static final Comparator<Map.Entry<String, CustomerTotals>> BY_ORDERS =
+      new Comparator<Map.Entry<String, CustomerTotals>>() {
+    @Override
+    public int compare(Map.Entry<String, CustomerTotals> o1, Map.Entry<String, CustomerTotals> o2) {
+      CustomerTotals t1 = o1.getValue(), t2 = o2.getValue();
+      int c = Integer.compare(t1.getOrders(), t2.getOrders());
+      if (c == 0)
+        c = Double.compare(t1.getSpend(), t2.getSpend());
+      return (c != 0) ? c : o2.getKey().compareTo(o1.getKey());
+    }
+  };
+
+  /** orders totals by last day, then by spend */
+  private static final Comparator<Map.Entry<String, CustomerTotals>> BY_RECENCY =
+      new Comparator<Map.Entry<String, CustomerTotals>>() {
+    @Override
+    public int compare(Map.Entry<String, CustomerTotals> o1, Map.Entry<String, CustomerTotals> o2) {
+      CustomerTotals t1 = o1.getValue(), t2 = o2.getValue();
+      int c = Integer.compare(t1.getLastDay(), t2.getLastDay());
+      if (c == 0)
+        c = Double.compare(t1.getSpend(), t2.getSpend());
+      return (c != 0) ? c : o2.getKey().compareTo(o1.getKey());
+    }
+  };
+
+  /**
+   * @effects
+   *  initialise this with the inputs and rank the customers.
+   *
+   *  <p>throws ConstraintViolationException if rankBy is not a valid ranking
+   */
+  @DOpt(type=DOpt.Type.ObjectFormConstructor)
+  @DOpt(type=DOpt.Type.RequiredConstructor)
+  public CustomerValueReport(@AttrRef("top") Integer top, @AttrRef("rankBy") String rankBy)
+      throws ConstraintViolationException {
+    this.id=idCounter.next();
+    this.top = top;
+    this.rankBy = rankBy;
+    orderOf(rankBy);
+    doReportQuery();
+  }
+
+  /**
+   * @effects return top
+   */
+  public Integer getTop() {
+    return top;
+  }
+
+  /**
+   * @effects return rankBy
+   */
+  public String getRankBy() {
+    return rankBy;
+  }
+
+  /**
+   * @effects set this.top = top
+   */
+  public void setTop(Integer top) {
+    this.top = top;
+
+    // DONOT invoke doReportQuery here: there are > 1 input attributes
+  }
+
+  /**
+   * @effects <pre>
+   *  set this.rankBy = rankBy
+   *  throws ConstraintViolationException if rankBy is not a valid ranking.
+   *  </pre>
+   */
+  public void setRankBy(String rankBy) throws ConstraintViolationException {
+    orderOf(rankBy);
+    this.rankBy = rankBy;
+  }
+
+  /**
+   * @effects
+   *  return the order of the ranking <tt>rankBy</tt> (null means {@value #RANK_BY_SPEND});
+   *  throws ConstraintViolationException if rankBy is not a valid ranking
+   */
+  private static Comparator<Map.Entry<String, CustomerTotals>> orderOf(String rankBy)
+      throws ConstraintViolationException {
+    if (rankBy == null || rankBy.isEmpty() || RANK_BY_SPEND.equals(rankBy))
+      return BY_SPEND;
+    else if (RANK_BY_ORDERS.equals(rankBy))
+      return BY_ORDERS;
+    else if (RANK_BY_RECENCY.equals(rankBy))
+      return BY_RECENCY;
+    else
+      throw new ConstraintViolationException(
+          ConstraintViolationException.Code.INVALID_VALUE, new Object[] { rankBy });
+  }
+
+  /**
+   * This method is invoked when the report input has be set by the user.
+   *
+   * @effects <pre>
+   *   select the best top customers in the ranking rankBy
+   *   update the output attributes accordingly.</pre>
+   */
+  @DOpt(type=DOpt.Type.DerivedAttributeUpdater)
+  @AttrRef(value="customers")
+  public void doReportQuery() {
+    // the changes committed so far are applied first
+    ChangeJournal.getInstance().tryCatchUp();
+    int n = (top != null && top > 0) ? top : DEFAULT_TOP;
+    Comparator<Map.Entry<String, CustomerTotals>> order = orderOf(rankBy);
+
+    // a min-heap of the best n so far: its head is the first to be pushed out
+    PriorityQueue<Map.Entry<String, CustomerTotals>> best = new PriorityQueue<>(n + 1, order);
+    int purchased = 0;
+    for (Map.Entry<String, CustomerTotals> e : CustomerStats.getInstance().getTotals().entrySet()) {
+      CustomerTotals t = e.getValue();
+      if (t.getOrders() <= 0 && t.getLastDay() == CustomerTotals.NO_DAY)
+        continue;
+
+      purchased++;
+      best.add(e);
+      if (best.size() > n)
+        best.poll();
+    }
+
+    // the heap in rank order
+    List<Map.Entry<String, CustomerTotals>> ranked = new ArrayList<>(best);
+    Collections.sort(ranked, Collections.reverseOrder(order));
+
+    List<CustomerValue> rows = new ArrayList<>(ranked.size());
+    int rank = 0;
+    for (Map.Entry<String, CustomerTotals> e : ranked) {
+      rows.add(new CustomerValue(++rank, e.getKey(), e.getValue()));
+    }
+
+    customers = rows;
+    numCustomers = purchased;
+  }
+
+  /**
+   * A link-adder method for {@link #customers}, required for the object form to function.
+   * However, this method is empty because the customers have already be recorded in the attribute.
+   */
+  @DOpt(type=DOpt.Type.LinkAdder)
+  public boolean addCustomers(Collection<CustomerValue> customers) {
+    // do nothing
+    return false;
+  }
+
+  /**
+   * @effects return customers
+   */
+  public Collection<CustomerValue> getCustomers() {
+    return customers;
+  }
+
+  /**
+   * @effects return numCustomers
+   */
+  public int getNumCustomers() {
+    return numCustomers;
+  }
+
+  /**
+   * @effects 
+   *  write the customers of this to <tt>file</tt>, as TSV if the name of <tt>file</tt> ends with 
+   *  <tt>.tsv</tt> or else as CSV, and return the number of rows written
+   *  
+   *  <p>throws IOException if fails to write the file
+   */
+  public int export(String file) throws IOException {
+    return ReportExporter.export(file, customers, CustomerValue.COLUMNS);
+  }
+
+  /**
+   * @effects return id
+   */
+  public int getId() {
+    return id;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + id;
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    CustomerValueReport other = (CustomerValueReport) obj;
+    if (id != other.id)
+      return false;
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "CustomerValueReport (" + id + ", " + top + ", " + rankBy + ")";
+  }
+}
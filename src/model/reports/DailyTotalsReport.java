@@ -0,0 +1,231 @@
+package model.reports;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import domainapp.basics.exceptions.ConstraintViolationException;
+import domainapp.basics.model.meta.AttrRef;
+import domainapp.basics.model.meta.DAssoc;
+import domainapp.basics.model.meta.DAssoc.AssocEndType;
+import domainapp.basics.model.meta.DAssoc.AssocType;
+import domainapp.basics.model.meta.DAssoc.Associate;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import domainapp.basics.model.meta.DOpt;
+import domainapp.basics.model.meta.MetaConstants;
+import domainapp.basics.model.meta.Select;
+import domainapp.basics.modules.report.model.meta.Output;
+import model.stats.TransactionRollups;
+import model.stats.TransactionRollups.Kind;
+import model.stats.TransactionRollups.Period;
+import model.util.Dates;
+import model.util.IdAllocator;
+import model.util.IdCounter;
+import software.db.ChangeJournal;
+
+/**
+ * @overview 
+ * 	Represent the reports about the import and export totals of each seafood on a day.
+ * 
+ *  <p>The totals are read from {@link TransactionRollups}, no transaction is loaded.
+ */
+@DClass(schema="seafoodman",serialisable=false)
+public class DailyTotalsReport {
+  @DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static final IdCounter idCounter = IdAllocator.counterFor(DailyTotalsReport.class);
+
+  /**input: date (dd/MM/yyyy) */
+  @DAttr(name = "date", type = Type.String, length = 30, optional = false)
+  private String date;
+  
+  /**output: import totals of each seafood in {@link #date} */
+  @DAttr(name="importTotals",type=Type.Collection,optional=false, mutable=false,
+      serialisable=false,filter=@Select(clazz=TransactionTotal.class, 
+      attributes={TransactionTotal.A_seafoodId, TransactionTotal.A_count, TransactionTotal.A_quantity, 
+          TransactionTotal.A_amount}),derivedFrom={"date"})
+  @DAssoc(ascName="daily-totals-report-has-import-totals",role="report",
+      ascType=AssocType.One2Many,endType=AssocEndType.One,
+    associate=@Associate(type=TransactionTotal.class,cardMin=0,cardMax=MetaConstants.CARD_MORE))
+  @Output
+  private Collection<TransactionTotal> importTotals;
+  
+  /**output: export totals of each seafood in {@link #date} */
+  @DAttr(name="exportTotals",type=Type.Collection,optional=false, mutable=false,
+      serialisable=false,filter=@Select(clazz=TransactionTotal.class, 
+      attributes={TransactionTotal.A_seafoodId, TransactionTotal.A_count, TransactionTotal.A_quantity, 
+          TransactionTotal.A_amount}),derivedFrom={"date"})
+  @DAssoc(ascName="daily-totals-report-has-export-totals",role="report",
+      ascType=AssocType.One2Many,endType=AssocEndType.One,
+    associate=@Associate(type=TransactionTotal.class,cardMin=0,cardMax=MetaConstants.CARD_MORE))
+  @Output
+  private Collection<TransactionTotal> exportTotals;
+
+  /**output: total amount of the imports in {@link #date} */
+  @DAttr(name = "importAmount", type = Type.Double, length = 20, auto=true, mutable=false)
+  @Output
+  private double importAmount;
+  
+  /**output: total amount of the exports in {@link #date} */
+  @DAttr(name = "exportAmount", type = Type.Double, length = 20, auto=true, mutable=false)
+  @Output
+  private double exportAmount;
+  
+  /**
+   * @effects 
+   *  initialise this with <tt>date</tt> and read the totals of <tt>date</tt> 
+   *  from {@link TransactionRollups}.
+   *  
+   *  <p>throws ParseException if date is not a valid date
+   */
+  @DOpt(type=DOpt.Type.ObjectFormConstructor)
+  @DOpt(type=DOpt.Type.RequiredConstructor)
+  public DailyTotalsReport(@AttrRef("date") String date) throws ParseException {
+    this.id=idCounter.next();
+    this.date = date;
+    doReportQuery(Dates.toEpochDay(date));
+  }
+  
+  /**
+   * @effects return date
+   */
+  public String getDate() {
+    return date;
+  }
+
+  /**
+   * @effects <pre>
+   *  set this.date = date
+   *  invoke {@link #doReportQuery()} to update the output attribute value
+   *  throws ConstraintViolationException if date is not a valid date.
+   *  </pre>
+   */
+  public void setDate(String date) throws ConstraintViolationException {
+    int day;
+    try {
+      day = Dates.toEpochDay(date);
+    } catch (ParseException e) {
+      throw new ConstraintViolationException(
+          ConstraintViolationException.Code.INVALID_VALUE, e, new Object[] { date });
+    }
+    this.date = date;
+    doReportQuery(day);
+  }
+
+  /**
+   * @effects 
+   *  read the import and export totals of the epoch day <tt>day</tt> and 
+   *  update the output attributes accordingly.
+   */
+  private void doReportQuery(int day) {
+    // the changes committed so far are applied first
+    ChangeJournal.getInstance().tryCatchUp();
+    TransactionRollups rollups = TransactionRollups.getInstance();
+    
+    List<TransactionTotal> imports = new ArrayList<>();
+    importAmount = MonthlyTotalsReport.collect(rollups.getTotals(Kind.IMPORT, Period.DAY, day), imports);
+    importTotals = imports;
+    
+    List<TransactionTotal> exports = new ArrayList<>();
+    exportAmount = MonthlyTotalsReport.collect(rollups.getTotals(Kind.EXPORT, Period.DAY, day), exports);
+    exportTotals = exports;
+  }
+  
+  /**
+   * A link-adder method for {@link #importTotals}, required for the object form to function.
+   * However, this method is empty because the totals have already be recorded in the attribute.
+   */
+  @DOpt(type=DOpt.Type.LinkAdder)
+  public boolean addImportTotals(Collection<TransactionTotal> totals) {
+    // do nothing
+    return false;
+  }
+  
+  /**
+   * A link-adder method for {@link #exportTotals}, required for the object form to function.
+   * However, this method is empty because the totals have already be recorded in the attribute.
+   */
+  @DOpt(type=DOpt.Type.LinkAdder)
+  public boolean addExportTotals(Collection<TransactionTotal> totals) {
+    // do nothing
+    return false;
+  }
+  
+  /**
+   * @effects return importTotals
+   */
+  public Collection<TransactionTotal> getImportTotals() {
+    return importTotals;
+  }
+  
+  /**
+   * @effects return exportTotals
+   */
+  public Collection<TransactionTotal> getExportTotals() {
+    return exportTotals;
+  }
+  
+  /**
+   * @effects return importAmount
+   */
+  public double getImportAmount() {
+    return importAmount;
+  }
+  
+  /**
+   * @effects return exportAmount
+   */
+  public double getExportAmount() {
+    return exportAmount;
+  }
+
+  /**
+   * @effects 
+   *  write the import and then the export totals of this to <tt>file</tt>, as TSV if the name of <tt>file</tt> ends with 
+   *  <tt>.tsv</tt> or else as CSV, and return the number of rows written
+   *  
+   *  <p>throws IOException if fails to write the file
+   */
+  public int export(String file) throws IOException {
+    return TransactionTotal.export(file, importTotals, exportTotals);
+  }
+
+  /**
+   * @effects return id
+   */
+  public int getId() {
+    return id;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + id;
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    DailyTotalsReport other = (DailyTotalsReport) obj;
+    if (id != other.id)
+      return false;
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "DailyTotalsReport (" + id + ", " + date + ")";
+  }
+
+}
@@ -0,0 +1,385 @@
+package model.reports;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import controller.ExportSeafood;
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.ConstraintViolationException;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.model.meta.AttrRef;
+import domainapp.basics.model.meta.DAssoc;
+import domainapp.basics.model.meta.DAssoc.AssocEndType;
+import domainapp.basics.model.meta.DAssoc.AssocType;
+import domainapp.basics.model.meta.DAssoc.Associate;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import domainapp.basics.model.meta.DOpt;
+import domainapp.basics.model.meta.MetaConstants;
+import domainapp.basics.model.meta.Select;
+import domainapp.basics.model.query.Expression.Op;
+import domainapp.basics.modules.report.model.meta.Output;
+import model.util.Dates;
+import model.util.IdAllocator;
+import model.util.IdCounter;
+
+/**
+ * @overview 
+ * 	Represent the reports about Export Seafoods whose dates are within a date range.
+ * 
+ *  <p>The range is looked up on the (indexed) epoch-day column of {@link ExportSeafood}, 
+ *  so the cost of the report depends on the number of exports in the range, not on 
+ *  the size of the table.
+ */
+@DClass(schema="seafoodman",serialisable=false)
+public class ExportSeafoodByDateRangeReport {
+  @DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static final IdCounter idCounter = IdAllocator.counterFor(ExportSeafoodByDateRangeReport.class);
+  /** the (paged) query of {@link #doReportQuery()} */
+  private static final PagedQuery<ExportSeafood> query = new PagedQuery<>(ExportSeafood.class, 
+      new String[] {ExportSeafood.A_DateDay, ExportSeafood.A_DateDay}, 
+      new Op[] {Op.GTEQ, Op.LTEQ}, 
+      ExportSeafood.A_DateDay);
+
+  /**input: first date of the range */
+  @DAttr(name = "fromDate", type = Type.String, length = 30, optional = false)
+  private String fromDate;
+  
+  /**input: last date of the range */
+  @DAttr(name = "toDate", type = Type.String, length = 30, optional = false)
+  private String toDate;
+  
+  // the epoch days of fromDate and toDate
+  private int fromDay;
+  private int toDay;
+  
+  /**output: Export seafoods whose dates are between {@link #fromDate} and {@link #toDate}, in date order */
+  @DAttr(name="exportSeafoods",type=Type.Collection,optional=false, mutable=false,
+      serialisable=false,filter=@Select(clazz=ExportSeafood.class, 
+      attributes={ExportSeafood.A_Id, ExportSeafood.A_Date, ExportSeafood.A_Quantity, ExportSeafood.A_Price, 
+    		  ExportSeafood.A_Total,ExportSeafood.A_Customer}),derivedFrom={"fromDate", "toDate"})
+  @DAssoc(ascName="export-seafood-by-date-range-report-has-export-seafood",role="report",
+      ascType=AssocType.One2Many,endType=AssocEndType.One,
+    associate=@Associate(type=ExportSeafood.class,cardMin=0,cardMax=MetaConstants.CARD_MORE))
+  @Output
+  private Collection<ExportSeafood> exportSeafoods;
+
+  /**output: number of export seafoods found (if any), derived from {@link #exportSeafoods} */
+  @DAttr(name = "numExports", type = Type.Integer, length = 20, auto=true, mutable=false)
+  @Output
+  private int numExports;
+
+  /**input: the page of the output to show (from 1) */
+  @DAttr(name = "page", type = Type.Integer, length = 5, optional = true)
+  private int page;
+
+  /**output: number of pages of the output */
+  @DAttr(name = "numPages", type = Type.Integer, length = 5, auto=true, mutable=false)
+  @Output
+  private int numPages;
+
+  /** the (paged) result of the last query */
+  private PagedResult<ExportSeafood> pages;
+
+  /** whether the page {@link #page} is loaded into {@link #exportSeafoods} */
+  private boolean pageLoaded;
+  
+  /**
+   * @effects 
+   *  initialise this with <tt>fromDate, toDate</tt> and use {@link QRM} to retrieve from data source 
+   *  all {@link ExportSeafood} whose dates are between <tt>fromDate</tt> and <tt>toDate</tt>.
+   *  initialise {@link #exportSeafoods} with the result if any.
+   *  
+   *  <p>throws NotPossibleException if failed to generate data source query; 
+   *  DataSourceException if fails to read from the data source; 
+   *  ParseException if fromDate or toDate is not a valid date
+   * 
+   */
+  @DOpt(type=DOpt.Type.ObjectFormConstructor)
+  @DOpt(type=DOpt.Type.RequiredConstructor)
+  public ExportSeafoodByDateRangeReport(@AttrRef("fromDate") String fromDate, @AttrRef("toDate") String toDate) 
+      throws NotPossibleException, DataSourceException, ParseException {
+    this.id=idCounter.next();
+    this.fromDay = Dates.toEpochDay(fromDate);
+    this.toDay = Dates.toEpochDay(toDate);
+    this.fromDate = fromDate;
+    this.toDate = toDate;
+    doReportQuery();
+  }
+  
+  /**
+   * @effects return fromDate
+   */
+  public String getFromDate() {
+    return fromDate;
+  }
+  
+  /**
+   * @effects return toDate
+   */
+  public String getToDate() {
+    return toDate;
+  }
+
+  /**
+   * @effects <pre>
+   *  set this.fromDate = fromDate
+   *  throws ConstraintViolationException if fromDate is not a valid date.
+   *  </pre>
+   */
+  public void setFromDate(String fromDate) throws ConstraintViolationException {
+    this.fromDay = toEpochDay(fromDate);
+    this.fromDate = fromDate;
+    
+    // DONOT invoke doReportQuery here: there are > 1 input attributes
+  }
+  
+  /**
+   * @effects <pre>
+   *  set this.toDate = toDate
+   *  throws ConstraintViolationException if toDate is not a valid date.
+   *  </pre>
+   */
+  public void setToDate(String toDate) throws ConstraintViolationException {
+    this.toDay = toEpochDay(toDate);
+    this.toDate = toDate;
+  }
+  
+  private static int toEpochDay(String date) throws ConstraintViolationException {
+    try {
+      return Dates.toEpochDay(date);
+    } catch (ParseException e) {
+      throw new ConstraintViolationException(
+          ConstraintViolationException.Code.INVALID_VALUE, e, new Object[] { date });
+    }
+  }
+
+  /**
+   * This method is invoked when the report input has be set by the user. 
+   * 
+   * @effects <pre>
+   *   formulate the object query
+   *   execute the query to retrieve from the data source the domain objects that satisfy it 
+   *   update the output attributes accordingly.
+   *  
+   *  <p>throws NotPossibleException if failed to generate data source query; 
+   *  DataSourceException if fails to read from the data source. </pre>
+   */
+  @DOpt(type=DOpt.Type.DerivedAttributeUpdater)
+  @AttrRef(value="exportSeafoods")
+  public void doReportQuery() throws NotPossibleException, DataSourceException {
+    QRM qrm = QRM.getInstance();
+    
+    // run the prepared query to look up ExportSeafood in the date range from the data source
+    // and then populate the output attribute (exportSeafoods) with the result
+    setOutput(query.open(qrm, fromDay, toDay));
+  }
+  
+  /** orders export seafoods by date, then by id */
+  private static final Comparator<ExportSeafood> BY_DATE = new Comparator<ExportSeafood>() {
+    @Override
+    public int compare(ExportSeafood o1, ExportSeafood o2) {
+      int c = Integer.compare(o1.getDateDay(), o2.getDateDay());
+      return (c != 0) ? c : Integer.compare(o1.getId(), o2.getId());
+    }
+  };
+
+
+  /**
+   * @effects 
+   *  if <tt>found</tt> is not empty
+   *    set the output attributes from <tt>found</tt> and show its first page
+   *  else
+   *    reset the output attributes
+   */
+  private void setOutput(PagedResult<ExportSeafood> found) {
+    if (found != null && found.getCount() > 0) {
+      pages = found;
+      
+      // update other output (exact: counted without creating any object)
+      numExports = found.getCount();
+      numPages = 0;
+      
+      // the main output data is loaded when it is viewed
+      showPage(1);
+    } else {
+      // no data found: reset output
+      resetOutput();
+    }
+  }
+
+  /**
+   * @requires pages != null
+   * @effects 
+   *  set this.page = page and clear {@link #exportSeafoods}, which is loaded (by 
+   *  {@link #getExportSeafoods()}) when it is viewed
+   */
+  private void showPage(int page) {
+    this.page = page;
+    exportSeafoods = null;
+    pageLoaded = false;
+  }
+
+  /**
+   * @requires pages != null
+   * @effects 
+   *  load the page {@link #page} of {@link #pages} into {@link #exportSeafoods}
+   *  
+   *  <p>throws IllegalStateException if fails to read from the data source
+   */
+  private void loadPage() throws IllegalStateException {
+    Collection<ExportSeafood> objects;
+    try {
+      objects = pages.getPage(QRM.getInstance(), page);
+    } catch (DataSourceException e) {
+      throw new IllegalStateException("ExportSeafoodByDateRangeReport.loadPage: failed to load page " + page, e);
+    }
+    
+    pageLoaded = true;
+    if (objects != null && !objects.isEmpty()) {
+      // the page in date order
+      List<ExportSeafood> sorted = new ArrayList<>(objects);
+      Collections.sort(sorted, BY_DATE);
+      exportSeafoods = sorted;
+    } else {
+      // the page has been emptied by a change since the query
+      exportSeafoods = null;
+    }
+  }
+
+  /**
+   * @effects 
+   *  reset all output attributes to their initial values
+   */
+  private void resetOutput() {
+    exportSeafoods = null;
+    numExports = 0;
+    numPages = 0;
+    page = 0;
+    pages = null;
+  }
+
+  /**
+   * A link-adder method for {@link #exportSeafoods}, required for the object form to function.
+   * However, this method is empty because export seafoods have already be recorded in the attribute {@link #exportSeafoods}.
+   */
+  @DOpt(type=DOpt.Type.LinkAdder)
+  public boolean addExportSeafood(Collection<ExportSeafood> exportSeafoods) {
+    // do nothing
+    return false;
+  }
+  
+  /**
+   * @effects return exportSeafoods (the page {@link #page} is loaded when this is invoked)
+   */
+  public Collection<ExportSeafood> getExportSeafoods() throws IllegalStateException {
+    if (pages != null && !pageLoaded)
+      loadPage();
+    
+    return exportSeafoods;
+  }
+  
+  /**
+   * @effects return numExports
+   */
+  public int getNumExports() {
+    return numExports;
+  }
+
+  /**
+   * @effects return page
+   */
+  public int getPage() {
+    return page;
+  }
+
+  /**
+   * @effects <pre>
+   *  if there is an output
+   *    load the page <tt>page</tt> of the output
+   *    throws ConstraintViolationException if the page does not exist.
+   *  </pre>
+   */
+  public void setPage(int page) throws ConstraintViolationException {
+    if (pages != null) {
+      if (page < 1 || page > getNumPages())
+        throw new ConstraintViolationException(
+            ConstraintViolationException.Code.INVALID_VALUE, new Object[] { page });
+      
+      showPage(page);
+    }
+  }
+
+  /**
+   * @effects 
+   *  return numPages (the pages are first counted when this is invoked)
+   *  
+   *  <p>throws IllegalStateException if fails to read from the data source
+   */
+  public int getNumPages() throws IllegalStateException {
+    if (pages != null && numPages == 0) {
+      try {
+        numPages = pages.getNumPages();
+      } catch (DataSourceException e) {
+        throw new IllegalStateException("ExportSeafoodByDateRangeReport.getNumPages: failed to count pages", e);
+      }
+    }
+    return numPages;
+  }
+
+  /**
+   * @effects 
+   *  write the whole output of this (all its pages) to <tt>file</tt>, as TSV if the name of 
+   *  <tt>file</tt> ends with <tt>.tsv</tt> or else as CSV, and return the number of rows written; 
+   *  the rows are streamed from the data source, the output is not loaded
+   *  
+   *  <p>throws IOException if fails to write the file; DataSourceException if fails to read 
+   *  from the data source
+   */
+  public int export(String file) throws IOException, DataSourceException {
+    return ReportExporter.export(file, pages, ExportSeafoodByDateReport.COLUMNS);
+  }
+
+  /**
+   * @effects return id
+   */
+  public int getId() {
+    return id;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + id;
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    ExportSeafoodByDateRangeReport other = (ExportSeafoodByDateRangeReport) obj;
+    if (id != other.id)
+      return false;
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "ExportSeafoodByDateRangeReport (" + id + ", " + fromDate + ", " + toDate + ")";
+  }
+
+}
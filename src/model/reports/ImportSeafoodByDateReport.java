@@ -1,17 +1,16 @@
 package model.reports;
 
-import java.text.DateFormat;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Collection;
-import java.util.Map;
 
 import controller.ImportSeafood;
-import domainapp.basics.core.dodm.dsm.DSMBasic;
 import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.ConstraintViolationException;
 import domainapp.basics.exceptions.DataSourceException;
 import domainapp.basics.exceptions.NotPossibleException;
-import domainapp.basics.model.Oid;
 import domainapp.basics.model.meta.AttrRef;
 import domainapp.basics.model.meta.DAssoc;
 import domainapp.basics.model.meta.DAssoc.AssocEndType;
@@ -24,10 +23,13 @@ import domainapp.basics.model.meta.DOpt;
 import domainapp.basics.model.meta.MetaConstants;
 import domainapp.basics.model.meta.Select;
 import domainapp.basics.model.query.Expression.Op;
-import domainapp.basics.model.query.Query;
-import domainapp.basics.model.query.QueryToolKit;
 import domainapp.basics.modules.report.model.meta.Output;
 import model.Customer;
+import model.util.Dates;
+import model.Seafood;
+import model.util.IdAllocator;
+import model.util.IdCounter;
+import software.db.SeafoodDb;
 
 /**
  * @overview 
@@ -41,12 +43,50 @@ import model.Customer;
 public class ImportSeafoodByDateReport {
   @DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
   private int id;
-  private static int idCounter = 0;
+  private static final IdCounter idCounter = IdAllocator.counterFor(ImportSeafoodByDateReport.class);
+  /** the (paged) query of {@link #doReportQuery()} */
+  private static final PagedQuery<ImportSeafood> query = new PagedQuery<>(ImportSeafood.class, 
+      new String[] {ImportSeafood.A_DateDay}, 
+      new Op[] {Op.EQ}, 
+      ImportSeafood.A_Id);
+
+  /** the columns of {@link #export(String)} */
+  static final ReportExporter.Columns<ImportSeafood> COLUMNS = new ReportExporter.Columns<ImportSeafood>(
+      new String[] {ImportSeafood.A_Id, "seafood", ImportSeafood.A_Preserver, ImportSeafood.A_Customer,
+          ImportSeafood.A_Quantity, ImportSeafood.A_Price, ImportSeafood.A_Date, ImportSeafood.A_Total},
+      new String[] {ImportSeafood.A_Id, SeafoodDb.fkColumn("seafood", Seafood.A_id),
+          SeafoodDb.fkColumn(ImportSeafood.A_Preserver, "id"),
+          SeafoodDb.fkColumn(ImportSeafood.A_Customer, Customer.A_id),
+          ImportSeafood.A_Quantity, ImportSeafood.A_Price, ImportSeafood.A_DateDay,
+          ImportSeafood.A_Quantity + " * " + ImportSeafood.A_Price}) {
+    @Override
+    void write(ImportSeafood o, ReportExporter out) throws IOException {
+      out.value(o.getId());
+      out.value((o.getSeafood() != null) ? o.getSeafood().getId() : null);
+      out.value((o.getPreserver() != null) ? o.getPreserver().getId() : null);
+      out.value((o.getCustomer() != null) ? o.getCustomer().getId() : null);
+      out.value(o.getQuantity());
+      out.value(o.getPrice());
+      out.value(o.getDate());
+      out.value(o.getTotal());
+    }
+
+    @Override
+    void write(ResultSet rs, ReportExporter out) throws SQLException, IOException {
+      for (int i = 1; i <= 8; i++) {
+        // the date is stored as its epoch day
+        out.value((i == 7) ? Dates.format(rs.getInt(i)) : rs.getObject(i));
+      }
+    }
+  };
 
   /**input: Import date */
   @DAttr(name = "date", type = Type.String, length = 30, optional = false)
   private String date;
   
+  /** the epoch day of {@link #date}, which is used to look up the imports */
+  private int dateDay;
+  
   /**output: Import date which date match {@link #date} */
   @DAttr(name="importSeafoods",type=Type.Collection,optional=false, mutable=false,
       serialisable=false,filter=@Select(clazz=ImportSeafood.class, 
@@ -62,12 +102,36 @@ public class ImportSeafoodByDateReport {
   @DAttr(name = "numImports", type = Type.Integer, length = 20, auto=true, mutable=false)
   @Output
   private int numImports;
+
+  /**input: the page of the output to show (from 1) */
+  @DAttr(name = "page", type = Type.Integer, length = 5, optional = true)
+  private int page;
+
+  /**output: number of pages of the output */
+  @DAttr(name = "numPages", type = Type.Integer, length = 5, auto=true, mutable=false)
+  @Output
+  private int numPages;
+
+  /**output: why the last search failed (if it did) */
+  @DAttr(name = "status", type = Type.String, length = 200, auto=true, mutable=false, optional=true)
+  @Output
+  private String status;
+
+  /** the (paged) result of the last query */
+  private PagedResult<ImportSeafood> pages;
+
+  /** whether the page {@link #page} is loaded into {@link #importSeafoods} */
+  private boolean pageLoaded;
+
+  /** runs the queries of this off the caller's thread (see {@link #setDate(String)}) */
+  private final AsyncQuery<PagedResult<ImportSeafood>> runner = new AsyncQuery<>(this);
   
   /**
    * @effects 
    *  initialise this with <tt>name</tt> and use {@link QRM} to retrieve from data source 
    *  all {@link Customer} whose names match <tt>name</tt>.
    *  initialise {@link #Customers} with the result if any.
+   *  (the query runs off the caller's thread, see {@link #doReportQuery()})
    *  
    *  <p>throws NotPossibleException if failed to generate data source query; 
    *  DataSourceException if fails to read from the data source
@@ -77,87 +141,157 @@ public class ImportSeafoodByDateReport {
   @DOpt(type=DOpt.Type.RequiredConstructor)
   public ImportSeafoodByDateReport(@AttrRef("date") String date) throws NotPossibleException, DataSourceException
   , ParseException {
-    this.id=++idCounter;
-    this.date = checkDate(date);
+    this.id=idCounter.next();
+    this.dateDay = Dates.toEpochDay(date);
+    this.date = date;
     doReportQuery();
   }
   
   /**
    * @effects return name
    */
-  public String getDate() {
+  public synchronized String getDate() {
     return date;
   }
 
   /**
    * @effects <pre>
-   *  set this.name = name
-   *  if name is changed
-   *    invoke {@link #doReportQuery()} to update the output attribute value
-   *    throws NotPossibleException if failed to generate data source query; 
-   *    DataSourceException if fails to read from the data source.
+   *  set this.date = date
+   *  run the query of {@link #doReportQuery()} for <tt>date</tt>
+   *  throws ConstraintViolationException if date is not a valid date.
    *  </pre>
    */
-  public void setDate(String date) throws NotPossibleException, DataSourceException {
-	  // boolean doReportQuery = (name != null && !name.equals(this.name));
-    
+  public synchronized void setDate(String date) throws ConstraintViolationException {
+    try {
+      this.dateDay = Dates.toEpochDay(date);
+    } catch (ParseException e) {
+      throw new ConstraintViolationException(
+          ConstraintViolationException.Code.INVALID_VALUE, e, new Object[] { date });
+    }
     this.date = date;
-    
-    // DONOT invoke this here if there are > 1 input attributes!
-    doReportQuery();
+    search(dateDay);
   }
-  
-  private String checkDate(String date) throws ParseException  {
-	  DateFormat format = new SimpleDateFormat("dd/MM/yyyy");
-	  format.setLenient(false);
-	  format.parse(date);
-	  
-	  return date;
-  }
-
 
   /**
    * This method is invoked when the report input has be set by the user. 
    * 
    * @effects <pre>
-   *   formulate the object query
-   *   execute the query to retrieve from the data source the domain objects that satisfy it 
-   *   update the output attributes accordingly.
-   *  
-   *  <p>throws NotPossibleException if failed to generate data source query; 
-   *  DataSourceException if fails to read from the data source. </pre>
+   *   unless the output is of (or is being searched for) the day of this.date
+   *     run the query for that day off the caller's thread (cancelling the one running for 
+   *     the previous date, if any), then update the output attributes and tell the output 
+   *     listeners (see {@link #addOutputListener(OutputListener)})
+   *   if the query fails, the output is reset and the failure is told by {@link #getStatus()}
+   *  </pre>
    */
   @DOpt(type=DOpt.Type.DerivedAttributeUpdater)
   @AttrRef(value="ImportSeafoods")
-  public void doReportQuery() throws NotPossibleException, DataSourceException {
-    // the query manager instance
-    
-    QRM qrm = QRM.getInstance();
-    
-    // create a query to look up Customer from the data source
-    // and then populate the output attribute (Customers) with the result
-    DSMBasic dsm = qrm.getDsm();
-    
-    //TODO: to conserve memory cache the query and only change the query parameter value(s)
-    Query q = QueryToolKit.createSearchQuery(dsm, ImportSeafood.class, 
-        new String[] {ImportSeafood.A_Date}, 
-        new Op[] {Op.MATCH}, 
-        new Object[] {"%"+date+"%"});
-    
-    Map<Oid, ImportSeafood> result = qrm.getDom().retrieveObjects(ImportSeafood.class, q);
-    
-    if (result != null) {
-      // update the main output data 
-    	importSeafoods = result.values();
+  public synchronized void doReportQuery() throws NotPossibleException, DataSourceException {
+    search(dateDay);
+  }
+
+  /**
+   * @requires the lock of this is held
+   * @effects submit the query for the epoch day <tt>day</tt> (see {@link #doReportQuery()})
+   */
+  private void search(final int day) {
+    final String input = date;
+    runner.submit(day, new AsyncQuery.Task<PagedResult<ImportSeafood>>() {
+      @Override
+      PagedResult<ImportSeafood> run() throws DataSourceException {
+        return query.open(QRM.getInstance(), day);
+      }
+
+      @Override
+      void publish(PagedResult<ImportSeafood> found) {
+        setOutput(found);
+      }
+
+      @Override
+      void failed(Exception e) {
+        resetOutput();
+        status = AsyncQuery.failure(input, e);
+      }
+    });
+  }
+
+  /**
+   * @modifies this
+   * @effects
+   *  add <tt>l</tt> to the listeners that are told (on the event dispatch thread) when the 
+   *  output of a query that runs off the caller's thread is set
+   */
+  public void addOutputListener(OutputListener l) {
+    runner.addListener(l);
+  }
+
+  /**
+   * @modifies this
+   * @effects remove <tt>l</tt> from the output listeners of this
+   */
+  public void removeOutputListener(OutputListener l) {
+    runner.removeListener(l);
+  }
+
+  /**
+   * @effects 
+   *  if <tt>found</tt> is not empty
+   *    set the output attributes from <tt>found</tt> and show its first page
+   *  else
+   *    reset the output attributes
+   */
+  private synchronized void setOutput(PagedResult<ImportSeafood> found) {
+    status = null;
+    if (found != null && found.getCount() > 0) {
+      pages = found;
       
-      // update other output (if any)
-    	numImports = importSeafoods.size();
+      // update other output (exact: counted without creating any object)
+      numImports = found.getCount();
+      numPages = 0;
+      
+      // the main output data is loaded when it is viewed
+      showPage(1);
     } else {
       // no data found: reset output
       resetOutput();
     }
   }
 
+  /**
+   * @requires pages != null
+   * @effects 
+   *  set this.page = page and clear {@link #importSeafoods}, which is loaded (by 
+   *  {@link #getImportSeafoods()}) when it is viewed
+   */
+  private void showPage(int page) {
+    this.page = page;
+    importSeafoods = null;
+    pageLoaded = false;
+  }
+
+  /**
+   * @requires pages != null
+   * @effects 
+   *  load the page {@link #page} of {@link #pages} into {@link #importSeafoods}
+   *  
+   *  <p>throws IllegalStateException if fails to read from the data source
+   */
+  private void loadPage() throws IllegalStateException {
+    Collection<ImportSeafood> objects;
+    try {
+      objects = pages.getPage(QRM.getInstance(), page);
+    } catch (DataSourceException e) {
+      throw new IllegalStateException("ImportSeafoodByDateReport.loadPage: failed to load page " + page, e);
+    }
+    
+    pageLoaded = true;
+    if (objects != null && !objects.isEmpty()) {
+      importSeafoods = objects;
+    } else {
+      // the page has been emptied by a change since the query
+      importSeafoods = null;
+    }
+  }
+
   /**
    * @effects 
    *  reset all output attributes to their initial values
@@ -165,6 +299,9 @@ public class ImportSeafoodByDateReport {
   private void resetOutput() {
 	  importSeafoods = null;
 	  numImports = 0;
+	  numPages = 0;
+	  page = 0;
+	  pages = null;
   }
 
   /**
@@ -178,19 +315,88 @@ public class ImportSeafoodByDateReport {
   }
   
   /**
-   * @effects return Customers
+   * @effects return Customers (the page {@link #page} is loaded when this is invoked)
    */
-  public Collection<ImportSeafood> getImportSeafoods() {
+  public synchronized Collection<ImportSeafood> getImportSeafoods() throws IllegalStateException {
+    if (pages != null && !pageLoaded)
+      loadPage();
+    
     return importSeafoods;
   }
   
   /**
    * @effects return numImportSeafoods
    */
-  public int getNumImports() {
+  public synchronized int getNumImports() {
     return numImports;
   }
 
+  /**
+   * @effects return page
+   */
+  public synchronized int getPage() {
+    return page;
+  }
+
+  /**
+   * @effects <pre>
+   *  if there is an output
+   *    load the page <tt>page</tt> of the output
+   *    throws ConstraintViolationException if the page does not exist.
+   *  </pre>
+   */
+  public synchronized void setPage(int page) throws ConstraintViolationException {
+    if (pages != null) {
+      if (page < 1 || page > getNumPages())
+        throw new ConstraintViolationException(
+            ConstraintViolationException.Code.INVALID_VALUE, new Object[] { page });
+      
+      showPage(page);
+    }
+  }
+
+  /**
+   * @effects 
+   *  return numPages (the pages are first counted when this is invoked)
+   *  
+   *  <p>throws IllegalStateException if fails to read from the data source
+   */
+  public synchronized int getNumPages() throws IllegalStateException {
+    if (pages != null && numPages == 0) {
+      try {
+        numPages = pages.getNumPages();
+      } catch (DataSourceException e) {
+        throw new IllegalStateException("ImportSeafoodByDateReport.getNumPages: failed to count pages", e);
+      }
+    }
+    return numPages;
+  }
+
+  /**
+   * @effects return status (null if the last search did not fail)
+   */
+  public synchronized String getStatus() {
+    return status;
+  }
+
+  /**
+   * @effects 
+   *  write the whole output of this (all its pages) to <tt>file</tt>, as TSV if the name of 
+   *  <tt>file</tt> ends with <tt>.tsv</tt> or else as CSV, and return the number of rows written; 
+   *  the rows are streamed from the data source, the output is not loaded
+   *  
+   *  <p>throws IOException if fails to write the file; DataSourceException if fails to read 
+   *  from the data source
+   */
+  public int export(String file) throws IOException, DataSourceException {
+    PagedResult<ImportSeafood> result;
+    synchronized (this) {
+      result = pages;
+    }
+    
+    return ReportExporter.export(file, result, COLUMNS);
+  }
+
   /**
    * @effects return id
    */
@@ -0,0 +1,254 @@
+package model.reports;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import domainapp.basics.exceptions.ConstraintViolationException;
+import domainapp.basics.model.meta.AttrRef;
+import domainapp.basics.model.meta.DAssoc;
+import domainapp.basics.model.meta.DAssoc.AssocEndType;
+import domainapp.basics.model.meta.DAssoc.AssocType;
+import domainapp.basics.model.meta.DAssoc.Associate;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import domainapp.basics.model.meta.DOpt;
+import domainapp.basics.model.meta.MetaConstants;
+import domainapp.basics.model.meta.Select;
+import domainapp.basics.modules.report.model.meta.Output;
+import model.stats.Totals;
+import model.stats.TransactionRollups;
+import model.stats.TransactionRollups.Kind;
+import model.stats.TransactionRollups.Period;
+import model.util.Dates;
+import model.util.IdAllocator;
+import model.util.IdCounter;
+import software.db.ChangeJournal;
+
+/**
+ * @overview 
+ * 	Represent the reports about the import and export totals of each seafood in a month.
+ * 
+ *  <p>The totals are read from {@link TransactionRollups}, no transaction is loaded.
+ */
+@DClass(schema="seafoodman",serialisable=false)
+public class MonthlyTotalsReport {
+  @DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static final IdCounter idCounter = IdAllocator.counterFor(MonthlyTotalsReport.class);
+
+  /**input: month (MM/yyyy) */
+  @DAttr(name = "month", type = Type.String, length = 10, optional = false)
+  private String month;
+  
+  /**output: import totals of each seafood in {@link #month} */
+  @DAttr(name="importTotals",type=Type.Collection,optional=false, mutable=false,
+      serialisable=false,filter=@Select(clazz=TransactionTotal.class, 
+      attributes={TransactionTotal.A_seafoodId, TransactionTotal.A_count, TransactionTotal.A_quantity, 
+          TransactionTotal.A_amount}),derivedFrom={"month"})
+  @DAssoc(ascName="monthly-totals-report-has-import-totals",role="report",
+      ascType=AssocType.One2Many,endType=AssocEndType.One,
+    associate=@Associate(type=TransactionTotal.class,cardMin=0,cardMax=MetaConstants.CARD_MORE))
+  @Output
+  private Collection<TransactionTotal> importTotals;
+  
+  /**output: export totals of each seafood in {@link #month} */
+  @DAttr(name="exportTotals",type=Type.Collection,optional=false, mutable=false,
+      serialisable=false,filter=@Select(clazz=TransactionTotal.class, 
+      attributes={TransactionTotal.A_seafoodId, TransactionTotal.A_count, TransactionTotal.A_quantity, 
+          TransactionTotal.A_amount}),derivedFrom={"month"})
+  @DAssoc(ascName="monthly-totals-report-has-export-totals",role="report",
+      ascType=AssocType.One2Many,endType=AssocEndType.One,
+    associate=@Associate(type=TransactionTotal.class,cardMin=0,cardMax=MetaConstants.CARD_MORE))
+  @Output
+  private Collection<TransactionTotal> exportTotals;
+
+  /**output: total amount of the imports in {@link #month} */
+  @DAttr(name = "importAmount", type = Type.Double, length = 20, auto=true, mutable=false)
+  @Output
+  private double importAmount;
+  
+  /**output: total amount of the exports in {@link #month} */
+  @DAttr(name = "exportAmount", type = Type.Double, length = 20, auto=true, mutable=false)
+  @Output
+  private double exportAmount;
+  
+  /**
+   * @effects 
+   *  initialise this with <tt>month</tt> and read the totals of <tt>month</tt> 
+   *  from {@link TransactionRollups}.
+   *  
+   *  <p>throws ParseException if month is not a valid month
+   */
+  @DOpt(type=DOpt.Type.ObjectFormConstructor)
+  @DOpt(type=DOpt.Type.RequiredConstructor)
+  public MonthlyTotalsReport(@AttrRef("month") String month) throws ParseException {
+    this.id=idCounter.next();
+    this.month = month;
+    doReportQuery(Dates.toMonth(month));
+  }
+  
+  /**
+   * @effects return month
+   */
+  public String getMonth() {
+    return month;
+  }
+
+  /**
+   * @effects <pre>
+   *  set this.month = month
+   *  invoke {@link #doReportQuery()} to update the output attribute value
+   *  throws ConstraintViolationException if month is not a valid month.
+   *  </pre>
+   */
+  public void setMonth(String month) throws ConstraintViolationException {
+    int m;
+    try {
+      m = Dates.toMonth(month);
+    } catch (ParseException e) {
+      throw new ConstraintViolationException(
+          ConstraintViolationException.Code.INVALID_VALUE, e, new Object[] { month });
+    }
+    this.month = month;
+    doReportQuery(m);
+  }
+
+  /**
+   * @effects 
+   *  read the import and export totals of the month number <tt>m</tt> and 
+   *  update the output attributes accordingly.
+   */
+  private void doReportQuery(int m) {
+    // the changes committed so far are applied first
+    ChangeJournal.getInstance().tryCatchUp();
+    TransactionRollups rollups = TransactionRollups.getInstance();
+    
+    List<TransactionTotal> imports = new ArrayList<>();
+    importAmount = collect(rollups.getTotals(Kind.IMPORT, Period.MONTH, m), imports);
+    importTotals = imports;
+    
+    List<TransactionTotal> exports = new ArrayList<>();
+    exportAmount = collect(rollups.getTotals(Kind.EXPORT, Period.MONTH, m), exports);
+    exportTotals = exports;
+  }
+  
+  /**
+   * @modifies rows
+   * @effects 
+   *  add to <tt>rows</tt> (in seafood id order) a row for each non-empty entry of <tt>totals</tt>; 
+   *  return the sum of the amounts of the rows
+   */
+  static double collect(Map<String, Totals> totals, List<TransactionTotal> rows) {
+    double sum = 0;
+    for (Map.Entry<String, Totals> e : new TreeMap<>(totals).entrySet()) {
+      Totals t = e.getValue();
+      if (t.getCount() > 0) {
+        TransactionTotal row = new TransactionTotal(e.getKey(), t);
+        rows.add(row);
+        sum += row.getAmount();
+      }
+    }
+    
+    return sum;
+  }
+
+  /**
+   * A link-adder method for {@link #importTotals}, required for the object form to function.
+   * However, this method is empty because the totals have already be recorded in the attribute.
+   */
+  @DOpt(type=DOpt.Type.LinkAdder)
+  public boolean addImportTotals(Collection<TransactionTotal> totals) {
+    // do nothing
+    return false;
+  }
+  
+  /**
+   * A link-adder method for {@link #exportTotals}, required for the object form to function.
+   * However, this method is empty because the totals have already be recorded in the attribute.
+   */
+  @DOpt(type=DOpt.Type.LinkAdder)
+  public boolean addExportTotals(Collection<TransactionTotal> totals) {
+    // do nothing
+    return false;
+  }
+  
+  /**
+   * @effects return importTotals
+   */
+  public Collection<TransactionTotal> getImportTotals() {
+    return importTotals;
+  }
+  
+  /**
+   * @effects return exportTotals
+   */
+  public Collection<TransactionTotal> getExportTotals() {
+    return exportTotals;
+  }
+  
+  /**
+   * @effects return importAmount
+   */
+  public double getImportAmount() {
+    return importAmount;
+  }
+  
+  /**
+   * @effects return exportAmount
+   */
+  public double getExportAmount() {
+    return exportAmount;
+  }
+
+  /**
+   * @effects 
+   *  write the import and then the export totals of this to <tt>file</tt>, as TSV if the name of <tt>file</tt> ends with 
+   *  <tt>.tsv</tt> or else as CSV, and return the number of rows written
+   *  
+   *  <p>throws IOException if fails to write the file
+   */
+  public int export(String file) throws IOException {
+    return TransactionTotal.export(file, importTotals, exportTotals);
+  }
+
+  /**
+   * @effects return id
+   */
+  public int getId() {
+    return id;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + id;
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    MonthlyTotalsReport other = (MonthlyTotalsReport) obj;
+    if (id != other.id)
+      return false;
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "MonthlyTotalsReport (" + id + ", " + month + ")";
+  }
+
+}
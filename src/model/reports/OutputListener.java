@@ -0,0 +1,17 @@
+package model.reports;
+
+/**
+ * @overview
+ *  Is told that the output of a report has changed after the report was shown, e.g. when
+ *  the result of a query that runs off the caller's thread is published (see
+ *  {@link AsyncQuery}), so that the view of the report can be refreshed.
+ *
+ *  <p>It is told on the event dispatch thread.
+ */
+public interface OutputListener {
+
+  /**
+   * @effects refresh the view of the output of <tt>report</tt>
+   */
+  void outputChanged(Object report);
+}
@@ -0,0 +1,345 @@
+package model.reports;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.model.Oid;
+import domainapp.basics.model.query.Expression.Op;
+import model.util.PreparedQuery;
+import software.db.SeafoodDb;
+
+/**
+ * @overview
+ *  A search query of a report whose result is read one page at a time.
+ *
+ *  <p>The result is ordered by a key attribute. Opening the query only counts the matching
+ *  rows (no domain object is created). When the pages are first needed, the key column of the
+ *  matching rows is scanned to record the first and last key of each page. A page is then read
+ *  as the search query restricted to the key range of the page, so at most one page of objects
+ *  is kept at a time. If the keys of the result are known (e.g. from an index), a page is read
+ *  as the objects of exactly its keys.
+ *
+ *  <p>If the data source cannot be accessed directly (see {@link SeafoodDb}), the whole result
+ *  is read through the object layer and paged in memory.
+ */
+final class PagedQuery<T> {
+
+  /** the default number of objects of a page */
+  static final int DEFAULT_PAGE_SIZE = 100;
+
+  /** the number of rows fetched at a time when the result is exported */
+  private static final int EXPORT_FETCH_SIZE = 1000;
+
+  /** the queries created so far (see {@link QueryPlans}) */
+  private static final List<PagedQuery<?>> queries = new CopyOnWriteArrayList<>();
+
+  private final Class<T> cls;
+  private final String[] attribs;
+  private final Op[] ops;
+  private final String keyAttrib;
+  private final int pageSize;
+
+  /** the search query (for the whole result) */
+  private final PreparedQuery<T> all;
+
+  /** the search query restricted to a key range (for a page) */
+  private final PreparedQuery<T> page;
+
+  /** the query of the object of a key (for a page of known keys) */
+  private final PreparedQuery<T> byKey;
+
+  /**
+   * @requires attribs.length = ops.length
+   * @effects
+   *  initialise this as a search query over <tt>cls</tt> whose i-th term is
+   *  <tt>attribs[i] ops[i] ?</tt> and whose result is paged in the order of <tt>keyAttrib</tt>.
+   *
+   *  <p>If <tt>keyAttrib</tt> is not unique, a page holds all the objects of its last key
+   *  and may thus be larger than {@link #DEFAULT_PAGE_SIZE}.
+   */
+  PagedQuery(Class<T> cls, String[] attribs, Op[] ops, String keyAttrib) {
+    this.cls = cls;
+    this.attribs = attribs;
+    this.ops = ops;
+    this.keyAttrib = keyAttrib;
+    this.pageSize = DEFAULT_PAGE_SIZE;
+
+    all = new PreparedQuery<>(cls, attribs, ops);
+
+    int n = attribs.length;
+    String[] pageAttribs = new String[n + 2];
+    Op[] pageOps = new Op[n + 2];
+    System.arraycopy(attribs, 0, pageAttribs, 0, n);
+    System.arraycopy(ops, 0, pageOps, 0, n);
+    pageAttribs[n] = keyAttrib;
+    pageOps[n] = Op.GTEQ;
+    pageAttribs[n + 1] = keyAttrib;
+    pageOps[n + 1] = Op.LTEQ;
+    page = new PreparedQuery<>(cls, pageAttribs, pageOps);
+
+    byKey = new PreparedQuery<>(cls, new String[] {keyAttrib}, new Op[] {Op.EQ});
+
+    queries.add(this);
+  }
+
+  /**
+   * @effects return the queries created so far
+   */
+  static List<PagedQuery<?>> queries() {
+    return queries;
+  }
+
+  Class<T> getDomainClass() {
+    return cls;
+  }
+
+  /**
+   * @effects
+   *  return the SQL statement that scans (in order) the keys of the result of this query,
+   *  which is the statement that reads the most rows of those this query runs
+   */
+  String getScanSql() {
+    return sql(keyAttrib, true);
+  }
+
+  /**
+   * @requires vals.length = attribs.length
+   * @effects
+   *  return the paged result of this query for <tt>vals</tt>
+   *
+   *  <p>throws NotPossibleException if failed to generate data source query;
+   *  DataSourceException if fails to read from the data source.
+   */
+  PagedResult<T> open(QRM qrm, Object...vals) throws NotPossibleException, DataSourceException {
+    if (SeafoodDb.isConfigured()) {
+      try {
+        return PagedResult.ofCount(this, vals, count(vals), pageSize);
+      } catch (SQLException e) {
+        // the table cannot be read directly: use the object layer below (unless the query is
+        // superseded, which may be why its statement failed)
+        AsyncQuery.checkCancelled();
+      }
+    }
+
+    return PagedResult.ofObjects(loadAll(qrm, vals), pageSize);
+  }
+
+  /**
+   * @requires
+   *  <tt>keys</tt> are (in ascending order) the keys of the result of this query for <tt>vals</tt>,
+   *  e.g. as looked up in an index
+   * @effects
+   *  return the paged result of this query for <tt>vals</tt>, whose pages are the objects of
+   *  the successive slices of <tt>keys</tt>
+   */
+  PagedResult<T> open(List<?> keys, Object...vals) {
+    return PagedResult.ofKeys(this, vals, keys, pageSize);
+  }
+
+  /**
+   * @effects
+   *  return (in a list) all the objects of the result of this query for <tt>vals</tt>
+   *
+   *  <p>throws NotPossibleException if failed to generate data source query;
+   *  DataSourceException if fails to read from the data source.
+   */
+  List<T> loadAll(QRM qrm, Object[] vals) throws NotPossibleException, DataSourceException {
+    AsyncQuery.checkCancelled();
+    Map<Oid, T> result = all.retrieve(qrm, vals);
+    return (result != null) ? new ArrayList<>(result.values()) : new ArrayList<T>();
+  }
+
+  /**
+   * @effects
+   *  return the objects whose keys are between <tt>firstKey</tt> and <tt>lastKey</tt> among
+   *  the result of this query for <tt>vals</tt>, or <tt>null</tt> if none is found.
+   */
+  Collection<T> loadPage(QRM qrm, Object[] vals, Object firstKey, Object lastKey)
+      throws NotPossibleException, DataSourceException {
+    int n = vals.length;
+    Object[] pageVals = new Object[n + 2];
+    System.arraycopy(vals, 0, pageVals, 0, n);
+    pageVals[n] = firstKey;
+    pageVals[n + 1] = lastKey;
+
+    Map<Oid, T> result = page.retrieve(qrm, pageVals);
+    return (result != null) ? result.values() : null;
+  }
+
+  /**
+   * @effects
+   *  return (in the order of <tt>keys</tt>) the objects whose keys are <tt>keys</tt>, or
+   *  <tt>null</tt> if none is found (e.g. they have been deleted).
+   *
+   *  <p>The object layer has no <tt>in</tt> operator: each object is read by one re-bound
+   *  query on its key, so no object other than those of <tt>keys</tt> is read.
+   */
+  Collection<T> loadKeys(QRM qrm, List<?> keys) throws NotPossibleException, DataSourceException {
+    List<T> objects = new ArrayList<>(keys.size());
+    for (Object key : keys) {
+      Map<Oid, T> result = byKey.retrieve(qrm, key);
+      if (result != null)
+        objects.addAll(result.values());
+    }
+
+    return objects.isEmpty() ? null : objects;
+  }
+
+  /**
+   * @modifies out
+   * @effects
+   *  read, in order, the rows that satisfy this query for <tt>vals</tt> and write each of
+   *  them (as selected by <tt>columns</tt>) to <tt>out</tt> as soon as it is read
+   *
+   *  <p>throws SQLException if fails to read from the data source; IOException if fails
+   *  to write to <tt>out</tt>
+   */
+  void export(Object[] vals, ReportExporter.Columns<T> columns, ReportExporter out)
+      throws SQLException, IOException {
+    StringBuilder select = new StringBuilder();
+    for (String col : columns.getSelect()) {
+      if (select.length() > 0)
+        select.append(", ");
+      select.append(col);
+    }
+
+    try (Connection con = SeafoodDb.open();
+        PreparedStatement stmt = con.prepareStatement(sql(select.toString(), true),
+            ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+      stmt.setFetchSize(EXPORT_FETCH_SIZE);
+      bind(stmt, vals);
+
+      try (ResultSet rs = stmt.executeQuery()) {
+        while (rs.next()) {
+          columns.write(rs, out);
+          out.endRow();
+        }
+      }
+    }
+  }
+
+  /**
+   * @effects return the number of rows that satisfy this query for <tt>vals</tt>
+   */
+  private int count(Object[] vals) throws SQLException {
+    try (Connection con = SeafoodDb.open();
+        PreparedStatement stmt = con.prepareStatement(sql("count(*)", false))) {
+      bind(stmt, vals);
+
+      AsyncQuery.running(stmt);
+      try (ResultSet rs = stmt.executeQuery()) {
+        rs.next();
+        return rs.getInt(1);
+      } finally {
+        AsyncQuery.done(stmt);
+      }
+    }
+  }
+
+  /**
+   * @effects
+   *  scan, in order, the keys of the rows that satisfy this query for <tt>vals</tt> and
+   *  return <tt>{firstKeys, lastKeys}</tt>, where <tt>firstKeys[i], lastKeys[i]</tt> are
+   *  the first and last keys of the i-th page
+   */
+  Object[][] scanKeys(Object[] vals) throws SQLException {
+    List<Object> firstKeys = new ArrayList<>();
+    List<Object> lastKeys = new ArrayList<>();
+
+    try (Connection con = SeafoodDb.open();
+        PreparedStatement stmt = con.prepareStatement(sql(keyAttrib, true))) {
+      bind(stmt, vals);
+
+      try (ResultSet rs = stmt.executeQuery()) {
+        Object prev = null;
+        int inPage = 0;
+        while (rs.next()) {
+          Object key = rs.getObject(1);
+          if (inPage == 0) {
+            firstKeys.add(key);
+          } else if (inPage >= pageSize && !key.equals(prev)) {
+            // close the page at the previous key
+            lastKeys.add(prev);
+            firstKeys.add(key);
+            inPage = 0;
+          }
+          inPage++;
+          prev = key;
+        }
+
+        if (inPage > 0)
+          lastKeys.add(prev);
+      }
+    }
+
+    return new Object[][] { firstKeys.toArray(), lastKeys.toArray() };
+  }
+
+  /**
+   * @effects
+   *  return the SQL statement that selects <tt>select</tt> from the rows of this query
+   *  (ordered by the key if <tt>ordered</tt>)
+   */
+  private String sql(String select, boolean ordered) {
+    StringBuilder sql = new StringBuilder("select ").append(select)
+        .append(" from ").append(SeafoodDb.tableOf(cls));
+
+    for (int i = 0; i < attribs.length; i++) {
+      sql.append((i == 0) ? " where " : " and ")
+         .append(attribs[i]).append(' ').append(toSql(ops[i])).append(" ?");
+    }
+
+    if (ordered)
+      sql.append(" order by ").append(keyAttrib);
+
+    return sql.toString();
+  }
+
+  /**
+   * @modifies stmt
+   * @effects set the parameters of <tt>stmt</tt> to <tt>vals</tt>
+   */
+  private static void bind(PreparedStatement stmt, Object[] vals) throws SQLException {
+    for (int i = 0; i < vals.length; i++) {
+      stmt.setObject(i + 1, vals[i]);
+    }
+  }
+
+  /**
+   * @effects
+   *  if <tt>s</tt> contains a wildcard of {@link Op#MATCH} (<tt>%</tt> or <tt>_</tt>)
+   *    return true
+   *  else
+   *    return false
+   */
+  static boolean hasWildcards(String s) {
+    return s.indexOf('%') >= 0 || s.indexOf('_') >= 0;
+  }
+
+  /**
+   * @effects return the SQL operator of <tt>op</tt>
+   */
+  private static String toSql(Op op) {
+    switch (op) {
+      case MATCH: return "like";
+      case EQ: return "=";
+      case GT: return ">";
+      case GTEQ: return ">=";
+      case LT: return "<";
+      case LTEQ: return "<=";
+      default:
+        throw new IllegalArgumentException("PagedQuery: unsupported operator " + op);
+    }
+  }
+}
@@ -0,0 +1,251 @@
+package model.reports;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+import software.db.SeafoodDb;
+
+/**
+ * @overview
+ *  The result of a {@link PagedQuery}: the exact number of matching objects and the
+ *  means to read any of its pages.
+ *
+ *  <p>Either the result is counted only, and the key ranges of its pages are scanned when
+ *  they are first needed (and a page is read on demand), or the keys of the result are known
+ *  (and a page is read as the objects of its keys), or the whole result is in memory. A result
+ *  that is in the {@link ResultCache} keeps the pages read from it until it is stale.
+ */
+final class PagedResult<T> {
+
+  private final int count;
+  private final int pageSize;
+
+  // key ranges of the pages (if read on demand)
+  private final PagedQuery<T> query;
+  private final Object[] vals;
+  private Object[] firstKeys;
+  private Object[] lastKeys;
+
+  // the keys of the result (if known)
+  private List<?> keys;
+
+  // the whole result (if in memory)
+  private List<T> objects;
+
+  // the pages read (by number), kept while the domain class is at the generation (if cached)
+  private Class<?> domainCls;
+  private long generation;
+  private Map<Integer, Collection<T>> pages;
+
+  private PagedResult(int count, int pageSize, PagedQuery<T> query, Object[] vals, List<T> objects) {
+    this.count = count;
+    this.pageSize = pageSize;
+    this.query = query;
+    this.vals = vals;
+    this.objects = objects;
+  }
+
+  /**
+   * @effects
+   *  return a result of <tt>count</tt> objects whose pages are read by <tt>query</tt>
+   *  (for <tt>vals</tt>) on demand, or are <tt>pageSize</tt>-slices if it must be read into memory
+   */
+  static <T> PagedResult<T> ofCount(PagedQuery<T> query, Object[] vals, int count, int pageSize) {
+    return new PagedResult<>(count, pageSize, query, vals.clone(), null);
+  }
+
+  /**
+   * @effects
+   *  return a result whose pages are read by <tt>query</tt> on demand as the objects of the
+   *  successive <tt>pageSize</tt>-slices of the ordered <tt>keys</tt> (which are the keys of
+   *  the result of <tt>query</tt> for <tt>vals</tt>)
+   */
+  static <T> PagedResult<T> ofKeys(PagedQuery<T> query, Object[] vals, List<?> keys, int pageSize) {
+    PagedResult<T> result = new PagedResult<>(keys.size(), pageSize, query, vals.clone(), null);
+    result.keys = Collections.unmodifiableList(new ArrayList<>(keys));
+
+    return result;
+  }
+
+  /**
+   * @effects return a result whose pages are the successive <tt>pageSize</tt>-slices of <tt>objects</tt>
+   */
+  static <T> PagedResult<T> ofObjects(List<T> objects, int pageSize) {
+    return new PagedResult<>(objects.size(), pageSize, null, null,
+        Collections.unmodifiableList(objects));
+  }
+
+  /**
+   * @modifies this
+   * @effects
+   *  keep the pages read from this while <tt>domainCls</tt> is at the generation
+   *  <tt>generation</tt> (see {@link ResultCache})
+   */
+  synchronized void keepPages(Class<?> domainCls, long generation) {
+    if (pages != null)
+      return;
+
+    this.domainCls = domainCls;
+    this.generation = generation;
+    pages = new HashMap<>();
+  }
+
+  /**
+   * @effects return the number of objects of this
+   */
+  int getCount() {
+    return count;
+  }
+
+  /**
+   * @effects
+   *  return the number of pages of this
+   *
+   *  <p>throws NotPossibleException if failed to generate data source query;
+   *  DataSourceException if fails to read from the data source.
+   */
+  synchronized int getNumPages() throws NotPossibleException, DataSourceException {
+    scanPages();
+
+    if (objects != null)
+      return (objects.size() + pageSize - 1) / pageSize;
+    else if (keys != null)
+      return (keys.size() + pageSize - 1) / pageSize;
+    else
+      return firstKeys.length;
+  }
+
+  /**
+   * @effects
+   *  if 1 &lt;= page &lt;= numPages
+   *    return the objects of the page <tt>page</tt>
+   *  else
+   *    return null
+   *
+   *  <p>throws NotPossibleException if failed to generate data source query;
+   *  DataSourceException if fails to read from the data source.
+   */
+  Collection<T> getPage(QRM qrm, int page) throws NotPossibleException, DataSourceException {
+    Object firstKey = null, lastKey = null;
+    List<?> pageKeys = null;
+    boolean keep = false;
+    synchronized (this) {
+      if (page < 1 || page > getNumPages())
+        return null;
+
+      int i = page - 1;
+      if (objects != null)
+        return objects.subList(i * pageSize, Math.min(objects.size(), (i + 1) * pageSize));
+
+      if (pages != null) {
+        if (ResultCache.getInstance().isCurrent(domainCls, generation)) {
+          Collection<T> kept = pages.get(page);
+          if (kept != null)
+            return kept;
+          keep = true;
+        } else {
+          // stale: the pages are read again (and not kept)
+          pages = null;
+        }
+      }
+
+      if (keys != null) {
+        pageKeys = keys.subList(i * pageSize, Math.min(keys.size(), (i + 1) * pageSize));
+      } else {
+        firstKey = firstKeys[i];
+        lastKey = lastKeys[i];
+      }
+    }
+
+    Collection<T> read;
+    if (pageKeys != null)
+      read = query.loadKeys(qrm, pageKeys);
+    else
+      read = query.loadPage(qrm, vals, firstKey, lastKey);
+
+    if (keep && read != null) {
+      synchronized (this) {
+        // not kept if a change was committed while it was read
+        if (pages != null && ResultCache.getInstance().isCurrent(domainCls, generation))
+          pages.put(page, Collections.unmodifiableCollection(read));
+      }
+    }
+    return read;
+  }
+
+  /**
+   * @modifies out
+   * @effects
+   *  write (as selected by <tt>columns</tt>) a row for each object of this to <tt>out</tt>.
+   *
+   *  <p>If this is read on demand by key ranges, the rows are streamed from the data source
+   *  by the query of this; otherwise (if its keys are given, which may be fewer than those
+   *  of the query, or if the data source cannot be read directly before any row is written)
+   *  the objects are written page by page.
+   *
+   *  <p>throws IOException if fails to write to <tt>out</tt>; NotPossibleException if failed
+   *  to generate data source query; DataSourceException if fails to read from the data source.
+   */
+  void export(ReportExporter.Columns<T> columns, ReportExporter out)
+      throws IOException, NotPossibleException, DataSourceException {
+    boolean byPage;
+    synchronized (this) {
+      byPage = (objects != null || keys != null);
+    }
+
+    if (!byPage && SeafoodDb.isConfigured()) {
+      int written = out.getRows();
+      try {
+        query.export(vals, columns, out);
+        return;
+      } catch (SQLException e) {
+        if (out.getRows() > written)
+          throw new IOException("PagedResult.export: failed to read the rows after row "
+              + out.getRows(), e);
+        // the table cannot be read directly: use the pages below
+      }
+    }
+
+    QRM qrm = QRM.getInstance();
+    int numPages = getNumPages();
+    for (int page = 1; page <= numPages; page++) {
+      Collection<T> objects = getPage(qrm, page);
+      if (objects == null)
+        continue;
+
+      for (T o : objects) {
+        columns.write(o, out);
+        out.endRow();
+      }
+    }
+  }
+
+  /**
+   * @modifies this
+   * @effects
+   *  if the pages of this are not yet known
+   *    scan the key ranges of the pages or, if that fails, read the whole result into memory
+   */
+  private void scanPages() throws NotPossibleException, DataSourceException {
+    if (objects != null || keys != null || firstKeys != null)
+      return;
+
+    try {
+      Object[][] keys = query.scanKeys(vals);
+      firstKeys = keys[0];
+      lastKeys = keys[1];
+    } catch (SQLException e) {
+      // the key column cannot be read directly: use the object layer
+      objects = Collections.unmodifiableList(query.loadAll(QRM.getInstance(), vals));
+    }
+  }
+}
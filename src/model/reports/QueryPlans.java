@@ -0,0 +1,123 @@
+package model.reports;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import software.db.SeafoodDb;
+
+/**
+ * @overview
+ *  Checks the execution plans of the report queries (see {@link PagedQuery}) in the data
+ *  source and reports the queries that scan a whole table rather than an index.
+ *
+ *  <p>Each query is run once (with null parameters, so it reads no row) with the runtime
+ *  statistics of Derby on, and its plan is read from the statistics. Derby chooses a plan by
+ *  its cost, so a small table may be scanned even though it has a suitable index: the check
+ *  is meant to be run on a data source of a representative size.
+ */
+public final class QueryPlans {
+
+  /** the reports whose queries are checked */
+  private static final Class<?>[] REPORTS = {
+      ImportSeafoodByDateReport.class,
+      ExportSeafoodByDateReport.class,
+      ImportSeafoodByDateRangeReport.class,
+      ExportSeafoodByDateRangeReport.class,
+      SeafoodByNameReport.class,
+      SeafoodSearchReport.class,
+      CustomerByNameReport.class
+  };
+
+  /** the line of a plan that scans a table (followed by the table name) */
+  private static final String TABLE_SCAN = "Table Scan ResultSet for ";
+
+  private QueryPlans() {
+    // no instances
+  }
+
+  /**
+   * @effects
+   *  return the descriptions of the report queries that scan a table (empty if none does)
+   *
+   *  <p>throws SQLException if fails to access the data source
+   */
+  public static List<String> scanning() throws SQLException {
+    // create the queries of the reports
+    for (Class<?> c : REPORTS) {
+      try {
+        Class.forName(c.getName(), true, c.getClassLoader());
+      } catch (ClassNotFoundException e) {
+        // not possible: c is loaded
+      }
+    }
+
+    List<String> scans = new ArrayList<>();
+    try (Connection con = SeafoodDb.open()) {
+      try (Statement stmt = con.createStatement()) {
+        stmt.execute("call SYSCS_UTIL.SYSCS_SET_RUNTIMESTATISTICS(1)");
+      }
+
+      for (PagedQuery<?> q : PagedQuery.queries()) {
+        String sql = q.getScanSql();
+        for (String table : scannedTables(con, sql)) {
+          scans.add(q.getDomainClass().getSimpleName() + " query scans " + table + ": " + sql);
+        }
+      }
+    }
+
+    return scans;
+  }
+
+  /**
+   * @effects
+   *  run <tt>sql</tt> (with null parameters) on <tt>con</tt> and return the tables that
+   *  its plan scans
+   */
+  private static Set<String> scannedTables(Connection con, String sql) throws SQLException {
+    try (PreparedStatement stmt = con.prepareStatement(sql)) {
+      ParameterMetaData params = stmt.getParameterMetaData();
+      for (int i = 1; i <= params.getParameterCount(); i++) {
+        stmt.setNull(i, params.getParameterType(i));
+      }
+      try (ResultSet rs = stmt.executeQuery()) {
+        while (rs.next()) {
+          // read the whole result so that the statistics are complete
+        }
+      }
+    }
+
+    String plan;
+    try (Statement stmt = con.createStatement();
+        ResultSet rs = stmt.executeQuery("values SYSCS_UTIL.SYSCS_GET_RUNTIMESTATISTICS()")) {
+      plan = rs.next() ? rs.getString(1) : null;
+    }
+
+    Set<String> tables = new LinkedHashSet<>();
+    if (plan == null)
+      return tables;
+
+    try (BufferedReader in = new BufferedReader(new StringReader(plan))) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        int at = line.indexOf(TABLE_SCAN);
+        if (at >= 0)
+          tables.add(line.substring(at + TABLE_SCAN.length()).trim().replaceAll(":$", ""));
+      }
+    } catch (IOException e) {
+      // not possible: the plan is read from a string
+    }
+
+    return tables;
+  }
+}
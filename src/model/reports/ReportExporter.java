@@ -0,0 +1,333 @@
+package model.reports;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+
+import domainapp.basics.exceptions.DataSourceException;
+
+/**
+ * @overview
+ *  Writes the rows of a report output to a delimited text file (CSV or TSV).
+ *
+ *  <p>The rows are encoded (UTF-8) into a direct buffer that is written to a file channel
+ *  whenever it is full, so a row is written as soon as it is read and the output is never
+ *  held in memory as a whole. A paged output is read straight from the result cursor of its
+ *  query (see {@link PagedResult#export(Columns, ReportExporter)}); the output of a report
+ *  that is computed in memory (e.g. from the rollups) is written from its objects.
+ */
+public final class ReportExporter implements Closeable {
+
+  /** the file formats */
+  public static enum Format {
+    /** comma-separated values (RFC 4180 quoting) */
+    CSV(','),
+    /** tab-separated values (tabs and line breaks in a value are replaced by spaces) */
+    TSV('\t');
+
+    private final char separator;
+
+    private Format(char separator) {
+      this.separator = separator;
+    }
+
+    /**
+     * @effects
+     *  return {@link #TSV} if the name of <tt>file</tt> ends with <tt>.tsv</tt> (in any case),
+     *  else {@link #CSV}
+     */
+    public static Format of(String file) {
+      return file.toLowerCase().endsWith(".tsv") ? TSV : CSV;
+    }
+  }
+
+  /**
+   * @overview
+   *  The columns of the export of a report whose output objects are of type <tt>T</tt>:
+   *  their headers, the columns selected from the data source for them and the means to
+   *  write them from an object (when the output is not read from the data source).
+   */
+  abstract static class Columns<T> {
+    private final String[] headers;
+    private final String[] select;
+
+    /**
+     * @requires headers.length = select.length
+     * @effects
+     *  initialise this with <tt>headers</tt> whose i-th value is selected from the data
+     *  source as the SQL expression <tt>select[i]</tt>
+     */
+    Columns(String[] headers, String[] select) {
+      this.headers = headers;
+      this.select = select;
+    }
+
+    /**
+     * @effects
+     *  initialise this with <tt>headers</tt> whose values are only written from the objects
+     *  (they are not read from the data source)
+     */
+    Columns(String[] headers) {
+      this(headers, new String[0]);
+    }
+
+    String[] getHeaders() {
+      return headers;
+    }
+
+    String[] getSelect() {
+      return select;
+    }
+
+    /**
+     * @modifies out
+     * @effects write the values of <tt>o</tt> to the current row of <tt>out</tt>
+     */
+    abstract void write(T o, ReportExporter out) throws IOException;
+
+    /**
+     * @modifies out
+     * @effects
+     *  write the values of the current row of <tt>rs</tt> (selected by {@link #getSelect()})
+     *  to the current row of <tt>out</tt>; by default each value is written as read
+     */
+    void write(ResultSet rs, ReportExporter out) throws SQLException, IOException {
+      for (int i = 1; i <= select.length; i++) {
+        out.value(rs.getObject(i));
+      }
+    }
+  }
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final FileChannel channel;
+  private final Format format;
+  private final CharsetEncoder encoder;
+  private final CharBuffer chars;
+  private final ByteBuffer bytes;
+
+  /** the number of values written to the current row */
+  private int column;
+
+  /** the number of rows written (not counting the header) */
+  private int rows;
+
+  private ReportExporter(FileChannel channel, Format format) {
+    this.channel = channel;
+    this.format = format;
+    encoder = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    chars = CharBuffer.allocate(BUFFER_SIZE / 4);
+    bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  }
+
+  /**
+   * @effects
+   *  create (or truncate) <tt>file</tt> and return an exporter that writes to it in the
+   *  format of its name (see {@link Format#of(String)})
+   *
+   *  <p>throws IOException if the file cannot be opened for writing
+   */
+  public static ReportExporter open(String file) throws IOException {
+    Path path = Paths.get(file);
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    return new ReportExporter(channel, Format.of(file));
+  }
+
+  /**
+   * @effects
+   *  write to <tt>file</tt> the header of <tt>columns</tt> followed by a row for each object
+   *  of <tt>result</tt> (if any) and return the number of rows written
+   *
+   *  <p>throws IOException if fails to write the file; DataSourceException if fails to read
+   *  from the data source.
+   */
+  static <T> int export(String file, PagedResult<T> result, Columns<T> columns)
+      throws IOException, DataSourceException {
+    try (ReportExporter out = open(file)) {
+      out.header(columns.getHeaders());
+      if (result != null)
+        result.export(columns, out);
+
+      return out.getRows();
+    }
+  }
+
+  /**
+   * @effects
+   *  write to <tt>file</tt> the header of <tt>columns</tt> followed by a row for each object
+   *  of <tt>rows</tt> (if any) and return the number of rows written
+   *
+   *  <p>throws IOException if fails to write the file
+   */
+  static <T> int export(String file, Collection<T> rows, Columns<T> columns)
+      throws IOException {
+    try (ReportExporter out = open(file)) {
+      out.header(columns.getHeaders());
+      if (rows != null) {
+        for (T o : rows) {
+          columns.write(o, out);
+          out.endRow();
+        }
+      }
+
+      return out.getRows();
+    }
+  }
+
+  /**
+   * @modifies this
+   * @effects write <tt>headers</tt> as a row that is not counted in {@link #getRows()}
+   */
+  void header(String[] headers) throws IOException {
+    for (String h : headers) {
+      value(h);
+    }
+    endRow();
+    rows = 0;
+  }
+
+  /**
+   * @modifies this
+   * @effects
+   *  write <tt>val</tt> as the next value of the current row (<tt>null</tt> as an empty value)
+   */
+  void value(Object val) throws IOException {
+    if (column++ > 0)
+      put(format.separator);
+
+    if (val == null)
+      return;
+
+    String s = val.toString();
+    if (format == Format.TSV) {
+      putTsv(s);
+    } else if (needsQuotes(s)) {
+      putQuoted(s);
+    } else {
+      put(s);
+    }
+  }
+
+  /**
+   * @modifies this
+   * @effects end the current row
+   */
+  void endRow() throws IOException {
+    put('\n');
+    column = 0;
+    rows++;
+  }
+
+  /**
+   * @effects return the number of rows written
+   */
+  int getRows() {
+    return rows;
+  }
+
+  /**
+   * @modifies this
+   * @effects write out the buffered rows and close the file
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      encode(true);
+      while (encoder.flush(bytes).isOverflow()) {
+        drain();
+      }
+      drain();
+    } finally {
+      channel.close();
+    }
+  }
+
+  private static boolean needsQuotes(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == ',' || c == '"' || c == '\n' || c == '\r')
+        return true;
+    }
+    return false;
+  }
+
+  private void putQuoted(String s) throws IOException {
+    put('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"')
+        put('"');
+      put(c);
+    }
+    put('"');
+  }
+
+  private void putTsv(String s) throws IOException {
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      put((c == '\t' || c == '\n' || c == '\r') ? ' ' : c);
+    }
+  }
+
+  private void put(String s) throws IOException {
+    int from = 0, n = s.length();
+    while (from < n) {
+      if (!chars.hasRemaining())
+        encode(false);
+
+      int to = Math.min(n, from + chars.remaining());
+      chars.put(s, from, to);
+      from = to;
+    }
+  }
+
+  private void put(char c) throws IOException {
+    if (!chars.hasRemaining())
+      encode(false);
+    chars.put(c);
+  }
+
+  /**
+   * @modifies this
+   * @effects encode the buffered chars into {@link #bytes}, writing it out whenever it is full
+   */
+  private void encode(boolean endOfInput) throws IOException {
+    chars.flip();
+    while (true) {
+      CoderResult r = encoder.encode(chars, bytes, endOfInput);
+      if (r.isOverflow()) {
+        drain();
+      } else {
+        break;
+      }
+    }
+    chars.compact();
+  }
+
+  /**
+   * @modifies this
+   * @effects write {@link #bytes} to the file and clear it
+   */
+  private void drain() throws IOException {
+    bytes.flip();
+    while (bytes.hasRemaining()) {
+      channel.write(bytes);
+    }
+    bytes.clear();
+  }
+}
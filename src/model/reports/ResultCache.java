@@ -0,0 +1,279 @@
+package model.reports;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import software.db.Change;
+import software.db.ChangeJournal;
+
+/**
+ * @overview
+ *  A bounded, least-recently-used cache of report results, keyed by the report class and
+ *  the (normalised) report input.
+ *
+ *  <p>Each result is tagged with the generation of the domain class it was read from. A
+ *  committed change of any object of that class (dispatched by the {@link ChangeJournal}, see
+ *  {@link #changed(Change)}) moves the class to a new generation, so all the results read
+ *  before the change are stale and are never returned again. A result whose query overlapped
+ *  a change is not stored at all. The journal is caught up before a result is looked up, so a
+ *  change committed before the look-up is always seen.
+ *
+ *  <p>A {@link PagedResult} that is cached also keeps the pages read from it, for as long as
+ *  it is not stale.
+ */
+public final class ResultCache implements ChangeJournal.Listener {
+
+  /** the default maximum number of results kept */
+  public static final int DEFAULT_CAPACITY = 256;
+
+  private static final ResultCache instance = new ResultCache(DEFAULT_CAPACITY);
+
+  private final int capacity;
+
+  /** the results, in least-recently-used order */
+  private final LinkedHashMap<Key, Entry> entries;
+
+  /** the current generation of each domain class */
+  private final ConcurrentMap<Class<?>, AtomicLong> generations;
+
+  private final LongAdder hits;
+  private final LongAdder misses;
+  private final LongAdder invalidations;
+  private final LongAdder evictions;
+
+  /**
+   * @effects initialise this as an empty cache of at most <tt>capacity</tt> results
+   */
+  private ResultCache(int capacity) {
+    this.capacity = capacity;
+    entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+        if (size() > ResultCache.this.capacity) {
+          evictions.increment();
+          return true;
+        }
+        return false;
+      }
+    };
+    generations = new ConcurrentHashMap<>();
+    hits = new LongAdder();
+    misses = new LongAdder();
+    invalidations = new LongAdder();
+    evictions = new LongAdder();
+  }
+
+  /**
+   * @effects return the shared cache
+   */
+  public static ResultCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * @effects return the input <tt>input</tt> in the form used in the cache keys
+   */
+  public static String normalise(String input) {
+    // not case folded: the name searches are case-sensitive
+    return (input == null) ? "" : input.trim();
+  }
+
+  /**
+   * @effects return the current generation of <tt>domainCls</tt>
+   */
+  public long generation(Class<?> domainCls) {
+    return generationOf(domainCls).get();
+  }
+
+  /**
+   * @effects
+   *  if no change of <tt>domainCls</tt> has been committed since the generation <tt>gen</tt>
+   *  (after catching up the journal) return true, else return false
+   */
+  boolean isCurrent(Class<?> domainCls, long gen) {
+    ChangeJournal.getInstance().tryCatchUp();
+    return generation(domainCls) == gen;
+  }
+
+  /**
+   * @effects
+   *  if a result of <tt>report</tt> for <tt>input</tt> over <tt>domainCls</tt> is cached and
+   *  is not stale
+   *    return it
+   *  else
+   *    return null
+   */
+  @SuppressWarnings("unchecked")
+  public <V> V get(Class<?> report, Class<?> domainCls, String input) {
+    ChangeJournal.getInstance().tryCatchUp();
+
+    Key key = new Key(report, normalise(input));
+    long gen = generation(domainCls);
+
+    Entry e;
+    synchronized (entries) {
+      e = entries.get(key);
+      if (e != null && e.generation != gen) {
+        entries.remove(key);
+        e = null;
+      }
+    }
+
+    if (e == null) {
+      misses.increment();
+      return null;
+    } else {
+      hits.increment();
+      return (V) e.result;
+    }
+  }
+
+  /**
+   * @requires
+   *  <tt>gen</tt> was obtained by {@link #generation(Class)} before reading <tt>result</tt> /\ 
+   *  <tt>result</tt> is not changed afterwards
+   * @effects
+   *  if <tt>domainCls</tt> is still at generation <tt>gen</tt>
+   *    cache <tt>result</tt> as the result of <tt>report</tt> for <tt>input</tt> (if it is a
+   *    {@link PagedResult}, with the pages that are read from it at <tt>gen</tt>)
+   *  else
+   *    do nothing
+   */
+  public void put(Class<?> report, Class<?> domainCls, String input, long gen, Object result) {
+    if (result instanceof PagedResult)
+      ((PagedResult<?>) result).keepPages(domainCls, gen);
+
+    synchronized (entries) {
+      // checked under the lock so that no stale result survives invalidate()
+      if (generation(domainCls) == gen)
+        entries.put(new Key(report, normalise(input)), new Entry(gen, result));
+    }
+  }
+
+  /**
+   * @effects
+   *  mark all the results over the domain class of the committed change <tt>c</tt> as stale
+   */
+  @Override
+  public void changed(Change c) {
+    for (Class<?> domainCls : generations.keySet()) {
+      if (c.is(domainCls))
+        invalidate(domainCls);
+    }
+  }
+
+  /**
+   * @effects mark all the results over <tt>domainCls</tt> as stale
+   */
+  public void invalidate(Class<?> domainCls) {
+    synchronized (entries) {
+      generationOf(domainCls).incrementAndGet();
+    }
+    invalidations.increment();
+  }
+
+  /**
+   * @effects remove all the results
+   */
+  public void clear() {
+    synchronized (entries) {
+      entries.clear();
+    }
+  }
+
+  /**
+   * @effects return the number of results cached
+   */
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getInvalidations() {
+    return invalidations.sum();
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  /**
+   * @effects return the ratio of hits to look-ups, or 0 if there has been no look-up
+   */
+  public double getHitRate() {
+    long h = hits.sum(), total = h + misses.sum();
+    return (total == 0) ? 0 : (double) h / total;
+  }
+
+  private AtomicLong generationOf(Class<?> domainCls) {
+    AtomicLong gen = generations.get(domainCls);
+    if (gen == null) {
+      AtomicLong newGen = new AtomicLong();
+      gen = generations.putIfAbsent(domainCls, newGen);
+      if (gen == null)
+        gen = newGen;
+    }
+    return gen;
+  }
+
+  @Override
+  public String toString() {
+    return "ResultCache(" + size() + "/" + capacity + ", hits: " + getHits() + ", misses: "
+        + getMisses() + ", invalidations: " + getInvalidations() + ", evictions: "
+        + getEvictions() + ")";
+  }
+
+  /**
+   * @overview a cache key: a report class and a normalised input
+   */
+  private static final class Key {
+    private final Class<?> report;
+    private final String input;
+
+    Key(Class<?> report, String input) {
+      this.report = report;
+      this.input = input;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * report.hashCode() + input.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (!(obj instanceof Key))
+        return false;
+      Key other = (Key) obj;
+      return report == other.report && input.equals(other.input);
+    }
+  }
+
+  /**
+   * @overview a cached result and the generation of its domain class
+   */
+  private static final class Entry {
+    private final long generation;
+    private final Object result;
+
+    Entry(long generation, Object result) {
+      this.generation = generation;
+      this.result = result;
+    }
+  }
+}
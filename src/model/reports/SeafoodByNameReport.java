@@ -1,13 +1,12 @@
 package model.reports;
 
+import java.io.IOException;
 import java.util.Collection;
-import java.util.Map;
 
-import domainapp.basics.core.dodm.dsm.DSMBasic;
 import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.ConstraintViolationException;
 import domainapp.basics.exceptions.DataSourceException;
 import domainapp.basics.exceptions.NotPossibleException;
-import domainapp.basics.model.Oid;
 import domainapp.basics.model.meta.AttrRef;
 import domainapp.basics.model.meta.DAssoc;
 import domainapp.basics.model.meta.DAttr;
@@ -19,11 +18,14 @@ import domainapp.basics.model.meta.DAssoc.AssocEndType;
 import domainapp.basics.model.meta.DAssoc.AssocType;
 import domainapp.basics.model.meta.DAssoc.Associate;
 import domainapp.basics.model.meta.DAttr.Type;
-import domainapp.basics.model.query.Query;
-import domainapp.basics.model.query.QueryToolKit;
 import domainapp.basics.model.query.Expression.Op;
 import domainapp.basics.modules.report.model.meta.Output;
 import model.Seafood;
+import model.index.NameIndexes;
+import model.index.TrigramIndex;
+import model.util.IdAllocator;
+import model.util.IdCounter;
+import software.db.SeafoodDb;
 
 /**
  * @overview represent a report about seafood name
@@ -36,7 +38,24 @@ public class SeafoodByNameReport {
 	
 	@DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
 	private int id;
-	private static int idCounter = 0;
+	private static final IdCounter idCounter = IdAllocator.counterFor(SeafoodByNameReport.class);
+	/** the (paged) query of {@link #doReportQuery()} */
+	private static final PagedQuery<Seafood> query = new PagedQuery<>(Seafood.class, 
+	    new String[] {Seafood.A_name}, 
+	    new Op[] {Op.MATCH}, 
+	    Seafood.A_id);
+
+	/** the columns of {@link #export(String)} */
+	static final ReportExporter.Columns<Seafood> COLUMNS = new ReportExporter.Columns<Seafood>(
+			new String[] {Seafood.A_id, Seafood.A_name, Seafood.A_type},
+			new String[] {Seafood.A_id, Seafood.A_name, SeafoodDb.fkColumn(Seafood.A_type, "id")}) {
+		@Override
+		void write(Seafood o, ReportExporter out) throws IOException {
+			out.value(o.getId());
+			out.value(o.getName());
+			out.value((o.getType() != null) ? o.getType().getId() : null);
+		}
+	};
 	
 	//input: seafood name
 	@DAttr(name = "name", type = Type.String, length = 35, optional = false)
@@ -56,12 +75,36 @@ public class SeafoodByNameReport {
 	@DAttr(name = "numSeafoods", type = Type.Integer, length = 20, auto=true, mutable=false)
 	@Output
 	private int numSeafoods;
+
+	/**input: the page of the output to show (from 1) */
+	@DAttr(name = "page", type = Type.Integer, length = 5, optional = true)
+	private int page;
+
+	/**output: number of pages of the output */
+	@DAttr(name = "numPages", type = Type.Integer, length = 5, auto=true, mutable=false)
+	@Output
+	private int numPages;
+
+	/**output: why the last search failed (if it did) */
+	@DAttr(name = "status", type = Type.String, length = 200, auto=true, mutable=false, optional=true)
+	@Output
+	private String status;
+
+	/** the (paged) result of the last query */
+	private PagedResult<Seafood> pages;
+
+	/** whether the page {@link #page} is loaded into {@link #seafoods} */
+	private boolean pageLoaded;
+
+	/** runs the queries of this off the caller's thread (see {@link #setName(String)}) */
+	private final AsyncQuery<PagedResult<Seafood>> runner = new AsyncQuery<>(this);
 	
 	/**
 	* @effects 
 	*  initialise this with <tt>name</tt> and use {@link QRM} to retrieve from data source 
 	*  all {@link Seafood} whose names match <tt>name</tt>.
 	*  initialise {@link #Seafoods} with the result if any.
+	*  (the query runs off the caller's thread, see {@link #doReportQuery()})
 	*  
 	*  <p>throws NotPossibleException if failed to generate data source query; 
 	*  DataSourceException if fails to read from the data source
@@ -70,7 +113,7 @@ public class SeafoodByNameReport {
 	@DOpt(type=DOpt.Type.ObjectFormConstructor)
 	@DOpt(type=DOpt.Type.RequiredConstructor)
 	public SeafoodByNameReport(@AttrRef("name") String name) throws NotPossibleException, DataSourceException {
-		this.id=++idCounter;
+		this.id=idCounter.next();
 	    this.name = name;
 	    doReportQuery();
 	}
@@ -78,64 +121,172 @@ public class SeafoodByNameReport {
 	/**
 	* @effects return name
 	*/
-	public String getName() {
+	public synchronized String getName() {
 		return name;
 	}
 
 	/**
 	* @effects <pre>
 	*  set this.name = name
-	*  if name is changed
-	*    invoke {@link #doReportQuery()} to update the output attribute value
-	*    throws NotPossibleException if failed to generate data source query; 
-	*    DataSourceException if fails to read from the data source.
+	*  run the query of {@link #doReportQuery()} for <tt>name</tt>
 	*  </pre>
 	*/
-	public void setName(String name) throws NotPossibleException, DataSourceException {
+	public synchronized void setName(String name) {
 		this.name = name;
-	    doReportQuery();
+		search(name);
 	}
 
 	/**
 	* This method is invoked when the report input has be set by the user. 
 	* 
 	* @effects <pre>
-	*   formulate the object query
-	*   execute the query to retrieve from the data source the domain objects that satisfy it 
-	*   update the output attributes accordingly.
-	*  
-	*  <p>throws NotPossibleException if failed to generate data source query; 
-	*  DataSourceException if fails to read from the data source. </pre>
+	*   unless the output is of (or is being searched for) this.name
+	*     run the query for this.name off the caller's thread (cancelling the one running for 
+	*     the previous name, if any), then update the output attributes and tell the output 
+	*     listeners (see {@link #addOutputListener(OutputListener)})
+	*   if the query fails, the output is reset and the failure is told by {@link #getStatus()}
+	*  </pre>
 	*/
 	@DOpt(type=DOpt.Type.DerivedAttributeUpdater)
 	@AttrRef(value="Seafoods")
-	public void doReportQuery() throws NotPossibleException, DataSourceException {
+	public synchronized void doReportQuery() throws NotPossibleException, DataSourceException {
+		search(name);
+	}
+
+	/**
+	* @requires the lock of this is held
+	* @effects submit the query for <tt>input</tt> (see {@link #doReportQuery()})
+	*/
+	private void search(final String input) {
+		runner.submit(input, new AsyncQuery.Task<PagedResult<Seafood>>() {
+			@Override
+			PagedResult<Seafood> run() throws DataSourceException {
+				return find(input);
+			}
+
+			@Override
+			void publish(PagedResult<Seafood> found) {
+				setOutput(found);
+			}
+
+			@Override
+			void failed(Exception e) {
+				resetOutput();
+				status = AsyncQuery.failure(input, e);
+			}
+		});
+	}
+
+	/**
+	* @modifies this
+	* @effects
+	*  add <tt>l</tt> to the listeners that are told (on the event dispatch thread) when the 
+	*  output of a query that runs off the caller's thread is set
+	*/
+	public void addOutputListener(OutputListener l) {
+		runner.addListener(l);
+	}
+
+	/**
+	* @modifies this
+	* @effects remove <tt>l</tt> from the output listeners of this
+	*/
+	public void removeOutputListener(OutputListener l) {
+		runner.removeListener(l);
+	}
+	
+	/**
+	 * @effects 
+	 *  return the (paged) result of the search for the seafoods whose names match <tt>name</tt>
+	 *  
+	 *  <p>throws NotPossibleException if failed to generate data source query; 
+	 *  DataSourceException if fails to read from the data source.
+	 */
+	private static PagedResult<Seafood> find(String name) throws NotPossibleException, DataSourceException {
 		QRM qrm = QRM.getInstance();
 	    
-	    // create a query to look up Seafood from the data source
-	    // and then populate the output attribute (Seafoods) with the result
-	    DSMBasic dsm = qrm.getDsm();
-	    
-	    //TODO: to conserve memory cache the query and only change the query parameter value(s)
-	    Query q = QueryToolKit.createSearchQuery(dsm, Seafood.class, 
-	        new String[] {Seafood.A_name}, 
-	        new Op[] {Op.MATCH}, 
-	        new Object[] {"%"+name+"%"});
+	    // look up the cached result first: it is discarded by any write to Seafood
+	    ResultCache cache = ResultCache.getInstance();
+	    PagedResult<Seafood> cached = cache.get(SeafoodByNameReport.class, Seafood.class, name);
+	    if (cached != null)
+	      return cached;
 	    
-	    Map<Oid, Seafood> result = qrm.getDom().retrieveObjects(Seafood.class, q);
-	    
-	    if (result != null) {
-	      // update the main output data 
-	      seafoods = result.values();
-	      
-	      // update other output (if any)
-	      numSeafoods = seafoods.size();
+	    // look up Seafood in the name index (if it is built) or else run the prepared query 
+	    // on the data source
+	    // and then populate the output attribute (Seafoods) with the result
+	    long gen = cache.generation(Seafood.class);
+	    String s = ResultCache.normalise(name);
+	    TrigramIndex index = NameIndexes.getInstance().getSeafoodIndex();
+	    PagedResult<Seafood> found;
+	    if (index != null && !PagedQuery.hasWildcards(s)) {
+	      found = query.open(index.search(s), "%"+s+"%");
 	    } else {
-	      // no data found: reset output
-	      resetOutput();
+	      found = query.open(qrm, "%"+s+"%");
 	    }
+	    cache.put(SeafoodByNameReport.class, Seafood.class, name, gen, found);
+	    return found;
 	  }
 
+	/**
+	 * @effects 
+	 *  if <tt>found</tt> is not empty
+	 *    set the output attributes from <tt>found</tt> and show its first page
+	 *  else
+	 *    reset the output attributes
+	 */
+	private synchronized void setOutput(PagedResult<Seafood> found) {
+		status = null;
+		if (found != null && found.getCount() > 0) {
+			pages = found;
+			
+			// update other output (exact: counted without creating any object)
+			numSeafoods = found.getCount();
+			numPages = 0;
+			
+			// the main output data is loaded when it is viewed
+			showPage(1);
+		} else {
+			// no data found: reset output
+			resetOutput();
+		}
+	}
+
+	/**
+	 * @requires pages != null
+	 * @effects 
+	 *  set this.page = page and clear {@link #seafoods}, which is loaded (by 
+	 *  {@link #getSeafoods()}) when it is viewed
+	 */
+	private void showPage(int page) {
+		this.page = page;
+		seafoods = null;
+		pageLoaded = false;
+	}
+
+	/**
+	 * @requires pages != null
+	 * @effects 
+	 *  load the page {@link #page} of {@link #pages} into {@link #seafoods}
+	 *  
+	 *  <p>throws IllegalStateException if fails to read from the data source
+	 */
+	private void loadPage() throws IllegalStateException {
+		Collection<Seafood> objects;
+		try {
+			objects = pages.getPage(QRM.getInstance(), page);
+		} catch (DataSourceException e) {
+			throw new IllegalStateException("SeafoodByNameReport.loadPage: failed to load page " + page, e);
+		}
+		
+		pageLoaded = true;
+		if (objects != null && !objects.isEmpty()) {
+			seafoods = objects;
+		} else {
+			// the page has been emptied by a change since the query
+			seafoods = null;
+		}
+	}
+
 	  /**
 	   * @effects 
 	   *  reset all output attributes to their initial values
@@ -143,6 +294,9 @@ public class SeafoodByNameReport {
 	  private void resetOutput() {
 	    seafoods = null;
 	    numSeafoods = 0;
+	    numPages = 0;
+	    page = 0;
+	    pages = null;
 	  }
 
 	  /**
@@ -156,19 +310,88 @@ public class SeafoodByNameReport {
 	  }
 	  
 	  /**
-	   * @effects return seafoods
+	   * @effects return seafoods (the page {@link #page} is loaded when this is invoked)
 	   */
-	  public Collection<Seafood> getSeafoods() {
+	  public synchronized Collection<Seafood> getSeafoods() throws IllegalStateException {
+	    if (pages != null && !pageLoaded)
+	      loadPage();
+	    
 	    return seafoods;
 	  }
 	  
 	  /**
 	   * @effects return numSeafoods
 	   */
-	  public int getNumSeafoods() {
+	  public synchronized int getNumSeafoods() {
 	    return numSeafoods;
 	  }
 
+	  /**
+	   * @effects return page
+	   */
+	  public synchronized int getPage() {
+	    return page;
+	  }
+
+	  /**
+	   * @effects <pre>
+	   *  if there is an output
+	   *    load the page <tt>page</tt> of the output
+	   *    throws ConstraintViolationException if the page does not exist.
+	   *  </pre>
+	   */
+	  public synchronized void setPage(int page) throws ConstraintViolationException {
+	    if (pages != null) {
+	      if (page < 1 || page > getNumPages())
+	        throw new ConstraintViolationException(
+	            ConstraintViolationException.Code.INVALID_VALUE, new Object[] { page });
+	      
+	      showPage(page);
+	    }
+	  }
+
+	  /**
+	   * @effects 
+	   *  return numPages (the pages are first counted when this is invoked)
+	   *  
+	   *  <p>throws IllegalStateException if fails to read from the data source
+	   */
+	  public synchronized int getNumPages() throws IllegalStateException {
+	    if (pages != null && numPages == 0) {
+	      try {
+	        numPages = pages.getNumPages();
+	      } catch (DataSourceException e) {
+	        throw new IllegalStateException("SeafoodByNameReport.getNumPages: failed to count pages", e);
+	      }
+	    }
+	    return numPages;
+	  }
+
+	  /**
+	   * @effects return status (null if the last search did not fail)
+	   */
+	  public synchronized String getStatus() {
+	    return status;
+	  }
+
+	/**
+	 * @effects 
+	 *  write the whole output of this (all its pages) to <tt>file</tt>, as TSV if the name of 
+	 *  <tt>file</tt> ends with <tt>.tsv</tt> or else as CSV, and return the number of rows written; 
+	 *  the rows are streamed from the data source, the output is not loaded
+	 *  
+	 *  <p>throws IOException if fails to write the file; DataSourceException if fails to read 
+	 *  from the data source
+	 */
+	public int export(String file) throws IOException, DataSourceException {
+		PagedResult<Seafood> result;
+		synchronized (this) {
+			result = pages;
+		}
+		
+		return ReportExporter.export(file, result, COLUMNS);
+	}
+
 	  /**
 	   * @effects return id
 	   */
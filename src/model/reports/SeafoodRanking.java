@@ -0,0 +1,96 @@
+package model.reports;
+
+import java.io.IOException;
+
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import model.stats.Totals;
+import model.util.IdAllocator;
+import model.util.IdCounter;
+
+/**
+ * @overview
+ *  Represent a row of a ranking report: the rank of a seafood and the totals of its
+ *  transactions in a period.
+ */
+@DClass(schema="seafoodman",serialisable=false)
+public class SeafoodRanking {
+
+  public static final String A_id = "id";
+  public static final String A_rank = "rank";
+  public static final String A_seafoodId = "seafoodId";
+  public static final String A_count = "count";
+  public static final String A_quantity = "quantity";
+  public static final String A_amount = "amount";
+
+  @DAttr(name = A_id, id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static final IdCounter idCounter = IdAllocator.counterFor(SeafoodRanking.class);
+
+  @DAttr(name = A_rank, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int rank;
+
+  @DAttr(name = A_seafoodId, type = Type.String, length = 6, optional = false, mutable = false)
+  private String seafoodId;
+
+  @DAttr(name = A_count, type = Type.Integer, length = 10, optional = false, mutable = false)
+  private int count;
+
+  @DAttr(name = A_quantity, type = Type.Double, length = 15, optional = false, mutable = false)
+  private double quantity;
+
+  @DAttr(name = A_amount, type = Type.Double, length = 15, optional = false, mutable = false)
+  private double amount;
+
+  /** the columns of the export of a ranking (see {@link TopSeafoodExportReport#export(String)}) */
+  static final ReportExporter.Columns<SeafoodRanking> COLUMNS = new ReportExporter.Columns<SeafoodRanking>(
+      new String[] {A_rank, A_seafoodId, A_count, A_quantity, A_amount}) {
+    @Override
+    void write(SeafoodRanking o, ReportExporter out) throws IOException {
+      out.value(o.rank);
+      out.value(o.seafoodId);
+      out.value(o.count);
+      out.value(o.quantity);
+      out.value(o.amount);
+    }
+  };
+
+  public SeafoodRanking(int rank, String seafoodId, Totals totals) {
+    this.id = idCounter.next();
+    this.rank = rank;
+    this.seafoodId = seafoodId;
+    this.count = totals.getCount();
+    this.quantity = totals.getQuantity();
+    this.amount = totals.getAmount();
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public int getRank() {
+    return rank;
+  }
+
+  public String getSeafoodId() {
+    return seafoodId;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  public double getQuantity() {
+    return quantity;
+  }
+
+  public double getAmount() {
+    return amount;
+  }
+
+  @Override
+  public String toString() {
+    return "SeafoodRanking(" + rank + ", " + seafoodId + ", " + count + ", " + quantity + ", " + amount + ")";
+  }
+}
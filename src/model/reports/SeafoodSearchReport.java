@@ -0,0 +1,538 @@
+package model.reports;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.ConstraintViolationException;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.model.meta.AttrRef;
+import domainapp.basics.model.meta.DAssoc;
+import domainapp.basics.model.meta.DAssoc.AssocEndType;
+import domainapp.basics.model.meta.DAssoc.AssocType;
+import domainapp.basics.model.meta.DAssoc.Associate;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import domainapp.basics.model.meta.DOpt;
+import domainapp.basics.model.meta.MetaConstants;
+import domainapp.basics.model.meta.Select;
+import domainapp.basics.model.query.Expression.Op;
+import domainapp.basics.modules.report.model.meta.Output;
+import model.Country;
+import model.ForeignSeafood;
+import model.Seafood;
+import model.TypeOfSeafood;
+import model.index.NameIndexes;
+import model.index.SeafoodIndexes;
+import model.index.TrigramIndex;
+import model.index.ValueIndex;
+import model.util.IdAllocator;
+import model.util.IdCounter;
+
+/**
+ * @overview
+ *  Represent the reports about the seafoods that match any combination of a name, a
+ *  {@link TypeOfSeafood} and (for {@link ForeignSeafood}) a {@link Country}. Each criterion
+ *  is optional.
+ *
+ *  <p>Each criterion is answered by its index ({@link NameIndexes}, {@link SeafoodIndexes})
+ *  as the ordered list of the ids that satisfy it, and the result is the intersection of these
+ *  lists. If an index is not built (or the name has wildcards), the ids of the criterion are
+ *  read from the data source instead.
+ *
+ *  <p>The report also shows, for each criterion, the number of seafoods that satisfy the
+ *  other criteria but not this one, i.e. the candidates that it eliminates.
+ *
+ *  <p>A page of the result is read as the seafoods of exactly its ids.
+ */
+@DClass(schema="seafoodman",serialisable=false)
+public class SeafoodSearchReport {
+  @DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static final IdCounter idCounter = IdAllocator.counterFor(SeafoodSearchReport.class);
+  /** the (paged) query of the name criterion of {@link #doReportQuery()} */
+  private static final PagedQuery<Seafood> query = new PagedQuery<>(Seafood.class,
+      new String[] {Seafood.A_name},
+      new Op[] {Op.MATCH},
+      Seafood.A_id);
+
+  /**input: (part of) the seafood name */
+  @DAttr(name = "name", type = Type.String, length = 35, optional = true)
+  private String name;
+
+  /**input: the seafood type */
+  @DAttr(name = "type", type = Type.Domain, length = 15, optional = true)
+  private TypeOfSeafood type;
+
+  /**input: the country of the (foreign) seafood */
+  @DAttr(name = "country", type = Type.Domain, length = 6, optional = true)
+  private Country country;
+
+  /**output: seafoods that match all the criteria */
+  @DAttr(name="seafoods",type=Type.Collection,optional=false, mutable=false,
+      serialisable=false,filter=@Select(clazz=Seafood.class,
+      attributes={Seafood.A_id, Seafood.A_name, Seafood.A_type}),derivedFrom={"name", "type", "country"})
+  @DAssoc(ascName="seafood-search-report-has-seafood",role="report",
+      ascType=AssocType.One2Many,endType=AssocEndType.One,
+    associate=@Associate(type=Seafood.class,cardMin=0,cardMax=MetaConstants.CARD_MORE))
+  @Output
+  private Collection<Seafood> seafoods;
+
+  /**output: number of seafoods found (if any), derived from {@link #seafoods} */
+  @DAttr(name = "numSeafoods", type = Type.Integer, length = 20, auto=true, mutable=false)
+  @Output
+  private int numSeafoods;
+
+  /**output: number of seafoods that match the other criteria but not {@link #name} */
+  @DAttr(name = "eliminatedByName", type = Type.Integer, length = 20, auto=true, mutable=false)
+  @Output
+  private int eliminatedByName;
+
+  /**output: number of seafoods that match the other criteria but not {@link #type} */
+  @DAttr(name = "eliminatedByType", type = Type.Integer, length = 20, auto=true, mutable=false)
+  @Output
+  private int eliminatedByType;
+
+  /**output: number of seafoods that match the other criteria but not {@link #country} */
+  @DAttr(name = "eliminatedByCountry", type = Type.Integer, length = 20, auto=true, mutable=false)
+  @Output
+  private int eliminatedByCountry;
+
+  /**input: the page of the output to show (from 1) */
+  @DAttr(name = "page", type = Type.Integer, length = 5, optional = true)
+  private int page;
+
+  /**output: number of pages of the output */
+  @DAttr(name = "numPages", type = Type.Integer, length = 5, auto=true, mutable=false)
+  @Output
+  private int numPages;
+
+  /** the (paged) result of the last query */
+  private PagedResult<Seafood> pages;
+
+  /** whether the page {@link #page} is loaded into {@link #seafoods} */
+  private boolean pageLoaded;
+
+  /**
+   * @effects
+   *  initialise this with <tt>name, type, country</tt> (each of which may be null) and
+   *  look up all {@link Seafood} that match them.
+   *  initialise {@link #seafoods} with the result if any.
+   *
+   *  <p>throws NotPossibleException if failed to generate data source query;
+   *  DataSourceException if fails to read from the data source
+   */
+  @DOpt(type=DOpt.Type.ObjectFormConstructor)
+  @DOpt(type=DOpt.Type.RequiredConstructor)
+  public SeafoodSearchReport(@AttrRef("name") String name, @AttrRef("type") TypeOfSeafood type,
+      @AttrRef("country") Country country) throws NotPossibleException, DataSourceException {
+    this.id=idCounter.next();
+    this.name = name;
+    this.type = type;
+    this.country = country;
+    doReportQuery();
+  }
+
+  /**
+   * @effects return name
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @effects return type
+   */
+  public TypeOfSeafood getType() {
+    return type;
+  }
+
+  /**
+   * @effects return country
+   */
+  public Country getCountry() {
+    return country;
+  }
+
+  /**
+   * @effects set this.name = name
+   */
+  public void setName(String name) {
+    this.name = name;
+
+    // DONOT invoke doReportQuery here: there are > 1 input attributes
+  }
+
+  /**
+   * @effects set this.type = type
+   */
+  public void setType(TypeOfSeafood type) {
+    this.type = type;
+  }
+
+  /**
+   * @effects set this.country = country
+   */
+  public void setCountry(Country country) {
+    this.country = country;
+  }
+
+  /**
+   * This method is invoked when the report input has be set by the user.
+   *
+   * @effects <pre>
+   *   look up the ids of the seafoods that match each criterion that is set
+   *   intersect them (smallest first) into the ids of the result
+   *   update the output attributes accordingly.
+   *
+   *  <p>throws NotPossibleException if failed to generate data source query;
+   *  DataSourceException if fails to read from the data source. </pre>
+   */
+  @DOpt(type=DOpt.Type.DerivedAttributeUpdater)
+  @AttrRef(value="seafoods")
+  public void doReportQuery() throws NotPossibleException, DataSourceException {
+    QRM qrm = QRM.getInstance();
+    String s = ResultCache.normalise(name);
+    String pattern = "%"+s+"%";
+
+    // the ids that match each criterion (null if the criterion is not set)
+    List<String> byName = null, byType = null, byCountry = null;
+
+    // all the seafoods (read from the data source only if an index is missing)
+    List<Seafood> all = null;
+
+    TrigramIndex names = NameIndexes.getInstance().getSeafoodIndex();
+    if (s.length() > 0) {
+      if (names != null && !PagedQuery.hasWildcards(s))
+        byName = names.search(s);
+      else
+        byName = idsOf(query.loadAll(qrm, new Object[] {pattern}));
+    }
+
+    if (type != null) {
+      ValueIndex index = SeafoodIndexes.getInstance().getTypeIndex();
+      if (index != null) {
+        byType = index.search(type.getId());
+      } else {
+        if (all == null)
+          all = query.loadAll(qrm, new Object[] {"%"});
+        byType = new ArrayList<>();
+        for (Seafood sf : all) {
+          if (sf.getType() != null && sf.getType().getId().equals(type.getId()))
+            byType.add(sf.getId());
+        }
+        Collections.sort(byType);
+      }
+    }
+
+    if (country != null) {
+      ValueIndex index = SeafoodIndexes.getInstance().getCountryIndex();
+      if (index != null) {
+        byCountry = index.search(country.getId());
+      } else {
+        if (all == null)
+          all = query.loadAll(qrm, new Object[] {"%"});
+        byCountry = new ArrayList<>();
+        for (Seafood sf : all) {
+          if (sf instanceof ForeignSeafood && ((ForeignSeafood) sf).getCountry() != null
+              && ((ForeignSeafood) sf).getCountry().getId().equals(country.getId()))
+            byCountry.add(sf.getId());
+        }
+        Collections.sort(byCountry);
+      }
+    }
+
+    // the ids of all the seafoods: the candidates of a criterion that is not combined with others
+    List<String> universe = null;
+    int given = (byName != null ? 1 : 0) + (byType != null ? 1 : 0) + (byCountry != null ? 1 : 0);
+    if (given <= 1) {
+      if (names != null)
+        universe = names.keys();
+      else
+        universe = idsOf((all != null) ? all : query.loadAll(qrm, new Object[] {"%"}));
+    }
+
+    List<String> result = intersect(universe, byName, byType, byCountry);
+
+    // the candidates eliminated by each criterion: those of the others that are not in the result
+    int n = result.size();
+    int byNameOut = (byName != null) ? intersect(universe, byType, byCountry).size() - n : 0;
+    int byTypeOut = (byType != null) ? intersect(universe, byName, byCountry).size() - n : 0;
+    int byCountryOut = (byCountry != null) ? intersect(universe, byName, byType).size() - n : 0;
+
+    // the pages are read by their ids
+    setOutput(query.open(result, pattern), byNameOut, byTypeOut, byCountryOut);
+  }
+
+  /**
+   * @requires the non-null lists are in ascending order /\
+   *  universe != null if at most one of the other lists is not null
+   * @effects
+   *  return (in ascending order) the ids that are in all the non-null lists among
+   *  <tt>lists</tt>, or <tt>universe</tt> if they are all null
+   */
+  @SafeVarargs
+  private static List<String> intersect(List<String> universe, List<String>...lists) {
+    List<List<String>> given = new ArrayList<>();
+    for (List<String> l : lists) {
+      if (l != null)
+        given.add(l);
+    }
+
+    if (given.isEmpty())
+      return universe;
+
+    // probe the other lists with the ids of the smallest one
+    List<String> smallest = given.get(0);
+    for (List<String> l : given) {
+      if (l.size() < smallest.size())
+        smallest = l;
+    }
+
+    List<String> result = new ArrayList<>();
+    for (String id : smallest) {
+      boolean inAll = true;
+      for (List<String> l : given) {
+        if (l != smallest && Collections.binarySearch(l, id) < 0) {
+          inAll = false;
+          break;
+        }
+      }
+      if (inAll)
+        result.add(id);
+    }
+
+    return result;
+  }
+
+  /**
+   * @effects return (in ascending order) the ids of <tt>objects</tt>
+   */
+  private static List<String> idsOf(Collection<Seafood> objects) {
+    List<String> ids = new ArrayList<>(objects.size());
+    for (Seafood sf : objects) {
+      ids.add(sf.getId());
+    }
+    Collections.sort(ids);
+    return ids;
+  }
+
+  /**
+   * @effects
+   *  if <tt>found</tt> is not empty
+   *    set the output attributes from <tt>found</tt> and the numbers of eliminated
+   *    candidates, and show the first page of <tt>found</tt>
+   *  else
+   *    reset the output attributes
+   */
+  private void setOutput(PagedResult<Seafood> found,
+      int byNameOut, int byTypeOut, int byCountryOut) {
+    eliminatedByName = byNameOut;
+    eliminatedByType = byTypeOut;
+    eliminatedByCountry = byCountryOut;
+
+    if (found.getCount() > 0) {
+      pages = found;
+
+      // update other output
+      numSeafoods = found.getCount();
+      numPages = 0;
+
+      // the main output data is loaded when it is viewed
+      showPage(1);
+    } else {
+      // no data found: reset output
+      resetOutput();
+    }
+  }
+
+  /**
+   * @requires pages != null
+   * @effects
+   *  set this.page = page and clear {@link #seafoods}, which is loaded (by
+   *  {@link #getSeafoods()}) when it is viewed
+   */
+  private void showPage(int page) {
+    this.page = page;
+    seafoods = null;
+    pageLoaded = false;
+  }
+
+  /**
+   * @requires pages != null
+   * @effects
+   *  load the seafoods of the page {@link #page} of {@link #pages} into {@link #seafoods}
+   *
+   *  <p>throws IllegalStateException if fails to read from the data source
+   */
+  private void loadPage() throws IllegalStateException {
+    Collection<Seafood> objects;
+    try {
+      objects = pages.getPage(QRM.getInstance(), page);
+    } catch (DataSourceException e) {
+      throw new IllegalStateException("SeafoodSearchReport.loadPage: failed to load page " + page, e);
+    }
+
+    pageLoaded = true;
+    if (objects != null && !objects.isEmpty()) {
+      seafoods = objects;
+    } else {
+      // the page has been emptied by a change since the query
+      seafoods = null;
+    }
+  }
+
+  /**
+   * @effects
+   *  reset all output attributes (other than the numbers of eliminated candidates) to their
+   *  initial values
+   */
+  private void resetOutput() {
+    seafoods = null;
+    numSeafoods = 0;
+    numPages = 0;
+    page = 0;
+    pages = null;
+  }
+
+  /**
+   * A link-adder method for {@link #seafoods}, required for the object form to function.
+   * However, this method is empty because seafoods have already be recorded in the attribute {@link #seafoods}.
+   */
+  @DOpt(type=DOpt.Type.LinkAdder)
+  public boolean addSeafood(Collection<Seafood> seafoods) {
+    // do nothing
+    return false;
+  }
+
+  /**
+   * @effects return seafoods (the page {@link #page} is loaded when this is invoked)
+   */
+  public Collection<Seafood> getSeafoods() throws IllegalStateException {
+    if (pages != null && !pageLoaded)
+      loadPage();
+
+    return seafoods;
+  }
+
+  /**
+   * @effects return numSeafoods
+   */
+  public int getNumSeafoods() {
+    return numSeafoods;
+  }
+
+  /**
+   * @effects return eliminatedByName
+   */
+  public int getEliminatedByName() {
+    return eliminatedByName;
+  }
+
+  /**
+   * @effects return eliminatedByType
+   */
+  public int getEliminatedByType() {
+    return eliminatedByType;
+  }
+
+  /**
+   * @effects return eliminatedByCountry
+   */
+  public int getEliminatedByCountry() {
+    return eliminatedByCountry;
+  }
+
+  /**
+   * @effects return page
+   */
+  public int getPage() {
+    return page;
+  }
+
+  /**
+   * @effects <pre>
+   *  if there is an output
+   *    load the page <tt>page</tt> of the output
+   *    throws ConstraintViolationException if the page does not exist.
+   *  </pre>
+   */
+  public void setPage(int page) throws ConstraintViolationException {
+    if (pages != null) {
+      if (page < 1 || page > getNumPages())
+        throw new ConstraintViolationException(
+            ConstraintViolationException.Code.INVALID_VALUE, new Object[] { page });
+
+      showPage(page);
+    }
+  }
+
+  /**
+   * @effects
+   *  return numPages (the pages are first counted when this is invoked)
+   *
+   *  <p>throws IllegalStateException if fails to read from the data source
+   */
+  public int getNumPages() throws IllegalStateException {
+    if (pages != null && numPages == 0) {
+      try {
+        numPages = pages.getNumPages();
+      } catch (DataSourceException e) {
+        throw new IllegalStateException("SeafoodSearchReport.getNumPages: failed to count pages", e);
+      }
+    }
+    return numPages;
+  }
+
+  /**
+   * @effects 
+   *  write the whole output of this (all its pages) to <tt>file</tt>, as TSV if the name of 
+   *  <tt>file</tt> ends with <tt>.tsv</tt> or else as CSV, and return the number of rows written; 
+   *  the seafoods are read page by page, the output is not loaded as a whole
+   *  
+   *  <p>throws IOException if fails to write the file; DataSourceException if fails to read 
+   *  from the data source
+   */
+  public int export(String file) throws IOException, DataSourceException {
+    return ReportExporter.export(file, pages, SeafoodByNameReport.COLUMNS);
+  }
+
+  /**
+   * @effects return id
+   */
+  public int getId() {
+    return id;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + id;
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    SeafoodSearchReport other = (SeafoodSearchReport) obj;
+    if (id != other.id)
+      return false;
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "SeafoodSearchReport (" + id + ", " + name + ", " + type + ", " + country + ")";
+  }
+}
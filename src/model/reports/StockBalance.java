@@ -0,0 +1,76 @@
+package model.reports;
+
+import java.io.IOException;
+
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import model.stats.StockLedger;
+import model.util.IdAllocator;
+import model.util.IdCounter;
+
+/**
+ * @overview
+ *  Represent a row of a stock report: the stock balance of a seafood at a preserver
+ *  (or, for {@link StockLedger#NO_PRESERVER}, of its transactions without a preserver).
+ */
+@DClass(schema="seafoodman",serialisable=false)
+public class StockBalance {
+
+  public static final String A_id = "id";
+  public static final String A_seafoodId = "seafoodId";
+  public static final String A_preserverId = "preserverId";
+  public static final String A_quantity = "quantity";
+
+  @DAttr(name = A_id, id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static final IdCounter idCounter = IdAllocator.counterFor(StockBalance.class);
+
+  @DAttr(name = A_seafoodId, type = Type.String, length = 6, optional = false, mutable = false)
+  private String seafoodId;
+
+  @DAttr(name = A_preserverId, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int preserverId;
+
+  @DAttr(name = A_quantity, type = Type.Double, length = 15, optional = false, mutable = false)
+  private double quantity;
+
+  /** the columns of the export of the balances (see {@link StockReport#export(String)}) */
+  static final ReportExporter.Columns<StockBalance> COLUMNS = new ReportExporter.Columns<StockBalance>(
+      new String[] {A_seafoodId, A_preserverId, A_quantity}) {
+    @Override
+    void write(StockBalance o, ReportExporter out) throws IOException {
+      out.value(o.seafoodId);
+      out.value(o.preserverId);
+      out.value(o.quantity);
+    }
+  };
+
+  public StockBalance(String seafoodId, int preserverId, double quantity) {
+    this.id = idCounter.next();
+    this.seafoodId = seafoodId;
+    this.preserverId = preserverId;
+    this.quantity = quantity;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public String getSeafoodId() {
+    return seafoodId;
+  }
+
+  public int getPreserverId() {
+    return preserverId;
+  }
+
+  public double getQuantity() {
+    return quantity;
+  }
+
+  @Override
+  public String toString() {
+    return "StockBalance(" + seafoodId + ", " + preserverId + ", " + quantity + ")";
+  }
+}
@@ -0,0 +1,186 @@
+package model.reports;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import domainapp.basics.model.meta.AttrRef;
+import domainapp.basics.model.meta.DAssoc;
+import domainapp.basics.model.meta.DAssoc.AssocEndType;
+import domainapp.basics.model.meta.DAssoc.AssocType;
+import domainapp.basics.model.meta.DAssoc.Associate;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import domainapp.basics.model.meta.DOpt;
+import domainapp.basics.model.meta.MetaConstants;
+import domainapp.basics.model.meta.Select;
+import domainapp.basics.modules.report.model.meta.Output;
+import model.Seafood;
+import model.stats.StockLedger;
+import model.util.IdAllocator;
+import model.util.IdCounter;
+import software.db.ChangeJournal;
+
+/**
+ * @overview
+ * 	Represent the reports about the current stock of a seafood (or of all seafoods) at
+ *  each preserver.
+ *
+ *  <p>The balances are read from {@link StockLedger}, no transaction is loaded.
+ */
+@DClass(schema="seafoodman",serialisable=false)
+public class StockReport {
+  @DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static final IdCounter idCounter = IdAllocator.counterFor(StockReport.class);
+
+  /**input: the seafood (all seafoods if it is not set) */
+  @DAttr(name = "seafood", type = Type.Domain, length = 6, optional = true)
+  private Seafood seafood;
+
+  /**output: the balance of each seafood at each preserver */
+  @DAttr(name="balances",type=Type.Collection,optional=false, mutable=false,
+      serialisable=false,filter=@Select(clazz=StockBalance.class,
+      attributes={StockBalance.A_seafoodId, StockBalance.A_preserverId, StockBalance.A_quantity}),
+      derivedFrom={"seafood"})
+  @DAssoc(ascName="stock-report-has-balances",role="report",
+      ascType=AssocType.One2Many,endType=AssocEndType.One,
+    associate=@Associate(type=StockBalance.class,cardMin=0,cardMax=MetaConstants.CARD_MORE))
+  @Output
+  private Collection<StockBalance> balances;
+
+  /**output: the total stock (in kilos) of {@link #balances} */
+  @DAttr(name = "stock", type = Type.Double, length = 20, auto=true, mutable=false)
+  @Output
+  private double stock;
+
+  /**
+   * @effects
+   *  initialise this with <tt>seafood</tt> and read its balances from {@link StockLedger}.
+   */
+  @DOpt(type=DOpt.Type.ObjectFormConstructor)
+  @DOpt(type=DOpt.Type.RequiredConstructor)
+  public StockReport(@AttrRef("seafood") Seafood seafood) {
+    this.id=idCounter.next();
+    this.seafood = seafood;
+    doReportQuery();
+  }
+
+  /**
+   * @effects return seafood
+   */
+  public Seafood getSeafood() {
+    return seafood;
+  }
+
+  /**
+   * @effects <pre>
+   *  set this.seafood = seafood
+   *  invoke {@link #doReportQuery()} to update the output attribute value
+   *  </pre>
+   */
+  public void setSeafood(Seafood seafood) {
+    this.seafood = seafood;
+    doReportQuery();
+  }
+
+  /**
+   * This method is invoked when the report input has be set by the user.
+   *
+   * @effects
+   *  read the balances of {@link #seafood} and update the output attributes accordingly.
+   */
+  @DOpt(type=DOpt.Type.DerivedAttributeUpdater)
+  @AttrRef(value="balances")
+  public void doReportQuery() {
+    // the changes committed so far are applied first
+    ChangeJournal.getInstance().tryCatchUp();
+    Map<String, Map<Integer, Double>> found =
+        StockLedger.getInstance().getBalances((seafood != null) ? seafood.getId() : null);
+
+    List<StockBalance> rows = new ArrayList<>();
+    double sum = 0;
+    for (Map.Entry<String, Map<Integer, Double>> s : found.entrySet()) {
+      for (Map.Entry<Integer, Double> p : s.getValue().entrySet()) {
+        rows.add(new StockBalance(s.getKey(), p.getKey(), p.getValue()));
+        sum += p.getValue();
+      }
+    }
+
+    balances = rows;
+    stock = sum;
+  }
+
+  /**
+   * A link-adder method for {@link #balances}, required for the object form to function.
+   * However, this method is empty because the balances have already be recorded in the attribute.
+   */
+  @DOpt(type=DOpt.Type.LinkAdder)
+  public boolean addBalances(Collection<StockBalance> balances) {
+    // do nothing
+    return false;
+  }
+
+  /**
+   * @effects return balances
+   */
+  public Collection<StockBalance> getBalances() {
+    return balances;
+  }
+
+  /**
+   * @effects return stock
+   */
+  public double getStock() {
+    return stock;
+  }
+
+  /**
+   * @effects 
+   *  write the balances of this to <tt>file</tt>, as TSV if the name of <tt>file</tt> ends with 
+   *  <tt>.tsv</tt> or else as CSV, and return the number of rows written
+   *  
+   *  <p>throws IOException if fails to write the file
+   */
+  public int export(String file) throws IOException {
+    return ReportExporter.export(file, balances, StockBalance.COLUMNS);
+  }
+
+  /**
+   * @effects return id
+   */
+  public int getId() {
+    return id;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + id;
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    StockReport other = (StockReport) obj;
+    if (id != other.id)
+      return false;
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "StockReport (" + id + ", " + seafood + ")";
+  }
+
+}
@@ -0,0 +1,370 @@
+package model.reports;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import domainapp.basics.exceptions.ConstraintViolationException;
+import domainapp.basics.model.meta.AttrRef;
+import domainapp.basics.model.meta.DAssoc;
+import domainapp.basics.model.meta.DAssoc.AssocEndType;
+import domainapp.basics.model.meta.DAssoc.AssocType;
+import domainapp.basics.model.meta.DAssoc.Associate;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import domainapp.basics.model.meta.DOpt;
+import domainapp.basics.model.meta.MetaConstants;
+import domainapp.basics.model.meta.Select;
+import domainapp.basics.modules.report.model.meta.Output;
+import model.stats.Totals;
+import model.stats.TransactionRollups;
+import model.stats.TransactionRollups.Kind;
+import model.stats.TransactionRollups.Period;
+import model.util.Dates;
+import model.util.IdAllocator;
+import model.util.IdCounter;
+import software.db.ChangeJournal;
+
+/**
+ * @overview
+ * 	Represent the reports that rank the seafoods by their exports (quantity or revenue)
+ *  within a date range and show the best <tt>top</tt> of them.
+ *
+ *  <p>The exports are read from {@link TransactionRollups}, no transaction is loaded: the
+ *  range is covered by the totals of its whole months and of its remaining days, which are
+ *  summed per seafood. The best seafoods are then selected with a heap of at most
+ *  <tt>top</tt> entries, so the memory used depends on the number of seafoods and on
+ *  <tt>top</tt>, not on the number of exports.
+ */
+@DClass(schema="seafoodman",serialisable=false)
+public class TopSeafoodExportReport {
+  /** the default number of seafoods ranked */
+  public static final int DEFAULT_TOP = 10;
+
+  @DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static final IdCounter idCounter = IdAllocator.counterFor(TopSeafoodExportReport.class);
+
+  /**input: first date of the range */
+  @DAttr(name = "fromDate", type = Type.String, length = 30, optional = false)
+  private String fromDate;
+
+  /**input: last date of the range */
+  @DAttr(name = "toDate", type = Type.String, length = 30, optional = false)
+  private String toDate;
+
+  /**input: number of seafoods to rank (default {@value #DEFAULT_TOP}) */
+  @DAttr(name = "top", type = Type.Integer, length = 5, optional = true, min = 1)
+  private Integer top;
+
+  /**input: whether to rank by revenue (the export amounts) instead of by quantity */
+  @DAttr(name = "byRevenue", type = Type.Boolean, optional = true)
+  private Boolean byRevenue;
+
+  // the epoch days of fromDate and toDate
+  private int fromDay;
+  private int toDay;
+
+  /**output: the best {@link #top} seafoods, in rank order */
+  @DAttr(name="rankings",type=Type.Collection,optional=false, mutable=false,
+      serialisable=false,filter=@Select(clazz=SeafoodRanking.class,
+      attributes={SeafoodRanking.A_rank, SeafoodRanking.A_seafoodId, SeafoodRanking.A_count,
+          SeafoodRanking.A_quantity, SeafoodRanking.A_amount}),
+      derivedFrom={"fromDate", "toDate", "top", "byRevenue"})
+  @DAssoc(ascName="top-seafood-export-report-has-rankings",role="report",
+      ascType=AssocType.One2Many,endType=AssocEndType.One,
+    associate=@Associate(type=SeafoodRanking.class,cardMin=0,cardMax=MetaConstants.CARD_MORE))
+  @Output
+  private Collection<SeafoodRanking> rankings;
+
+  /**output: number of seafoods exported in the range */
+  @DAttr(name = "numSeafoods", type = Type.Integer, length = 20, auto=true, mutable=false)
+  @Output
+  private int numSeafoods;
+
+  /** orders totals by quantity, then by amount */
+  private static final Comparator<Map.Entry<String, Totals>> BY_QUANTITY =
+      new Comparator<Map.Entry<String, Totals>>() {
+    @Override
+    public int compare(Map.Entry<String, Totals> o1, Map.Entry<String, Totals> o2) {
+      Totals t1 = o1.getValue(), t2 = o2.getValue();
+      int c = Double.compare(t1.getQuantity(), t2.getQuantity());
+      if (c == 0)
+        c = Double.compare(t1.getAmount(), t2.getAmount());
+      // ties: the smaller id ranks higher
+      return (c != 0) ? c : o2.getKey().compareTo(o1.getKey());
+    }
+  };
+
+  /** orders totals by amount, then by quantity */
+  private static final Comparator<Map.Entry<String, Totals>> BY_AMOUNT =
+      new Comparator<Map.Entry<String, Totals>>() {
+    @Override
+    public int compare(Map.Entry<String, Totals> o1, Map.Entry<String, Totals> o2) {
+      Totals t1 = o1.getValue(), t2 = o2.getValue();
+      int c = Double.compare(t1.getAmount(), t2.getAmount());
+      if (c == 0)
+        c = Double.compare(t1.getQuantity(), t2.getQuantity());
+      return (c != 0) ? c : o2.getKey().compareTo(o1.getKey());
+    }
+  };
+
+  /**
+   * @effects
+   *  initialise this with the inputs and rank the seafoods exported between
+   *  <tt>fromDate</tt> and <tt>toDate</tt>.
+   *
+   *  <p>throws ParseException if fromDate or toDate is not a valid date
+   */
+  @DOpt(type=DOpt.Type.ObjectFormConstructor)
+  @DOpt(type=DOpt.Type.RequiredConstructor)
+  public TopSeafoodExportReport(@AttrRef("fromDate") String fromDate, @AttrRef("toDate") String toDate,
+      @AttrRef("top") Integer top, @AttrRef("byRevenue") Boolean byRevenue) throws ParseException {
+    this.id=idCounter.next();
+    this.fromDay = Dates.toEpochDay(fromDate);
+    this.toDay = Dates.toEpochDay(toDate);
+    this.fromDate = fromDate;
+    this.toDate = toDate;
+    this.top = top;
+    this.byRevenue = byRevenue;
+    doReportQuery();
+  }
+
+  /**
+   * @effects return fromDate
+   */
+  public String getFromDate() {
+    return fromDate;
+  }
+
+  /**
+   * @effects return toDate
+   */
+  public String getToDate() {
+    return toDate;
+  }
+
+  /**
+   * @effects return top
+   */
+  public Integer getTop() {
+    return top;
+  }
+
+  /**
+   * @effects return byRevenue
+   */
+  public Boolean getByRevenue() {
+    return byRevenue;
+  }
+
+  /**
+   * @effects <pre>
+   *  set this.fromDate = fromDate
+   *  throws ConstraintViolationException if fromDate is not a valid date.
+   *  </pre>
+   */
+  public void setFromDate(String fromDate) throws ConstraintViolationException {
+    this.fromDay = toEpochDay(fromDate);
+    this.fromDate = fromDate;
+
+    // DONOT invoke doReportQuery here: there are > 1 input attributes
+  }
+
+  /**
+   * @effects <pre>
+   *  set this.toDate = toDate
+   *  throws ConstraintViolationException if toDate is not a valid date.
+   *  </pre>
+   */
+  public void setToDate(String toDate) throws ConstraintViolationException {
+    this.toDay = toEpochDay(toDate);
+    this.toDate = toDate;
+  }
+
+  /**
+   * @effects set this.top = top
+   */
+  public void setTop(Integer top) {
+    this.top = top;
+  }
+
+  /**
+   * @effects set this.byRevenue = byRevenue
+   */
+  public void setByRevenue(Boolean byRevenue) {
+    this.byRevenue = byRevenue;
+  }
+
+  private static int toEpochDay(String date) throws ConstraintViolationException {
+    try {
+      return Dates.toEpochDay(date);
+    } catch (ParseException e) {
+      throw new ConstraintViolationException(
+          ConstraintViolationException.Code.INVALID_VALUE, e, new Object[] { date });
+    }
+  }
+
+  /**
+   * This method is invoked when the report input has be set by the user.
+   *
+   * @effects <pre>
+   *   sum the export totals of each seafood between fromDate and toDate
+   *   select the best top of them
+   *   update the output attributes accordingly.</pre>
+   */
+  @DOpt(type=DOpt.Type.DerivedAttributeUpdater)
+  @AttrRef(value="rankings")
+  public void doReportQuery() {
+    // the changes committed so far are applied first
+    ChangeJournal.getInstance().tryCatchUp();
+    Map<String, Totals> sums = sumExports(TransactionRollups.getInstance(), fromDay, toDay);
+
+    int n = (top != null && top > 0) ? top : DEFAULT_TOP;
+    Comparator<Map.Entry<String, Totals>> order =
+        (byRevenue != null && byRevenue) ? BY_AMOUNT : BY_QUANTITY;
+
+    // a min-heap of the best n so far: its head is the first to be pushed out
+    PriorityQueue<Map.Entry<String, Totals>> best = new PriorityQueue<>(n + 1, order);
+    int exported = 0;
+    for (Map.Entry<String, Totals> e : sums.entrySet()) {
+      if (e.getValue().getCount() <= 0)
+        continue;
+
+      exported++;
+      best.add(e);
+      if (best.size() > n)
+        best.poll();
+    }
+
+    // the heap in rank order
+    List<Map.Entry<String, Totals>> ranked = new ArrayList<>(best);
+    Collections.sort(ranked, Collections.reverseOrder(order));
+
+    List<SeafoodRanking> rows = new ArrayList<>(ranked.size());
+    int rank = 0;
+    for (Map.Entry<String, Totals> e : ranked) {
+      rows.add(new SeafoodRanking(++rank, e.getKey(), e.getValue()));
+    }
+
+    rankings = rows;
+    numSeafoods = exported;
+  }
+
+  /**
+   * @effects
+   *  return the totals (per seafood id) of the exports between the epoch days
+   *  <tt>fromDay</tt> and <tt>toDay</tt> in <tt>rollups</tt>
+   */
+  private static Map<String, Totals> sumExports(TransactionRollups rollups, int fromDay, int toDay) {
+    Map<String, Totals> sums = new HashMap<>();
+
+    int day = fromDay;
+    while (day <= toDay) {
+      int month = Dates.monthOf(day);
+      int nextMonth = Dates.firstDayOf(month + 1);
+      if (day == Dates.firstDayOf(month) && nextMonth - 1 <= toDay) {
+        // the whole month is in the range
+        addAll(sums, rollups.getTotals(Kind.EXPORT, Period.MONTH, month));
+        day = nextMonth;
+      } else {
+        addAll(sums, rollups.getTotals(Kind.EXPORT, Period.DAY, day));
+        day++;
+      }
+    }
+
+    return sums;
+  }
+
+  /**
+   * @modifies sums
+   * @effects add each entry of <tt>totals</tt> to its seafood's totals in <tt>sums</tt>
+   */
+  private static void addAll(Map<String, Totals> sums, Map<String, Totals> totals) {
+    for (Map.Entry<String, Totals> e : totals.entrySet()) {
+      Totals sum = sums.get(e.getKey());
+      if (sum == null) {
+        sum = new Totals();
+        sums.put(e.getKey(), sum);
+      }
+      sum.add(e.getValue());
+    }
+  }
+
+  /**
+   * A link-adder method for {@link #rankings}, required for the object form to function.
+   * However, this method is empty because the rankings have already be recorded in the attribute.
+   */
+  @DOpt(type=DOpt.Type.LinkAdder)
+  public boolean addRankings(Collection<SeafoodRanking> rankings) {
+    // do nothing
+    return false;
+  }
+
+  /**
+   * @effects return rankings
+   */
+  public Collection<SeafoodRanking> getRankings() {
+    return rankings;
+  }
+
+  /**
+   * @effects return numSeafoods
+   */
+  public int getNumSeafoods() {
+    return numSeafoods;
+  }
+
+  /**
+   * @effects 
+   *  write the rankings of this to <tt>file</tt>, as TSV if the name of <tt>file</tt> ends with 
+   *  <tt>.tsv</tt> or else as CSV, and return the number of rows written
+   *  
+   *  <p>throws IOException if fails to write the file
+   */
+  public int export(String file) throws IOException {
+    return ReportExporter.export(file, rankings, SeafoodRanking.COLUMNS);
+  }
+
+  /**
+   * @effects return id
+   */
+  public int getId() {
+    return id;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + id;
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    TopSeafoodExportReport other = (TopSeafoodExportReport) obj;
+    if (id != other.id)
+      return false;
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "TopSeafoodExportReport (" + id + ", " + fromDate + ", " + toDate + ")";
+  }
+}
@@ -0,0 +1,110 @@
+package model.reports;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import model.stats.Totals;
+import model.stats.TransactionRollups.Kind;
+import model.util.IdAllocator;
+import model.util.IdCounter;
+
+/**
+ * @overview 
+ *  Represent a row of a totals report: the totals of the import or export transactions 
+ *  of a seafood in a period.
+ */
+@DClass(schema="seafoodman",serialisable=false)
+public class TransactionTotal {
+  
+  public static final String A_id = "id";
+  public static final String A_seafoodId = "seafoodId";
+  public static final String A_count = "count";
+  public static final String A_quantity = "quantity";
+  public static final String A_amount = "amount";
+  
+  @DAttr(name = A_id, id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+  private int id;
+  private static final IdCounter idCounter = IdAllocator.counterFor(TransactionTotal.class);
+  
+  @DAttr(name = A_seafoodId, type = Type.String, length = 6, optional = false, mutable = false)
+  private String seafoodId;
+  
+  @DAttr(name = A_count, type = Type.Integer, length = 10, optional = false, mutable = false)
+  private int count;
+  
+  @DAttr(name = A_quantity, type = Type.Double, length = 15, optional = false, mutable = false)
+  private double quantity;
+  
+  @DAttr(name = A_amount, type = Type.Double, length = 15, optional = false, mutable = false)
+  private double amount;
+  
+  public TransactionTotal(String seafoodId, Totals totals) {
+    this.id = idCounter.next();
+    this.seafoodId = seafoodId;
+    this.count = totals.getCount();
+    this.quantity = totals.getQuantity();
+    this.amount = totals.getAmount();
+  }
+  
+  public int getId() {
+    return id;
+  }
+  
+  public String getSeafoodId() {
+    return seafoodId;
+  }
+  
+  public int getCount() {
+    return count;
+  }
+  
+  public double getQuantity() {
+    return quantity;
+  }
+  
+  public double getAmount() {
+    return amount;
+  }
+  
+  @Override
+  public String toString() {
+    return "TransactionTotal(" + seafoodId + ", " + count + ", " + quantity + ", " + amount + ")";
+  }
+  
+  /**
+   * @effects 
+   *  write to <tt>file</tt> (see {@link ReportExporter#open(String)}) a row for each of the 
+   *  import totals <tt>imports</tt> and then of the export totals <tt>exports</tt> (either 
+   *  may be null), whose first value is its {@link Kind}; return the number of rows written
+   *  
+   *  <p>throws IOException if fails to write the file
+   */
+  static int export(String file, Collection<TransactionTotal> imports, 
+      Collection<TransactionTotal> exports) throws IOException {
+    try (ReportExporter out = ReportExporter.open(file)) {
+      out.header(new String[] {"kind", A_seafoodId, A_count, A_quantity, A_amount});
+      write(Kind.IMPORT, imports, out);
+      write(Kind.EXPORT, exports, out);
+      
+      return out.getRows();
+    }
+  }
+  
+  private static void write(Kind kind, Collection<TransactionTotal> totals, ReportExporter out) 
+      throws IOException {
+    if (totals == null)
+      return;
+    
+    for (TransactionTotal t : totals) {
+      out.value(kind);
+      out.value(t.seafoodId);
+      out.value(t.count);
+      out.value(t.quantity);
+      out.value(t.amount);
+      out.endRow();
+    }
+  }
+}
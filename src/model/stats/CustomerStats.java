@@ -0,0 +1,318 @@
+package model.stats;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import controller.ExportSeafood;
+import controller.ImportSeafood;
+import model.Customer;
+import model.OrderRow;
+import model.OrderTable;
+import model.SeafoodBill;
+import model.util.Fixed;
+import software.db.Change;
+import software.db.ChangeJournal;
+import software.db.SeafoodDb;
+
+/**
+ * @overview
+ *  The purchase totals ({@link CustomerTotals}) of each customer.
+ *
+ *  <p>The totals are built once from the data source by {@link #rebuild()} (when they are
+ *  first read) and are then kept up to date: {@link SeafoodBill} and {@link OrderRow} report their own changes and the last
+ *  days are maintained from the committed changes of the transactions (see
+ *  {@link ChangeJournal}). Removing a transaction of the last day of a customer marks that day
+ *  as stale; it is looked up again in the data source when the totals are read.
+ */
+public class CustomerStats implements ChangeJournal.Listener {
+
+  private static final CustomerStats instance = new CustomerStats();
+
+  private ConcurrentMap<String, CustomerTotals> totals;
+
+  // changes update the totals under the read lock (concurrently), rebuild replaces them under the write lock
+  private final ReadWriteLock lock;
+
+  // set when the totals are first built; the (first) build is under buildLock
+  private volatile boolean built;
+  private final Object buildLock;
+
+  private CustomerStats() {
+    totals = new ConcurrentHashMap<>();
+    lock = new ReentrantReadWriteLock();
+    buildLock = new Object();
+  }
+
+  /**
+   * @effects return the shared instance
+   */
+  public static CustomerStats getInstance() {
+    return instance;
+  }
+
+  /**
+   * @requires sign = 1 \/ sign = -1
+   * @effects
+   *  add (<tt>sign = 1</tt>) or remove (<tt>sign = -1</tt>) the bill <tt>b</tt>, together with
+   *  the total of its table, to/from the totals of its customer
+   */
+  public void billChanged(SeafoodBill b, int sign) {
+    Customer c = b.getCustomer();
+    if (c == null || !isKept())
+      return;
+
+    // the total of the table is kept up to date by the table itself
+    OrderTable table = b.getTable();
+    long amount = (table != null) ? table.getTotalFixed() : 0;
+
+    lock.readLock().lock();
+    try {
+      totals(totals, c.getId()).addBill(amount, sign);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @requires sign = 1 \/ sign = -1
+   * @effects
+   *  add (<tt>sign = 1</tt>) or remove (<tt>sign = -1</tt>) the price of the order row
+   *  <tt>r</tt> to/from the totals of the customer of its bill (if any)
+   */
+  public void rowChanged(OrderRow r, int sign) {
+    OrderTable table = r.getTable();
+    SeafoodBill b = (table != null) ? table.getBill() : null;
+    Customer c = (b != null) ? b.getCustomer() : null;
+    if (c == null || !isKept())
+      return;
+
+    lock.readLock().lock();
+    try {
+      totals(totals, c.getId()).addSpend(sign * r.getPriceFixed());
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void changed(Change c) {
+    if ((!c.is(ImportSeafood.class) && !c.is(ExportSeafood.class)) ||
+        c.getCustomerId() == null || c.getDateDay() == null)
+      return;
+
+    lock.readLock().lock();
+    try {
+      totals(totals, c.getCustomerId()).addDay(c.getDateDay(), c.getSign());
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @effects
+   *  return the totals of all the customers (that have any), keyed by customer id
+   */
+  public Map<String, CustomerTotals> getTotals() {
+    ensureBuilt();
+
+    Map<String, CustomerTotals> current;
+    lock.readLock().lock();
+    try {
+      current = totals;
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    for (Map.Entry<String, CustomerTotals> e : current.entrySet()) {
+      if (e.getValue().isLastDayStale())
+        refreshLastDay(e.getKey(), e.getValue());
+    }
+
+    return Collections.unmodifiableMap(current);
+  }
+
+  /**
+   * @modifies this
+   * @effects
+   *  recompute all totals from the data source, replace the current totals with them and
+   *  keep the last days up to date with the changes committed after (see
+   *  {@link ChangeJournal#attach(ChangeJournal.Listener, ChangeJournal.Snapshot)})
+   *
+   *  <p>throws SQLException if fails to read from the data source
+   */
+  public void rebuild() throws SQLException {
+    ChangeJournal.getInstance().attach(this, new ChangeJournal.Snapshot() {
+      private ConcurrentMap<String, CustomerTotals> newTotals;
+
+      @Override
+      public void read(Connection con) throws SQLException {
+        newTotals = compute(con);
+      }
+
+      @Override
+      public void caughtUp() {
+        lock.writeLock().lock();
+        try {
+          totals = newTotals;
+          built = true;
+        } finally {
+          lock.writeLock().unlock();
+        }
+      }
+    });
+  }
+
+  /**
+   * @effects
+   *  if the totals are not built (and there is a data source), build them (see
+   *  {@link #rebuild()}); if that fails, they are built at the next read
+   */
+  private void ensureBuilt() {
+    if (built || !SeafoodDb.isConfigured())
+      return;
+
+    synchronized (buildLock) {
+      if (built)
+        return;
+      try {
+        rebuild();
+      } catch (SQLException e) {
+        // built at the next read
+      }
+    }
+  }
+
+  /**
+   * @effects
+   *  return true iff the totals are kept up to date by the changes reported, i.e. they are
+   *  built or there is no data source to build them from (then they are only the changes)
+   */
+  private boolean isKept() {
+    return built || !SeafoodDb.isConfigured();
+  }
+
+  /**
+   * @modifies t
+   * @effects
+   *  look up the last day of the customer <tt>customerId</tt> in the data source and set it
+   *  in <tt>t</tt> (if the data source cannot be read, the stale day is kept)
+   */
+  private static void refreshLastDay(String customerId, CustomerTotals t) {
+    if (!SeafoodDb.isConfigured())
+      return;
+
+    int lastDay = CustomerTotals.NO_DAY, count = 0;
+    try (Connection con = SeafoodDb.open()) {
+      for (Class<?> c : new Class<?>[] {ImportSeafood.class, ExportSeafood.class}) {
+        try (PreparedStatement stmt = con.prepareStatement("select " + ImportSeafood.A_DateDay
+            + ", count(*) from " + SeafoodDb.tableOf(c) + " where " + customerColumn()
+            + " = ? group by " + ImportSeafood.A_DateDay + " order by " + ImportSeafood.A_DateDay
+            + " desc")) {
+          stmt.setString(1, customerId);
+          try (ResultSet rs = stmt.executeQuery()) {
+            if (rs.next()) {
+              int day = rs.getInt(1);
+              if (day > lastDay) {
+                lastDay = day;
+                count = rs.getInt(2);
+              } else if (day == lastDay) {
+                count += rs.getInt(2);
+              }
+            }
+          }
+        }
+      }
+    } catch (SQLException e) {
+      return;
+    }
+
+    t.setLastDay(lastDay, count);
+  }
+
+  /**
+   * @effects
+   *  compute from the data source and return the totals of all customers (the objects of a 
+   *  table that is not yet created are none)
+   */
+  private static ConcurrentMap<String, CustomerTotals> compute(Connection con)
+      throws SQLException {
+    ConcurrentMap<String, CustomerTotals> totals = new ConcurrentHashMap<>();
+    String billCustomer = SeafoodDb.fkColumn(SeafoodBill.A_customer, Customer.A_id);
+    String tableCol = SeafoodDb.fkColumn(SeafoodBill.A_table, "id");
+
+    try (Statement stmt = con.createStatement()) {
+      // the bills and their amounts: the rows are summed (exactly, as the rows do) per table first
+      Map<String, Long> tableAmounts = new HashMap<>();
+      try (ResultSet rs = stmt.executeQuery("select " + tableCol + ", " + OrderRow.A_number
+          + ", " + OrderRow.A_pricePerKilo + " from " + SeafoodDb.tableOf(OrderRow.class))) {
+        while (rs.next()) {
+          long price = Fixed.times(Fixed.of(rs.getDouble(2)), Fixed.of(rs.getDouble(3)));
+          Long sum = tableAmounts.get(rs.getString(1));
+          tableAmounts.put(rs.getString(1), (sum != null) ? sum + price : price);
+        }
+      } catch (SQLException e) {
+        if (!SeafoodDb.isMissingTable(e))
+          throw e;
+      }
+
+      try (ResultSet rs = stmt.executeQuery("select " + billCustomer + ", " + tableCol
+          + " from " + SeafoodDb.tableOf(SeafoodBill.class))) {
+        while (rs.next()) {
+          String customerId = rs.getString(1);
+          if (customerId == null)
+            continue;
+          Long amount = tableAmounts.get(rs.getString(2));
+          totals(totals, customerId).addBill((amount != null) ? amount : 0, 1);
+        }
+      } catch (SQLException e) {
+        if (!SeafoodDb.isMissingTable(e))
+          throw e;
+      }
+
+      // the transactions: only the last day (and its count) of each customer is kept
+      for (Class<?> c : new Class<?>[] {ImportSeafood.class, ExportSeafood.class}) {
+        try (ResultSet rs = stmt.executeQuery("select " + customerColumn() + ", "
+            + ImportSeafood.A_DateDay + " from " + SeafoodDb.tableOf(c))) {
+          while (rs.next()) {
+            String customerId = rs.getString(1);
+            int day = rs.getInt(2);
+            if (customerId == null || rs.wasNull())
+              continue;
+            totals(totals, customerId).addDay(day, 1);
+          }
+        } catch (SQLException e) {
+          if (!SeafoodDb.isMissingTable(e))
+            throw e;
+        }
+      }
+    }
+
+    return totals;
+  }
+
+  private static String customerColumn() {
+    return SeafoodDb.fkColumn(ImportSeafood.A_Customer, Customer.A_id);
+  }
+
+  private static CustomerTotals totals(ConcurrentMap<String, CustomerTotals> totals, String customerId) {
+    CustomerTotals t = totals.get(customerId);
+    if (t == null) {
+      CustomerTotals newT = new CustomerTotals();
+      t = totals.putIfAbsent(customerId, newT);
+      if (t == null)
+        t = newT;
+    }
+
+    return t;
+  }
+}
@@ -0,0 +1,103 @@
+package model.stats;
+
+import model.util.Fixed;
+
+/**
+ * @overview
+ *  The running totals of the purchases of a customer: the number of bills, the amount
+ *  spent on them (the prices of the order rows of their tables) and the last day on which
+ *  the customer had an import or export transaction.
+ *
+ *  <p>The amount is kept in thousandths (see {@link Fixed}), so it is summed exactly.
+ */
+public class CustomerTotals {
+
+  /** the last day of a customer that has no transaction */
+  public static final int NO_DAY = Integer.MIN_VALUE;
+
+  private int orders;
+  private long spend;
+
+  // the last day and the number of transactions on it
+  private int lastDay = NO_DAY;
+  private int lastDayCount;
+
+  // whether a transaction of lastDay has been removed, so lastDay must be looked up again
+  private boolean lastDayStale;
+
+  /**
+   * @requires sign = 1 \/ sign = -1
+   * @modifies this
+   * @effects
+   *  add (<tt>sign = 1</tt>) or remove (<tt>sign = -1</tt>) a bill of <tt>amount</tt>
+   *  (in thousandths)
+   */
+  public synchronized void addBill(long amount, int sign) {
+    orders += sign;
+    spend += sign * amount;
+  }
+
+  /**
+   * @modifies this
+   * @effects
+   *  add <tt>amount</tt> (in thousandths) to the amount spent (e.g. when an order row changes)
+   */
+  public synchronized void addSpend(long amount) {
+    spend += amount;
+  }
+
+  /**
+   * @requires sign = 1 \/ sign = -1
+   * @modifies this
+   * @effects
+   *  add (<tt>sign = 1</tt>) or remove (<tt>sign = -1</tt>) a transaction on the epoch
+   *  day <tt>day</tt>
+   */
+  public synchronized void addDay(int day, int sign) {
+    if (sign > 0) {
+      if (day > lastDay) {
+        lastDay = day;
+        lastDayCount = 1;
+      } else if (day == lastDay) {
+        lastDayCount++;
+      }
+    } else if (day == lastDay && --lastDayCount <= 0) {
+      // an earlier day may be the last one now
+      lastDayStale = true;
+    }
+  }
+
+  /**
+   * @modifies this
+   * @effects set the last day to <tt>day</tt>, on which there are <tt>count</tt> transactions
+   */
+  public synchronized void setLastDay(int day, int count) {
+    lastDay = day;
+    lastDayCount = count;
+    lastDayStale = false;
+  }
+
+  public synchronized int getOrders() {
+    return orders;
+  }
+
+  public synchronized double getSpend() {
+    return Fixed.toDouble(spend);
+  }
+
+  /**
+   * @effects return the last day (or {@link #NO_DAY})
+   */
+  public synchronized int getLastDay() {
+    return lastDay;
+  }
+
+  public synchronized boolean isLastDayStale() {
+    return lastDayStale;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "CustomerTotals(" + orders + ", " + Fixed.toDouble(spend) + ", " + lastDay + ")";
+  }
+}
@@ -0,0 +1,390 @@
+package model.stats;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import controller.ExportSeafood;
+import controller.ImportSeafood;
+import model.Preserver;
+import model.Seafood;
+import model.util.Fixed;
+import software.db.Change;
+import software.db.ChangeJournal;
+import software.db.SeafoodDb;
+
+/**
+ * @overview
+ *  The stock balance (in kilos) of each seafood at each preserver: the quantities imported
+ *  into the preserver less the quantities exported from it.
+ *
+ *  <p>A transaction whose preserver is not recorded (an export stored before the preserver
+ *  was, see {@link software.db.ExportPreserverMigration}) is booked against
+ *  {@link #NO_PRESERVER}; the stock of a seafood is the sum of its balances.
+ *
+ *  <p>Like {@link TransactionRollups}, the balances are built from the data source by
+ *  {@link #rebuild()} (when they are first read) and then kept up to date by the committed changes of the transactions
+ *  (see {@link ChangeJournal}). Each
+ *  balance is a counter of grams (thousandths of kilos, see {@link Fixed}), so that concurrent
+ *  updates add up exactly. {@link #verify()} compares the balances with a full
+ *  recomputation from the data source; {@link #reconcileEvery(long, TimeUnit)} does so
+ *  periodically and keeps the differences it finds (see {@link #getLastDiffs()}).
+ */
+public class StockLedger implements ChangeJournal.Listener {
+
+  /** the preserver id that the transactions without a preserver are booked against */
+  public static final int NO_PRESERVER = 0;
+
+  private static final StockLedger instance = new StockLedger();
+
+  private ConcurrentMap<Key, LongAdder> balances;
+
+  /** the differences found by the last reconciliation */
+  private volatile List<String> lastDiffs = Collections.emptyList();
+
+  // changes update the balances under the read lock (concurrently), rebuild replaces them under the write lock
+  private final ReadWriteLock lock;
+
+  // set when the balances are first built; the (first) build is under buildLock
+  private volatile boolean built;
+  private final Object buildLock;
+
+  private StockLedger() {
+    balances = new ConcurrentHashMap<>();
+    lock = new ReentrantReadWriteLock();
+    buildLock = new Object();
+  }
+
+  /**
+   * @effects return the shared instance
+   */
+  public static StockLedger getInstance() {
+    return instance;
+  }
+
+  @Override
+  public void changed(Change c) {
+    int sign;
+    if (c.is(ImportSeafood.class))
+      sign = c.getSign();
+    else if (c.is(ExportSeafood.class))
+      sign = -c.getSign();
+    else
+      return;
+
+    if (c.getSeafoodId() == null || c.getQuantityFixed() == Fixed.NONE)
+      return;
+
+    lock.readLock().lock();
+    try {
+      add(balances, c.getSeafoodId(), preserverOf(c.getPreserverId()),
+          sign * c.getQuantityFixed());
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @effects
+   *  return the balance (in kilos) of the seafood <tt>seafoodId</tt> at the preserver
+   *  <tt>preserverId</tt>
+   */
+  public double getBalance(String seafoodId, int preserverId) {
+    ensureBuilt();
+
+    lock.readLock().lock();
+    try {
+      LongAdder balance = balances.get(new Key(seafoodId, preserverId));
+      return (balance != null) ? Fixed.toDouble(balance.sum()) : 0.0;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @effects
+   *  return the non-zero balances (in kilos) of the seafood <tt>seafoodId</tt> (or of all
+   *  seafoods if it is null), keyed by seafood id and then by preserver id (in ascending order)
+   */
+  public Map<String, Map<Integer, Double>> getBalances(String seafoodId) {
+    ensureBuilt();
+    Map<String, Map<Integer, Double>> result = new TreeMap<>();
+
+    lock.readLock().lock();
+    try {
+      for (Map.Entry<Key, LongAdder> e : balances.entrySet()) {
+        Key k = e.getKey();
+        long grams = e.getValue().sum();
+        if (grams == 0 || (seafoodId != null && !seafoodId.equals(k.seafoodId)))
+          continue;
+
+        Map<Integer, Double> bySeafood = result.get(k.seafoodId);
+        if (bySeafood == null) {
+          bySeafood = new TreeMap<>();
+          result.put(k.seafoodId, bySeafood);
+        }
+        bySeafood.put(k.preserverId, Fixed.toDouble(grams));
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    return result;
+  }
+
+  /**
+   * @modifies this
+   * @effects
+   *  recompute all balances from the data source, replace the current balances with them and
+   *  keep them up to date with the changes committed after (see
+   *  {@link ChangeJournal#attach(ChangeJournal.Listener, ChangeJournal.Snapshot)})
+   *
+   *  <p>throws SQLException if fails to read from the data source
+   */
+  public void rebuild() throws SQLException {
+    ChangeJournal.getInstance().attach(this, new ChangeJournal.Snapshot() {
+      private ConcurrentMap<Key, LongAdder> newBalances;
+
+      @Override
+      public void read(Connection con) throws SQLException {
+        newBalances = compute(con);
+      }
+
+      @Override
+      public void caughtUp() {
+        lock.writeLock().lock();
+        try {
+          balances = newBalances;
+          built = true;
+        } finally {
+          lock.writeLock().unlock();
+        }
+      }
+    });
+  }
+
+  /**
+   * @effects
+   *  if the balances are not built (and there is a data source), build them (see
+   *  {@link #rebuild()}); if that fails, they are built at the next read
+   */
+  private void ensureBuilt() {
+    if (built || !SeafoodDb.isConfigured())
+      return;
+
+    synchronized (buildLock) {
+      if (built)
+        return;
+      try {
+        rebuild();
+      } catch (SQLException e) {
+        // built at the next read
+      }
+    }
+  }
+
+  /**
+   * @effects
+   *  recompute all balances from the data source and compare them with the current balances
+   *  (caught up to the same committed changes); return the descriptions of the balances that
+   *  differ (empty if all balances are correct)
+   *
+   *  <p>throws SQLException if fails to read from the data source
+   */
+  public List<String> verify() throws SQLException {
+    ensureBuilt();
+
+    final List<String> diffs = new ArrayList<>();
+    ChangeJournal.getInstance().snapshot(new ChangeJournal.Snapshot() {
+      private ConcurrentMap<Key, LongAdder> expected;
+
+      @Override
+      public void read(Connection con) throws SQLException {
+        expected = compute(con);
+      }
+
+      @Override
+      public void caughtUp() {
+        lock.readLock().lock();
+        try {
+          Set<Key> keys = new HashSet<>(balances.keySet());
+          keys.addAll(expected.keySet());
+          for (Key k : keys) {
+            LongAdder a = balances.get(k);
+            LongAdder e = expected.get(k);
+            long act = (a != null) ? a.sum() : 0;
+            long exp = (e != null) ? e.sum() : 0;
+            if (act != exp) {
+              diffs.add("STOCK " + k + ": " + Fixed.toDouble(act) + " != " + Fixed.toDouble(exp));
+            }
+          }
+        } finally {
+          lock.readLock().unlock();
+        }
+      }
+    });
+
+    return diffs;
+  }
+
+  /**
+   * @effects
+   *  run {@link #verify()} every <tt>period</tt> <tt>unit</tt>s on a daemon thread and keep
+   *  the differences it finds (or its failure) as {@link #getLastDiffs()}; return the
+   *  scheduler that runs it (the balances are not verified until they are built)
+   *
+   *  <p>The balances are not repaired: a difference is a defect, which {@link #rebuild()}
+   *  repairs.
+   */
+  public ScheduledExecutorService reconcileEvery(long period, TimeUnit unit) {
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "stock-reconciliation");
+            t.setDaemon(true);
+            return t;
+          }
+        });
+
+    scheduler.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        if (!built)
+          return;
+        try {
+          lastDiffs = Collections.unmodifiableList(verify());
+        } catch (SQLException e) {
+          lastDiffs = Collections.singletonList("failed to reconcile: " + e.getMessage());
+        }
+      }
+    }, period, period, unit);
+
+    return scheduler;
+  }
+
+  /**
+   * @effects
+   *  return the differences found by the last reconciliation of
+   *  {@link #reconcileEvery(long, TimeUnit)} (or its failure), empty if none is found or if
+   *  there has been no reconciliation
+   */
+  public List<String> getLastDiffs() {
+    return lastDiffs;
+  }
+
+  /**
+   * @effects
+   *  compute from the data source and return the balances of all seafoods (the transactions 
+   *  of a table that is not yet created are none)
+   */
+  private static ConcurrentMap<Key, LongAdder> compute(Connection con) throws SQLException {
+    ConcurrentMap<Key, LongAdder> balances = new ConcurrentHashMap<>();
+    read(con, ImportSeafood.class, 1, balances);
+    read(con, ExportSeafood.class, -1, balances);
+    return balances;
+  }
+
+  /**
+   * @modifies balances
+   * @effects
+   *  add to <tt>balances</tt> the quantities of the transactions of the class <tt>c</tt>,
+   *  times <tt>sign</tt> (none if its table is not yet created)
+   */
+  private static void read(Connection con, Class<?> c, int sign,
+      ConcurrentMap<Key, LongAdder> balances) throws SQLException {
+    if (!SeafoodDb.hasTable(con, c))
+      return;
+
+    // the exports stored before the preserver was are not migrated yet
+    String preserverCol = SeafoodDb.fkColumn(ImportSeafood.A_Preserver, "id");
+    if (!SeafoodDb.hasColumn(con, c, preserverCol))
+      preserverCol = "cast(null as integer)";
+
+    try (Statement stmt = con.createStatement();
+        ResultSet rs = stmt.executeQuery("select " + SeafoodDb.fkColumn("seafood", Seafood.A_id) +
+            ", " + preserverCol + ", " + ImportSeafood.A_Quantity + " from " +
+            SeafoodDb.tableOf(c))) {
+      while (rs.next()) {
+        String seafoodId = rs.getString(1);
+        if (seafoodId == null)
+          continue;
+        int preserverId = rs.getInt(2);
+        if (rs.wasNull())
+          preserverId = NO_PRESERVER;
+        add(balances, seafoodId, preserverId, sign * Fixed.of(rs.getDouble(3)));
+      }
+    }
+  }
+
+  /**
+   * @effects return <tt>preserverId</tt> if it is not null, else {@link #NO_PRESERVER}
+   */
+  private static int preserverOf(Integer preserverId) {
+    return (preserverId != null) ? preserverId : NO_PRESERVER;
+  }
+
+  private static void add(ConcurrentMap<Key, LongAdder> balances, String seafoodId,
+      int preserverId, long grams) {
+    Key k = new Key(seafoodId, preserverId);
+    LongAdder balance = balances.get(k);
+    if (balance == null) {
+      LongAdder newBalance = new LongAdder();
+      balance = balances.putIfAbsent(k, newBalance);
+      if (balance == null)
+        balance = newBalance;
+    }
+
+    balance.add(grams);
+  }
+
+  /**
+   * @overview the key of a balance: a seafood id and a preserver id (see {@link Preserver})
+   */
+  private static final class Key {
+    private final String seafoodId;
+    private final int preserverId;
+
+    Key(String seafoodId, int preserverId) {
+      this.seafoodId = seafoodId;
+      this.preserverId = preserverId;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * seafoodId.hashCode() + preserverId;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (!(obj instanceof Key))
+        return false;
+      Key other = (Key) obj;
+      return preserverId == other.preserverId && seafoodId.equals(other.seafoodId);
+    }
+
+    @Override
+    public String toString() {
+      return seafoodId + "@" + preserverId;
+    }
+  }
+}
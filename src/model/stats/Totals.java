@@ -0,0 +1,89 @@
+package model.stats;
+
+import model.util.Fixed;
+
+/**
+ * @overview 
+ *  The running totals (number of transactions, quantity and amount) of a group of 
+ *  import or export transactions. 
+ *  
+ *  <p>The quantity and amount are kept in thousandths (see {@link Fixed}), so they are
+ *  summed exactly.
+ */
+public class Totals {
+  
+  private int count;
+  private long quantity;
+  private long amount;
+  
+  /**
+   * @requires sign = 1 \/ sign = -1
+   * @modifies this
+   * @effects 
+   *  add (<tt>sign = 1</tt>) or remove (<tt>sign = -1</tt>) a transaction of 
+   *  <tt>quantity</tt> and <tt>amount</tt> (in thousandths) to/from this
+   */
+  public synchronized void add(long quantity, long amount, int sign) {
+    this.count += sign;
+    this.quantity += sign * quantity;
+    this.amount += sign * amount;
+  }
+  
+  /**
+   * @modifies this
+   * @effects add the transactions of <tt>other</tt> to this
+   */
+  public void add(Totals other) {
+    int c;
+    long q, a;
+    synchronized (other) {
+      c = other.count;
+      q = other.quantity;
+      a = other.amount;
+    }
+    
+    synchronized (this) {
+      count += c;
+      quantity += q;
+      amount += a;
+    }
+  }
+  
+  public synchronized int getCount() {
+    return count;
+  }
+  
+  public synchronized double getQuantity() {
+    return Fixed.toDouble(quantity);
+  }
+  
+  public synchronized double getAmount() {
+    return Fixed.toDouble(amount);
+  }
+  
+  /**
+   * @effects 
+   *  if this and <tt>other</tt> have the same count, quantity and amount 
+   *    return true
+   *  else
+   *    return false
+   */
+  public boolean matches(Totals other) {
+    int c;
+    long q, a;
+    synchronized (other) {
+      c = other.count;
+      q = other.quantity;
+      a = other.amount;
+    }
+    
+    synchronized (this) {
+      return count == c && quantity == q && amount == a;
+    }
+  }
+  
+  @Override
+  public synchronized String toString() {
+    return "Totals(" + count + ", " + Fixed.toDouble(quantity) + ", " + Fixed.toDouble(amount) + ")";
+  }
+}
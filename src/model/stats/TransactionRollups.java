@@ -0,0 +1,299 @@
+package model.stats;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import controller.ExportSeafood;
+import controller.ImportSeafood;
+import model.Seafood;
+import model.util.Dates;
+import model.util.Fixed;
+import software.db.Change;
+import software.db.ChangeJournal;
+import software.db.SeafoodDb;
+
+/**
+ * @overview 
+ *  The daily and monthly totals of the import and export transactions of each seafood.
+ *  
+ *  <p>The totals are built once from the data source by {@link #rebuild()} (when they are 
+ *  first read) and are then kept up to date by the committed changes of the transactions 
+ *  (see {@link ChangeJournal}), so that reports can read them without loading any transaction. {@link #verify()} compares 
+ *  the totals with a full recomputation from the data source.
+ */
+public class TransactionRollups implements ChangeJournal.Listener {
+  
+  /** the kind of transactions */
+  public static enum Kind {
+    IMPORT, EXPORT
+  }
+  
+  /** the periods over which the transactions are totalled */
+  public static enum Period {
+    /** periods are epoch days ({@link Dates#toEpochDay(String)}) */
+    DAY, 
+    /** periods are month numbers ({@link Dates#monthOf(int)}) */
+    MONTH
+  }
+  
+  private static final TransactionRollups instance = new TransactionRollups();
+  
+  private Rollup imports;
+  private Rollup exports;
+  
+  // changes update the totals under the read lock (concurrently), rebuild replaces them under the write lock
+  private final ReadWriteLock lock;
+  
+  // set when the totals are first built; the (first) build is under buildLock
+  private volatile boolean built;
+  private final Object buildLock;
+  
+  private TransactionRollups() {
+    imports = new Rollup();
+    exports = new Rollup();
+    lock = new ReentrantReadWriteLock();
+    buildLock = new Object();
+  }
+  
+  /**
+   * @effects return the shared instance
+   */
+  public static TransactionRollups getInstance() {
+    return instance;
+  }
+  
+  @Override
+  public void changed(Change c) {
+    boolean imported = c.is(ImportSeafood.class);
+    if ((!imported && !c.is(ExportSeafood.class)) || c.getDateDay() == null || 
+        c.getSeafoodId() == null)
+      return;
+    
+    lock.readLock().lock();
+    try {
+      Rollup rollup = imported ? imports : exports;
+      rollup.add(c.getDateDay(), c.getSeafoodId(), value(c.getQuantityFixed()), 
+          c.getTotalFixed(), c.getSign());
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+  
+  private static long value(long fixed) {
+    return (fixed != Fixed.NONE) ? fixed : 0;
+  }
+  
+  /**
+   * @effects 
+   *  return the totals (per seafood id) of the transactions of <tt>kind</tt> in the 
+   *  period <tt>period</tt> of the type <tt>type</tt>
+   */
+  public Map<String, Totals> getTotals(Kind kind, Period type, int period) {
+    ensureBuilt();
+    
+    lock.readLock().lock();
+    try {
+      Rollup rollup = (kind == Kind.IMPORT) ? imports : exports;
+      Map<String, Totals> totals = rollup.periods(type).get(period);
+      return (totals != null) ? Collections.unmodifiableMap(totals) : Collections.<String, Totals>emptyMap();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+  
+  /**
+   * @modifies this
+   * @effects 
+   *  recompute all totals from the data source, replace the current totals with them and 
+   *  keep them up to date with the changes committed after (see 
+   *  {@link ChangeJournal#attach(ChangeJournal.Listener, ChangeJournal.Snapshot)})
+   *  
+   *  <p>throws SQLException if fails to read from the data source
+   */
+  public void rebuild() throws SQLException {
+    ChangeJournal.getInstance().attach(this, new ChangeJournal.Snapshot() {
+      private Rollup newImports, newExports;
+      
+      @Override
+      public void read(Connection con) throws SQLException {
+        newImports = compute(con, ImportSeafood.class);
+        newExports = compute(con, ExportSeafood.class);
+      }
+      
+      @Override
+      public void caughtUp() {
+        lock.writeLock().lock();
+        try {
+          imports = newImports;
+          exports = newExports;
+          built = true;
+        } finally {
+          lock.writeLock().unlock();
+        }
+      }
+    });
+  }
+
+  /**
+   * @effects
+   *  if the totals are not built (and there is a data source), build them (see 
+   *  {@link #rebuild()}); if that fails, they are built at the next read
+   */
+  private void ensureBuilt() {
+    if (built || !SeafoodDb.isConfigured())
+      return;
+    
+    synchronized (buildLock) {
+      if (built)
+        return;
+      try {
+        rebuild();
+      } catch (SQLException e) {
+        // built at the next read
+      }
+    }
+  }
+  
+  /**
+   * @effects 
+   *  recompute all totals from the data source and compare them with the current totals 
+   *  (caught up to the same committed changes); return the descriptions of the totals that 
+   *  differ (empty if all totals are correct)
+   *  
+   *  <p>throws SQLException if fails to read from the data source
+   */
+  public List<String> verify() throws SQLException {
+    ensureBuilt();
+    
+    final List<String> diffs = new ArrayList<>();
+    ChangeJournal.getInstance().snapshot(new ChangeJournal.Snapshot() {
+      private Rollup expImports, expExports;
+      
+      @Override
+      public void read(Connection con) throws SQLException {
+        expImports = compute(con, ImportSeafood.class);
+        expExports = compute(con, ExportSeafood.class);
+      }
+      
+      @Override
+      public void caughtUp() {
+        lock.readLock().lock();
+        try {
+          imports.compare(expImports, Kind.IMPORT, diffs);
+          exports.compare(expExports, Kind.EXPORT, diffs);
+        } finally {
+          lock.readLock().unlock();
+        }
+      }
+    });
+    
+    return diffs;
+  }
+  
+  /**
+   * @effects 
+   *  compute from the data source and return the totals of the transactions of the class <tt>c</tt> 
+   *  (none if its table is not yet created)
+   */
+  private static Rollup compute(Connection con, Class<?> c) throws SQLException {
+    Rollup rollup = new Rollup();
+    try (Statement stmt = con.createStatement();
+        ResultSet rs = stmt.executeQuery("select " + ImportSeafood.A_DateDay + ", " + 
+            SeafoodDb.fkColumn("seafood", Seafood.A_id) + ", " + ImportSeafood.A_Quantity + ", " + 
+            ImportSeafood.A_Price + " from " + SeafoodDb.tableOf(c))) {
+      while (rs.next()) {
+        int dateDay = rs.getInt(1);
+        if (rs.wasNull())
+          continue;
+        String seafoodId = rs.getString(2);
+        long quantity = Fixed.of(rs.getDouble(3));
+        long price = Fixed.of(rs.getDouble(4));
+        rollup.add(dateDay, seafoodId, quantity, Fixed.times(quantity, price), 1);
+      }
+    } catch (SQLException e) {
+      if (!SeafoodDb.isMissingTable(e))
+        throw e;
+    }
+    
+    return rollup;
+  }
+  
+  /**
+   * @overview 
+   *  The daily and monthly totals of one kind of transactions
+   */
+  private static class Rollup {
+    private final ConcurrentMap<Integer, ConcurrentMap<String, Totals>> days = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, ConcurrentMap<String, Totals>> months = new ConcurrentHashMap<>();
+    
+    ConcurrentMap<Integer, ConcurrentMap<String, Totals>> periods(Period type) {
+      return (type == Period.DAY) ? days : months;
+    }
+    
+    void add(int dateDay, String seafoodId, long quantity, long amount, int sign) {
+      totals(days, dateDay, seafoodId).add(quantity, amount, sign);
+      totals(months, Dates.monthOf(dateDay), seafoodId).add(quantity, amount, sign);
+    }
+    
+    private static Totals totals(ConcurrentMap<Integer, ConcurrentMap<String, Totals>> periods, 
+        int period, String seafoodId) {
+      ConcurrentMap<String, Totals> totals = periods.get(period);
+      if (totals == null) {
+        ConcurrentMap<String, Totals> newTotals = new ConcurrentHashMap<>();
+        totals = periods.putIfAbsent(period, newTotals);
+        if (totals == null)
+          totals = newTotals;
+      }
+      
+      Totals t = totals.get(seafoodId);
+      if (t == null) {
+        Totals newT = new Totals();
+        t = totals.putIfAbsent(seafoodId, newT);
+        if (t == null)
+          t = newT;
+      }
+      
+      return t;
+    }
+    
+    void compare(Rollup expected, Kind kind, List<String> diffs) {
+      for (Period type : Period.values()) {
+        Map<Integer, ConcurrentMap<String, Totals>> actPeriods = periods(type);
+        Map<Integer, ConcurrentMap<String, Totals>> expPeriods = expected.periods(type);
+        
+        Set<Integer> keys = new HashSet<>(actPeriods.keySet());
+        keys.addAll(expPeriods.keySet());
+        for (Integer period : keys) {
+          Map<String, Totals> act = actPeriods.get(period);
+          Map<String, Totals> exp = expPeriods.get(period);
+          if (act == null) act = Collections.emptyMap();
+          if (exp == null) exp = Collections.emptyMap();
+          
+          Set<String> seafoodIds = new HashSet<>(act.keySet());
+          seafoodIds.addAll(exp.keySet());
+          for (String seafoodId : seafoodIds) {
+            Totals a = act.get(seafoodId);
+            Totals e = exp.get(seafoodId);
+            if (a == null) a = new Totals();
+            if (e == null) e = new Totals();
+            if (!a.matches(e)) {
+              diffs.add(kind + " " + type + " " + period + " " + seafoodId + ": " + a + " != " + e);
+            }
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,246 @@
+package model.util;
+
+import java.text.ParseException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * @overview 
+ *  Converts between the user-facing date strings (<tt>dd/MM/yyyy</tt>) and the 
+ *  epoch-day numbers (days since 01/01/1970) that are stored in the data source.
+ *  
+ *  <p>Epoch days sort in time order and can be compared and range-scanned by the 
+ *  data source, which date strings cannot.
+ *  
+ *  <p>Validating and parsing a date string is strict (no roll-over of days or months) 
+ *  and allocation-free: it is done directly on the characters of the string, so it is 
+ *  thread-safe and cheap enough to be performed for every object that is loaded. Likewise, 
+ *  a date string is formatted directly from the epoch day (allocating only the string).
+ */
+public final class Dates {
+  
+  public static final String PATTERN = "dd/MM/yyyy";
+  
+  private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("dd/MM/uuuu");
+  
+  /** the number of days from 01/01/0000 to 01/01/1970 */
+  private static final int DAYS_0000_TO_1970 = 719528;
+  
+  /** the number of days from 01/03/0000 to 01/01/1970 and in a 400-year era */
+  private static final int DAYS_0000_03_TO_1970 = 719468;
+  private static final int DAYS_PER_ERA = 146097;
+  
+  /** the result of {@link #parse(String)} if the date string is invalid */
+  private static final int INVALID = Integer.MIN_VALUE;
+  
+  private Dates() {
+    // no instances
+  }
+  
+  /**
+   * @effects 
+   *  if <tt>date</tt> is a valid date in the form {@value #PATTERN}
+   *    return true
+   *  else
+   *    return false
+   */
+  public static boolean isValid(String date) {
+    return parse(date) != INVALID;
+  }
+  
+  /**
+   * @effects 
+   *  if <tt>date</tt> is a valid date in the form {@value #PATTERN}
+   *    return the epoch day of <tt>date</tt>
+   *  else
+   *    throws ParseException
+   */
+  public static int toEpochDay(String date) throws ParseException {
+    int epochDay = parse(date);
+    if (epochDay == INVALID)
+      throw new ParseException("Dates.toEpochDay: invalid date " + date, 0);
+    
+    return epochDay;
+  }
+  
+  /**
+   * @effects 
+   *  return the date string (in the form {@value #PATTERN}) of <tt>epochDay</tt>
+   */
+  public static String format(int epochDay) {
+    long civil = civil(epochDay);
+    long year = civil >> 9;
+    if (year < 0 || year > 9999)
+      return LocalDate.ofEpochDay(epochDay).format(FORMAT);
+    
+    int month = (int) (civil >> 5) & 0xF;
+    int day = (int) civil & 0x1F;
+    
+    char[] s = new char[10];
+    s[0] = (char) ('0' + day / 10);
+    s[1] = (char) ('0' + day % 10);
+    s[2] = '/';
+    s[3] = (char) ('0' + month / 10);
+    s[4] = (char) ('0' + month % 10);
+    s[5] = '/';
+    s[6] = (char) ('0' + year / 1000);
+    s[7] = (char) ('0' + year / 100 % 10);
+    s[8] = (char) ('0' + year / 10 % 10);
+    s[9] = (char) ('0' + year % 10);
+    
+    return new String(s);
+  }
+  
+  /**
+   * @effects 
+   *  return the month number (<tt>year * 12 + month - 1</tt>) of the date <tt>epochDay</tt>
+   */
+  public static int monthOf(int epochDay) {
+    long civil = civil(epochDay);
+    return (int) (civil >> 9) * 12 + ((int) (civil >> 5) & 0xF) - 1;
+  }
+  
+  /**
+   * @effects 
+   *  return the epoch day of the first day of the month number <tt>month</tt> (see {@link #monthOf(int)})
+   */
+  public static int firstDayOf(int month) {
+    return epochDay(month / 12, month % 12 + 1, 1);
+  }
+  
+  /**
+   * @effects 
+   *  if <tt>month</tt> is a valid month in the form <tt>MM/yyyy</tt>
+   *    return its month number (see {@link #monthOf(int)})
+   *  else
+   *    throws ParseException
+   */
+  public static int toMonth(String month) throws ParseException {
+    // validate as the first day of the month
+    int epochDay = parse((month != null) ? "01/" + month : null);
+    if (epochDay == INVALID)
+      throw new ParseException("Dates.toMonth: invalid month " + month, 0);
+    
+    return monthOf(epochDay);
+  }
+  
+  /**
+   * @effects 
+   *  return the month string (in the form <tt>MM/yyyy</tt>) of the month number <tt>month</tt>
+   */
+  public static String formatMonth(int month) {
+    int m = month % 12 + 1;
+    return ((m < 10) ? "0" + m : "" + m) + "/" + (month / 12);
+  }
+  
+  /**
+   * @effects 
+   *  if <tt>date</tt> is a valid date <tt>d/M/yyyy</tt> (day and month have one or 
+   *  two digits, year has four digits)
+   *    return the epoch day of <tt>date</tt>
+   *  else
+   *    return {@link #INVALID}
+   */
+  private static int parse(String date) {
+    if (date == null)
+      return INVALID;
+    
+    int len = date.length();
+    int pos = 0;
+    
+    // day
+    int day = 0;
+    int digits = 0;
+    char ch;
+    while (pos < len && (ch = date.charAt(pos)) >= '0' && ch <= '9' && digits < 2) {
+      day = day * 10 + (ch - '0');
+      pos++; digits++;
+    }
+    if (digits == 0 || pos >= len || date.charAt(pos++) != '/')
+      return INVALID;
+    
+    // month
+    int month = 0;
+    digits = 0;
+    while (pos < len && (ch = date.charAt(pos)) >= '0' && ch <= '9' && digits < 2) {
+      month = month * 10 + (ch - '0');
+      pos++; digits++;
+    }
+    if (digits == 0 || pos >= len || date.charAt(pos++) != '/')
+      return INVALID;
+    
+    // year: exactly four digits up to the end
+    if (len - pos != 4)
+      return INVALID;
+    int year = 0;
+    while (pos < len) {
+      ch = date.charAt(pos++);
+      if (ch < '0' || ch > '9')
+        return INVALID;
+      year = year * 10 + (ch - '0');
+    }
+    
+    if (year < 1 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month))
+      return INVALID;
+    
+    return epochDay(year, month, day);
+  }
+  
+  /**
+   * @effects 
+   *  return the date of <tt>epochDay</tt> packed as <tt>year &lt;&lt; 9 | month &lt;&lt; 5 | day</tt>
+   *  
+   *  <p>The days are counted in 400-year eras that start on 01/03, so that the leap day 
+   *  is the last day of a year.
+   */
+  private static long civil(int epochDay) {
+    long z = (long) epochDay + DAYS_0000_03_TO_1970;
+    long era = Math.floorDiv(z, DAYS_PER_ERA);
+    int doe = (int) (z - era * DAYS_PER_ERA);
+    int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+    int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+    int mp = (5 * doy + 2) / 153;
+    int day = doy - (153 * mp + 2) / 5 + 1;
+    int month = (mp < 10) ? mp + 3 : mp - 9;
+    long year = yoe + era * 400 + ((month <= 2) ? 1 : 0);
+    
+    return year << 9 | month << 5 | day;
+  }
+  
+  private static boolean isLeapYear(int year) {
+    return (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+  }
+  
+  private static int daysInMonth(int year, int month) {
+    switch (month) {
+      case 2:
+        return isLeapYear(year) ? 29 : 28;
+      case 4:
+      case 6:
+      case 9:
+      case 11:
+        return 30;
+      default:
+        return 31;
+    }
+  }
+  
+  /**
+   * @requires year >= 1 /\ 1 <= month <= 12 /\ 1 <= day <= daysInMonth(year, month)
+   * @effects 
+   *  return the number of days from 01/01/1970 to <tt>day/month/year</tt>
+   */
+  private static int epochDay(int year, int month, int day) {
+    int total = 365 * year;
+    total += (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+    total += (367 * month - 362) / 12;
+    total += day - 1;
+    if (month > 2) {
+      total--;
+      if (!isLeapYear(year))
+        total--;
+    }
+    
+    return total - DAYS_0000_TO_1970;
+  }
+}
@@ -0,0 +1,72 @@
+package model.util;
+
+/**
+ * @overview
+ *  Fixed-point numbers: a quantity (in kilos) or an amount of money is kept as a
+ *  <tt>long</tt> number of thousandths (e.g. grams), so that it is stored without boxing
+ *  and summed exactly.
+ *
+ *  <p>The user-facing and data source values are <tt>Double</tt>s: they are converted
+ *  (rounded to the closest thousandth) when they are set and when they are read.
+ */
+public final class Fixed {
+
+  /** the number of units of 1 (a value is a number of thousandths) */
+  public static final int SCALE = 1000;
+
+  /** the value that stands for <tt>null</tt> */
+  public static final long NONE = Long.MIN_VALUE;
+
+  private Fixed() {
+    // no instances
+  }
+
+  /**
+   * @effects return <tt>v</tt> rounded to the closest thousandth
+   */
+  public static long of(double v) {
+    return Math.round(v * SCALE);
+  }
+
+  /**
+   * @effects
+   *  if <tt>v</tt> is null
+   *    return {@link #NONE}
+   *  else
+   *    return <tt>v</tt> rounded to the closest thousandth
+   */
+  public static long of(Double v) {
+    return (v != null) ? of(v.doubleValue()) : NONE;
+  }
+
+  /**
+   * @requires v != {@link #NONE}
+   * @effects return <tt>v</tt> as a double
+   */
+  public static double toDouble(long v) {
+    return (double) v / SCALE;
+  }
+
+  /**
+   * @effects
+   *  if <tt>v</tt> is {@link #NONE}
+   *    return null
+   *  else
+   *    return <tt>v</tt> as a Double
+   */
+  public static Double toDoubleOrNull(long v) {
+    return (v != NONE) ? Double.valueOf(toDouble(v)) : null;
+  }
+
+  /**
+   * @requires a != {@link #NONE} /\ b != {@link #NONE}
+   * @effects
+   *  return the product of <tt>a</tt> and <tt>b</tt>, rounded (half away from zero) to
+   *  the closest thousandth;
+   *  throws ArithmeticException if the product overflows
+   */
+  public static long times(long a, long b) throws ArithmeticException {
+    long p = Math.multiplyExact(a, b);
+    return (p >= 0) ? (p + SCALE / 2) / SCALE : (p - SCALE / 2) / SCALE;
+  }
+}
@@ -0,0 +1,127 @@
+package model.util;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import domainapp.basics.model.meta.DAttr;
+
+/**
+ * @overview 
+ *  The shared id allocation service of the domain classes. 
+ *  
+ *  <p>Each domain class obtains its {@link IdCounter} once (typically in a static field) 
+ *  and uses it to generate and synchronise its auto-generated ids. The registry is only 
+ *  consulted when a counter is looked up, never when an id is generated.
+ *  
+ *  <p>Once {@link #bind(IdBlockSource, int)} is invoked, all counters lease their ids 
+ *  in blocks from a persistent {@link IdBlockSource}; {@link #release()} gives the unused 
+ *  ids back to it (at shut-down). A counter is synchronised with the stored ids by its 
+ *  source, so the domain classes do not synchronise their counters with the maximum id 
+ *  stored when the software starts; until a source is bound, a counter is synchronised by 
+ *  the ids of the objects that are loaded (see {@link IdCounter#update(int)}).
+ */
+public final class IdAllocator {
+  
+  private static final ConcurrentMap<Class<?>, IdCounter> counters = new ConcurrentHashMap<>();
+  
+  private static IdBlockSource source;
+  private static int blockSize;
+  
+  private IdAllocator() {
+    // no instances
+  }
+  
+  /**
+   * @effects 
+   *  return the {@link IdCounter} of the domain class <tt>c</tt>, whose ids are numbers, 
+   *  creating it if it does not yet exist
+   */
+  public static IdCounter counterFor(Class<?> c) {
+    return counterFor(c, "");
+  }
+  
+  /**
+   * @effects 
+   *  return the {@link IdCounter} of the domain class <tt>c</tt>, whose ids are codes 
+   *  <tt>prefix + n</tt> (see {@link IdCounter#nextCode(String)}), creating it if it 
+   *  does not yet exist
+   */
+  public static IdCounter counterFor(Class<?> c, String prefix) {
+    IdCounter counter = counters.get(c);
+    if (counter == null) {
+      IdCounter newCounter = new IdCounter(c, prefix, capacityOf(c, prefix));
+      counter = counters.putIfAbsent(c, newCounter);
+      if (counter == null) {
+        counter = newCounter;
+        synchronized (IdAllocator.class) {
+          if (source != null)
+            counter.attach(source, blockSize);
+        }
+      }
+    }
+    
+    return counter;
+  }
+  
+  /**
+   * @requires blockSize > 0
+   * @effects 
+   *  attach all existing and future counters to <tt>source</tt> so that they lease their 
+   *  ids from it in blocks of <tt>blockSize</tt>
+   */
+  public static synchronized void bind(IdBlockSource source, int blockSize) {
+    IdAllocator.source = source;
+    IdAllocator.blockSize = blockSize;
+    
+    for (IdCounter counter : counters.values()) {
+      counter.attach(source, blockSize);
+    }
+  }
+  
+  /**
+   * @effects 
+   *  give the unused ids of the blocks leased by all counters back to their source
+   *  
+   *  <p>throws IllegalStateException if fails to access the source
+   */
+  public static void release() throws IllegalStateException {
+    for (IdCounter counter : counters.values()) {
+      counter.release();
+    }
+  }
+  
+  /**
+   * @effects 
+   *  return the largest id value of <tt>c</tt> that fits the length of its id attribute 
+   *  (less that of <tt>prefix</tt>), or Integer.MAX_VALUE if it is not bounded
+   */
+  private static int capacityOf(Class<?> c, String prefix) {
+    for (Class<?> k = c; k != null; k = k.getSuperclass()) {
+      for (Field f : k.getDeclaredFields()) {
+        DAttr attr = f.getAnnotation(DAttr.class);
+        if (attr != null && attr.id()) {
+          int digits = attr.length() - prefix.length();
+          if (attr.length() <= 0 || digits >= 10)
+            return Integer.MAX_VALUE;
+          
+          int capacity = 1;
+          for (int i = 0; i < digits; i++) {
+            capacity *= 10;
+          }
+          return Math.max(1, capacity - 1);
+        }
+      }
+    }
+    
+    return Integer.MAX_VALUE;
+  }
+  
+  /**
+   * @effects 
+   *  return the registered counters
+   */
+  public static Iterable<IdCounter> counters() {
+    return counters.values();
+  }
+}
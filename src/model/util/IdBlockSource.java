@@ -0,0 +1,38 @@
+package model.util;
+
+/**
+ * @overview 
+ *  A persistent source of id blocks, used by {@link IdCounter} to lease ranges of 
+ *  id values instead of synchronising with the maximum id stored in the data source.
+ */
+public interface IdBlockSource {
+  
+  /**
+   * @effects 
+   *  return the highest id value that has been leased for the sequence <tt>name</tt>; 
+   *  if no block has been leased for it, return the highest id of the objects of the 
+   *  domain class <tt>c</tt> (whose ids are <tt>prefix + n</tt>, see 
+   *  {@link IdCounter#nextCode(String)}) that are already stored, or 0 if there is none 
+   *  (or if <tt>c</tt> is null)
+   */
+  int highWaterMark(String name, Class<?> c, String prefix);
+  
+  /**
+   * @requires atLeast > 0 /\ blockSize > 0
+   * @effects 
+   *  lease a new block of at least <tt>blockSize</tt> id values of the sequence <tt>name</tt> 
+   *  that contains <tt>atLeast</tt> and return the highest value of the block
+   */
+  int lease(String name, int atLeast, int blockSize);
+  
+  /**
+   * @requires used <= leasedHwm
+   * @effects 
+   *  if the high-water mark of the sequence <tt>name</tt> is still <tt>leasedHwm</tt> 
+   *  (i.e. no block has been leased after it) 
+   *    set it to <tt>used</tt> so that the unused ids of the last block are leased again
+   *  else 
+   *    do nothing
+   */
+  void release(String name, int leasedHwm, int used);
+}
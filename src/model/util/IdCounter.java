@@ -0,0 +1,253 @@
+package model.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import domainapp.basics.exceptions.ConstraintViolationException;
+
+/**
+ * @overview 
+ *  A thread-safe counter of auto-generated id values of a domain class.
+ *  
+ *  <p>Generating and synchronising id values are lock-free: both are performed 
+ *  on an {@link AtomicInteger} so that concurrent object creation never yields 
+ *  duplicate ids or loses an update of the counter.
+ *  
+ *  <p>If the counter is attached to an {@link IdBlockSource}, the ids it generates are 
+ *  leased from that source in blocks. Only the (rare) leasing of a new block is synchronised. 
+ *  A block is at most 1/{@value #BLOCKS_PER_CAPACITY} of the ids that fit the id width of the 
+ *  class, but at least {@value #MIN_BLOCK_SIZE} ids (so that a class with a narrow id does not 
+ *  lease every id on its own), and the unused ids of the last block are given back by 
+ *  {@link #release()}; if the program exits without releasing them, they are lost.
+ */
+public final class IdCounter {
+  
+  /** the minimum number of blocks in the id range of a counter */
+  private static final int BLOCKS_PER_CAPACITY = 100;
+  
+  /** the minimum size of a block (if the id range of the counter is not smaller) */
+  private static final int MIN_BLOCK_SIZE = 10;
+  
+  private final String name;
+  
+  /** the domain class and the prefix of its ids (see {@link #nextCode(String)}), if known */
+  private final Class<?> domainClass;
+  private final String prefix;
+  
+  /** the largest id value that fits the id width of the class */
+  private final int capacity;
+  
+  private final AtomicInteger value;
+  
+  /** the highest id value that may be generated without leasing a new block */
+  private volatile int ceiling;
+  
+  private IdBlockSource source;
+  private int blockSize;
+  
+  IdCounter(String name) {
+    this(name, Integer.MAX_VALUE);
+  }
+  
+  /**
+   * @requires capacity > 0
+   * @effects 
+   *  initialise this as the counter <tt>name</tt> of ids up to <tt>capacity</tt>
+   */
+  IdCounter(String name, int capacity) {
+    this(name, null, "", capacity);
+  }
+  
+  /**
+   * @requires capacity > 0
+   * @effects 
+   *  initialise this as the counter of the ids <tt>prefix + n</tt> (up to <tt>capacity</tt>) 
+   *  of the domain class <tt>c</tt>
+   */
+  IdCounter(Class<?> c, String prefix, int capacity) {
+    this(c.getSimpleName(), c, prefix, capacity);
+  }
+  
+  private IdCounter(String name, Class<?> c, String prefix, int capacity) {
+    this.name = name;
+    this.domainClass = c;
+    this.prefix = prefix;
+    this.capacity = capacity;
+    this.value = new AtomicInteger();
+    this.ceiling = Integer.MAX_VALUE;
+  }
+  
+  /**
+   * @requires blockSize > 0
+   * @modifies this
+   * @effects 
+   *  attach this to <tt>source</tt> so that new ids are leased from it in blocks of 
+   *  <tt>blockSize</tt> (or fewer, if the id width of the class is small); synchronise this 
+   *  with the high-water mark recorded in <tt>source</tt> (or, the first time, with the ids 
+   *  stored)
+   */
+  synchronized void attach(IdBlockSource source, int blockSize) {
+    this.source = source;
+    int minSize = Math.max(1, Math.min(MIN_BLOCK_SIZE, Math.min(blockSize, capacity)));
+    this.blockSize = Math.max(minSize, Math.min(blockSize, capacity / BLOCKS_PER_CAPACITY));
+    
+    int hwm = source.highWaterMark(name, domainClass, prefix);
+    update(hwm);
+    
+    // the next id must come from a new block
+    ceiling = value.get();
+  }
+  
+  /**
+   * @modifies this
+   * @effects 
+   *  if this is attached to an {@link IdBlockSource} 
+   *    give the unused ids of the leased block back to it, so that they are generated 
+   *    after the next start
+   *  
+   *  <p>An id generated concurrently with (or after) this is taken from a new lease.
+   *  
+   *  <p>throws IllegalStateException if fails to access the source
+   */
+  public synchronized void release() throws IllegalStateException {
+    if (source == null)
+      return;
+    
+    int leased = ceiling;
+    // make concurrent next() wait in leaseUpTo
+    ceiling = Integer.MIN_VALUE;
+    int used = value.get();
+    try {
+      if (used < leased)
+        source.release(name, leased, used);
+    } finally {
+      ceiling = used;
+    }
+  }
+  
+  /**
+   * @effects 
+   *  return the size of the blocks leased by this, or 0 if it is not leased
+   */
+  public synchronized int getBlockSize() {
+    return (source != null) ? blockSize : 0;
+  }
+  
+  /**
+   * @effects 
+   *  if this is attached to an {@link IdBlockSource} return true, else return false
+   */
+  public synchronized boolean isLeased() {
+    return source != null;
+  }
+  
+  /**
+   * @effects return name
+   */
+  public String getName() {
+    return name;
+  }
+  
+  /**
+   * @effects 
+   *  return the last id value generated or synchronised by this
+   */
+  public int current() {
+    return value.get();
+  }
+  
+  /**
+   * @modifies this
+   * @effects 
+   *  atomically increment this and return the new value
+   */
+  public int next() {
+    int num = value.incrementAndGet();
+    if (num > ceiling)
+      leaseUpTo(num);
+    
+    return num;
+  }
+  
+  /**
+   * @modifies this
+   * @effects 
+   *  lease new blocks from {@link #source} until <tt>num</tt> is within the leased range
+   */
+  private synchronized void leaseUpTo(int num) {
+    while (num > ceiling) {
+      ceiling = source.lease(name, num, blockSize);
+    }
+  }
+  
+  /**
+   * @modifies this
+   * @effects 
+   *  if <tt>num</tt> is greater than the current value 
+   *    atomically set this to <tt>num</tt>
+   *  return the value of this after the update
+   */
+  public int update(int num) {
+    int cur;
+    while ((cur = value.get()) < num) {
+      if (value.compareAndSet(cur, num))
+        return num;
+    }
+    return cur;
+  }
+  
+  /**
+   * @modifies this
+   * @effects 
+   *  generate a new code <tt>prefix + n</tt>, where <tt>n</tt> is the next value of this 
+   *  (padded to at least two digits)
+   */
+  public String nextCode(String prefix) {
+    return format(prefix, next());
+  }
+  
+  /**
+   * @requires code != null
+   * @modifies this
+   * @effects 
+   *  parse the number part of <tt>code</tt> (i.e. the suffix after <tt>prefix</tt>) and 
+   *  synchronise this with it. Return <tt>code</tt>.
+   *  
+   *  <p>throws ConstraintViolationException if <tt>code</tt> is not a valid code.
+   */
+  public String updateCode(String prefix, String code) throws ConstraintViolationException {
+    update(parseCode(prefix, code));
+    return code;
+  }
+  
+  /**
+   * @effects 
+   *  return <tt>prefix + num</tt>, where <tt>num</tt> is padded to at least two digits
+   */
+  public static String format(String prefix, int num) {
+    if (num >= 10) {
+      return prefix + num;
+    } else {
+      return prefix + "0" + num;
+    }
+  }
+  
+  /**
+   * @effects 
+   *  return the number part of <tt>code</tt> (i.e. the suffix after <tt>prefix</tt>)
+   *  
+   *  <p>throws ConstraintViolationException if <tt>code</tt> is not a valid code.
+   */
+  public static int parseCode(String prefix, String code) throws ConstraintViolationException {
+    try {
+      return Integer.parseInt(code.substring(prefix.length()));
+    } catch (RuntimeException e) {
+      throw new ConstraintViolationException(
+          ConstraintViolationException.Code.INVALID_VALUE, e, new Object[] { code });
+    }
+  }
+  
+  @Override
+  public String toString() {
+    return "IdCounter(" + name + ", " + value.get() + ")";
+  }
+}
@@ -0,0 +1,409 @@
+package model.util;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.model.Oid;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.query.Expression.Op;
+import model.reports.ResultCache;
+import software.db.SeafoodDb;
+
+/**
+ * @overview
+ *  The members of a one-to-many association of a stored object (the owner), which are read
+ *  from the data source only when they are first accessed.
+ *
+ *  <p>Loading scans the keys of the members (in order) and then reads the members
+ *  {@link #BATCH_SIZE} at a time, each batch as the members in a key range. Until then,
+ *  members that are added (e.g. by the link adders of the owner) are kept and merged with the
+ *  loaded ones, and stored members that are removed (e.g. by the link removers) are recorded
+ *  and left out of them; {@link #count()} counts the members in the data source without
+ *  reading them, taking the added and removed members into account.
+ *
+ *  <p>The count is kept until a member is added or removed or a change of an object of the
+ *  member class is dispatched by the {@link software.db.ChangeJournal} (see
+ *  {@link ResultCache#generation(Class)}), so a kept count is returned without accessing the
+ *  data source. The changes of the classes that are not journalled are seen only through the
+ *  members added and removed.
+ *
+ *  <p>If the data source cannot be accessed directly (see {@link SeafoodDb}), the collection
+ *  holds only the members that are added to it, as the association collections did before.
+ */
+public final class LazyCollection<T> extends AbstractCollection<T> {
+
+  /** the number of members read at a time */
+  static final int BATCH_SIZE = 100;
+
+  /**
+   * @overview
+   *  A one-to-many association from the owners to their members of the class <tt>T</tt>,
+   *  which creates the (lazy) collections of the owners.
+   */
+  public static final class Association<T> {
+    private final Class<T> cls;
+    private final String fkColumn;
+    private final String keyAttrib;
+
+    /** the field of the key attribute */
+    private final Field keyField;
+
+    /** the members of an owner in a key range (for a batch) */
+    private final PreparedQuery<T> batch;
+
+    /**
+     * @effects
+     *  initialise this as the association from the owners to the objects of <tt>cls</tt>
+     *  whose domain attribute <tt>fkAttrib</tt> refers to them (by the owner's id attribute
+     *  <tt>ownerIdAttrib</tt>); the members are loaded in the order of <tt>keyAttrib</tt>
+     */
+    public Association(Class<T> cls, String fkAttrib, String ownerIdAttrib, String keyAttrib) {
+      this.cls = cls;
+      this.fkColumn = SeafoodDb.fkColumn(fkAttrib, ownerIdAttrib);
+      this.keyAttrib = keyAttrib;
+      keyField = fieldOf(cls, keyAttrib);
+      batch = new PreparedQuery<>(cls,
+          new String[] {fkAttrib, keyAttrib, keyAttrib},
+          new Op[] {Op.EQ, Op.GTEQ, Op.LTEQ});
+    }
+
+    /**
+     * @effects
+     *  return the collection of the stored owner whose id is <tt>ownerId</tt>, whose members
+     *  are loaded when they are first accessed
+     */
+    public LazyCollection<T> of(Object ownerId) {
+      return new LazyCollection<>(this, ownerId, null);
+    }
+
+    /**
+     * @effects
+     *  return the collection of the owner whose id is <tt>ownerId</tt>, whose members are
+     *  <tt>members</tt> (if <tt>members</tt> is null, the owner is new and has no member)
+     */
+    public LazyCollection<T> of(Object ownerId, Collection<? extends T> members) {
+      return new LazyCollection<>(this, ownerId,
+          (members != null) ? members : new ArrayList<T>(0));
+    }
+
+    /**
+     * @effects return the key of the member <tt>e</tt>
+     */
+    private Object keyOf(T e) {
+      try {
+        return keyField.get(e);
+      } catch (IllegalAccessException ex) {
+        // the field is made accessible
+        throw new IllegalStateException(ex);
+      }
+    }
+
+    /**
+     * @effects
+     *  return the field of <tt>c</tt> (or of a super-class) of the domain attribute
+     *  <tt>attrib</tt>
+     *
+     *  <p>throws IllegalArgumentException if <tt>c</tt> has no such attribute
+     */
+    private static Field fieldOf(Class<?> c, String attrib) throws IllegalArgumentException {
+      for (Class<?> k = c; k != null; k = k.getSuperclass()) {
+        for (Field f : k.getDeclaredFields()) {
+          DAttr attr = f.getAnnotation(DAttr.class);
+          if (attr != null && attr.name().equals(attrib)) {
+            f.setAccessible(true);
+            return f;
+          }
+        }
+      }
+
+      throw new IllegalArgumentException("LazyCollection: " + c.getSimpleName() +
+          " has no attribute " + attrib);
+    }
+  }
+
+  private final Association<T> assoc;
+  private final Object ownerId;
+
+  /** the members (if loaded), else the members added since this was created */
+  private Set<T> members;
+  private boolean loaded;
+
+  /** the stored members removed while the members are not loaded (null if none) */
+  private Set<T> removed;
+
+  /** the number of members counted at the generation {@link #countGen} (-1 if not counted) */
+  private int count = -1;
+  private long countGen;
+
+  private LazyCollection(Association<T> assoc, Object ownerId, Collection<? extends T> members) {
+    this.assoc = assoc;
+    this.ownerId = ownerId;
+    if (members != null) {
+      this.members = new LinkedHashSet<>(members);
+      loaded = true;
+    }
+  }
+
+  /**
+   * @effects
+   *  return the number of members, which are counted in the data source (without reading
+   *  them) if they are not yet loaded
+   */
+  public synchronized int count() {
+    if (loaded || ownerId == null || !SeafoodDb.isConfigured())
+      return size();
+
+    long gen = ResultCache.getInstance().generation(assoc.cls);
+    if (count >= 0 && gen == countGen)
+      return count;
+
+    try (Connection con = SeafoodDb.open()) {
+      int n;
+      try (PreparedStatement stmt = con.prepareStatement("select count(*) from "
+          + SeafoodDb.tableOf(assoc.cls) + " where " + assoc.fkColumn + " = ?")) {
+        stmt.setObject(1, ownerId);
+        try (ResultSet rs = stmt.executeQuery()) {
+          rs.next();
+          n = rs.getInt(1);
+        }
+      }
+
+      // the added members that are not stored and the removed ones that still are
+      Set<T> changed = new LinkedHashSet<>();
+      if (members != null)
+        changed.addAll(members);
+      if (removed != null)
+        changed.addAll(removed);
+      Set<Object> stored = storedKeys(con, changed);
+      for (T e : changed) {
+        boolean isStored = stored.contains(assoc.keyOf(e));
+        if (removed != null && removed.contains(e)) {
+          if (isStored)
+            n--;
+        } else if (!isStored) {
+          n++;
+        }
+      }
+
+      count = n;
+      countGen = gen;
+      return n;
+    } catch (SQLException e) {
+      // the table cannot be read directly: count the loaded members below
+    }
+
+    return size();
+  }
+
+  /**
+   * @effects
+   *  if the members are loaded
+   *    return true
+   *  else
+   *    return false
+   */
+  public synchronized boolean isLoaded() {
+    return loaded;
+  }
+
+  @Override
+  public synchronized Iterator<T> iterator() {
+    load();
+    return members.iterator();
+  }
+
+  @Override
+  public synchronized int size() {
+    load();
+    return members.size();
+  }
+
+  @Override
+  public synchronized boolean contains(Object o) {
+    if (members != null && members.contains(o))
+      return true;
+    if (removed != null && removed.contains(o))
+      return false;
+
+    load();
+    return members.contains(o);
+  }
+
+  /**
+   * @modifies this
+   * @effects
+   *  add <tt>e</tt> to the members (without loading them); return true if <tt>e</tt>
+   *  was not a member
+   */
+  @Override
+  public synchronized boolean add(T e) {
+    if (members == null)
+      members = new LinkedHashSet<>();
+
+    count = -1;
+    boolean wasRemoved = removed != null && removed.remove(e);
+    return members.add(e) || wasRemoved;
+  }
+
+  /**
+   * @modifies this
+   * @effects
+   *  remove <tt>o</tt> from the members (without loading them); return true if <tt>o</tt>
+   *  was a member
+   */
+  @Override
+  public synchronized boolean remove(Object o) {
+    count = -1;
+    if (loaded)
+      return members.remove(o);
+
+    boolean wasAdded = members != null && members.remove(o);
+    if (!assoc.cls.isInstance(o) || (removed != null && removed.contains(o)))
+      return wasAdded;
+
+    T e = assoc.cls.cast(o);
+    if (!isStored(e))
+      return wasAdded;
+
+    if (removed == null)
+      removed = new HashSet<>();
+    removed.add(e);
+    return true;
+  }
+
+  /**
+   * @modifies this
+   * @effects
+   *  if the members are not loaded
+   *    read them from the data source, one batch at a time, and merge them with the
+   *    members added so far
+   *
+   *  <p>throws IllegalStateException if fails to read from the data source
+   */
+  private void load() throws IllegalStateException {
+    if (loaded)
+      return;
+
+    Set<T> all = new LinkedHashSet<>();
+    if (ownerId != null && SeafoodDb.isConfigured()) {
+      try {
+        List<Object> keys = scanKeys();
+        QRM qrm = QRM.getInstance();
+        for (int i = 0; i < keys.size(); i += BATCH_SIZE) {
+          Object first = keys.get(i);
+          Object last = keys.get(Math.min(keys.size(), i + BATCH_SIZE) - 1);
+          Map<Oid, T> found = assoc.batch.retrieve(qrm, ownerId, first, last);
+          if (found != null)
+            all.addAll(found.values());
+        }
+      } catch (SQLException e) {
+        // the table cannot be read directly: keep the added members
+      } catch (NotPossibleException | DataSourceException e) {
+        throw new IllegalStateException("LazyCollection.load: failed to load the "
+            + assoc.cls.getSimpleName() + " of " + ownerId, e);
+      }
+    }
+
+    if (removed != null)
+      all.removeAll(removed);
+    if (members != null)
+      all.addAll(members);
+
+    members = all;
+    removed = null;
+    loaded = true;
+  }
+
+  /**
+   * @effects
+   *  if <tt>e</tt> is a member in the data source
+   *    return true
+   *  else
+   *    return false
+   */
+  private boolean isStored(T e) {
+    if (ownerId == null || !SeafoodDb.isConfigured())
+      return false;
+
+    Set<T> one = new HashSet<>();
+    one.add(e);
+    try (Connection con = SeafoodDb.open()) {
+      return !storedKeys(con, one).isEmpty();
+    } catch (SQLException ex) {
+      // the table cannot be read directly: only the added members are members
+      return false;
+    }
+  }
+
+  /**
+   * @effects return the keys of the objects in <tt>objs</tt> that are members in the data source
+   */
+  private Set<Object> storedKeys(Connection con, Collection<T> objs) throws SQLException {
+    List<Object> keys = new ArrayList<>();
+    for (T e : objs) {
+      Object key = assoc.keyOf(e);
+      if (key != null)
+        keys.add(key);
+    }
+
+    Set<Object> stored = new HashSet<>();
+    for (int i = 0; i < keys.size(); i += BATCH_SIZE) {
+      List<Object> batch = keys.subList(i, Math.min(keys.size(), i + BATCH_SIZE));
+      StringBuilder params = new StringBuilder("?");
+      for (int k = 1; k < batch.size(); k++) {
+        params.append(", ?");
+      }
+
+      try (PreparedStatement stmt = con.prepareStatement("select " + assoc.keyAttrib + " from "
+          + SeafoodDb.tableOf(assoc.cls) + " where " + assoc.fkColumn + " = ? and "
+          + assoc.keyAttrib + " in (" + params + ")")) {
+        stmt.setObject(1, ownerId);
+        for (int k = 0; k < batch.size(); k++) {
+          stmt.setObject(k + 2, batch.get(k));
+        }
+        try (ResultSet rs = stmt.executeQuery()) {
+          while (rs.next()) {
+            stored.add(rs.getObject(1));
+          }
+        }
+      }
+    }
+
+    return stored;
+  }
+
+  /**
+   * @effects return (in order) the keys of the members in the data source
+   */
+  private List<Object> scanKeys() throws SQLException {
+    List<Object> keys = new ArrayList<>();
+    try (Connection con = SeafoodDb.open();
+        PreparedStatement stmt = con.prepareStatement("select " + assoc.keyAttrib + " from "
+            + SeafoodDb.tableOf(assoc.cls) + " where " + assoc.fkColumn + " = ? order by "
+            + assoc.keyAttrib)) {
+      stmt.setObject(1, ownerId);
+      try (ResultSet rs = stmt.executeQuery()) {
+        while (rs.next()) {
+          keys.add(rs.getObject(1));
+        }
+      }
+    }
+
+    return keys;
+  }
+}
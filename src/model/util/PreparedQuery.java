@@ -0,0 +1,112 @@
+package model.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import domainapp.basics.core.dodm.dsm.DSMBasic;
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.model.Oid;
+import domainapp.basics.model.query.Expression;
+import domainapp.basics.model.query.Expression.Op;
+import domainapp.basics.model.query.Query;
+import domainapp.basics.model.query.QueryToolKit;
+
+/**
+ * @overview
+ *  A search query over the domain class <tt>T</tt>, whose attributes and operators are fixed
+ *  and whose values are the parameters of its user (e.g. of a report or of a
+ *  {@link LazyCollection}).
+ *
+ *  <p>The queries are created for each {@link DSMBasic} and, on later runs, only their
+ *  parameter values are re-bound. This avoids re-creating the query and lets the data source
+ *  reuse the same statement.
+ *
+ *  <p>A query is bound and run by one thread at a time: each run takes an idle query from the
+ *  pool of the DSM (or creates one if all are in use) and returns it afterwards, so the
+ *  queries of a class run concurrently.
+ */
+public final class PreparedQuery<T> {
+
+  private final Class<T> cls;
+  private final String[] attribs;
+  private final Op[] ops;
+
+  /** the idle queries of each DSM */
+  private final Map<DSMBasic, Queue<Query>> queries;
+
+  /**
+   * @requires attribs.length = ops.length
+   * @effects initialise this as a search query over <tt>cls</tt> whose i-th term is
+   *  <tt>attribs[i] ops[i] ?</tt>
+   */
+  public PreparedQuery(Class<T> cls, String[] attribs, Op[] ops) {
+    this.cls = cls;
+    this.attribs = attribs;
+    this.ops = ops;
+    queries = new WeakHashMap<>();
+  }
+
+  /**
+   * @requires vals.length = attribs.length
+   * @effects
+   *  bind <tt>vals</tt> to an idle query of <tt>qrm.dsm</tt> (creating one if none is idle)
+   *  and return the objects that satisfy it, or <tt>null</tt> if none is found.
+   *
+   *  <p>throws NotPossibleException if failed to generate data source query;
+   *  DataSourceException if fails to read from the data source.
+   */
+  public Map<Oid, T> retrieve(QRM qrm, Object...vals)
+      throws NotPossibleException, DataSourceException {
+    DSMBasic dsm = qrm.getDsm();
+    Queue<Query> idle = idleQueries(dsm);
+
+    Query q = idle.poll();
+    if (q == null || !bind(q, vals))
+      q = QueryToolKit.createSearchQuery(dsm, cls, attribs, ops, vals);
+
+    try {
+      return qrm.getDom().retrieveObjects(cls, q);
+    } finally {
+      idle.offer(q);
+    }
+  }
+
+  /**
+   * @effects return the pool of the idle queries of <tt>dsm</tt>
+   */
+  private Queue<Query> idleQueries(DSMBasic dsm) {
+    synchronized (queries) {
+      Queue<Query> idle = queries.get(dsm);
+      if (idle == null) {
+        idle = new ConcurrentLinkedQueue<>();
+        queries.put(dsm, idle);
+      }
+      return idle;
+    }
+  }
+
+  /**
+   * @modifies q
+   * @effects
+   *  if the terms of <tt>q</tt> match {@link #attribs}
+   *    set the value of the i-th term to <tt>vals[i]</tt>, return true
+   *  else
+   *    return false
+   */
+  private boolean bind(Query q, Object[] vals) {
+    if (q.size() != vals.length)
+      return false;
+
+    Iterator<Expression> terms = q.terms();
+    for (int i = 0; i < vals.length; i++) {
+      terms.next().setVal(vals[i]);
+    }
+
+    return true;
+  }
+}
@@ -1,5 +1,8 @@
 package software;
 
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
 import controller.ExportSeafood;
 import controller.ImportSeafood;
 import domainapp.basics.exceptions.NotPossibleException;
@@ -17,9 +20,29 @@ import model.SeafoodBill;
 import model.Seller;
 import model.TypeOfSeafood;
 import model.reports.ExportSeafoodByDateReport;
+import model.reports.ExportSeafoodByDateRangeReport;
 import model.reports.ImportSeafoodByDateReport;
+import model.reports.ImportSeafoodByDateRangeReport;
 import model.reports.CustomerByNameReport;
+import model.reports.CustomerValue;
+import model.reports.CustomerValueReport;
+import model.reports.DailyTotalsReport;
+import model.reports.MonthlyTotalsReport;
+import model.reports.ResultCache;
 import model.reports.SeafoodByNameReport;
+import model.reports.SeafoodRanking;
+import model.reports.SeafoodSearchReport;
+import model.reports.StockBalance;
+import model.reports.StockReport;
+import model.reports.TopSeafoodExportReport;
+import model.reports.TransactionTotal;
+import model.stats.StockLedger;
+import model.util.IdAllocator;
+import software.db.BillTotalsMigration;
+import software.db.ChangeJournal;
+import software.db.IndexManager;
+import software.db.SeafoodDb;
+import software.db.SequenceStore;
 
 
 /**
@@ -54,12 +77,24 @@ public class SeafoodManSoftware extends DomainAppToolSoftware {
       TypeOfSeafood.class,
       OrderTable.class,
       OrderRow.class, 
+      TransactionTotal.class,
+      SeafoodRanking.class,
+      StockBalance.class,
+      CustomerValue.class,
       
       // reports
       ExportSeafoodByDateReport.class,
       ImportSeafoodByDateReport.class,
+      ExportSeafoodByDateRangeReport.class,
+      ImportSeafoodByDateRangeReport.class,
+      DailyTotalsReport.class,
+      MonthlyTotalsReport.class,
+      TopSeafoodExportReport.class,
+      StockReport.class,
       SeafoodByNameReport.class,
-      CustomerByNameReport.class
+      SeafoodSearchReport.class,
+      CustomerByNameReport.class,
+      CustomerValueReport.class
   };
   
   /* (non-Javadoc)
@@ -80,9 +115,52 @@ public class SeafoodManSoftware extends DomainAppToolSoftware {
    *  run software with a command specified in args[0] and with the model 
    *  specified by {@link #getModel()}. 
    *  
-   *  <br>Throws NotPossibleException if failed for some reasons.
+   *  <br>Throws NotPossibleException if failed for some reasons; 
+   *  SQLException if failed to set up the data services.
    */
-  public static void main(String[] args) throws NotPossibleException {
+  public static void main(String[] args) throws NotPossibleException, SQLException {
+    setUpDataServices();
     new SeafoodManSoftware().exec(args);
   }
+
+  /**
+   * @effects 
+   *  if {@link SeafoodDb} is configured 
+   *    bind the domain id counters to the persistent id sequences (and release their 
+   *    unused ids at shut-down), 
+   *    have the stock ledger reconciled hourly (the rollups, the stock ledger, the customer 
+   *    totals and the name and attribute indexes are built when they are first used), 
+   *    have the data source keep the stored totals of the tables and bills (see 
+   *    {@link BillTotalsMigration}), 
+   *    if the @DIndex declarations have changed, create (and drop) the secondary indexes of 
+   *    the data source as declared (the indexes of a table that is not yet created are 
+   *    created at the next start)
+   *  
+   *  <br>Throws SQLException if failed to set up the data services.
+   */
+  private static void setUpDataServices() throws SQLException {
+    if (!SeafoodDb.isConfigured())
+      return;
+    
+    IdAllocator.bind(new SequenceStore(), SequenceStore.DEFAULT_BLOCK_SIZE);
+    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          IdAllocator.release();
+        } catch (IllegalStateException e) {
+          // the unused ids are lost, as if the program had not exited cleanly
+        }
+      }
+    }, "release-ids"));
+    
+    // the structures are kept up to date by the committed changes once they are built
+    StockLedger.getInstance().reconcileEvery(1, TimeUnit.HOURS);
+    ChangeJournal.getInstance().attach(ResultCache.getInstance());
+    
+    new BillTotalsMigration().migrate();
+    
+    // the changes are not reported here: IndexManager.main prints them (and the scans)
+    new IndexManager().syncIfChanged(model);
+  }
 }
@@ -0,0 +1,151 @@
+package software.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import model.OrderRow;
+import model.OrderTable;
+import model.SeafoodBill;
+
+/**
+ * @overview
+ *  Migrates the tables of {@link OrderTable} and {@link SeafoodBill} to store their totals
+ *  (see {@link OrderTable#getTotal()}, {@link SeafoodBill#getTotal()}), and has the data
+ *  source keep them.
+ *
+ *  <p>The migration adds the total columns (if needed) and creates triggers that keep them
+ *  in the transaction that changes them, whoever writes it (the object layer,
+ *  {@link WriteBehindBuffer} or another program): a change of an order row adds the change of
+ *  its price to the total of its table (of its old and new table if it is moved), a change of
+ *  the total of a table is copied to its bill, and a bill that is stored or linked to another
+ *  table takes the total of that table. When it creates the triggers, it then computes the
+ *  totals of all tables (and so of their bills) from their rows. This is done in one
+ *  transaction. Running the migration again is harmless; it does nothing until the three
+ *  tables exist.
+ */
+public class BillTotalsMigration {
+
+  private static final String ROWS = SeafoodDb.tableOf(OrderRow.class);
+  private static final String TABLES = SeafoodDb.tableOf(OrderTable.class);
+  private static final String BILLS = SeafoodDb.tableOf(SeafoodBill.class);
+  private static final String SCHEMA = TABLES.substring(0, TABLES.indexOf('.'));
+
+  private static final String COL_TOTAL = SeafoodBill.A_total;
+  private static final String COL_ROW_TABLE = SeafoodDb.fkColumn("table", "id");
+  private static final String COL_BILL_TABLE = SeafoodDb.fkColumn(SeafoodBill.A_table, "id");
+
+  /** the names and the definitions of the triggers */
+  private static final String[][] TRIGGERS = {
+      {"BT_OrderRow_I", "after insert on " + ROWS + " referencing new as n for each row " +
+          "update " + TABLES + " set " + COL_TOTAL + " = coalesce(" + COL_TOTAL + ", 0) + " +
+          price("n") + " where id = n." + COL_ROW_TABLE},
+      {"BT_OrderRow_U", "after update on " + ROWS + " referencing old as o new as n " +
+          "for each row update " + TABLES + " set " + COL_TOTAL + " = coalesce(" + COL_TOTAL +
+          ", 0) + case when id = n." + COL_ROW_TABLE + " then " + price("n") + " else 0 end" +
+          " - case when id = o." + COL_ROW_TABLE + " then " + price("o") + " else 0 end" +
+          " where id = o." + COL_ROW_TABLE + " or id = n." + COL_ROW_TABLE},
+      {"BT_OrderRow_D", "after delete on " + ROWS + " referencing old as o for each row " +
+          "update " + TABLES + " set " + COL_TOTAL + " = coalesce(" + COL_TOTAL + ", 0) - " +
+          price("o") + " where id = o." + COL_ROW_TABLE},
+      {"BT_OrderTable_U", "after update of " + COL_TOTAL + " on " + TABLES +
+          " referencing new as n for each row update " + BILLS + " set " + COL_TOTAL +
+          " = n." + COL_TOTAL + " where " + COL_BILL_TABLE + " = n.id"},
+      {"BT_SeafoodBill_I", "after insert on " + BILLS + " referencing new as n for each row " +
+          billTotal()},
+      {"BT_SeafoodBill_U", "after update of " + COL_BILL_TABLE + " on " + BILLS +
+          " referencing new as n for each row " + billTotal()}};
+
+  /**
+   * @effects
+   *  migrate the tables of {@link OrderTable} and {@link SeafoodBill}; return the number of
+   *  tables whose total is computed (0 if the triggers were already created)
+   *
+   *  <p>throws SQLException if fails to access the data source (then nothing is migrated)
+   */
+  public int migrate() throws SQLException {
+    int computed = 0;
+    try (Connection con = SeafoodDb.open()) {
+      if (!SeafoodDb.hasTable(con, OrderRow.class) || !SeafoodDb.hasTable(con, OrderTable.class)
+          || !SeafoodDb.hasTable(con, SeafoodBill.class))
+        return 0;
+
+      con.setAutoCommit(false);
+      try (Statement stmt = con.createStatement()) {
+        for (Class<?> c : new Class<?>[] {OrderTable.class, SeafoodBill.class}) {
+          if (!SeafoodDb.hasColumn(con, c, COL_TOTAL))
+            stmt.executeUpdate("alter table " + SeafoodDb.tableOf(c) + " add column " +
+                COL_TOTAL + " double");
+        }
+
+        boolean created = false;
+        for (String[] t : TRIGGERS) {
+          if (!hasTrigger(con, t[0])) {
+            stmt.executeUpdate("create trigger " + SCHEMA + "." + t[0] + " " + t[1]);
+            created = true;
+          }
+        }
+
+        // the bills take the totals of their tables (see BT_OrderTable_U)
+        if (created)
+          computed = stmt.executeUpdate("update " + TABLES + " t set " + COL_TOTAL +
+              " = (select coalesce(sum(" + price("r") + "), 0) from " + ROWS + " r where r." +
+              COL_ROW_TABLE + " = t.id)");
+        con.commit();
+      } catch (SQLException e) {
+        con.rollback();
+        throw e;
+      } finally {
+        con.setAutoCommit(true);
+      }
+    }
+
+    return computed;
+  }
+
+  /**
+   * @effects return the price of the order row <tt>r</tt> in SQL, 0 if it is not set
+   */
+  private static String price(String r) {
+    return "coalesce(" + r + "." + OrderRow.A_number + " * " + r + "." + OrderRow.A_pricePerKilo +
+        ", 0)";
+  }
+
+  /**
+   * @effects return the update that sets the total of the bill <tt>n</tt> to that of its table
+   */
+  private static String billTotal() {
+    return "update " + BILLS + " set " + COL_TOTAL + " = (select t." + COL_TOTAL + " from " +
+        TABLES + " t where t.id = n." + COL_BILL_TABLE + ") where " + SeafoodBill.A_billNo +
+        " = n." + SeafoodBill.A_billNo;
+  }
+
+  private static boolean hasTrigger(Connection con, String name) throws SQLException {
+    try (PreparedStatement stmt = con.prepareStatement("select 1 from sys.systriggers t " +
+        "join sys.sysschemas s on t.schemaid = s.schemaid " +
+        "where s.schemaname = ? and t.triggername = ?")) {
+      stmt.setString(1, SCHEMA.toUpperCase());
+      stmt.setString(2, name.toUpperCase());
+      try (ResultSet rs = stmt.executeQuery()) {
+        return rs.next();
+      }
+    }
+  }
+
+  /**
+   * The main method
+   * @effects
+   *  migrate the tables of {@link OrderTable} and {@link SeafoodBill} of the data source
+   *  whose JDBC URL is <tt>args[0]</tt> (or the one configured in {@link SeafoodDb})
+   */
+  public static void main(String[] args) throws SQLException {
+    if (args.length > 0)
+      SeafoodDb.configure(args[0]);
+
+    int computed = new BillTotalsMigration().migrate();
+    System.out.println("BillTotalsMigration: " + OrderTable.class.getSimpleName() + " and " +
+        SeafoodBill.class.getSimpleName() + " migrated (" + computed + " totals computed)");
+  }
+}
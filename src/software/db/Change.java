@@ -0,0 +1,116 @@
+package software.db;
+
+import model.util.Fixed;
+
+/**
+ * @overview
+ *  A committed change of a row of the data source, as recorded in the {@link ChangeJournal}.
+ *
+ *  <p>The change of a transaction (an import or an export) carries the values of the row: a
+ *  new row is added (<tt>sign = 1</tt>), a deleted row is removed (<tt>sign = -1</tt>) and an
+ *  updated row is reported as the removal of its old values followed by the addition of its
+ *  new ones. The change of another object carries its id only (<tt>sign = 0</tt> if it is
+ *  updated): its current state is read from the data source.
+ */
+public final class Change {
+
+  private final String table;
+  private final int sign;
+  private final Integer txId;
+  private final String objectId;
+  private final String seafoodId;
+  private final Integer preserverId;
+  private final String customerId;
+  private final long quantity;
+  private final long price;
+  private final Integer dateDay;
+
+  /**
+   * @effects
+   *  initialise this as the change of a row of the table of the domain class whose simple
+   *  name is <tt>table</tt>; <tt>quantity</tt> and <tt>price</tt> are in thousandths
+   *  (see {@link Fixed}), {@link Fixed#NONE} if not set
+   */
+  Change(String table, int sign, Integer txId, String objectId, String seafoodId,
+      Integer preserverId, String customerId, long quantity, long price, Integer dateDay) {
+    this.table = table;
+    this.sign = sign;
+    this.txId = txId;
+    this.objectId = objectId;
+    this.seafoodId = seafoodId;
+    this.preserverId = preserverId;
+    this.customerId = customerId;
+    this.quantity = quantity;
+    this.price = price;
+    this.dateDay = dateDay;
+  }
+
+  /**
+   * @effects
+   *  if this is a change of the objects of the domain class <tt>c</tt> (or of a subclass
+   *  whose changes are journalled as those of <tt>c</tt>) return true, else return false
+   */
+  public boolean is(Class<?> c) {
+    return table.equals(c.getSimpleName());
+  }
+
+  /**
+   * @effects return 1 if the row is added, -1 if it is removed, 0 if it is updated
+   */
+  public int getSign() {
+    return sign;
+  }
+
+  /**
+   * @effects return the id of the transaction, null if this is not a transaction
+   */
+  public Integer getTxId() {
+    return txId;
+  }
+
+  /**
+   * @effects return the id of the object, null if this is a transaction
+   */
+  public String getObjectId() {
+    return objectId;
+  }
+
+  public String getSeafoodId() {
+    return seafoodId;
+  }
+
+  /**
+   * @effects return the id of the preserver, null if it is not recorded
+   */
+  public Integer getPreserverId() {
+    return preserverId;
+  }
+
+  public String getCustomerId() {
+    return customerId;
+  }
+
+  /**
+   * @effects return the quantity in thousandths, {@link Fixed#NONE} if it is not set
+   */
+  public long getQuantityFixed() {
+    return quantity;
+  }
+
+  /**
+   * @effects
+   *  return the total (quantity times price) in thousandths, 0 if either is not set
+   */
+  public long getTotalFixed() {
+    return (quantity != Fixed.NONE && price != Fixed.NONE) ? Fixed.times(quantity, price) : 0;
+  }
+
+  public Integer getDateDay() {
+    return dateDay;
+  }
+
+  @Override
+  public String toString() {
+    return "Change(" + table + ", " + sign + ", " + ((txId != null) ? txId : objectId) + ")";
+  }
+}
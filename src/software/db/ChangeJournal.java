@@ -0,0 +1,472 @@
+package software.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import controller.ExportSeafood;
+import controller.ImportSeafood;
+import model.Customer;
+import model.DomesticSeafood;
+import model.ForeignSeafood;
+import model.Purchaser;
+import model.Seafood;
+import model.Seller;
+import model.util.Fixed;
+
+/**
+ * @overview
+ *  Records the committed changes of the tables that the in-memory structures of the software
+ *  (e.g. the rollups, the indexes, the result cache) are derived from, and dispatches them to
+ *  its {@link Listener}s.
+ *
+ *  <p>Triggers on the tables of the transactions ({@link ImportSeafood}, {@link ExportSeafood})
+ *  and of the seafoods and customers (and their subclasses) insert a row per change into
+ *  {@value #TABLE}, in the transaction that makes the change. So a change is journalled iff
+ *  it is committed, whoever writes it: the object layer, {@link ImportLoader},
+ *  {@link WriteBehindBuffer} or another program.
+ *
+ *  <p>{@link #catchUp()} reads the journalled changes in order, deletes them and then
+ *  dispatches them (after they are deleted, so that none is dispatched twice). It runs every
+ *  {@value #CATCH_UP_MILLIS} milliseconds and is invoked by the structures before they are
+ *  read, so that a read sees every change committed before it.
+ *
+ *  <p>A structure is built by {@link #attach(Listener, Snapshot)}, which reads the tables and
+ *  drains the journal in one serializable transaction: a change committed before the read is
+ *  in what is read (and is not dispatched to the new listener), a change committed after it is
+ *  journalled and dispatched to it. The read locks the tables it reads until it is done, so a
+ *  writer that writes two of them in one transaction may be chosen as a deadlock victim.
+ */
+public final class ChangeJournal {
+
+  /** the journal table */
+  public static final String TABLE = "seafoodman.ChangeLog";
+
+  /** how often the journal is caught up */
+  private static final long CATCH_UP_MILLIS = 1000;
+
+  /** the maximum number of changes read (and dispatched) at a time */
+  private static final int CHUNK_SIZE = 10000;
+
+  /** the number of times a snapshot is read again when it is chosen as a deadlock victim */
+  private static final int SNAPSHOT_ATTEMPTS = 3;
+
+  /** Derby SQL states: object already exists, deadlock, lock time-out */
+  private static final String SQL_STATE_EXISTS = "X0Y32";
+  private static final String SQL_STATE_DEADLOCK = "40001";
+  private static final String SQL_STATE_LOCK_TIMEOUT = "40XL1";
+
+  private static final String SCHEMA = TABLE.substring(0, TABLE.indexOf('.'));
+
+  /** the journalled transaction classes */
+  private static final Class<?>[] TRANSACTIONS = {ImportSeafood.class, ExportSeafood.class};
+
+  /** the journalled object classes (each journalled as the first class of its row) */
+  private static final Class<?>[][] OBJECTS = {
+      {Seafood.class, DomesticSeafood.class, ForeignSeafood.class},
+      {Customer.class, Purchaser.class, Seller.class}};
+
+  /**
+   * @overview
+   *  Applies the committed changes to a structure. A listener must not throw an exception:
+   *  the change is not dispatched again.
+   */
+  public interface Listener {
+    /**
+     * @effects apply the committed change <tt>c</tt>
+     */
+    void changed(Change c);
+  }
+
+  /**
+   * @overview
+   *  A read of the data source that is consistent with the changes dispatched (see
+   *  {@link ChangeJournal#snapshot(Snapshot)}).
+   */
+  public abstract static class Snapshot {
+    /**
+     * @effects read from <tt>con</tt> (in the transaction of the snapshot)
+     */
+    public abstract void read(Connection con) throws SQLException;
+
+    /**
+     * @effects
+     *  invoked when the changes committed before the read have been dispatched (and before
+     *  any later change is); by default do nothing
+     */
+    public void caughtUp() {
+      // nothing to do
+    }
+  }
+
+  private static final ChangeJournal instance = new ChangeJournal();
+
+  private final List<Listener> listeners;
+
+  /** whether the triggers of all the tables are created */
+  private volatile boolean installed;
+
+  private ScheduledExecutorService scheduler;
+
+  private ChangeJournal() {
+    listeners = new CopyOnWriteArrayList<>();
+  }
+
+  /**
+   * @effects return the shared journal
+   */
+  public static ChangeJournal getInstance() {
+    return instance;
+  }
+
+  /**
+   * @modifies this
+   * @effects
+   *  create the journal table and the triggers of the tables that exist (those of a table
+   *  that is not yet created are created by a later call) and start catching up
+   *
+   *  <p>throws SQLException if fails to access the data source
+   */
+  public synchronized void install() throws SQLException {
+    if (installed)
+      return;
+
+    try (Connection con = SeafoodDb.open();
+        Statement stmt = con.createStatement()) {
+      try {
+        stmt.executeUpdate("create table " + TABLE + " (seq bigint generated always as " +
+            "identity primary key, tbl varchar(32) not null, sign smallint not null, " +
+            "txId integer, objectId varchar(20), seafoodId varchar(20), preserverId integer, " +
+            "customerId varchar(20), quantity double, price double, dateDay integer)");
+      } catch (SQLException e) {
+        if (!SQL_STATE_EXISTS.equals(e.getSQLState()))
+          throw e;
+      }
+
+      Set<String> triggers = triggers(con);
+      boolean all = true;
+      for (Class<?> c : TRANSACTIONS) {
+        all &= createTriggers(con, c, triggers);
+      }
+      for (Class<?>[] classes : OBJECTS) {
+        // the base class is required, a subclass may be stored in its table
+        all &= createTriggers(con, classes[0], classes[0], triggers);
+        for (int i = 1; i < classes.length; i++) {
+          createTriggers(con, classes[i], classes[0], triggers);
+        }
+      }
+      installed = all;
+    }
+
+    if (scheduler == null) {
+      scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "change-journal");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+      scheduler.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            catchUp();
+          } catch (SQLException e) {
+            // tried again at the next run
+          }
+        }
+      }, CATCH_UP_MILLIS, CATCH_UP_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * @effects
+   *  if the triggers of the transaction class <tt>c</tt> are created
+   *    drop them and create them again with the current columns of its table (e.g. after a
+   *    column is added to it) through <tt>con</tt>, so that no change of the table is missed
+   *    if that is done in the transaction that alters the table
+   *  else
+   *    do nothing (they are created by {@link #install()})
+   *
+   *  <p>throws SQLException if fails to access the data source
+   */
+  public synchronized void replaceTriggers(Connection con, Class<?> c) throws SQLException {
+    Set<String> triggers = triggers(con);
+    boolean created = false;
+    try (Statement stmt = con.createStatement()) {
+      for (String op : new String[] {"I", "U", "D"}) {
+        String name = triggerName(c, op);
+        if (triggers.remove(name.toUpperCase())) {
+          stmt.executeUpdate("drop trigger " + SCHEMA + "." + name);
+          created = true;
+        }
+      }
+    }
+
+    if (created)
+      createTriggers(con, c, triggers);
+  }
+
+  /**
+   * @modifies this
+   * @effects
+   *  read the snapshot <tt>s</tt> (see {@link #snapshot(Snapshot)}) and then register
+   *  <tt>l</tt>, so that it is dispatched every change committed after the read
+   *
+   *  <p>throws SQLException if fails to access the data source
+   */
+  public synchronized void attach(Listener l, Snapshot s) throws SQLException {
+    snapshot(s);
+    if (!listeners.contains(l))
+      listeners.add(l);
+  }
+
+  /**
+   * @modifies this
+   * @effects
+   *  register <tt>l</tt>, which keeps no state read from the data source (e.g. a cache that
+   *  is invalidated by the changes)
+   *
+   *  <p>throws SQLException if fails to access the data source
+   */
+  public synchronized void attach(Listener l) throws SQLException {
+    install();
+    if (!listeners.contains(l))
+      listeners.add(l);
+  }
+
+  /**
+   * @modifies this
+   * @effects unregister <tt>l</tt>
+   */
+  public void detach(Listener l) {
+    listeners.remove(l);
+  }
+
+  /**
+   * @effects
+   *  read <tt>s</tt> in a serializable transaction that also drains the journal, dispatch
+   *  the drained changes (i.e. those committed before the read) to the listeners and invoke
+   *  <tt>s.caughtUp()</tt>, before any later change is dispatched
+   *
+   *  <p>throws SQLException if fails to access the data source
+   */
+  public synchronized void snapshot(Snapshot s) throws SQLException {
+    install();
+
+    List<Change> changes = null;
+    for (int attempt = 1; changes == null; attempt++) {
+      try (Connection con = SeafoodDb.open()) {
+        con.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        con.setAutoCommit(false);
+        try {
+          // the tables are read (and locked) before the journal, as the writers write them
+          s.read(con);
+          changes = new ArrayList<>();
+          while (drain(con, changes) == CHUNK_SIZE) {
+            // all of them, in this transaction
+          }
+          con.commit();
+        } catch (SQLException e) {
+          con.rollback();
+          changes = null;
+          boolean victim = SQL_STATE_DEADLOCK.equals(e.getSQLState()) ||
+              SQL_STATE_LOCK_TIMEOUT.equals(e.getSQLState());
+          if (!victim || attempt == SNAPSHOT_ATTEMPTS)
+            throw e;
+        }
+      }
+    }
+
+    dispatch(changes);
+    s.caughtUp();
+  }
+
+  /**
+   * @effects
+   *  read the changes committed (and not yet read) in order, delete them from the journal
+   *  and dispatch them to the listeners; do nothing if {@link SeafoodDb} is not configured
+   *
+   *  <p>throws SQLException if fails to access the data source
+   */
+  public synchronized void catchUp() throws SQLException {
+    if (!SeafoodDb.isConfigured())
+      return;
+
+    install();
+
+    int read;
+    do {
+      List<Change> changes = new ArrayList<>();
+      try (Connection con = SeafoodDb.open()) {
+        con.setAutoCommit(false);
+        try {
+          read = drain(con, changes);
+          con.commit();
+        } catch (SQLException e) {
+          con.rollback();
+          throw e;
+        }
+      }
+      dispatch(changes);
+    } while (read == CHUNK_SIZE);
+  }
+
+  /**
+   * @effects
+   *  {@link #catchUp()}; if it fails, the changes are dispatched by a later catch-up (the
+   *  scheduled one at the latest)
+   */
+  public void tryCatchUp() {
+    try {
+      catchUp();
+    } catch (SQLException e) {
+      // the structures are read as they are
+    }
+  }
+
+  private void dispatch(List<Change> changes) {
+    for (Change c : changes) {
+      for (Listener l : listeners) {
+        l.changed(c);
+      }
+    }
+  }
+
+  /**
+   * @modifies changes
+   * @effects
+   *  read (up to {@value #CHUNK_SIZE} of) the oldest changes of the journal, add them to
+   *  <tt>changes</tt> and delete them (in the transaction of <tt>con</tt>); return the number
+   *  of changes read
+   */
+  private static int drain(Connection con, List<Change> changes) throws SQLException {
+    int read = 0;
+    try (Statement select = con.createStatement();
+        ResultSet rs = select.executeQuery("select seq, tbl, sign, txId, objectId, seafoodId, " +
+            "preserverId, customerId, quantity, price, dateDay from " + TABLE +
+            " order by seq fetch first " + CHUNK_SIZE + " rows only");
+        PreparedStatement delete = con.prepareStatement("delete from " + TABLE +
+            " where seq = ?")) {
+      while (rs.next()) {
+        changes.add(new Change(rs.getString(2), rs.getInt(3), (Integer) rs.getObject(4),
+            rs.getString(5), rs.getString(6), (Integer) rs.getObject(7), rs.getString(8),
+            Fixed.of((Double) rs.getObject(9)), Fixed.of((Double) rs.getObject(10)),
+            (Integer) rs.getObject(11)));
+
+        // deleted by sequence number: a change committed meanwhile may have a lower one
+        delete.setLong(1, rs.getLong(1));
+        delete.addBatch();
+        read++;
+      }
+      if (read > 0)
+        delete.executeBatch();
+    }
+    return read;
+  }
+
+  /**
+   * @effects
+   *  if the table of the transaction class <tt>c</tt> exists (with its epoch-day column)
+   *    create its triggers that are not in <tt>triggers</tt>, return true
+   *  else
+   *    return false
+   */
+  private static boolean createTriggers(Connection con, Class<?> c, Set<String> triggers)
+      throws SQLException {
+    if (!SeafoodDb.hasTable(con, c) || !SeafoodDb.hasColumn(con, c, ImportSeafood.A_DateDay))
+      return false;
+
+    // the preserver is recorded if the table has it
+    String preserverCol = SeafoodDb.fkColumn(ImportSeafood.A_Preserver, "id");
+    boolean hasPreserver = SeafoodDb.hasColumn(con, c, preserverCol);
+
+    String insert = "insert into " + TABLE + " (tbl, sign, txId, seafoodId, preserverId, " +
+        "customerId, quantity, price, dateDay) values ";
+    String[] values = new String[2];
+    String[] refs = {"o", "n"};
+    for (int i = 0; i < 2; i++) {
+      String r = refs[i] + ".";
+      values[i] = "('" + c.getSimpleName() + "', " + (2 * i - 1) + ", " + r + ImportSeafood.A_Id +
+          ", " + r + SeafoodDb.fkColumn("seafood", Seafood.A_id) + ", " +
+          (hasPreserver ? r + preserverCol : "cast(null as integer)") + ", " +
+          r + SeafoodDb.fkColumn(ImportSeafood.A_Customer, Customer.A_id) + ", " +
+          r + ImportSeafood.A_Quantity + ", " + r + ImportSeafood.A_Price + ", " +
+          r + ImportSeafood.A_DateDay + ")";
+    }
+
+    createTrigger(con, c, "I", "insert", "new as n", insert + values[1], triggers);
+    createTrigger(con, c, "U", "update", "old as o new as n",
+        insert + values[0] + ", " + values[1], triggers);
+    createTrigger(con, c, "D", "delete", "old as o", insert + values[0], triggers);
+    return true;
+  }
+
+  /**
+   * @effects
+   *  if the table of the domain class <tt>c</tt> exists
+   *    create its triggers that are not in <tt>triggers</tt>, which journal its changes as
+   *    those of <tt>base</tt>, return true
+   *  else
+   *    return false
+   */
+  private static boolean createTriggers(Connection con, Class<?> c, Class<?> base,
+      Set<String> triggers) throws SQLException {
+    if (!SeafoodDb.hasTable(con, c))
+      return false;
+
+    String insert = "insert into " + TABLE + " (tbl, sign, objectId) values ('" +
+        base.getSimpleName() + "', ";
+    createTrigger(con, c, "I", "insert", "new as n", insert + "1, n.id)", triggers);
+    createTrigger(con, c, "U", "update", "new as n", insert + "0, n.id)", triggers);
+    createTrigger(con, c, "D", "delete", "old as o", insert + "-1, o.id)", triggers);
+    return true;
+  }
+
+  private static void createTrigger(Connection con, Class<?> c, String op, String event,
+      String referencing, String action, Set<String> triggers) throws SQLException {
+    String name = triggerName(c, op);
+    if (triggers.contains(name.toUpperCase()))
+      return;
+
+    try (Statement stmt = con.createStatement()) {
+      stmt.executeUpdate("create trigger " + SCHEMA + "." + name + " after " + event +
+          " on " + SeafoodDb.tableOf(c) + " referencing " + referencing +
+          " for each row " + action);
+    }
+  }
+
+  private static String triggerName(Class<?> c, String op) {
+    return "CL_" + c.getSimpleName() + "_" + op;
+  }
+
+  /**
+   * @effects return the names of the triggers of the journal schema (in upper case)
+   */
+  private static Set<String> triggers(Connection con) throws SQLException {
+    Set<String> names = new HashSet<>();
+    try (PreparedStatement stmt = con.prepareStatement("select t.triggername from " +
+        "sys.systriggers t join sys.sysschemas s on t.schemaid = s.schemaid " +
+        "where s.schemaname = ?")) {
+      stmt.setString(1, SCHEMA.toUpperCase());
+      try (ResultSet rs = stmt.executeQuery()) {
+        while (rs.next()) {
+          names.add(rs.getString(1));
+        }
+      }
+    }
+    return names;
+  }
+}
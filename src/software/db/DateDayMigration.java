@@ -0,0 +1,150 @@
+package software.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.ParseException;
+
+import controller.ExportSeafood;
+import controller.ImportSeafood;
+import model.util.Dates;
+
+/**
+ * @overview 
+ *  Migrates the tables of {@link ImportSeafood} and {@link ExportSeafood} from the 
+ *  <tt>dd/MM/yyyy</tt> date column to the epoch-day column <tt>dateDay</tt>.
+ *  
+ *  <p>The migration adds <tt>dateDay</tt> (if needed) and makes the old date column 
+ *  nullable at once, so that the rows inserted by the software (which only set 
+ *  <tt>dateDay</tt>) can be stored while the table is being migrated. It then fills 
+ *  <tt>dateDay</tt> of every row that does not have it yet, in one transaction, and drops 
+ *  the old date column. If the date of a row cannot be parsed, no row is converted and the 
+ *  migration fails (the rows can be corrected and the migration run again). Finally, it 
+ *  creates the indexes of the table (see {@link IndexManager}), e.g. the (ordered) index on 
+ *  <tt>dateDay</tt> that the date and date-range reports use. Running the migration again 
+ *  is harmless.
+ */
+public class DateDayMigration {
+  
+  /** the number of rows updated per batch */
+  private static final int BATCH_SIZE = 1000;
+  
+  /** the maximum number of invalid rows listed when the migration fails */
+  private static final int MAX_REPORTED = 10;
+  
+  // the old date column ("date" is a reserved word in Derby) and its name in the metadata
+  private static final String COL_DATE = "\"DATE\"";
+  private static final String COL_DATE_NAME = "DATE";
+  private static final String COL_DATE_DAY = "dateDay";
+  
+  /**
+   * @effects 
+   *  migrate the table of the domain class <tt>c</tt> and return the number of rows 
+   *  converted
+   *  
+   *  <p>throws SQLException if fails to access the data source or if the date of a row 
+   *  cannot be converted (then no row is converted)
+   */
+  public int migrate(Class<?> c) throws SQLException {
+    String table = SeafoodDb.tableOf(c);
+    
+    try (Connection con = SeafoodDb.open()) {
+      if (!SeafoodDb.hasColumn(con, c, COL_DATE_DAY)) {
+        try (Statement stmt = con.createStatement()) {
+          stmt.executeUpdate("alter table " + table + " add column " + COL_DATE_DAY + " integer");
+        }
+      }
+      
+      // already migrated if the old date column is dropped
+      int converted = 0;
+      if (SeafoodDb.hasColumn(con, c, COL_DATE_NAME)) {
+        try (Statement stmt = con.createStatement()) {
+          stmt.executeUpdate("alter table " + table + " alter column " + COL_DATE + " null");
+        }
+        converted = convert(con, table);
+        try (Statement stmt = con.createStatement()) {
+          stmt.executeUpdate("alter table " + table + " drop column " + COL_DATE);
+        }
+      }
+      
+      new IndexManager().sync(c);
+      
+      return converted;
+    }
+  }
+  
+  /**
+   * @effects 
+   *  fill <tt>dateDay</tt> of all rows of <tt>table</tt> for which it is null (in one 
+   *  transaction) and return the number of rows converted; 
+   *  if the date of a row cannot be converted, roll back and throw SQLException
+   */
+  private int convert(Connection con, String table) throws SQLException {
+    int converted = 0;
+    int pending = 0;
+    int failed = 0;
+    StringBuilder invalid = new StringBuilder();
+    
+    con.setAutoCommit(false);
+    try (Statement select = con.createStatement();
+        ResultSet rs = select.executeQuery("select id, " + COL_DATE + " from " + table + 
+            " where " + COL_DATE_DAY + " is null");
+        PreparedStatement update = con.prepareStatement("update " + table + 
+            " set " + COL_DATE_DAY + " = ? where id = ?")) {
+      while (rs.next()) {
+        int id = rs.getInt(1);
+        String date = rs.getString(2);
+        try {
+          update.setInt(1, Dates.toEpochDay(date));
+        } catch (ParseException e) {
+          if (++failed <= MAX_REPORTED)
+            invalid.append(' ').append(id).append(": ").append(date).append(';');
+          continue;
+        }
+        update.setInt(2, id);
+        update.addBatch();
+        converted++;
+        
+        if (++pending == BATCH_SIZE) {
+          update.executeBatch();
+          pending = 0;
+        }
+      }
+      
+      if (failed > 0)
+        throw new SQLException("DateDayMigration: " + table + " has " + failed + 
+            " rows with invalid dates, none is converted:" + invalid);
+      
+      if (pending > 0)
+        update.executeBatch();
+      con.commit();
+    } catch (SQLException e) {
+      con.rollback();
+      throw e;
+    } finally {
+      con.setAutoCommit(true);
+    }
+    
+    return converted;
+  }
+  
+  /**
+   * The main method
+   * @effects 
+   *  migrate the tables of {@link ImportSeafood} and {@link ExportSeafood} of the data source 
+   *  whose JDBC URL is <tt>args[0]</tt> (or the one configured in {@link SeafoodDb})
+   */
+  public static void main(String[] args) throws SQLException {
+    if (args.length > 0)
+      SeafoodDb.configure(args[0]);
+    
+    DateDayMigration migration = new DateDayMigration();
+    for (Class<?> c : new Class<?>[] {ImportSeafood.class, ExportSeafood.class}) {
+      int converted = migration.migrate(c);
+      System.out.println("DateDayMigration: " + c.getSimpleName() + " migrated (" + 
+          converted + " rows converted)");
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package software.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import controller.ExportSeafood;
+import controller.ImportSeafood;
+import model.Seafood;
+
+/**
+ * @overview
+ *  Migrates the table of {@link ExportSeafood} to record the preserver that an export is
+ *  taken from.
+ *
+ *  <p>The migration adds the (nullable) preserver column and replaces the triggers of the
+ *  table (see {@link ChangeJournal#replaceTriggers(Connection, Class)}), so that the changes
+ *  of the exports carry their preserver. It then sets the preserver of every export that does
+ *  not have one to the preserver its seafood is imported into, if the seafood is imported
+ *  into exactly one preserver; the preserver of the other exports is not known and is left
+ *  unset (see {@link model.stats.StockLedger#NO_PRESERVER}). This is done in one transaction,
+ *  so the changes of the exports are journalled with their new preserver. Finally, it creates
+ *  the indexes of the table (see {@link IndexManager}). Running the migration again is
+ *  harmless.
+ */
+public class ExportPreserverMigration {
+
+  private static final String COL_PRESERVER = SeafoodDb.fkColumn(ExportSeafood.A_Preserver, "id");
+  private static final String COL_SEAFOOD = SeafoodDb.fkColumn("seafood", Seafood.A_id);
+
+  /**
+   * @effects
+   *  migrate the table of {@link ExportSeafood} and return the number of exports whose
+   *  preserver is set
+   *
+   *  <p>throws SQLException if fails to access the data source (then nothing is migrated)
+   */
+  public int migrate() throws SQLException {
+    String exports = SeafoodDb.tableOf(ExportSeafood.class);
+    String imports = SeafoodDb.tableOf(ImportSeafood.class);
+
+    int set = 0;
+    try (Connection con = SeafoodDb.open()) {
+      con.setAutoCommit(false);
+      try (Statement stmt = con.createStatement()) {
+        if (!SeafoodDb.hasColumn(con, ExportSeafood.class, COL_PRESERVER)) {
+          stmt.executeUpdate("alter table " + exports + " add column " + COL_PRESERVER +
+              " integer");
+          ChangeJournal.getInstance().replaceTriggers(con, ExportSeafood.class);
+        }
+
+        if (SeafoodDb.hasTable(con, ImportSeafood.class)) {
+          set = stmt.executeUpdate("update " + exports + " e set " + COL_PRESERVER +
+              " = (select min(i." + COL_PRESERVER + ") from " + imports + " i where i." +
+              COL_SEAFOOD + " = e." + COL_SEAFOOD + ") where e." + COL_PRESERVER +
+              " is null and e." + COL_SEAFOOD + " in (select " + COL_SEAFOOD + " from " +
+              imports + " group by " + COL_SEAFOOD + " having count(distinct " +
+              COL_PRESERVER + ") = 1)");
+        }
+        con.commit();
+      } catch (SQLException e) {
+        con.rollback();
+        throw e;
+      } finally {
+        con.setAutoCommit(true);
+      }
+    }
+
+    new IndexManager().sync(ExportSeafood.class);
+
+    return set;
+  }
+
+  /**
+   * The main method
+   * @effects
+   *  migrate the table of {@link ExportSeafood} of the data source whose JDBC URL is
+   *  <tt>args[0]</tt> (or the one configured in {@link SeafoodDb})
+   */
+  public static void main(String[] args) throws SQLException {
+    if (args.length > 0)
+      SeafoodDb.configure(args[0]);
+
+    int set = new ExportPreserverMigration().migrate();
+    System.out.println("ExportPreserverMigration: " +
+        ExportSeafood.class.getSimpleName() + " migrated (" + set + " preservers set)");
+  }
+}
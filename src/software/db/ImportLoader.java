@@ -0,0 +1,404 @@
+package software.db;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import controller.ImportSeafood;
+import model.Customer;
+import model.Preserver;
+import model.Seafood;
+import model.util.Dates;
+import model.util.Fixed;
+import model.util.IdAllocator;
+import model.util.IdCounter;
+
+/**
+ * @overview
+ *  Loads {@link ImportSeafood} records in bulk from a CSV file, below the object layer.
+ *
+ *  <p>Each line holds the seafood id, customer id, preserver id, quantity, price and date
+ *  (in the form {@value Dates#PATTERN}) of an import; a first line that is not a record
+ *  (e.g. a header) is skipped. The referenced ids are resolved against maps of the stored
+ *  ids that are read once, and the records are inserted in JDBC batches of
+ *  {@value #BATCH_SIZE}, committed every {@value #COMMIT_SIZE} records.
+ *
+ *  <p>A line that cannot be parsed, refers to an unknown object or cannot be inserted is
+ *  reported (see {@link Result#getErrors()}) and skipped; the other lines are still loaded.
+ *
+ *  <p>The transaction rollups, the stock ledger and the customer totals see the loaded
+ *  records by the {@link ChangeJournal}, like any other committed change. Objects that were
+ *  already read by the object layer do not see the loaded records.
+ */
+public class ImportLoader {
+
+  /** the number of records inserted per batch */
+  private static final int BATCH_SIZE = 1000;
+
+  /** the number of records inserted per transaction */
+  private static final int COMMIT_SIZE = 10 * BATCH_SIZE;
+
+  /** the number of values of a line */
+  private static final int NUM_VALUES = 6;
+
+  /**
+   * @overview
+   *  The outcome of a load: the numbers of lines read and records loaded, the per-line
+   *  errors and the time taken.
+   */
+  public static final class Result {
+    private int lines;
+    private int loaded;
+    private final List<String> errors = new ArrayList<>();
+    private long elapsedNanos;
+
+    public int getLines() {
+      return lines;
+    }
+
+    public int getLoaded() {
+      return loaded;
+    }
+
+    /**
+     * @effects
+     *  return the descriptions (<tt>"line n: ..."</tt>) of the lines that were not loaded
+     */
+    public List<String> getErrors() {
+      return Collections.unmodifiableList(errors);
+    }
+
+    /**
+     * @effects return the time taken by the load (in milliseconds)
+     */
+    public long getElapsedMillis() {
+      return elapsedNanos / 1_000_000;
+    }
+
+    /**
+     * @effects return the number of records loaded per second
+     */
+    public double getThroughput() {
+      return (elapsedNanos > 0) ? loaded * 1e9 / elapsedNanos : 0;
+    }
+
+    private void error(int line, String message) {
+      errors.add("line " + line + ": " + message);
+    }
+
+    @Override
+    public String toString() {
+      return "ImportLoader.Result(" + loaded + "/" + lines + " lines loaded, " + errors.size() +
+          " errors, " + getElapsedMillis() + " ms, " + Math.round(getThroughput()) + " records/s)";
+    }
+  }
+
+  /**
+   * @overview a parsed line
+   */
+  private static final class Record {
+    final int line;
+    final int id;
+    final Object seafood;
+    final Object customer;
+    final Object preserver;
+    final long quantity;
+    final long price;
+    final int dateDay;
+
+    Record(int line, int id, Object seafood, Object customer, Object preserver,
+        long quantity, long price, int dateDay) {
+      this.line = line;
+      this.id = id;
+      this.seafood = seafood;
+      this.customer = customer;
+      this.preserver = preserver;
+      this.quantity = quantity;
+      this.price = price;
+      this.dateDay = dateDay;
+    }
+  }
+
+  private final String table = SeafoodDb.tableOf(ImportSeafood.class);
+  private final IdCounter idCounter = IdAllocator.counterFor(ImportSeafood.class);
+
+  // the stored ids (by their text)
+  private Map<String, Object> seafoods;
+  private Map<String, Object> customers;
+  private Map<String, Object> preservers;
+
+  /**
+   * @effects
+   *  load the import records of the CSV file <tt>file</tt> into the data source and
+   *  return the outcome
+   *
+   *  <p>throws IOException if fails to read <tt>file</tt>; SQLException if fails to access
+   *  the data source (the records committed so far stay loaded)
+   */
+  public Result load(String file) throws IOException, SQLException {
+    Result result = new Result();
+    long start = System.nanoTime();
+
+    try (Connection con = SeafoodDb.open();
+        BufferedReader in = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+      seafoods = ids(con, Seafood.class, Seafood.A_id);
+      customers = ids(con, Customer.class, Customer.A_id);
+      preservers = ids(con, Preserver.class, "id");
+      if (!idCounter.isLeased()) {
+        // the counter is not synchronised with the stored ids until the imports are read
+        syncIdCounter(con);
+      }
+
+      con.setAutoCommit(false);
+      try (PreparedStatement insert = con.prepareStatement("insert into " + table + " (" +
+          ImportSeafood.A_Id + ", " +
+          SeafoodDb.fkColumn("seafood", Seafood.A_id) + ", " +
+          SeafoodDb.fkColumn(ImportSeafood.A_Customer, Customer.A_id) + ", " +
+          SeafoodDb.fkColumn(ImportSeafood.A_Preserver, "id") + ", " +
+          ImportSeafood.A_Quantity + ", " + ImportSeafood.A_Price + ", " +
+          ImportSeafood.A_DateDay + ") values (?, ?, ?, ?, ?, ?, ?)")) {
+        List<Record> pending = new ArrayList<>(COMMIT_SIZE);
+        String s;
+        while ((s = in.readLine()) != null) {
+          int line = ++result.lines;
+          if (s.trim().isEmpty())
+            continue;
+
+          Record r = parse(line, s, result);
+          if (r == null)
+            continue;
+
+          add(insert, r);
+          pending.add(r);
+          if (pending.size() == COMMIT_SIZE) {
+            commit(con, insert, pending, result);
+          } else if (pending.size() % BATCH_SIZE == 0) {
+            try {
+              insert.executeBatch();
+            } catch (SQLException e) {
+              retry(con, insert, pending, result);
+            }
+          }
+        }
+
+        commit(con, insert, pending, result);
+      } catch (SQLException e) {
+        con.rollback();
+        throw e;
+      } finally {
+        con.setAutoCommit(true);
+      }
+    } finally {
+      result.elapsedNanos = System.nanoTime() - start;
+    }
+
+    return result;
+  }
+
+  /**
+   * @effects
+   *  parse the line <tt>s</tt> (whose number is <tt>line</tt>) and return its record;
+   *  if it is not a valid record, report it in <tt>result</tt> (unless it is the header)
+   *  and return null
+   */
+  private Record parse(int line, String s, Result result) {
+    List<String> vals = split(s);
+    if (vals.size() != NUM_VALUES) {
+      result.error(line, "expected " + NUM_VALUES + " values but found " + vals.size());
+      return null;
+    }
+
+    long quantity, price;
+    try {
+      quantity = Fixed.of(Double.parseDouble(vals.get(3)));
+      price = Fixed.of(Double.parseDouble(vals.get(4)));
+    } catch (NumberFormatException e) {
+      if (line > 1)
+        result.error(line, "invalid number: " + e.getMessage());
+      // else: the header
+      return null;
+    }
+
+    if (quantity < 0 || price < 0) {
+      result.error(line, "negative quantity or price");
+      return null;
+    }
+
+    int dateDay;
+    try {
+      dateDay = Dates.toEpochDay(vals.get(5));
+    } catch (ParseException e) {
+      result.error(line, "invalid date " + vals.get(5));
+      return null;
+    }
+
+    Object seafood = seafoods.get(vals.get(0));
+    Object customer = customers.get(vals.get(1));
+    Object preserver = preservers.get(vals.get(2));
+    if (seafood == null || customer == null || preserver == null) {
+      result.error(line, "unknown " + ((seafood == null) ? "seafood " + vals.get(0) :
+          (customer == null) ? "customer " + vals.get(1) : "preserver " + vals.get(2)));
+      return null;
+    }
+
+    return new Record(line, idCounter.next(), seafood, customer, preserver, quantity, price, dateDay);
+  }
+
+  /**
+   * @effects
+   *  return the (trimmed) comma-separated values of <tt>s</tt>; a value may be quoted
+   *  (with <tt>""</tt> for a quote)
+   */
+  private static List<String> split(String s) {
+    List<String> vals = new ArrayList<>(NUM_VALUES);
+    StringBuilder val = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (quoted) {
+        if (c != '"') {
+          val.append(c);
+        } else if (i + 1 < s.length() && s.charAt(i + 1) == '"') {
+          val.append(c);
+          i++;
+        } else {
+          quoted = false;
+        }
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == ',') {
+        vals.add(val.toString().trim());
+        val.setLength(0);
+      } else {
+        val.append(c);
+      }
+    }
+    vals.add(val.toString().trim());
+
+    return vals;
+  }
+
+  private static void add(PreparedStatement insert, Record r) throws SQLException {
+    insert.setInt(1, r.id);
+    insert.setObject(2, r.seafood);
+    insert.setObject(3, r.customer);
+    insert.setObject(4, r.preserver);
+    insert.setDouble(5, Fixed.toDouble(r.quantity));
+    insert.setDouble(6, Fixed.toDouble(r.price));
+    insert.setInt(7, r.dateDay);
+    insert.addBatch();
+  }
+
+  /**
+   * @modifies con, pending, result
+   * @effects
+   *  insert the rest of <tt>pending</tt> and commit them; if a batch fails, see
+   *  {@link #retry(Connection, PreparedStatement, List, Result)}. Clear <tt>pending</tt>.
+   */
+  private static void commit(Connection con, PreparedStatement insert, List<Record> pending,
+      Result result) throws SQLException {
+    if (pending.isEmpty())
+      return;
+
+    try {
+      insert.executeBatch();
+      con.commit();
+      result.loaded += pending.size();
+      pending.clear();
+    } catch (SQLException e) {
+      retry(con, insert, pending, result);
+    }
+  }
+
+  /**
+   * @modifies con, pending, result
+   * @effects
+   *  roll back the records of <tt>pending</tt> (after a batch of them failed), insert them
+   *  one at a time, reporting those that fail, and commit the others. Clear <tt>pending</tt>.
+   */
+  private static void retry(Connection con, PreparedStatement insert, List<Record> pending,
+      Result result) throws SQLException {
+    insert.clearBatch();
+    con.rollback();
+
+    // a failed statement does not end the transaction
+    for (Record r : pending) {
+      add(insert, r);
+      try {
+        insert.executeBatch();
+        result.loaded++;
+      } catch (SQLException e) {
+        insert.clearBatch();
+        result.error(r.line, e.getMessage());
+      }
+    }
+    con.commit();
+
+    pending.clear();
+  }
+
+  /**
+   * @effects
+   *  return the ids of the objects of <tt>c</tt> (whose id attribute is <tt>idAttrib</tt>)
+   *  in the data source, keyed by their text
+   */
+  private static Map<String, Object> ids(Connection con, Class<?> c, String idAttrib)
+      throws SQLException {
+    Map<String, Object> ids = new HashMap<>();
+    try (Statement stmt = con.createStatement();
+        ResultSet rs = stmt.executeQuery("select " + idAttrib + " from " + SeafoodDb.tableOf(c))) {
+      while (rs.next()) {
+        Object id = rs.getObject(1);
+        ids.put(id.toString().trim(), id);
+      }
+    }
+
+    return ids;
+  }
+
+  private void syncIdCounter(Connection con) throws SQLException {
+    try (Statement stmt = con.createStatement();
+        ResultSet rs = stmt.executeQuery("select max(" + ImportSeafood.A_Id + ") from " + table)) {
+      if (rs.next())
+        idCounter.update(rs.getInt(1));
+    }
+  }
+
+  /**
+   * The main method
+   * @effects
+   *  load the import records of the CSV file <tt>args[0]</tt> into the data source whose
+   *  JDBC URL is <tt>args[1]</tt> (or the one configured in {@link SeafoodDb}) and print
+   *  the outcome and the errors
+   */
+  public static void main(String[] args) throws IOException, SQLException {
+    if (args.length < 1) {
+      System.err.println("Usage: ImportLoader <file.csv> [<jdbc url>]");
+      return;
+    }
+    if (args.length > 1)
+      SeafoodDb.configure(args[1]);
+
+    // the ids are leased from the same sequence as the software's
+    IdAllocator.bind(new SequenceStore(), SequenceStore.DEFAULT_BLOCK_SIZE);
+
+    Result result = new ImportLoader().load(args[0]);
+    for (String error : result.getErrors()) {
+      System.err.println("ImportLoader: " + error);
+    }
+    System.out.println(result);
+  }
+}
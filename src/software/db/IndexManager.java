@@ -0,0 +1,320 @@
+package software.db;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import model.index.DIndex;
+import model.reports.QueryPlans;
+
+/**
+ * @overview
+ *  Keeps the secondary indexes of the data source in sync with the {@link DIndex}
+ *  declarations of the domain classes.
+ *
+ *  <p>For the table of each domain class, the declared indexes that do not exist are created
+ *  and the indexes named <tt>IX_*</tt> that are no longer declared are dropped (also those
+ *  created by hand, which are taken as managed). An index is identified by its name: an
+ *  index whose columns are changed must be renamed (or dropped by hand) to be recreated.
+ *
+ *  <p>{@link #syncIfChanged(Class...)} (run at start-up) reads the catalogs only when the
+ *  declarations differ from those last synchronised, whose fingerprint is kept in the table
+ *  {@value #SYNC_TABLE}; an index created or dropped by hand since then is only synchronised
+ *  by {@link #sync(Class...)} (see {@link #main(String[])}).
+ */
+public class IndexManager {
+
+  /** the prefix of the names of the managed indexes */
+  public static final String PREFIX = "IX_";
+
+  /** the table that keeps the fingerprint of the declarations last synchronised */
+  public static final String SYNC_TABLE = "seafoodman.IndexSync";
+
+  /** Derby SQL state: table/view already exists */
+  private static final String SQL_STATE_EXISTS = "X0Y32";
+
+  /**
+   * @effects
+   *  synchronise the indexes of the tables of <tt>classes</tt> with their declarations;
+   *  return the descriptions of the indexes created and dropped
+   *
+   *  <p>throws SQLException if fails to access the data source
+   */
+  public List<String> sync(Class<?>... classes) throws SQLException {
+    List<String> changes = new ArrayList<>();
+    try (Connection con = SeafoodDb.open()) {
+      for (Class<?> c : classes) {
+        sync(con, c, changes);
+      }
+    }
+
+    return changes;
+  }
+
+  /**
+   * @effects
+   *  if the index declarations of <tt>classes</tt> differ from those last synchronised by
+   *  this method, synchronise the indexes of their tables (see {@link #sync(Class...)}) and,
+   *  if all their tables exist, record the declarations as synchronised; return the
+   *  descriptions of the indexes created and dropped (empty if the declarations are the same)
+   *
+   *  <p>throws SQLException if fails to access the data source
+   */
+  public List<String> syncIfChanged(Class<?>... classes) throws SQLException {
+    StringBuilder declarations = new StringBuilder();
+    for (Class<?> c : classes) {
+      declarations.append(c.getName()).append(declaredIndexes(c).values());
+    }
+    String fingerprint = Integer.toHexString(declarations.toString().hashCode());
+
+    List<String> changes = new ArrayList<>();
+    try (Connection con = SeafoodDb.open()) {
+      if (fingerprint.equals(syncedFingerprint(con)))
+        return changes;
+
+      boolean complete = true;
+      for (Class<?> c : classes) {
+        complete &= sync(con, c, changes);
+      }
+
+      if (complete) {
+        try (Statement stmt = con.createStatement()) {
+          stmt.executeUpdate("delete from " + SYNC_TABLE);
+          stmt.executeUpdate("insert into " + SYNC_TABLE + " values ('" + fingerprint + "')");
+        }
+      }
+    }
+
+    return changes;
+  }
+
+  /**
+   * @effects
+   *  return the fingerprint of the declarations last synchronised by
+   *  {@link #syncIfChanged(Class...)}, or null if there is none (then create its table if
+   *  it does not exist)
+   */
+  private static String syncedFingerprint(Connection con) throws SQLException {
+    try (Statement stmt = con.createStatement()) {
+      try (ResultSet rs = stmt.executeQuery("select fingerprint from " + SYNC_TABLE)) {
+        return rs.next() ? rs.getString(1) : null;
+      } catch (SQLException e) {
+        if (!SeafoodDb.isMissingTable(e))
+          throw e;
+      }
+
+      try {
+        stmt.executeUpdate("create table " + SYNC_TABLE + " (fingerprint varchar(16) not null)");
+      } catch (SQLException e) {
+        if (!SQL_STATE_EXISTS.equals(e.getSQLState()))
+          throw e;
+      }
+      return null;
+    }
+  }
+
+  /**
+   * @effects
+   *  synchronise the indexes of the table of <tt>c</tt>, adding the descriptions of the
+   *  changes to <tt>changes</tt>; return false iff the table does not exist (then nothing
+   *  is created)
+   */
+  private boolean sync(Connection con, Class<?> c, List<String> changes) throws SQLException {
+    Map<String, String> declared = declaredIndexes(c);
+    Map<String, String> existing = existingIndexes(con, c);
+    if (declared.isEmpty() && existing.isEmpty())
+      return true;
+
+    boolean complete = true;
+
+    String table = SeafoodDb.tableOf(c);
+    try (Statement stmt = con.createStatement()) {
+      for (Map.Entry<String, String> ix : declared.entrySet()) {
+        if (!existing.containsKey(ix.getKey().toUpperCase())) {
+          try {
+            stmt.executeUpdate(ix.getValue());
+            changes.add("created " + ix.getKey() + " on " + table);
+          } catch (SQLException e) {
+            if (!SeafoodDb.isMissingTable(e))
+              throw e;
+            // the table is not yet created by the object layer
+            complete = false;
+          }
+        }
+      }
+
+      Set<String> names = declaredNames(declared);
+      for (Map.Entry<String, String> ix : existing.entrySet()) {
+        if (!names.contains(ix.getKey())) {
+          stmt.executeUpdate("drop index " + ix.getValue());
+          changes.add("dropped " + ix.getKey() + " on " + table);
+        }
+      }
+    }
+
+    return complete;
+  }
+
+  /**
+   * @effects
+   *  return the DDL statements of the indexes declared on the attributes of <tt>c</tt>
+   *  (not those of its superclasses, which are stored in their own tables), by name
+   */
+  static Map<String, String> declaredIndexes(Class<?> c) {
+    Map<String, String> indexes = new LinkedHashMap<>();
+    for (Field f : c.getDeclaredFields()) {
+      DIndex ix = f.getAnnotation(DIndex.class);
+      DAttr attr = f.getAnnotation(DAttr.class);
+      if (ix == null || attr == null)
+        continue;
+
+      StringBuilder cols = new StringBuilder(columnOf(f, attr));
+      for (String with : ix.with()) {
+        Field wf = fieldOf(c, with);
+        if (wf == null)
+          throw new IllegalArgumentException("IndexManager: " + c.getSimpleName() +
+              " has no attribute " + with + " (see @DIndex of " + attr.name() + ")");
+        cols.append(", ").append(columnOf(wf, wf.getAnnotation(DAttr.class)));
+      }
+
+      String name = PREFIX + c.getSimpleName() + "_" + attr.name();
+      indexes.put(name, "create " + (ix.unique() ? "unique " : "") + "index " +
+          qualified(c, name) + " on " + SeafoodDb.tableOf(c) + " (" + cols + ")");
+    }
+
+    return indexes;
+  }
+
+  /**
+   * @effects
+   *  return the qualified names of the managed indexes of the table of <tt>c</tt>, by their
+   *  (upper-case) names
+   */
+  private static Map<String, String> existingIndexes(Connection con, Class<?> c)
+      throws SQLException {
+    Map<String, String> names = new LinkedHashMap<>();
+    try (PreparedStatement stmt = con.prepareStatement(
+        "select g.conglomeratename, gs.schemaname from sys.sysconglomerates g " +
+        "join sys.sysschemas gs on g.schemaid = gs.schemaid " +
+        "join sys.systables t on g.tableid = t.tableid " +
+        "join sys.sysschemas s on t.schemaid = s.schemaid " +
+        "where g.isindex and s.schemaname = ? and t.tablename = ?")) {
+      String schema = schemaOf(c);
+      stmt.setString(1, schema.isEmpty() ? con.getMetaData().getUserName().toUpperCase() :
+          schema.toUpperCase());
+      stmt.setString(2, c.getSimpleName().toUpperCase());
+      try (ResultSet rs = stmt.executeQuery()) {
+        while (rs.next()) {
+          String name = rs.getString(1);
+          if (name.startsWith(PREFIX))
+            names.put(name, rs.getString(2) + "." + name);
+        }
+      }
+    }
+
+    return names;
+  }
+
+  private static Set<String> declaredNames(Map<String, String> declared) {
+    Set<String> names = new HashSet<>();
+    for (String name : declared.keySet()) {
+      names.add(name.toUpperCase());
+    }
+    return names;
+  }
+
+  /**
+   * @effects
+   *  return the column of the domain attribute <tt>attr</tt> (of the field <tt>f</tt>)
+   */
+  private static String columnOf(Field f, DAttr attr) {
+    if (attr.type() != Type.Domain)
+      return attr.name();
+
+    Field id = idOf(f.getType());
+    if (id == null)
+      throw new IllegalArgumentException("IndexManager: " + f.getType().getSimpleName() +
+          " has no id attribute (see @DIndex of " + attr.name() + ")");
+    return SeafoodDb.fkColumn(attr.name(), id.getAnnotation(DAttr.class).name());
+  }
+
+  /**
+   * @effects
+   *  return the field of the id attribute of <tt>c</tt> (or of its superclasses), or null
+   */
+  private static Field idOf(Class<?> c) {
+    for (Class<?> k = c; k != null; k = k.getSuperclass()) {
+      for (Field f : k.getDeclaredFields()) {
+        DAttr attr = f.getAnnotation(DAttr.class);
+        if (attr != null && attr.id())
+          return f;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @effects
+   *  return the field of the domain attribute <tt>name</tt> of <tt>c</tt> (or of its
+   *  superclasses), or null
+   */
+  private static Field fieldOf(Class<?> c, String name) {
+    for (Class<?> k = c; k != null; k = k.getSuperclass()) {
+      for (Field f : k.getDeclaredFields()) {
+        DAttr attr = f.getAnnotation(DAttr.class);
+        if (attr != null && attr.name().equals(name))
+          return f;
+      }
+    }
+    return null;
+  }
+
+  private static String schemaOf(Class<?> c) {
+    String table = SeafoodDb.tableOf(c);
+    int dot = table.indexOf('.');
+    return (dot > 0) ? table.substring(0, dot) : "";
+  }
+
+  private static String qualified(Class<?> c, String name) {
+    String schema = schemaOf(c);
+    return schema.isEmpty() ? name : schema + "." + name;
+  }
+
+  /**
+   * The main method
+   * @effects
+   *  synchronise the indexes of the domain classes named by <tt>args[1..]</tt> in the data
+   *  source whose JDBC URL is <tt>args[0]</tt>, then print the changes and the report
+   *  queries that still scan a table (see {@link QueryPlans#scanning()})
+   */
+  public static void main(String[] args) throws SQLException, ClassNotFoundException {
+    if (args.length < 2) {
+      System.err.println("Usage: IndexManager <jdbc url> <domain class>...");
+      return;
+    }
+    SeafoodDb.configure(args[0]);
+
+    Class<?>[] classes = new Class<?>[args.length - 1];
+    for (int i = 1; i < args.length; i++) {
+      classes[i - 1] = Class.forName(args[i]);
+    }
+
+    for (String change : new IndexManager().sync(classes)) {
+      System.out.println("IndexManager: " + change);
+    }
+    for (String scan : QueryPlans.scanning()) {
+      System.out.println("IndexManager: " + scan);
+    }
+  }
+}
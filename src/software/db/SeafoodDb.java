@@ -0,0 +1,130 @@
+package software.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import domainapp.basics.model.meta.DClass;
+
+/**
+ * @overview 
+ *  Provides direct JDBC access to the Derby data source of the software. This is used 
+ *  by the data services that work below the object layer (e.g. id sequences, indexes, 
+ *  bulk loading). 
+ *  
+ *  <p>The data source URL is read from the system property {@value #PROP_URL} or set 
+ *  by {@link #configure(String)}. If it is not set, the data services are disabled and 
+ *  the software uses the object layer only.
+ */
+public final class SeafoodDb {
+  
+  /** the system property that holds the JDBC URL of the data source */
+  public static final String PROP_URL = "seafoodman.db.url";
+  
+  /** Derby SQL state: table/view does not exist */
+  private static final String SQL_STATE_NO_TABLE = "42X05";
+  
+  private static volatile String url = System.getProperty(PROP_URL);
+  
+  private SeafoodDb() {
+    // no instances
+  }
+  
+  /**
+   * @modifies this
+   * @effects 
+   *  set the JDBC URL of the data source to <tt>url</tt>
+   */
+  public static void configure(String url) {
+    SeafoodDb.url = url;
+  }
+  
+  /**
+   * @effects 
+   *  if the JDBC URL of the data source is set return true, else return false
+   */
+  public static boolean isConfigured() {
+    return url != null;
+  }
+  
+  /**
+   * @requires {@link #isConfigured()}
+   * @effects 
+   *  open and return a new connection to the data source
+   */
+  public static Connection open() throws SQLException {
+    if (url == null)
+      throw new SQLException("SeafoodDb: data source URL is not configured (" + PROP_URL + ")");
+    
+    return DriverManager.getConnection(url);
+  }
+  
+  /**
+   * @effects 
+   *  if <tt>e</tt> is raised because a table does not exist (e.g. the object layer has 
+   *  not yet created it) return true, else return false
+   */
+  public static boolean isMissingTable(SQLException e) {
+    return SQL_STATE_NO_TABLE.equals(e.getSQLState());
+  }
+  
+  /**
+   * @effects 
+   *  if the table of the domain class <tt>c</tt> exists return true, else return false
+   */
+  public static boolean hasTable(Connection con, Class<?> c) throws SQLException {
+    DClass dc = c.getAnnotation(DClass.class);
+    String schema = (dc != null && dc.schema().length() > 0) ? dc.schema().toUpperCase() : null;
+    String name = c.getSimpleName().toUpperCase();
+    try (ResultSet rs = con.getMetaData().getTables(null, schema, name, null)) {
+      while (rs.next()) {
+        if (name.equals(rs.getString("TABLE_NAME")))
+          return true;
+      }
+    }
+    return false;
+  }
+  
+  /**
+   * @effects 
+   *  if the table of the domain class <tt>c</tt> has the column <tt>column</tt> return true, 
+   *  else (also if the table does not exist) return false
+   */
+  public static boolean hasColumn(Connection con, Class<?> c, String column) throws SQLException {
+    // unquoted identifiers are stored in upper case
+    DClass dc = c.getAnnotation(DClass.class);
+    String schema = (dc != null && dc.schema().length() > 0) ? dc.schema().toUpperCase() : null;
+    String name = column.toUpperCase();
+    try (ResultSet rs = con.getMetaData().getColumns(null, schema, 
+        c.getSimpleName().toUpperCase(), name)) {
+      while (rs.next()) {
+        // '_' is a wildcard in the pattern
+        if (name.equals(rs.getString("COLUMN_NAME")))
+          return true;
+      }
+    }
+    return false;
+  }
+  
+  /**
+   * @effects 
+   *  return the name of the column that stores the domain attribute <tt>attrib</tt>, 
+   *  which references the associated object by its id attribute <tt>idAttrib</tt>
+   */
+  public static String fkColumn(String attrib, String idAttrib) {
+    return attrib + "_" + idAttrib;
+  }
+  
+  /**
+   * @effects 
+   *  return the qualified name of the table that stores the objects of the domain class <tt>c</tt>
+   */
+  public static String tableOf(Class<?> c) {
+    DClass dc = c.getAnnotation(DClass.class);
+    if (dc != null && dc.schema().length() > 0)
+      return dc.schema() + "." + c.getSimpleName();
+    else
+      return c.getSimpleName();
+  }
+}
@@ -0,0 +1,181 @@
+package software.db;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import domainapp.basics.exceptions.ConstraintViolationException;
+import domainapp.basics.model.meta.DAttr;
+import model.util.IdBlockSource;
+import model.util.IdCounter;
+
+/**
+ * @overview 
+ *  An {@link IdBlockSource} that persists the high-water mark of each id sequence 
+ *  in the table {@value #TABLE} (one row per domain class).
+ *  
+ *  <p>At start-up each id counter reads its own row instead of synchronising with the 
+ *  maximum id of its class; after that, the table is only written when a counter has 
+ *  used up its block, and when the unused ids of a block are released at shut-down. 
+ *  The row of a sequence is created (once) from the maximum id stored in the table of 
+ *  its domain class.
+ */
+public class SequenceStore implements IdBlockSource {
+  
+  public static final String TABLE = "seafoodman.IdSequence";
+  
+  /** the default number of ids leased at a time */
+  public static final int DEFAULT_BLOCK_SIZE = 1000;
+  
+  /** Derby SQL state: table/view already exists */
+  private static final String SQL_STATE_EXISTS = "X0Y32";
+  
+  /** SQL state: duplicate key */
+  private static final String SQL_STATE_DUPLICATE = "23505";
+  
+  /**
+   * @effects 
+   *  create the sequence table if it does not exist
+   */
+  public SequenceStore() throws SQLException {
+    try (Connection con = SeafoodDb.open(); Statement stmt = con.createStatement()) {
+      stmt.executeUpdate("create table " + TABLE + 
+          " (name varchar(64) not null primary key, hwm integer not null)");
+    } catch (SQLException e) {
+      if (!SQL_STATE_EXISTS.equals(e.getSQLState()))
+        throw e;
+    }
+  }
+  
+  @Override
+  public int highWaterMark(String name, Class<?> c, String prefix) {
+    try (Connection con = SeafoodDb.open()) {
+      Integer hwm = readHwm(con, name);
+      if (hwm != null || c == null)
+        return (hwm != null) ? hwm : 0;
+      
+      // a new sequence: start it after the ids stored
+      int maxId = maxStoredId(con, c, prefix);
+      try (PreparedStatement stmt = con.prepareStatement(
+          "insert into " + TABLE + " (hwm, name) values (?, ?)")) {
+        stmt.setInt(1, maxId);
+        stmt.setString(2, name);
+        stmt.executeUpdate();
+        return maxId;
+      } catch (SQLException e) {
+        // created meanwhile by another program
+        if (!SQL_STATE_DUPLICATE.equals(e.getSQLState()))
+          throw e;
+        return readHwm(con, name);
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException("SequenceStore.highWaterMark: failed to read sequence " + name, e);
+    }
+  }
+  
+  @Override
+  public synchronized int lease(String name, int atLeast, int blockSize) {
+    try (Connection con = SeafoodDb.open()) {
+      con.setAutoCommit(false);
+      try {
+        Integer hwm = readHwm(con, name);
+        int newHwm = Math.max((hwm != null) ? hwm : 0, atLeast - 1) + blockSize;
+        
+        String sql = (hwm != null) ? 
+            "update " + TABLE + " set hwm = ? where name = ?" : 
+            "insert into " + TABLE + " (hwm, name) values (?, ?)";
+        try (PreparedStatement stmt = con.prepareStatement(sql)) {
+          stmt.setInt(1, newHwm);
+          stmt.setString(2, name);
+          stmt.executeUpdate();
+        }
+        
+        con.commit();
+        return newHwm;
+      } catch (SQLException e) {
+        con.rollback();
+        throw e;
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException("SequenceStore.lease: failed to lease a block of sequence " + name, e);
+    }
+  }
+  
+  @Override
+  public synchronized void release(String name, int leasedHwm, int used) {
+    try (Connection con = SeafoodDb.open(); PreparedStatement stmt = con.prepareStatement(
+        "update " + TABLE + " set hwm = ? where name = ? and hwm = ?")) {
+      stmt.setInt(1, used);
+      stmt.setString(2, name);
+      stmt.setInt(3, leasedHwm);
+      stmt.executeUpdate();
+    } catch (SQLException e) {
+      throw new IllegalStateException("SequenceStore.release: failed to release sequence " + name, e);
+    }
+  }
+  
+  /**
+   * @effects 
+   *  return the maximum id (the number after <tt>prefix</tt>, if the id is a code) that is 
+   *  stored in the table of <tt>c</tt>, or 0 if there is none (or no table)
+   */
+  private int maxStoredId(Connection con, Class<?> c, String prefix) throws SQLException {
+    Field id = idOf(c);
+    if (id == null || !SeafoodDb.hasTable(con, id.getDeclaringClass()))
+      return 0;
+    
+    DAttr attr = id.getAnnotation(DAttr.class);
+    String table = SeafoodDb.tableOf(id.getDeclaringClass());
+    try (Statement stmt = con.createStatement()) {
+      if (attr.type() == DAttr.Type.Integer) {
+        try (ResultSet rs = stmt.executeQuery("select max(" + attr.name() + ") from " + table)) {
+          return rs.next() ? rs.getInt(1) : 0;
+        }
+      }
+      
+      // codes are not ordered by their numbers
+      int maxId = 0;
+      try (ResultSet rs = stmt.executeQuery("select " + attr.name() + " from " + table)) {
+        while (rs.next()) {
+          String code = rs.getString(1);
+          if (code == null)
+            continue;
+          try {
+            maxId = Math.max(maxId, IdCounter.parseCode(prefix, code));
+          } catch (ConstraintViolationException e) {
+            // not an id of this sequence
+          }
+        }
+      }
+      return maxId;
+    }
+  }
+  
+  /**
+   * @effects
+   *  return the field of the id attribute of <tt>c</tt> (or of its superclasses), or null
+   */
+  private static Field idOf(Class<?> c) {
+    for (Class<?> k = c; k != null; k = k.getSuperclass()) {
+      for (Field f : k.getDeclaredFields()) {
+        DAttr attr = f.getAnnotation(DAttr.class);
+        if (attr != null && attr.id())
+          return f;
+      }
+    }
+    return null;
+  }
+  
+  private Integer readHwm(Connection con, String name) throws SQLException {
+    try (PreparedStatement stmt = con.prepareStatement(
+        "select hwm from " + TABLE + " where name = ?")) {
+      stmt.setString(1, name);
+      try (ResultSet rs = stmt.executeQuery()) {
+        return rs.next() ? rs.getInt(1) : null;
+      }
+    }
+  }
+}
@@ -0,0 +1,378 @@
+package software.db;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import controller.ExportSeafood;
+import model.Customer;
+import model.OrderRow;
+import model.OrderTable;
+import model.Seafood;
+
+/**
+ * @overview
+ *  Writes new {@link ExportSeafood}s and {@link OrderRow}s to the data source behind their
+ *  callers, in group commits.
+ *
+ *  <p>A submitted object is copied (as it is when it is submitted) into a bounded queue, and
+ *  a writer thread inserts the queued objects in JDBC batches, committing a group when it has
+ *  {@link #getGroupSize()} objects or when its first object has waited
+ *  {@link #getMaxDelayMillis()} milliseconds. The writes are thus acknowledged by one commit
+ *  (and one log flush) per group rather than per object. A caller that must know that its
+ *  object is durable waits on the future returned by <tt>submit</tt>, which completes when
+ *  the group is committed (or exceptionally if the object could not be written). Submitting
+ *  blocks while the queue is full.
+ *
+ *  <p>The stored totals of the table and the bill of an order row are updated by the data
+ *  source (see {@link BillTotalsMigration}).
+ *
+ *  <p>The buffer is for the code that creates the transactions itself (e.g. a point of sale):
+ *  the objects created through the object forms are still written by the object layer and
+ *  must not be submitted here.
+ */
+public final class WriteBehindBuffer implements Closeable {
+
+  /**
+   * the defaults: the queue capacity, the group size and the maximum delay of a write (none:
+   * a group is what is queued while the previous group is committed, so that a caller waiting
+   * for its object is not delayed)
+   */
+  public static final int DEFAULT_CAPACITY = 10000;
+  public static final int DEFAULT_GROUP_SIZE = 500;
+  public static final long DEFAULT_MAX_DELAY_MILLIS = 0;
+
+  /** how often the idle writer checks whether this is closed */
+  private static final long IDLE_MILLIS = 100;
+
+  private static final String EXPORT_SQL = "insert into " + SeafoodDb.tableOf(ExportSeafood.class) +
+      " (" + ExportSeafood.A_Id + ", " +
+      SeafoodDb.fkColumn("seafood", Seafood.A_id) + ", " +
+      SeafoodDb.fkColumn(ExportSeafood.A_Customer, Customer.A_id) + ", " +
+      SeafoodDb.fkColumn(ExportSeafood.A_Preserver, "id") + ", " +
+      ExportSeafood.A_Quantity + ", " + ExportSeafood.A_Price + ", " +
+      ExportSeafood.A_DateDay + ") values (?, ?, ?, ?, ?, ?, ?)";
+
+  private static final String ROW_SQL = "insert into " + SeafoodDb.tableOf(OrderRow.class) +
+      " (" + OrderRow.A_id + ", " +
+      SeafoodDb.fkColumn(OrderRow.A_seafood, Seafood.A_id) + ", " +
+      OrderRow.A_pricePerKilo + ", " + OrderRow.A_number + ", " +
+      SeafoodDb.fkColumn("table", "id") + ") values (?, ?, ?, ?, ?)";
+
+  /**
+   * @overview a queued write: the values of the inserted object
+   */
+  private static final class Entry {
+    final boolean export;
+    final Object[] values;
+    final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    Entry(boolean export, Object[] values) {
+      this.export = export;
+      this.values = values;
+    }
+  }
+
+  private final BlockingQueue<Entry> queue;
+  private final int groupSize;
+  private final long maxDelayMillis;
+  private final Thread writer;
+
+  private volatile boolean closed;
+
+  // submitters queue under the read lock, close() sets closed under the write lock, so that
+  // no object is queued once the writer may have stopped
+  private final ReadWriteLock closing = new ReentrantReadWriteLock();
+
+  // the number of objects written and of groups committed
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong groups = new AtomicLong();
+
+  /**
+   * @effects
+   *  initialise this with the default capacity, group size and delay and start its writer
+   */
+  public WriteBehindBuffer() {
+    this(DEFAULT_CAPACITY, DEFAULT_GROUP_SIZE, DEFAULT_MAX_DELAY_MILLIS);
+  }
+
+  /**
+   * @requires capacity > 0 /\ groupSize > 0 /\ maxDelayMillis >= 0
+   * @effects
+   *  initialise this to queue up to <tt>capacity</tt> objects and commit them in groups of
+   *  up to <tt>groupSize</tt>, each within <tt>maxDelayMillis</tt> of its first object,
+   *  and start its writer
+   */
+  public WriteBehindBuffer(int capacity, int groupSize, long maxDelayMillis) {
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.groupSize = groupSize;
+    this.maxDelayMillis = maxDelayMillis;
+
+    writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        write();
+      }
+    }, "write-behind");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * @requires e is a new export (not yet stored)
+   * @effects
+   *  queue <tt>e</tt> to be inserted and return the future that completes when it is committed
+   *
+   *  <p>throws IllegalStateException if this is closed
+   */
+  public CompletableFuture<Void> submit(ExportSeafood e) throws IllegalStateException {
+    return enqueue(new Entry(true, new Object[] {
+        e.getId(), e.getSeafood().getId(), e.getCustomer().getId(), e.getPreserver().getId(),
+        e.getQuantity(), e.getPrice(), e.getDateDay() }));
+  }
+
+  /**
+   * @requires r is a new order row (not yet stored)
+   * @effects
+   *  queue <tt>r</tt> to be inserted and return the future that completes when it is
+   *  committed
+   *
+   *  <p>throws IllegalStateException if this is closed
+   */
+  public CompletableFuture<Void> submit(OrderRow r) throws IllegalStateException {
+    OrderTable table = r.getTable();
+    return enqueue(new Entry(false, new Object[] {
+        r.getId(), r.getSeafood().getId(), r.getPricePerKilo(), r.getNumberInKilo(),
+        (table != null) ? table.getId() : null }));
+  }
+
+  public int getGroupSize() {
+    return groupSize;
+  }
+
+  public long getMaxDelayMillis() {
+    return maxDelayMillis;
+  }
+
+  /**
+   * @effects return the number of objects written
+   */
+  public long getWritten() {
+    return written.get();
+  }
+
+  /**
+   * @effects return the number of groups committed
+   */
+  public long getGroups() {
+    return groups.get();
+  }
+
+  /**
+   * @modifies this
+   * @effects
+   *  stop accepting objects (after the blocked submitters have queued theirs), write out
+   *  the queued ones and stop the writer
+   */
+  @Override
+  public void close() {
+    closing.writeLock().lock();
+    try {
+      closed = true;
+    } finally {
+      closing.writeLock().unlock();
+    }
+
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private CompletableFuture<Void> enqueue(Entry e) throws IllegalStateException {
+    closing.readLock().lock();
+    try {
+      if (closed)
+        throw new IllegalStateException("WriteBehindBuffer: closed");
+
+      queue.put(e);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("WriteBehindBuffer: interrupted while queueing", ex);
+    } finally {
+      closing.readLock().unlock();
+    }
+
+    return e.done;
+  }
+
+  /**
+   * @effects
+   *  (on the writer thread) until this is closed and its queue is empty, take the next
+   *  group from the queue and write it
+   */
+  private void write() {
+    Connection con = null;
+    List<Entry> group = new ArrayList<>(groupSize);
+
+    while (!(closed && queue.isEmpty())) {
+      try {
+        take(group);
+      } catch (InterruptedException e) {
+        // the writer is stopped by close(), not by interrupts: write out what is taken
+      }
+      if (group.isEmpty())
+        continue;
+
+      try {
+        if (con == null) {
+          con = SeafoodDb.open();
+          con.setAutoCommit(false);
+        }
+        commit(con, group);
+      } catch (Throwable e) {
+        // whatever fails the group, the writer goes on with a new connection
+        fail(group, e);
+        con = close(con);
+      }
+      group.clear();
+    }
+
+    close(con);
+  }
+
+  /**
+   * @modifies group
+   * @effects
+   *  wait (up to {@value #IDLE_MILLIS} milliseconds) for the next object and add it and the
+   *  objects queued after it to <tt>group</tt>, until <tt>group</tt> is full or
+   *  {@link #maxDelayMillis} have passed
+   */
+  private void take(List<Entry> group) throws InterruptedException {
+    Entry first = queue.poll(IDLE_MILLIS, TimeUnit.MILLISECONDS);
+    if (first == null)
+      return;
+    group.add(first);
+
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+    while (group.size() < groupSize) {
+      if (queue.drainTo(group, groupSize - group.size()) > 0)
+        continue;
+
+      long wait = deadline - System.nanoTime();
+      if (wait <= 0)
+        break;
+      Entry e = queue.poll(wait, TimeUnit.NANOSECONDS);
+      if (e == null)
+        break;
+      group.add(e);
+    }
+  }
+
+  /**
+   * @effects
+   *  insert the objects of <tt>group</tt> in one transaction and complete their futures;
+   *  if the group fails, roll it back and write its objects one at a time, failing the
+   *  futures of those that cannot be written
+   */
+  private void commit(Connection con, List<Entry> group) throws SQLException {
+    try (PreparedStatement exports = con.prepareStatement(EXPORT_SQL);
+        PreparedStatement rows = con.prepareStatement(ROW_SQL)) {
+      try {
+        add(group, exports, rows);
+        exports.executeBatch();
+        rows.executeBatch();
+        con.commit();
+      } catch (SQLException e) {
+        exports.clearBatch();
+        rows.clearBatch();
+        con.rollback();
+
+        // find the failing objects (a failed statement does not end the transaction)
+        for (Entry entry : group) {
+          try {
+            add(Collections.singletonList(entry), exports, rows);
+            exports.executeBatch();
+            rows.executeBatch();
+            con.commit();
+          } catch (SQLException ex) {
+            exports.clearBatch();
+            rows.clearBatch();
+            con.rollback();
+            entry.done.completeExceptionally(ex);
+          }
+        }
+      }
+    }
+
+    groups.incrementAndGet();
+    for (Entry entry : group) {
+      // counted before it is acknowledged (only the writer completes the futures)
+      if (!entry.done.isDone()) {
+        written.incrementAndGet();
+        entry.done.complete(null);
+      }
+    }
+  }
+
+  /**
+   * @effects
+   *  add the inserts of the objects of <tt>group</tt> to <tt>exports</tt> and <tt>rows</tt>
+   */
+  private static void add(List<Entry> group, PreparedStatement exports, PreparedStatement rows)
+      throws SQLException {
+    for (Entry e : group) {
+      PreparedStatement stmt = e.export ? exports : rows;
+      for (int i = 0; i < e.values.length; i++) {
+        if (e.values[i] != null)
+          stmt.setObject(i + 1, e.values[i]);
+        else
+          // only the table of a row is optional
+          stmt.setNull(i + 1, Types.VARCHAR);
+      }
+      stmt.addBatch();
+    }
+  }
+
+  /**
+   * @effects complete the futures of the objects of <tt>group</tt> (not yet completed) with <tt>cause</tt>
+   */
+  private static void fail(List<Entry> group, Throwable cause) {
+    for (Entry e : group) {
+      e.done.completeExceptionally(cause);
+    }
+  }
+
+  /**
+   * @effects roll back the transaction of <tt>con</tt> (if any), close it and return null
+   */
+  private static Connection close(Connection con) {
+    if (con != null) {
+      try {
+        // an active transaction would keep the connection from closing
+        con.rollback();
+      } catch (SQLException e) {
+        // ignore
+      }
+      try {
+        con.close();
+      } catch (SQLException e) {
+        // ignore
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,101 @@
+package controller;
+
+import domainapp.basics.util.cache.StateHistory;
+
+/**
+ * @overview
+ *  A measurement of the heap taken by the transactions that are loaded: creates import and
+ *  export transactions as they are read from the data source (by their data source
+ *  constructors) and prints the bytes retained per row. For comparison, it also prints them
+ *  with a {@link StateHistory} per row holding the total, as each row had before the cached
+ *  values were kept in fields. It checks that the totals of the loaded rows are computed.
+ *
+ *  <p>Run with <tt>java controller.LoadMemoryBenchmark [rows]</tt> (with a heap large enough
+ *  for the rows, e.g. <tt>-Xmx2g</tt>); it exits with status 1 if a check fails.
+ */
+public class LoadMemoryBenchmark {
+
+  public static void main(String[] args) {
+    int count = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+
+    boolean ok = true;
+    long base = usedBytes();
+
+    ImportSeafood[] imports = new ImportSeafood[count];
+    for (int i = 0; i < count; i++) {
+      imports[i] = new ImportSeafood(i + 1, null, null, null, quantity(i), price(i), day(i));
+    }
+    long used = usedBytes();
+    print("ImportSeafood", count, used - base);
+    ok &= checkTotals(imports);
+
+    ExportSeafood[] exports = new ExportSeafood[count];
+    for (int i = 0; i < count; i++) {
+      exports[i] = new ExportSeafood(i + 1, null, null, null, quantity(i), price(i), day(i));
+    }
+    base = used;
+    used = usedBytes();
+    print("ExportSeafood", count, used - base);
+
+    // the state histories that the rows had
+    Object[] histories = new Object[count];
+    for (int i = 0; i < count; i++) {
+      StateHistory<String, Object> h = new StateHistory<>();
+      h.put(ImportSeafood.A_Total, imports[i].getTotal());
+      histories[i] = h;
+    }
+    base = used;
+    used = usedBytes();
+    print("StateHistory (before)", count, used - base);
+
+    System.out.println("LoadMemoryBenchmark: " + (ok ? "passed" : "FAILED") + " (" +
+        (imports.length + exports.length + histories.length) + ")");
+    if (!ok)
+      System.exit(1);
+  }
+
+  private static Double quantity(int i) {
+    return (i % 1000) / 10.0;
+  }
+
+  private static Double price(int i) {
+    return (i % 97) * 1.5;
+  }
+
+  private static Integer day(int i) {
+    return 16436 + i % 3653;
+  }
+
+  /**
+   * @effects
+   *  return true iff each of <tt>imports</tt> has the total of its quantity and price
+   */
+  private static boolean checkTotals(ImportSeafood[] imports) {
+    for (ImportSeafood imp : imports) {
+      double expected = Math.round(imp.getQuantity() * imp.getPrice() * 1000) / 1000.0;
+      if (imp.getTotal() == null || imp.getTotal() != expected) {
+        System.out.println("  " + imp.getId() + ": total " + imp.getTotal() + ", expected " +
+            expected);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void print(String name, int count, long bytes) {
+    System.out.println("  " + name + ": " + (bytes / count) + " bytes per row (" +
+        (bytes >> 20) + " MB for " + count + " rows)");
+  }
+
+  /**
+   * @effects
+   *  return the bytes used in the heap, after a garbage collection
+   */
+  private static long usedBytes() {
+    Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }
+}
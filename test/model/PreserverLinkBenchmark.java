@@ -0,0 +1,126 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import controller.ImportSeafood;
+
+/**
+ * @overview
+ *  A benchmark of the links of a {@link Preserver} to its imports: links many imports to a
+ *  preserver (one by one, as the object form does, and all at once, as a load does), looks
+ *  each of them up and unlinks them, and compares the time with the same operations on an
+ *  <tt>ArrayList</tt>, which kept the links before. It checks that the link count follows
+ *  the links, also when an import is linked twice.
+ *
+ *  <p>Run with <tt>java model.PreserverLinkBenchmark [links]</tt>; it exits with status 1 if
+ *  a check fails.
+ */
+public class PreserverLinkBenchmark {
+
+  public static void main(String[] args) {
+    int count = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+
+    List<ImportSeafood> imports = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      imports.add(new ImportSeafood(i + 1, null, null, null, 1.0, 1.0, 16436));
+    }
+
+    boolean ok = true;
+    for (int r = 0; r < 3; r++) {
+      ok &= links(imports, r == 2);
+    }
+
+    System.out.println("PreserverLinkBenchmark: " + (ok ? "passed" : "FAILED"));
+    if (!ok)
+      System.exit(1);
+  }
+
+  /**
+   * @effects
+   *  link, look up and unlink <tt>imports</tt> on a preserver and, if <tt>print</tt>, on a
+   *  list and print the times; return true iff the link counts are right
+   */
+  private static boolean links(List<ImportSeafood> imports, boolean print) {
+    int count = imports.size();
+    boolean ok = true;
+
+    Preserver p = new Preserver(1, "Preserver");
+    long begin = System.nanoTime();
+    for (ImportSeafood e : imports) {
+      p.addNewEnrolment(e);
+    }
+    p.addNewEnrolment(imports.get(0));
+    long addNanos = System.nanoTime() - begin;
+    ok &= expect(p, count, "after linking");
+
+    begin = System.nanoTime();
+    Collection<ImportSeafood> links = p.getEnrolments();
+    int found = 0;
+    for (ImportSeafood e : imports) {
+      if (links.contains(e))
+        found++;
+    }
+    long containsNanos = System.nanoTime() - begin;
+    if (found != count) {
+      System.out.println("  found " + found + " links, expected " + count);
+      ok = false;
+    }
+
+    // unlink in the reverse order, the worst case of a list
+    begin = System.nanoTime();
+    for (int i = count - 1; i >= 0; i--) {
+      p.removeEnrolment(imports.get(i));
+    }
+    long removeNanos = System.nanoTime() - begin;
+    ok &= expect(p, 0, "after unlinking");
+
+    begin = System.nanoTime();
+    p.setEnrolments(imports);
+    long loadNanos = System.nanoTime() - begin;
+    ok &= expect(p, count, "after loading");
+    if (!print)
+      return ok;
+
+    // the same operations on a list (quadratic, so they are run once)
+    List<ImportSeafood> list = new ArrayList<>();
+    begin = System.nanoTime();
+    for (ImportSeafood e : imports) {
+      list.add(e);
+    }
+    long listAddNanos = System.nanoTime() - begin;
+
+    begin = System.nanoTime();
+    for (ImportSeafood e : imports) {
+      list.contains(e);
+    }
+    long listContainsNanos = System.nanoTime() - begin;
+
+    begin = System.nanoTime();
+    for (int i = count - 1; i >= 0; i--) {
+      list.remove(imports.get(i));
+    }
+    long listRemoveNanos = System.nanoTime() - begin;
+
+    System.out.println("  " + count + " links: preserver add " + ms(addNanos) + ", contains " +
+        ms(containsNanos) + ", remove " + ms(removeNanos) + ", load " + ms(loadNanos));
+    System.out.println("  " + count + " links: list add " + ms(listAddNanos) + ", contains " +
+        ms(listContainsNanos) + ", remove " + ms(listRemoveNanos));
+
+    return ok;
+  }
+
+  private static boolean expect(Preserver p, int count, String when) {
+    if (p.getEnrolmentsCount() != count || p.getEnrolments().size() != count) {
+      System.out.println("  " + when + ": count " + p.getEnrolmentsCount() + ", " +
+          p.getEnrolments().size() + " links, expected " + count);
+      return false;
+    }
+    return true;
+  }
+
+  private static String ms(long nanos) {
+    return (nanos / 1000000) + " ms";
+  }
+}
@@ -0,0 +1,108 @@
+package model.index;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import model.Customer;
+import model.ForeignSeafood;
+import model.Seafood;
+import software.db.ChangeJournal;
+import software.db.SeafoodDb;
+
+/**
+ * @overview
+ *  A test of the maintenance of {@link NameIndexes} and {@link SeafoodIndexes}: seafoods and
+ *  customers are added, changed and deleted with plain JDBC after the indexes are built,
+ *  including a seafood without a type and a seafood that is not foreign. It checks that the
+ *  indexes then hold exactly the stored names, types and countries, and that nothing is left
+ *  of a deleted object.
+ *
+ *  <p>Run with <tt>java model.index.IndexMaintenanceTest [jdbc url]</tt> (with the JDBC driver
+ *  on the class path); the URL is of a database that has none of the tables yet, by default
+ *  an in-memory Derby database. It exits with status 1 if a check fails.
+ */
+public class IndexMaintenanceTest {
+
+  private static final String SEAFOOD = SeafoodDb.tableOf(Seafood.class);
+  private static final String FOREIGN = SeafoodDb.tableOf(ForeignSeafood.class);
+  private static final String CUSTOMER = SeafoodDb.tableOf(Customer.class);
+
+  public static void main(String[] args) throws Exception {
+    String url = (args.length > 0) ? args[0] :
+        "jdbc:derby:memory:indexes-" + System.nanoTime() + ";create=true";
+    SeafoodDb.configure(url);
+    execute("create table " + SEAFOOD + " (id varchar(5) primary key, name varchar(30), " +
+        "type_id integer)",
+        "create table " + FOREIGN + " (id varchar(5) primary key, country_id integer)",
+        "create table " + CUSTOMER + " (id varchar(5) primary key, name varchar(30))",
+        "insert into " + SEAFOOD + " values ('S01', 'Tuna', 1), ('S02', 'Salmon', 2)",
+        "insert into " + FOREIGN + " values ('S02', 7)",
+        "insert into " + CUSTOMER + " values ('C01', 'Lan')");
+
+    NameIndexes names = NameIndexes.getInstance();
+    SeafoodIndexes values = SeafoodIndexes.getInstance();
+    names.rebuild();
+    values.rebuild();
+
+    // a seafood without a type, a domestic one that is retyped, a foreign one that moves
+    execute("insert into " + SEAFOOD + " values ('S03', 'Squid', null)",
+        "update " + SEAFOOD + " set type_id = 2, name = 'Bluefin Tuna' where id = 'S01'",
+        "update " + FOREIGN + " set country_id = 8 where id = 'S02'",
+        "insert into " + CUSTOMER + " values ('C02', 'Minh')");
+    boolean ok = true;
+    ok &= expect("names", names.getSeafoodIndex().search("Tuna"), "S01");
+    ok &= expect("untyped", names.getSeafoodIndex().search("Squid"), "S03");
+    ok &= expect("type 1", values.getTypeIndex().search(1));
+    ok &= expect("type 2", values.getTypeIndex().search(2), "S01", "S02");
+    ok &= expect("country 7", values.getCountryIndex().search(7));
+    ok &= expect("country 8", values.getCountryIndex().search(8), "S02");
+    ok &= expect("customers", names.getCustomerIndex().search("Minh"), "C02");
+
+    // deleted however they were linked
+    execute("delete from " + SEAFOOD + " where id in ('S01', 'S03')",
+        "delete from " + FOREIGN + " where id = 'S02'",
+        "delete from " + SEAFOOD + " where id = 'S02'",
+        "delete from " + CUSTOMER + " where id = 'C02'");
+    ok &= expect("deleted names", names.getSeafoodIndex().search("a"));
+    ok &= expect("deleted types", values.getTypeIndex().search(2));
+    ok &= expect("deleted countries", values.getCountryIndex().search(8));
+    ok &= expect("deleted customers", names.getCustomerIndex().search("Minh"));
+    if (names.getSeafoodIndex().size() != 0 || values.getTypeIndex().size() != 0 ||
+        values.getCountryIndex().size() != 0) {
+      System.out.println("  keys left after the deletes");
+      ok = false;
+    }
+
+    ChangeJournal.getInstance().detach(names);
+    ChangeJournal.getInstance().detach(values);
+    System.out.println("IndexMaintenanceTest: " + (ok ? "passed" : "FAILED"));
+    if (!ok)
+      System.exit(1);
+  }
+
+  private static void execute(String... sqls) throws SQLException {
+    try (Connection con = SeafoodDb.open();
+        Statement stmt = con.createStatement()) {
+      for (String sql : sqls) {
+        stmt.executeUpdate(sql);
+      }
+    }
+  }
+
+  private static boolean expect(String what, List<String> found, String... expected) {
+    List<String> exp = new ArrayList<>();
+    Collections.addAll(exp, expected);
+    Collections.sort(exp);
+    List<String> act = new ArrayList<>(found);
+    Collections.sort(act);
+    if (act.equals(exp))
+      return true;
+
+    System.out.println("  " + what + ": " + act + ", expected " + exp);
+    return false;
+  }
+}
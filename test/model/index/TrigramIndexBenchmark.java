@@ -0,0 +1,210 @@
+package model.index;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @overview
+ *  A benchmark of {@link TrigramIndex} against the substring search it replaces, SQL
+ *  <tt>name like '%s%'</tt>. It indexes generated names, removes and renames some of them
+ *  and checks that the size and the search results leave the removed keys out and equal
+ *  those of a scan of all the names. It then times the searches on the index and on the
+ *  scan and, given a JDBC URL (of a database that can be written), on a table queried with
+ *  <tt>LIKE</tt>.
+ *
+ *  <p>Run with <tt>java model.index.TrigramIndexBenchmark [names] [jdbc url]</tt> (with the
+ *  JDBC driver on the class path); it exits with status 1 if a check fails.
+ */
+public class TrigramIndexBenchmark {
+
+  private static final String[] WORDS = { "Tuna", "Salmon", "Shrimp", "Crab", "Squid",
+      "Octopus", "Lobster", "Oyster", "Clam", "Mackerel", "Anchovy", "Scallop", "Eel",
+      "Frozen", "Fresh", "Dried", "Smoked", "Pacific", "Atlantic", "Tiger", "King", "Red" };
+
+  /** the searched strings: common, rare and absent */
+  private static final String[] SEARCHES = { "Tuna", "mon", "Oyster Kin", "Dried Eel 1",
+      "Lobster", "Sm", "Whale" };
+
+  private static final int ROUNDS = 20;
+
+  public static void main(String[] args) throws SQLException {
+    int count = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+    String url = (args.length > 1) ? args[1] : null;
+
+    Random random = new Random(42);
+    List<String> keys = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    TrigramIndex index = new TrigramIndex();
+    for (int i = 0; i < count; i++) {
+      String key = String.format("S%07d", i);
+      String name = name(random, i);
+      keys.add(key);
+      names.add(name);
+      index.put(key, name);
+    }
+
+    // delete every 10th object and rename every 7th
+    for (int i = 0; i < count; i++) {
+      if (i % 10 == 0) {
+        index.remove(keys.get(i));
+        names.set(i, null);
+      } else if (i % 7 == 0) {
+        String name = name(random, i);
+        index.put(keys.get(i), name);
+        names.set(i, name);
+      }
+    }
+
+    boolean ok = check(index, keys, names);
+
+    long indexNanos = 0, scanNanos = 0;
+    for (int r = 0; r < ROUNDS; r++) {
+      for (String s : SEARCHES) {
+        long begin = System.nanoTime();
+        index.search(s);
+        indexNanos += System.nanoTime() - begin;
+
+        begin = System.nanoTime();
+        scan(keys, names, s);
+        scanNanos += System.nanoTime() - begin;
+      }
+    }
+    int searches = ROUNDS * SEARCHES.length;
+    System.out.println("  " + index.size() + " names: index " + (indexNanos / searches / 1000) +
+        " us, scan " + (scanNanos / searches / 1000) + " us per search");
+
+    if (url != null)
+      ok &= like(url, index, keys, names);
+
+    System.out.println("TrigramIndexBenchmark: " + (ok ? "passed" : "FAILED"));
+    if (!ok)
+      System.exit(1);
+  }
+
+  private static String name(Random random, int i) {
+    return WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] +
+        " " + i;
+  }
+
+  /**
+   * @effects
+   *  return true iff <tt>index</tt> has the keys whose names are not null, and finds for each
+   *  search what a scan of <tt>names</tt> finds
+   */
+  private static boolean check(TrigramIndex index, List<String> keys, List<String> names) {
+    int live = 0;
+    for (String n : names) {
+      if (n != null)
+        live++;
+    }
+
+    boolean ok = true;
+    if (index.size() != live || index.keys().size() != live) {
+      System.out.println("  size is " + index.size() + " (" + index.keys().size() +
+          " keys), expected " + live);
+      ok = false;
+    }
+    for (String s : SEARCHES) {
+      List<String> expected = scan(keys, names, s);
+      List<String> found = index.search(s);
+      if (!found.equals(expected)) {
+        System.out.println("  search " + s + " found " + found.size() + " keys, expected " +
+            expected.size());
+        ok = false;
+      }
+    }
+
+    return ok;
+  }
+
+  /**
+   * @effects
+   *  return the keys, in ascending order, whose names contain <tt>s</tt>
+   */
+  private static List<String> scan(List<String> keys, List<String> names, String s) {
+    List<String> found = new ArrayList<>();
+    for (int i = 0; i < names.size(); i++) {
+      String n = names.get(i);
+      if (n != null && n.contains(s))
+        found.add(keys.get(i));
+    }
+    Collections.sort(found);
+    return found;
+  }
+
+  /**
+   * @effects
+   *  store the names in a new table of the database at <tt>url</tt>, time the searches with
+   *  <tt>LIKE</tt> on it and drop it; return true iff they find what <tt>index</tt> finds
+   */
+  private static boolean like(String url, TrigramIndex index, List<String> keys,
+      List<String> names) throws SQLException {
+    boolean ok = true;
+    try (Connection con = DriverManager.getConnection(url)) {
+      try (Statement stmt = con.createStatement()) {
+        stmt.executeUpdate("create table TrigramBench (id varchar(10) primary key, " +
+            "name varchar(100))");
+      }
+
+      try {
+        con.setAutoCommit(false);
+        try (PreparedStatement insert = con.prepareStatement(
+            "insert into TrigramBench (id, name) values (?, ?)")) {
+          for (int i = 0; i < names.size(); i++) {
+            if (names.get(i) == null)
+              continue;
+            insert.setString(1, keys.get(i));
+            insert.setString(2, names.get(i));
+            insert.addBatch();
+            if (i % 1000 == 999)
+              insert.executeBatch();
+          }
+          insert.executeBatch();
+        }
+        con.commit();
+        con.setAutoCommit(true);
+
+        long likeNanos = 0;
+        try (PreparedStatement select = con.prepareStatement(
+            "select id from TrigramBench where name like ? order by id")) {
+          for (int r = 0; r < ROUNDS; r++) {
+            for (String s : SEARCHES) {
+              long begin = System.nanoTime();
+              select.setString(1, "%" + s + "%");
+              List<String> found = new ArrayList<>();
+              try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                  found.add(rs.getString(1));
+                }
+              }
+              likeNanos += System.nanoTime() - begin;
+
+              if (r == 0 && !found.equals(index.search(s))) {
+                System.out.println("  LIKE " + s + " found " + found.size() + " keys, the index " +
+                    index.search(s).size());
+                ok = false;
+              }
+            }
+          }
+        }
+        System.out.println("  LIKE " + (likeNanos / (ROUNDS * SEARCHES.length) / 1000) +
+            " us per search");
+      } finally {
+        con.setAutoCommit(true);
+        try (Statement stmt = con.createStatement()) {
+          stmt.executeUpdate("drop table TrigramBench");
+        }
+      }
+    }
+
+    return ok;
+  }
+}
@@ -0,0 +1,141 @@
+package model.reports;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import model.Seafood;
+import software.db.ChangeJournal;
+import software.db.SeafoodDb;
+
+/**
+ * @overview
+ *  A test of {@link ResultCache} against stale reads: a query reads a seafood from the data
+ *  source and, before it caches what it read, the seafood is changed and committed (with plain
+ *  JDBC, as another program would). The test checks that such a result is never returned once
+ *  the change is committed and that a change that is rolled back does not invalidate the
+ *  cached results.
+ *
+ *  <p>Run with <tt>java model.reports.ResultCacheStaleReadTest [jdbc url]</tt> (with the JDBC
+ *  driver on the class path); the URL is of a database that has none of the tables yet, by
+ *  default an in-memory Derby database. It exits with status 1 if a check fails.
+ */
+public class ResultCacheStaleReadTest {
+
+  /** the report of the cached results */
+  private static final class Report {
+  }
+
+  private static final String TABLE = SeafoodDb.tableOf(Seafood.class);
+
+  public static void main(String[] args) throws Exception {
+    String url = (args.length > 0) ? args[0] :
+        "jdbc:derby:memory:cache-" + System.nanoTime() + ";create=true";
+    SeafoodDb.configure(url);
+    try (Connection con = SeafoodDb.open();
+        Statement stmt = con.createStatement()) {
+      stmt.executeUpdate("create table " + TABLE + " (id varchar(5) primary key, " +
+          "name varchar(30))");
+      stmt.executeUpdate("insert into " + TABLE + " values ('S01', 'old')");
+    }
+    ChangeJournal.getInstance().attach(ResultCache.getInstance());
+
+    boolean ok = checkWriteDuringQuery() & checkRollback();
+    System.out.println("ResultCacheStaleReadTest: " + (ok ? "passed" : "FAILED"));
+    if (!ok)
+      System.exit(1);
+  }
+
+  /**
+   * @effects
+   *  commit a change between the read and the caching of a query; return true iff the
+   *  result of that query is not returned afterwards
+   */
+  private static boolean checkWriteDuringQuery() throws SQLException {
+    ResultCache cache = ResultCache.getInstance();
+    update("old", true);
+
+    long gen = cache.generation(Seafood.class);
+    String found = read();
+    update("new", true);
+    cache.put(Report.class, Seafood.class, "S01", gen, found);
+
+    return expect(cache, "new", "write during a query");
+  }
+
+  /**
+   * @effects
+   *  roll back a change of a cached seafood; return true iff the cached result is still
+   *  returned
+   */
+  private static boolean checkRollback() throws SQLException {
+    ResultCache cache = ResultCache.getInstance();
+    query(cache);
+    long hits = cache.getHits();
+
+    update("rolled back", false);
+    if (!expect(cache, "new", "rolled back write"))
+      return false;
+    if (cache.getHits() == hits) {
+      System.out.println("  rolled back write: the cached result is discarded");
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * @effects
+   *  if the cache has the name of the seafood return it, else read it, cache and return it
+   *  (as the name reports do)
+   */
+  private static String query(ResultCache cache) throws SQLException {
+    String cached = cache.get(Report.class, Seafood.class, "S01");
+    if (cached != null)
+      return cached;
+
+    long gen = cache.generation(Seafood.class);
+    String found = read();
+    cache.put(Report.class, Seafood.class, "S01", gen, found);
+    return found;
+  }
+
+  private static String read() throws SQLException {
+    try (Connection con = SeafoodDb.open();
+        Statement stmt = con.createStatement();
+        ResultSet rs = stmt.executeQuery("select name from " + TABLE + " where id = 'S01'")) {
+      rs.next();
+      return rs.getString(1);
+    }
+  }
+
+  /**
+   * @effects set the name of the seafood to <tt>name</tt> and commit (or roll back)
+   */
+  private static void update(String name, boolean commit) throws SQLException {
+    try (Connection con = SeafoodDb.open();
+        PreparedStatement stmt = con.prepareStatement("update " + TABLE +
+            " set name = ? where id = 'S01'")) {
+      con.setAutoCommit(false);
+      stmt.setString(1, name);
+      stmt.executeUpdate();
+      if (commit)
+        con.commit();
+      else
+        con.rollback();
+    }
+  }
+
+  private static boolean expect(ResultCache cache, String expected, String check)
+      throws SQLException {
+    String found = query(cache);
+    if (!expected.equals(found)) {
+      System.out.println("  " + check + ": the query returned the stale value " + found);
+      return false;
+    }
+
+    System.out.println("  " + check + ": no stale read");
+    return true;
+  }
+}
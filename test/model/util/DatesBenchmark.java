@@ -0,0 +1,142 @@
+package model.util;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * @overview
+ *  A benchmark of {@link Dates}: formats and parses the dates of the transactions that are
+ *  loaded (epoch day to <tt>dd/MM/yyyy</tt> and back) and compares the time and the bytes
+ *  allocated per date with those of <tt>java.time</tt>. It first checks that both give the
+ *  same results for every day from 01/01/0001 to 31/12/9999.
+ *
+ *  <p>Run with <tt>java model.util.DatesBenchmark [dates] [rounds]</tt>; it exits with
+ *  status 1 if a check fails.
+ */
+public class DatesBenchmark {
+
+  private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("dd/MM/uuuu");
+
+  /** prevents the benchmarked code from being optimised away */
+  private static long sink;
+
+  public static void main(String[] args) throws Exception {
+    int dates = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+    int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+
+    if (!check()) {
+      System.out.println("DatesBenchmark: FAILED");
+      System.exit(1);
+    }
+
+    // the dates of ten years of transactions
+    final int[] days = new int[dates];
+    int first = (int) LocalDate.of(2015, 1, 1).toEpochDay();
+    for (int i = 0; i < dates; i++) {
+      days[i] = first + (int) ((i * 2654435761L) % 3653);
+    }
+    final String[] strings = new String[dates];
+    for (int i = 0; i < dates; i++) {
+      strings[i] = Dates.format(days[i]);
+    }
+
+    for (int r = 0; r < rounds; r++) {
+      boolean last = (r == rounds - 1);
+      measure("Dates.format", dates, last, new Body() {
+        @Override
+        public long run(int i) {
+          return Dates.format(days[i]).length();
+        }
+      });
+      measure("LocalDate.format", dates, last, new Body() {
+        @Override
+        public long run(int i) {
+          return LocalDate.ofEpochDay(days[i]).format(FORMAT).length();
+        }
+      });
+      measure("Dates.toEpochDay", dates, last, new Body() {
+        @Override
+        public long run(int i) throws Exception {
+          return Dates.toEpochDay(strings[i]);
+        }
+      });
+      measure("LocalDate.parse", dates, last, new Body() {
+        @Override
+        public long run(int i) {
+          return LocalDate.parse(strings[i], FORMAT).toEpochDay();
+        }
+      });
+      measure("Dates.monthOf", dates, last, new Body() {
+        @Override
+        public long run(int i) {
+          return Dates.monthOf(days[i]);
+        }
+      });
+    }
+
+    System.out.println("DatesBenchmark: passed (" + sink + ")");
+  }
+
+  /**
+   * @effects
+   *  return true iff {@link Dates} formats, parses and splits into months every day from
+   *  01/01/0001 to 31/12/9999 as <tt>java.time</tt> does
+   */
+  private static boolean check() throws Exception {
+    int from = (int) LocalDate.of(1, 1, 1).toEpochDay();
+    int to = (int) LocalDate.of(9999, 12, 31).toEpochDay();
+    for (int day = from; day <= to; day++) {
+      LocalDate d = LocalDate.ofEpochDay(day);
+      String expected = d.format(FORMAT);
+      String s = Dates.format(day);
+      int month = d.getYear() * 12 + d.getMonthValue() - 1;
+      if (!s.equals(expected) || Dates.toEpochDay(s) != day || Dates.monthOf(day) != month ||
+          (d.getDayOfMonth() == 1 && Dates.firstDayOf(month) != day)) {
+        System.out.println("  day " + day + ": " + s + ", expected " + expected);
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /** the benchmarked operation on the date <tt>i</tt> */
+  private interface Body {
+    long run(int i) throws Exception;
+  }
+
+  /**
+   * @effects
+   *  run <tt>body</tt> on the dates <tt>0..dates-1</tt> and, if <tt>print</tt>, print the
+   *  time and the bytes allocated per date
+   */
+  private static void measure(String name, int dates, boolean print, Body body)
+      throws Exception {
+    long bytes = allocatedBytes();
+    long begin = System.nanoTime();
+    long sum = 0;
+    for (int i = 0; i < dates; i++) {
+      sum += body.run(i);
+    }
+    long nanos = System.nanoTime() - begin;
+    bytes = allocatedBytes() - bytes;
+    sink += sum;
+
+    if (print)
+      System.out.println("  " + name + ": " + (nanos / dates) + " ns, " +
+          (bytes / dates) + " bytes per date");
+  }
+
+  /**
+   * @effects
+   *  return the number of bytes allocated by the current thread, or 0 if it is not known
+   */
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean)
+      return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(
+          Thread.currentThread().getId());
+    return 0;
+  }
+}
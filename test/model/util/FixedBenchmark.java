@@ -0,0 +1,148 @@
+package model.util;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import model.stats.Totals;
+
+/**
+ * @overview
+ *  A benchmark of {@link Fixed}: sums the quantities and the totals (quantity times price)
+ *  of generated transactions into {@link Totals}, as the rollups do, and compares the time and
+ *  the bytes allocated per transaction with those of summing boxed <tt>Double</tt>s. It first
+ *  checks that the products and the sums equal those computed with <tt>BigDecimal</tt>.
+ *
+ *  <p>Run with <tt>java model.util.FixedBenchmark [transactions] [rounds]</tt>; it exits with
+ *  status 1 if a check fails.
+ */
+public class FixedBenchmark {
+
+  /** prevents the benchmarked code from being optimised away */
+  private static double sink;
+
+  public static void main(String[] args) throws Exception {
+    int count = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+    int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+
+    // the quantities (kilos) and prices of the transactions, as they are stored
+    Random random = new Random(42);
+    final Double[] quantities = new Double[count];
+    final Double[] prices = new Double[count];
+    for (int i = 0; i < count; i++) {
+      quantities[i] = random.nextInt(100000) / 1000.0;
+      prices[i] = random.nextInt(10000000) / 1000.0;
+    }
+
+    if (!check(quantities, prices)) {
+      System.out.println("FixedBenchmark: FAILED");
+      System.exit(1);
+    }
+
+    for (int r = 0; r < rounds; r++) {
+      boolean last = (r == rounds - 1);
+      measure("Totals (fixed)", count, last, new Body() {
+        @Override
+        public double run(int n) {
+          Totals totals = new Totals();
+          for (int i = 0; i < n; i++) {
+            long q = Fixed.of(quantities[i]);
+            totals.add(q, Fixed.times(q, Fixed.of(prices[i])), 1);
+          }
+          return totals.getAmount();
+        }
+      });
+      measure("Double sums", count, last, new Body() {
+        @Override
+        public double run(int n) {
+          Double quantity = 0.0, amount = 0.0;
+          for (int i = 0; i < n; i++) {
+            quantity += quantities[i];
+            amount += quantities[i] * prices[i];
+          }
+          return quantity + amount;
+        }
+      });
+    }
+
+    System.out.println("FixedBenchmark: passed (" + sink + ")");
+  }
+
+  /**
+   * @effects
+   *  return true iff the product of each quantity and price and the sums of the quantities
+   *  and of the products, computed with {@link Fixed}, equal those computed with
+   *  <tt>BigDecimal</tt> (rounded half away from zero to the closest thousandth)
+   */
+  private static boolean check(Double[] quantities, Double[] prices) {
+    Totals totals = new Totals();
+    BigDecimal quantity = BigDecimal.ZERO, amount = BigDecimal.ZERO;
+    double doubleAmount = 0;
+    for (int i = 0; i < quantities.length; i++) {
+      // also check negative values (the sign of a removed transaction)
+      int sign = (i % 3 == 0) ? -1 : 1;
+      long q = sign * Fixed.of(quantities[i]);
+      long t = Fixed.times(q, Fixed.of(prices[i]));
+
+      BigDecimal bq = BigDecimal.valueOf(sign * quantities[i]);
+      BigDecimal bt = bq.multiply(BigDecimal.valueOf(prices[i])).setScale(3, RoundingMode.HALF_UP);
+      if (t != bt.movePointRight(3).longValueExact()) {
+        System.out.println("  " + bq + " * " + prices[i] + " = " + Fixed.toDouble(t) +
+            ", expected " + bt);
+        return false;
+      }
+
+      totals.add(q, t, 1);
+      quantity = quantity.add(bq);
+      amount = amount.add(bt);
+      doubleAmount += sign * quantities[i] * prices[i];
+    }
+
+    if (totals.getQuantity() != quantity.doubleValue() ||
+        totals.getAmount() != amount.doubleValue()) {
+      System.out.println("  sums " + totals.getQuantity() + ", " + totals.getAmount() +
+          ", expected " + quantity + ", " + amount);
+      return false;
+    }
+
+    System.out.println("  amount " + amount + " (summed as doubles: " +
+        new BigDecimal(doubleAmount).setScale(3, RoundingMode.HALF_UP) + ")");
+    return true;
+  }
+
+  /** the benchmarked summing of the transactions <tt>0..n-1</tt> */
+  private interface Body {
+    double run(int n) throws Exception;
+  }
+
+  /**
+   * @effects
+   *  run <tt>body</tt> on <tt>count</tt> transactions and, if <tt>print</tt>, print the time
+   *  and the bytes allocated per transaction
+   */
+  private static void measure(String name, int count, boolean print, Body body)
+      throws Exception {
+    long bytes = allocatedBytes();
+    long begin = System.nanoTime();
+    sink += body.run(count);
+    long nanos = System.nanoTime() - begin;
+    bytes = allocatedBytes() - bytes;
+
+    if (print)
+      System.out.println("  " + name + ": " + (nanos / count) + " ns, " +
+          (bytes / count) + " bytes per transaction");
+  }
+
+  /**
+   * @effects
+   *  return the number of bytes allocated by the current thread, or 0 if it is not known
+   */
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean)
+      return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(
+          Thread.currentThread().getId());
+    return 0;
+  }
+}
@@ -0,0 +1,304 @@
+package model.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * @overview
+ *  A concurrency stress test of {@link IdAllocator} and {@link IdCounter}: many threads
+ *  look up the same counter and generate (and synchronise) ids at once, and the test checks
+ *  that every id is generated exactly once and that no update of the counter is lost, also 
+ *  when the ids are leased in blocks (and released while they are generated), and that a 
+ *  restart after a release generates the ids that follow the last one used.
+ *
+ *  <p>Run with <tt>java model.util.IdAllocatorStressTest [threads] [idsPerThread]</tt>; it
+ *  exits with status 1 if a check fails.
+ */
+public class IdAllocatorStressTest {
+
+  /** the domain class whose counter is tested */
+  private static final class Stressed {
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int threads = (args.length > 0) ? Integer.parseInt(args[0]) : 16;
+    int perThread = (args.length > 1) ? Integer.parseInt(args[1]) : 200000;
+
+    boolean ok = checkUnique(threads, perThread) & checkUpdates(threads, perThread) &
+        checkLeased(threads, perThread) & checkBlockSize();
+    System.out.println("IdAllocatorStressTest: " + (ok ? "passed" : "FAILED"));
+    if (!ok)
+      System.exit(1);
+  }
+
+  /**
+   * @effects
+   *  generate <tt>threads * perThread</tt> ids concurrently (each thread looking the counter
+   *  up itself) and return true iff they are exactly 1..threads*perThread
+   */
+  private static boolean checkUnique(final int threads, final int perThread)
+      throws InterruptedException {
+    final int total = threads * perThread;
+    final AtomicIntegerArray seen = new AtomicIntegerArray(total + 1);
+    final IdCounter[] counters = new IdCounter[threads];
+
+    long nanos = run(threads, new Body() {
+      @Override
+      public void run(int t) {
+        IdCounter counter = IdAllocator.counterFor(Stressed.class);
+        counters[t] = counter;
+        for (int i = 0; i < perThread; i++) {
+          int id = counter.next();
+          if (id < 1 || id > total || seen.getAndIncrement(id) != 0)
+            throw new IllegalStateException("duplicate or out-of-range id " + id);
+        }
+      }
+    });
+
+    boolean ok = true;
+    for (IdCounter c : counters) {
+      if (c != counters[0]) {
+        System.out.println("  threads got different counters of the same class");
+        ok = false;
+        break;
+      }
+    }
+    for (int id = 1; id <= total; id++) {
+      if (seen.get(id) != 1) {
+        System.out.println("  id " + id + " was generated " + seen.get(id) + " times");
+        ok = false;
+        break;
+      }
+    }
+    if (counters[0].current() != total) {
+      System.out.println("  counter is " + counters[0].current() + ", expected " + total);
+      ok = false;
+    }
+
+    System.out.println("  unique ids: " + total + " ids on " + threads + " threads in " +
+        (nanos / 1000000) + " ms (" + Math.round(total * 1e9 / nanos) + " ids/s)");
+    return ok;
+  }
+
+  /**
+   * @effects
+   *  interleave generating ids with synchronising the counter to larger values (as the data
+   *  source constructors do) on many threads and return true iff the ids each thread gets
+   *  increase, no two threads get the same id and the counter ends at the largest value
+   */
+  private static boolean checkUpdates(final int threads, final int perThread)
+      throws InterruptedException {
+    final IdCounter counter = new IdCounter("Updated");
+    final int limit = threads * perThread * 4;
+    final AtomicIntegerArray seen = new AtomicIntegerArray(limit + threads * perThread + 1);
+    final int[] maxSeen = new int[threads];
+
+    run(threads, new Body() {
+      @Override
+      public void run(int t) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int last = 0;
+        for (int i = 0; i < perThread; i++) {
+          int id;
+          if (random.nextInt(4) == 0) {
+            // a stored object is loaded: its id is synchronised but not generated
+            id = random.nextInt(1, limit);
+            counter.update(id);
+          } else {
+            id = counter.next();
+            if (id <= last || seen.getAndIncrement(id) != 0)
+              throw new IllegalStateException("id " + id + " after " + last);
+            last = id;
+          }
+          maxSeen[t] = Math.max(maxSeen[t], id);
+        }
+      }
+    });
+
+    int max = 0;
+    for (int m : maxSeen) {
+      max = Math.max(max, m);
+    }
+    if (counter.current() != max) {
+      System.out.println("  lost update: counter is " + counter.current() + ", expected " + max);
+      return false;
+    }
+
+    System.out.println("  updates: counter ends at " + max);
+    return true;
+  }
+
+  /**
+   * @effects
+   *  generate ids on many threads from a counter that leases small blocks from a source while
+   *  another thread keeps releasing them; return true iff the ids are exactly
+   *  1..threads*perThread and a new counter (after a restart) continues with the next id
+   */
+  private static boolean checkLeased(final int threads, final int perThread)
+      throws InterruptedException {
+    final MemorySource source = new MemorySource();
+    final IdCounter counter = new IdCounter("Leased");
+    counter.attach(source, 64);
+
+    final int total = threads * perThread;
+    final AtomicIntegerArray seen = new AtomicIntegerArray(total + 1);
+    final boolean[] done = new boolean[1];
+
+    Thread releaser = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (!isDone(done)) {
+          counter.release();
+          Thread.yield();
+        }
+      }
+    });
+    releaser.start();
+
+    run(threads, new Body() {
+      @Override
+      public void run(int t) {
+        for (int i = 0; i < perThread; i++) {
+          int id = counter.next();
+          if (id < 1 || id > total || seen.getAndIncrement(id) != 0)
+            throw new IllegalStateException("duplicate or out-of-range leased id " + id);
+        }
+      }
+    });
+    synchronized (done) {
+      done[0] = true;
+    }
+    releaser.join();
+
+    boolean ok = true;
+    for (int id = 1; id <= total; id++) {
+      if (seen.get(id) != 1) {
+        System.out.println("  leased id " + id + " was generated " + seen.get(id) + " times");
+        ok = false;
+        break;
+      }
+    }
+
+    // a clean shut-down, then a restart
+    counter.release();
+    IdCounter restarted = new IdCounter("Leased");
+    restarted.attach(source, 64);
+    int next = restarted.next();
+    if (next != total + 1) {
+      System.out.println("  after a restart the next id is " + next + ", expected " + (total + 1));
+      ok = false;
+    }
+
+    System.out.println("  leased ids: " + total + " ids in " + source.leases + " leases, " +
+        source.releases + " releases");
+    return ok;
+  }
+
+  private static boolean isDone(boolean[] done) {
+    synchronized (done) {
+      return done[0];
+    }
+  }
+
+  /**
+   * @effects
+   *  return true iff the blocks of a counter are sized to its id width
+   */
+  private static boolean checkBlockSize() {
+    MemorySource source = new MemorySource();
+    int[][] cases = {
+        // capacity, expected block size
+        { 5, 5 }, { 99, 10 }, { 999, 10 }, { 99999, 999 }, { Integer.MAX_VALUE, 1000 } };
+
+    boolean ok = true;
+    for (int[] c : cases) {
+      IdCounter counter = new IdCounter("Sized" + c[0], c[0]);
+      counter.attach(source, 1000);
+      if (counter.getBlockSize() != c[1]) {
+        System.out.println("  ids up to " + c[0] + " are leased in blocks of " +
+            counter.getBlockSize() + ", expected " + c[1]);
+        ok = false;
+      }
+    }
+
+    return ok;
+  }
+
+  /**
+   * @overview an {@link IdBlockSource} in memory
+   */
+  private static final class MemorySource implements IdBlockSource {
+    private final Map<String, Integer> hwms = new HashMap<>();
+    int leases;
+    int releases;
+
+    @Override
+    public synchronized int highWaterMark(String name, Class<?> c, String prefix) {
+      Integer hwm = hwms.get(name);
+      return (hwm != null) ? hwm : 0;
+    }
+
+    @Override
+    public synchronized int lease(String name, int atLeast, int blockSize) {
+      int hwm = Math.max(highWaterMark(name, null, ""), atLeast - 1) + blockSize;
+      hwms.put(name, hwm);
+      leases++;
+      return hwm;
+    }
+
+    @Override
+    public synchronized void release(String name, int leasedHwm, int used) {
+      if (highWaterMark(name, null, "") == leasedHwm) {
+        hwms.put(name, used);
+        releases++;
+      }
+    }
+  }
+
+  /** the body of a stress thread */
+  private interface Body {
+    void run(int thread);
+  }
+
+  /**
+   * @effects
+   *  run <tt>body</tt> on <tt>threads</tt> threads that start together; return the time
+   *  taken (in nanoseconds); throws IllegalStateException if a thread failed
+   */
+  private static long run(int threads, final Body body) throws InterruptedException {
+    final CountDownLatch start = new CountDownLatch(1);
+    final Throwable[] failure = new Throwable[1];
+    Thread[] ts = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final int thread = t;
+      ts[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            body.run(thread);
+          } catch (Throwable e) {
+            synchronized (failure) {
+              failure[0] = e;
+            }
+          }
+        }
+      });
+      ts[t].start();
+    }
+
+    long begin = System.nanoTime();
+    start.countDown();
+    for (Thread t : ts) {
+      t.join();
+    }
+    long nanos = System.nanoTime() - begin;
+
+    if (failure[0] != null)
+      throw new IllegalStateException("IdAllocatorStressTest: a thread failed", failure[0]);
+    return nanos;
+  }
+}
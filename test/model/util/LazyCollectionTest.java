@@ -0,0 +1,83 @@
+package model.util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import controller.ImportSeafood;
+import software.db.SeafoodDb;
+
+/**
+ * @overview
+ *  A test of the counts and removals of a {@link LazyCollection} that is not loaded: the
+ *  imports of two preservers are stored with plain JDBC, then imports are added to and
+ *  removed from the (lazy) imports of one of them. It checks that the count takes the added
+ *  and removed imports into account, that removing an import that is not a member changes
+ *  nothing, that a stored import that is added again is counted again, and that none of this
+ *  loads the imports.
+ *
+ *  <p>Run with <tt>java model.util.LazyCollectionTest [jdbc url]</tt> (with the JDBC driver on
+ *  the class path); the URL is of a database that has none of the tables yet, by default an
+ *  in-memory Derby database. It exits with status 1 if a check fails.
+ */
+public class LazyCollectionTest {
+
+  public static void main(String[] args) throws Exception {
+    String url = (args.length > 0) ? args[0] :
+        "jdbc:derby:memory:lazy-" + System.nanoTime() + ";create=true";
+    SeafoodDb.configure(url);
+    String imports = SeafoodDb.tableOf(ImportSeafood.class);
+    execute("create table " + imports + " (" + ImportSeafood.A_Id + " integer primary key, " +
+        SeafoodDb.fkColumn(ImportSeafood.A_Preserver, "id") + " integer)",
+        "insert into " + imports + " values (1, 1), (2, 1), (3, 1), (4, 2)");
+
+    LazyCollection.Association<ImportSeafood> assoc = new LazyCollection.Association<>(
+        ImportSeafood.class, ImportSeafood.A_Preserver, "id", ImportSeafood.A_Id);
+    LazyCollection<ImportSeafood> lazy = assoc.of(1);
+
+    boolean ok = true;
+    ok &= expect("stored", lazy.count(), 3);
+
+    ImportSeafood added = importOf(10);
+    lazy.add(added);
+    ok &= expect("added", lazy.count(), 4);
+
+    ImportSeafood stored = importOf(2);
+    ok &= expect("stored removed", lazy.remove(stored), true);
+    ok &= expect("stored removed", lazy.count(), 3);
+    ok &= expect("removed again", lazy.remove(stored), false);
+    ok &= expect("added removed", lazy.remove(added), true);
+    ok &= expect("added removed", lazy.count(), 2);
+    ok &= expect("not a member", lazy.remove(importOf(4)), false);
+    ok &= expect("not a member", lazy.count(), 2);
+
+    lazy.add(stored);
+    ok &= expect("stored added again", lazy.count(), 3);
+    ok &= expect("loaded", lazy.isLoaded(), false);
+
+    System.out.println("LazyCollectionTest: " + (ok ? "passed" : "FAILED"));
+    if (!ok)
+      System.exit(1);
+  }
+
+  private static ImportSeafood importOf(int id) {
+    return new ImportSeafood(id, null, null, null, 1.0, 1.0, 16436);
+  }
+
+  private static void execute(String... sqls) throws SQLException {
+    try (Connection con = SeafoodDb.open();
+        Statement stmt = con.createStatement()) {
+      for (String sql : sqls) {
+        stmt.executeUpdate(sql);
+      }
+    }
+  }
+
+  private static boolean expect(String what, Object found, Object expected) {
+    if (found.equals(expected))
+      return true;
+
+    System.out.println("  " + what + ": " + found + ", expected " + expected);
+    return false;
+  }
+}
@@ -0,0 +1,106 @@
+package software.db;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import model.OrderRow;
+import model.OrderTable;
+import model.SeafoodBill;
+
+/**
+ * @overview
+ *  A test of {@link BillTotalsMigration}: the tables and bills are stored without totals,
+ *  then the migration is run and order rows are added, changed, moved and deleted, and a bill
+ *  is linked to another table, with plain JDBC. It checks that the stored totals of the tables
+ *  and bills are then the sums of the prices of their rows and that running the migration
+ *  again changes nothing.
+ *
+ *  <p>Run with <tt>java software.db.BillTotalsMigrationTest [jdbc url]</tt> (with the JDBC
+ *  driver on the class path); the URL is of a database that has none of the tables yet, by
+ *  default an in-memory Derby database. It exits with status 1 if a check fails.
+ */
+public class BillTotalsMigrationTest {
+
+  private static final String ROWS = SeafoodDb.tableOf(OrderRow.class);
+  private static final String TABLES = SeafoodDb.tableOf(OrderTable.class);
+  private static final String BILLS = SeafoodDb.tableOf(SeafoodBill.class);
+
+  public static void main(String[] args) throws Exception {
+    String url = (args.length > 0) ? args[0] :
+        "jdbc:derby:memory:totals-" + System.nanoTime() + ";create=true";
+    SeafoodDb.configure(url);
+    execute("create table " + TABLES + " (id varchar(6) primary key, name varchar(20))",
+        "create table " + BILLS + " (" + SeafoodBill.A_billNo + " varchar(4) primary key, " +
+            "name varchar(20), table_id varchar(6))",
+        "create table " + ROWS + " (" + OrderRow.A_id + " integer primary key, " +
+            OrderRow.A_pricePerKilo + " double, " + OrderRow.A_number + " double, " +
+            "table_id varchar(6))",
+        "insert into " + TABLES + " values ('Ta1', 'one'), ('Ta2', 'two')",
+        "insert into " + BILLS + " values ('B1', 'one', 'Ta1')",
+        "insert into " + ROWS + " values (1, 10, 2, 'Ta1'), (2, 5, 1.5, 'Ta1'), " +
+            "(3, 4, 1, 'Ta2')");
+
+    boolean ok = true;
+    int computed = new BillTotalsMigration().migrate();
+    if (computed != 2) {
+      System.out.println("  " + computed + " totals computed, expected 2");
+      ok = false;
+    }
+    ok &= expect(TABLES, "id", "Ta1", 27.5);
+    ok &= expect(BILLS, SeafoodBill.A_billNo, "B1", 27.5);
+
+    // a row is added, repriced, moved to another table and deleted; a bill is stored
+    execute("insert into " + ROWS + " values (4, 3, 2, 'Ta1')",
+        "update " + ROWS + " set " + OrderRow.A_number + " = 3 where id = 1",
+        "update " + ROWS + " set table_id = 'Ta2' where id = 2",
+        "delete from " + ROWS + " where id = 3",
+        "insert into " + BILLS + " (" + SeafoodBill.A_billNo + ", name, table_id) " +
+            "values ('B2', 'two', 'Ta2')");
+    ok &= expect(TABLES, "id", "Ta1", 36.0);
+    ok &= expect(BILLS, SeafoodBill.A_billNo, "B1", 36.0);
+    ok &= expect(TABLES, "id", "Ta2", 7.5);
+    ok &= expect(BILLS, SeafoodBill.A_billNo, "B2", 7.5);
+
+    // a bill is linked to another table
+    execute("update " + BILLS + " set table_id = 'Ta1' where " + SeafoodBill.A_billNo +
+        " = 'B2'");
+    ok &= expect(BILLS, SeafoodBill.A_billNo, "B2", 36.0);
+
+    computed = new BillTotalsMigration().migrate();
+    if (computed != 0) {
+      System.out.println("  migrated again: " + computed + " totals computed");
+      ok = false;
+    }
+
+    System.out.println("BillTotalsMigrationTest: " + (ok ? "passed" : "FAILED"));
+    if (!ok)
+      System.exit(1);
+  }
+
+  private static void execute(String... sqls) throws SQLException {
+    try (Connection con = SeafoodDb.open();
+        Statement stmt = con.createStatement()) {
+      for (String sql : sqls) {
+        stmt.executeUpdate(sql);
+      }
+    }
+  }
+
+  private static boolean expect(String table, String idCol, String id, double expected)
+      throws SQLException {
+    try (Connection con = SeafoodDb.open();
+        Statement stmt = con.createStatement();
+        ResultSet rs = stmt.executeQuery("select total from " + table + " where " + idCol +
+            " = '" + id + "'")) {
+      rs.next();
+      double found = rs.getDouble(1);
+      if (Math.abs(found - expected) < 0.0005)
+        return true;
+
+      System.out.println("  " + id + ": total " + found + ", expected " + expected);
+      return false;
+    }
+  }
+}
@@ -0,0 +1,226 @@
+package software.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import controller.ExportSeafood;
+import controller.ImportSeafood;
+import model.Customer;
+import model.Seafood;
+import model.stats.StockLedger;
+import model.stats.TransactionRollups;
+
+/**
+ * @overview
+ *  A test of {@link ChangeJournal}: several threads insert, update and delete imports and
+ *  exports with plain JDBC (some in transactions that are rolled back) while the rollups and
+ *  the stock ledger are built and caught up. It checks that, once caught up, both match a
+ *  recomputation from the data source (see {@link TransactionRollups#verify()}), that a
+ *  rolled back change is not dispatched and that a seafood change is dispatched by id.
+ *
+ *  <p>Run with <tt>java software.db.ChangeJournalTest [writes] [threads] [jdbc url]</tt> (with
+ *  the JDBC driver on the class path); the URL is of a database that has none of the tables
+ *  yet, by default an in-memory Derby database. It exits with status 1 if a check fails.
+ */
+public class ChangeJournalTest {
+
+  private static final String SEAFOOD_COL = SeafoodDb.fkColumn("seafood", Seafood.A_id);
+  private static final String CUSTOMER_COL =
+      SeafoodDb.fkColumn(ImportSeafood.A_Customer, Customer.A_id);
+
+  public static void main(String[] args) throws Exception {
+    final int count = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+    int threads = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+    String url = (args.length > 2) ? args[2] :
+        "jdbc:derby:memory:journal-" + System.nanoTime() + ";create=true";
+    SeafoodDb.configure(url);
+    createTables();
+
+    final ChangeJournal journal = ChangeJournal.getInstance();
+    final List<Change> seafoodChanges = new ArrayList<>();
+    final AtomicInteger dispatched = new AtomicInteger();
+    journal.attach(new ChangeJournal.Listener() {
+      @Override
+      public void changed(Change c) {
+        dispatched.incrementAndGet();
+        if (c.is(Seafood.class)) {
+          synchronized (seafoodChanges) {
+            seafoodChanges.add(c);
+          }
+        }
+      }
+    }, new ChangeJournal.Snapshot() {
+      @Override
+      public void read(Connection con) {
+        // nothing is kept
+      }
+    });
+
+    boolean ok = true;
+
+    // a rolled back change is not journalled
+    try (Connection con = SeafoodDb.open()) {
+      con.setAutoCommit(false);
+      insert(con, ImportSeafood.class, 1, 1);
+      con.rollback();
+    }
+    journal.catchUp();
+    if (dispatched.get() != 0) {
+      System.out.println("  " + dispatched.get() + " changes dispatched after a rollback");
+      ok = false;
+    }
+
+    // the ledger is built before the writes, the rollups while they run
+    StockLedger ledger = StockLedger.getInstance();
+    ledger.rebuild();
+    TransactionRollups rollups = TransactionRollups.getInstance();
+
+    final AtomicInteger nextId = new AtomicInteger(1);
+    final AtomicBoolean failed = new AtomicBoolean();
+    List<Thread> started = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      final long seed = i;
+      Thread t = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            write(nextId, count, new Random(seed));
+          } catch (SQLException e) {
+            System.out.println("  a writer failed: " + e);
+            failed.set(true);
+          }
+        }
+      });
+      t.start();
+      started.add(t);
+    }
+
+    rollups.rebuild();
+    for (Thread t : started) {
+      t.join();
+    }
+    ok &= !failed.get();
+
+    journal.catchUp();
+    ok &= expectNone("rollups", rollups.verify());
+    ok &= expectNone("ledger", ledger.verify());
+
+    // a seafood is journalled by id: added, updated, removed
+    try (Connection con = SeafoodDb.open();
+        Statement stmt = con.createStatement()) {
+      String table = SeafoodDb.tableOf(Seafood.class);
+      stmt.executeUpdate("insert into " + table + " values ('S99', 'Squid')");
+      stmt.executeUpdate("update " + table + " set name = 'Octopus' where id = 'S99'");
+      stmt.executeUpdate("delete from " + table + " where id = 'S99'");
+    }
+    journal.catchUp();
+    String signs = "";
+    for (Change c : seafoodChanges) {
+      if ("S99".equals(c.getObjectId()))
+        signs += c.getSign() + " ";
+    }
+    if (!signs.equals("1 0 -1 ")) {
+      System.out.println("  seafood changes: " + signs + ", expected 1 0 -1");
+      ok = false;
+    }
+
+    System.out.println("  " + count + " writes, " + threads + " threads: " + dispatched.get() +
+        " changes dispatched");
+    System.out.println("ChangeJournalTest: " + (ok ? "passed" : "FAILED"));
+    if (!ok)
+      System.exit(1);
+  }
+
+  /**
+   * @effects
+   *  insert, update or delete imports and exports until <tt>count</tt> writes are made,
+   *  rolling back one write in ten
+   */
+  private static void write(AtomicInteger nextId, int count, Random random)
+      throws SQLException {
+    try (Connection con = SeafoodDb.open()) {
+      con.setAutoCommit(false);
+      int id;
+      while ((id = nextId.getAndIncrement()) <= count) {
+        Class<?> c = random.nextBoolean() ? ImportSeafood.class : ExportSeafood.class;
+        try {
+          insert(con, c, id, random.nextInt(3));
+          int other = 1 + random.nextInt(id);
+          if (random.nextInt(3) == 0) {
+            try (PreparedStatement stmt = con.prepareStatement("delete from " +
+                SeafoodDb.tableOf(c) + " where id = ?")) {
+              stmt.setInt(1, other);
+              stmt.executeUpdate();
+            }
+          } else {
+            try (PreparedStatement stmt = con.prepareStatement("update " +
+                SeafoodDb.tableOf(c) + " set " + ImportSeafood.A_Quantity + " = ?, " +
+                ImportSeafood.A_DateDay + " = ? where id = ?")) {
+              stmt.setDouble(1, random.nextInt(1000) / 10.0);
+              stmt.setInt(2, 16436 + random.nextInt(60));
+              stmt.setInt(3, other);
+              stmt.executeUpdate();
+            }
+          }
+
+          if (random.nextInt(10) == 0)
+            con.rollback();
+          else
+            con.commit();
+        } catch (SQLException e) {
+          // a deadlock victim is rolled back, as a writer would
+          con.rollback();
+          if (!"40001".equals(e.getSQLState()) && !"40XL1".equals(e.getSQLState()))
+            throw e;
+        }
+      }
+    }
+  }
+
+  private static void insert(Connection con, Class<?> c, int id, int seafood)
+      throws SQLException {
+    try (PreparedStatement stmt = con.prepareStatement("insert into " + SeafoodDb.tableOf(c) +
+        " values (?, ?, ?, ?, ?, ?)")) {
+      stmt.setInt(1, id);
+      stmt.setString(2, "S0" + seafood);
+      stmt.setString(3, "C0001");
+      stmt.setDouble(4, (id % 1000) / 10.0);
+      stmt.setDouble(5, (id % 97) * 1.5);
+      stmt.setInt(6, 16436 + id % 60);
+      stmt.executeUpdate();
+    }
+  }
+
+  /**
+   * @effects create the journalled tables, with the columns the journal reads
+   */
+  private static void createTables() throws SQLException {
+    try (Connection con = SeafoodDb.open();
+        Statement stmt = con.createStatement()) {
+      for (Class<?> c : new Class<?>[] {ImportSeafood.class, ExportSeafood.class}) {
+        stmt.executeUpdate("create table " + SeafoodDb.tableOf(c) + " (" +
+            ImportSeafood.A_Id + " integer primary key, " + SEAFOOD_COL + " varchar(5), " +
+            CUSTOMER_COL + " varchar(5), " + ImportSeafood.A_Quantity + " double, " +
+            ImportSeafood.A_Price + " double, " + ImportSeafood.A_DateDay + " integer)");
+      }
+      stmt.executeUpdate("create table " + SeafoodDb.tableOf(Seafood.class) +
+          " (id varchar(5) primary key, name varchar(30))");
+      stmt.executeUpdate("create table " + SeafoodDb.tableOf(Customer.class) +
+          " (id varchar(5) primary key, name varchar(30))");
+    }
+  }
+
+  private static boolean expectNone(String what, List<String> diffs) {
+    if (diffs.isEmpty())
+      return true;
+    System.out.println("  " + what + ": " + diffs.size() + " differences, e.g. " + diffs.get(0));
+    return false;
+  }
+}
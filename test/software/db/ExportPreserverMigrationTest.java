@@ -0,0 +1,104 @@
+package software.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+
+import controller.ExportSeafood;
+import controller.ImportSeafood;
+import model.Customer;
+import model.Seafood;
+import model.stats.StockLedger;
+
+/**
+ * @overview
+ *  A test of {@link ExportPreserverMigration} with the stock ledger running: the exports are
+ *  stored without a preserver, then the table is migrated. It checks that the preserver of an
+ *  export is set iff its seafood is imported into one preserver, that the ledger moves those
+ *  exports to their preserver, that an export stored after the migration is booked against
+ *  its preserver and that running the migration again changes nothing.
+ *
+ *  <p>Run with <tt>java software.db.ExportPreserverMigrationTest [jdbc url]</tt> (with the
+ *  JDBC driver on the class path); the URL is of a database that has none of the tables yet,
+ *  by default an in-memory Derby database. It exits with status 1 if a check fails.
+ */
+public class ExportPreserverMigrationTest {
+
+  private static final String IMPORTS = SeafoodDb.tableOf(ImportSeafood.class);
+  private static final String EXPORTS = SeafoodDb.tableOf(ExportSeafood.class);
+
+  public static void main(String[] args) throws Exception {
+    String url = (args.length > 0) ? args[0] :
+        "jdbc:derby:memory:preserver-" + System.nanoTime() + ";create=true";
+    SeafoodDb.configure(url);
+    String columns = ImportSeafood.A_Id + " integer primary key, " +
+        SeafoodDb.fkColumn("seafood", Seafood.A_id) + " varchar(5), " +
+        SeafoodDb.fkColumn(ImportSeafood.A_Customer, Customer.A_id) + " varchar(5), ";
+    String values = ImportSeafood.A_Quantity + " double, " + ImportSeafood.A_Price +
+        " double, " + ImportSeafood.A_DateDay + " integer)";
+    execute("create table " + IMPORTS + " (" + columns +
+        SeafoodDb.fkColumn(ImportSeafood.A_Preserver, "id") + " integer, " + values,
+        "create table " + EXPORTS + " (" + columns + values,
+        "create table " + SeafoodDb.tableOf(Seafood.class) + " (id varchar(5) primary key)",
+        "create table " + SeafoodDb.tableOf(Customer.class) + " (id varchar(5) primary key)",
+        // S01 is imported into one preserver, S02 into two
+        "insert into " + IMPORTS + " values (1, 'S01', 'C0001', 1, 10, 1, 16436), " +
+            "(2, 'S02', 'C0001', 1, 5, 1, 16436), (3, 'S02', 'C0001', 2, 5, 1, 16436)",
+        "insert into " + EXPORTS + " values (1, 'S01', 'C0001', 3, 1, 16437), " +
+            "(2, 'S02', 'C0001', 2, 1, 16437)");
+
+    StockLedger ledger = StockLedger.getInstance();
+    ledger.rebuild();
+
+    boolean ok = true;
+    int set = new ExportPreserverMigration().migrate();
+    if (set != 1) {
+      System.out.println("  " + set + " preservers set, expected 1");
+      ok = false;
+    }
+
+    execute("insert into " + EXPORTS + " values (3, 'S02', 'C0001', 1, 1, 16438, 2)");
+    ChangeJournal.getInstance().catchUp();
+    ok &= expect(ledger, "S01", "{1=7.0}");
+    ok &= expect(ledger, "S02", "{0=-2.0, 1=5.0, 2=4.0}");
+    ok &= expectNone(ledger.verify());
+
+    set = new ExportPreserverMigration().migrate();
+    if (set != 0) {
+      System.out.println("  migrated again: " + set + " preservers set");
+      ok = false;
+    }
+
+    ChangeJournal.getInstance().detach(ledger);
+    System.out.println("ExportPreserverMigrationTest: " + (ok ? "passed" : "FAILED"));
+    if (!ok)
+      System.exit(1);
+  }
+
+  private static void execute(String... sqls) throws SQLException {
+    try (Connection con = SeafoodDb.open();
+        Statement stmt = con.createStatement()) {
+      for (String sql : sqls) {
+        stmt.executeUpdate(sql);
+      }
+    }
+  }
+
+  private static boolean expect(StockLedger ledger, String seafoodId, String expected) {
+    Map<Integer, Double> found = ledger.getBalances(seafoodId).get(seafoodId);
+    if (expected.equals(String.valueOf(found)))
+      return true;
+
+    System.out.println("  " + seafoodId + ": " + found + ", expected " + expected);
+    return false;
+  }
+
+  private static boolean expectNone(List<String> diffs) {
+    if (diffs.isEmpty())
+      return true;
+    System.out.println("  ledger: " + diffs.size() + " differences, e.g. " + diffs.get(0));
+    return false;
+  }
+}
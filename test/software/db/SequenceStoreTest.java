@@ -0,0 +1,69 @@
+package software.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import model.Customer;
+import model.OrderRow;
+import model.Seafood;
+
+/**
+ * @overview
+ *  A test of the start of the id sequences of {@link SequenceStore}: seafoods (code ids) and
+ *  order rows (integer ids) are stored with plain JDBC before any sequence exists. It checks
+ *  that a new sequence starts after the largest id stored (by its number, for codes), that
+ *  it is recorded so that the ids are not read again, and that a sequence of a class whose
+ *  table does not exist starts at 0.
+ *
+ *  <p>Run with <tt>java software.db.SequenceStoreTest [jdbc url]</tt> (with the JDBC driver
+ *  on the class path); the URL is of a database that has none of the tables yet, by default
+ *  an in-memory Derby database. It exits with status 1 if a check fails.
+ */
+public class SequenceStoreTest {
+
+  public static void main(String[] args) throws Exception {
+    String url = (args.length > 0) ? args[0] :
+        "jdbc:derby:memory:sequences-" + System.nanoTime() + ";create=true";
+    SeafoodDb.configure(url);
+    String seafoods = SeafoodDb.tableOf(Seafood.class);
+    String rows = SeafoodDb.tableOf(OrderRow.class);
+    execute("create table " + seafoods + " (" + Seafood.A_id + " varchar(3) primary key)",
+        "create table " + rows + " (" + OrderRow.A_id + " integer primary key)",
+        // S9 sorts after S12 as a string
+        "insert into " + seafoods + " values ('S9'), ('S12'), ('S03')",
+        "insert into " + rows + " values (7), (41), (5)");
+
+    SequenceStore store = new SequenceStore();
+    boolean ok = true;
+    ok &= expect("seafoods", store.highWaterMark("Seafood", Seafood.class, "S"), 12);
+    ok &= expect("order rows", store.highWaterMark("OrderRow", OrderRow.class, ""), 41);
+    ok &= expect("no table", store.highWaterMark("Customer", Customer.class, "C"), 0);
+
+    // recorded: the stored ids are not read again
+    execute("insert into " + seafoods + " values ('S50')");
+    ok &= expect("seafoods again", store.highWaterMark("Seafood", Seafood.class, "S"), 12);
+    ok &= expect("leased", store.lease("Seafood", 13, 10), 22);
+
+    System.out.println("SequenceStoreTest: " + (ok ? "passed" : "FAILED"));
+    if (!ok)
+      System.exit(1);
+  }
+
+  private static void execute(String... sqls) throws SQLException {
+    try (Connection con = SeafoodDb.open();
+        Statement stmt = con.createStatement()) {
+      for (String sql : sqls) {
+        stmt.executeUpdate(sql);
+      }
+    }
+  }
+
+  private static boolean expect(String what, int found, int expected) {
+    if (found == expected)
+      return true;
+
+    System.out.println("  " + what + ": " + found + ", expected " + expected);
+    return false;
+  }
+}
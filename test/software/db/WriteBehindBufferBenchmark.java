@@ -0,0 +1,228 @@
+package software.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import controller.ExportSeafood;
+import model.Customer;
+import model.OrderRow;
+import model.OrderTable;
+import model.Preserver;
+import model.Purchaser;
+import model.Seafood;
+
+/**
+ * @overview
+ *  A benchmark of {@link WriteBehindBuffer}: several threads insert exports, each waiting
+ *  until its export is durable, first one transaction per export (as the object layer writes
+ *  them) and then through the buffer. They then submit exports to the buffer without waiting
+ *  for each (only for all at the end). The exports per second of the three are printed. It
+ *  checks that every export is stored once and that a failing export (a duplicate id) fails
+ *  only its own future and leaves the writer running.
+ *
+ *  <p>Run with <tt>java software.db.WriteBehindBufferBenchmark [exports] [threads]
+ *  [jdbc url]</tt> (with the JDBC driver on the class path); the URL is of a database that
+ *  can be written and has none of the tables the buffer writes yet, by default a new Derby
+ *  database in the temporary directory. It exits with status 1 if a check fails.
+ */
+public class WriteBehindBufferBenchmark {
+
+  private static final String TABLE = SeafoodDb.tableOf(ExportSeafood.class);
+
+  public static void main(String[] args) throws Exception {
+    int count = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+    int threads = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+    String url = (args.length > 2) ? args[2] : "jdbc:derby:" +
+        System.getProperty("java.io.tmpdir") + "/writebehind-" + System.nanoTime() + ";create=true";
+    SeafoodDb.configure(url);
+    createTables();
+
+    final Seafood seafood = new Seafood("S01", "Tuna", null) {};
+    final Customer customer = new Purchaser("C0001", "Customer", "0123", null, "c@x.vn", "retail");
+    final Preserver preserver = new Preserver(1, "Cold store");
+
+    // one transaction per export
+    final AtomicInteger nextId = new AtomicInteger(1);
+    long directNanos = run(threads, new Runnable() {
+      @Override
+      public void run() {
+        try (Connection con = SeafoodDb.open();
+            PreparedStatement stmt = con.prepareStatement("insert into " + TABLE +
+                " values (?, ?, ?, ?, ?, ?, ?)")) {
+          int id;
+          while ((id = nextId.getAndIncrement()) <= count) {
+            ExportSeafood e = export(id, seafood, customer, preserver);
+            stmt.setInt(1, e.getId());
+            stmt.setString(2, seafood.getId());
+            stmt.setString(3, customer.getId());
+            stmt.setInt(4, preserver.getId());
+            stmt.setDouble(5, e.getQuantity());
+            stmt.setDouble(6, e.getPrice());
+            stmt.setInt(7, e.getDateDay());
+            stmt.executeUpdate();
+          }
+        } catch (SQLException ex) {
+          throw new IllegalStateException(ex);
+        }
+      }
+    });
+
+    // the same through the buffer, after the exports written above
+    nextId.set(count + 1);
+    final WriteBehindBuffer buffer = new WriteBehindBuffer();
+    final AtomicInteger failed = new AtomicInteger();
+    long bufferNanos = run(threads, new Runnable() {
+      @Override
+      public void run() {
+        int id;
+        while ((id = nextId.getAndIncrement()) <= 2 * count) {
+          try {
+            buffer.submit(export(id, seafood, customer, preserver)).get();
+          } catch (InterruptedException | ExecutionException ex) {
+            failed.incrementAndGet();
+          }
+        }
+      }
+    });
+
+    // and without waiting for each export
+    nextId.set(2 * count + 1);
+    long groups = buffer.getGroups();
+    long asyncNanos = run(threads, new Runnable() {
+      @Override
+      public void run() {
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        int id;
+        while ((id = nextId.getAndIncrement()) <= 3 * count) {
+          pending.add(buffer.submit(export(id, seafood, customer, preserver)));
+        }
+        for (CompletableFuture<Void> f : pending) {
+          try {
+            f.get();
+          } catch (InterruptedException | ExecutionException ex) {
+            failed.incrementAndGet();
+          }
+        }
+      }
+    });
+    long asyncGroups = buffer.getGroups() - groups;
+
+    boolean ok = true;
+    if (failed.get() > 0 || buffer.getWritten() != 2 * count) {
+      System.out.println("  " + failed.get() + " exports failed, " + buffer.getWritten() +
+          " written, expected " + (2 * count));
+      ok = false;
+    }
+
+    // a duplicate fails alone, and the writer goes on
+    CompletableFuture<Void> duplicate = buffer.submit(export(1, seafood, customer, preserver));
+    CompletableFuture<Void> next = buffer.submit(export(4 * count, seafood, customer, preserver));
+    ok &= expect(duplicate, false, "the duplicate");
+    ok &= expect(next, true, "the export after the duplicate");
+    buffer.close();
+
+    ok &= expectRows(3 * count + 1);
+
+    System.out.println("  " + count + " exports, " + threads + " threads: one commit each " +
+        perSecond(count, directNanos) + "/s, write-behind " + perSecond(count, bufferNanos) +
+        "/s (" + groups + " groups), not waiting for each " + perSecond(count, asyncNanos) +
+        "/s (" + asyncGroups + " groups)");
+
+    System.out.println("WriteBehindBufferBenchmark: " + (ok ? "passed" : "FAILED"));
+    if (!ok)
+      System.exit(1);
+  }
+
+  private static ExportSeafood export(int id, Seafood s, Customer c, Preserver p) {
+    return new ExportSeafood(id, s, c, p, (id % 1000) / 10.0, (id % 97) * 1.5, 16436 + id % 3653);
+  }
+
+  /**
+   * @effects create the tables written by the buffer, with the columns it writes
+   */
+  private static void createTables() throws SQLException {
+    try (Connection con = SeafoodDb.open();
+        Statement stmt = con.createStatement()) {
+      for (Class<?> c : new Class<?>[] {ExportSeafood.class, OrderRow.class}) {
+        String table = SeafoodDb.tableOf(c);
+        try {
+          stmt.executeUpdate("create schema " + table.substring(0, table.indexOf('.')));
+        } catch (SQLException e) {
+          // already created
+        }
+      }
+      stmt.executeUpdate("create table " + SeafoodDb.tableOf(OrderTable.class) +
+          " (id varchar(6) primary key, total double)");
+      stmt.executeUpdate("create table " + SeafoodDb.tableOf(OrderRow.class) + " (" +
+          OrderRow.A_id + " integer primary key, " +
+          SeafoodDb.fkColumn(OrderRow.A_seafood, Seafood.A_id) + " varchar(5), " +
+          OrderRow.A_pricePerKilo + " double, " + OrderRow.A_number + " double, " +
+          SeafoodDb.fkColumn("table", "id") + " varchar(6))");
+      stmt.executeUpdate("create table " + TABLE + " (" + ExportSeafood.A_Id +
+          " integer primary key, " + SeafoodDb.fkColumn("seafood", Seafood.A_id) +
+          " varchar(5), " + SeafoodDb.fkColumn(ExportSeafood.A_Customer, Customer.A_id) +
+          " varchar(5), " + SeafoodDb.fkColumn(ExportSeafood.A_Preserver, "id") +
+          " integer, " + ExportSeafood.A_Quantity + " double, " + ExportSeafood.A_Price +
+          " double, " + ExportSeafood.A_DateDay + " integer)");
+    }
+  }
+
+  /**
+   * @effects run <tt>body</tt> on <tt>threads</tt> threads and return the time taken
+   */
+  private static long run(int threads, Runnable body) throws InterruptedException {
+    List<Thread> started = new ArrayList<>();
+    long begin = System.nanoTime();
+    for (int i = 0; i < threads; i++) {
+      Thread t = new Thread(body);
+      t.start();
+      started.add(t);
+    }
+    for (Thread t : started) {
+      t.join();
+    }
+    return System.nanoTime() - begin;
+  }
+
+  private static boolean expect(CompletableFuture<Void> f, boolean written, String what)
+      throws InterruptedException {
+    try {
+      f.get();
+    } catch (ExecutionException e) {
+      if (!written)
+        return true;
+      System.out.println("  " + what + " failed: " + e.getCause());
+      return false;
+    }
+    if (!written)
+      System.out.println("  " + what + " is written");
+    return written;
+  }
+
+  private static boolean expectRows(int expected) throws SQLException {
+    try (Connection con = SeafoodDb.open();
+        Statement stmt = con.createStatement();
+        ResultSet rs = stmt.executeQuery("select count(*), count(distinct " +
+            ExportSeafood.A_Id + ") from " + TABLE)) {
+      rs.next();
+      if (rs.getInt(1) != expected || rs.getInt(2) != expected) {
+        System.out.println("  " + rs.getInt(1) + " rows (" + rs.getInt(2) +
+            " ids) stored, expected " + expected);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static long perSecond(int count, long nanos) {
+    return count * 1000000000L / Math.max(1, nanos);
+  }
+}